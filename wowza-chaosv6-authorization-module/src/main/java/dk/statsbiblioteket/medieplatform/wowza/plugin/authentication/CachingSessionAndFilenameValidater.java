@@ -0,0 +1,178 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOutputException;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.SessionAndFilenameValidaterIF;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.CacheLoader;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.CacheStats;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.LoadingCache;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Validater that remembers authorization decisions, so a listener who seeks, reconnects or switches HLS renditions
+ * does not make CHAOS validate the same session, object and file again within seconds.
+ *
+ * Allowed and denied decisions are cached for separate times. The allow time to live bounds how long a revoked
+ * session can keep starting streams, so it should be kept short. Concurrent requests for the same decision share one
+ * call to CHAOS. Failures to validate are never cached.
+ *
+ * All applications validating against the same CHAOS server with the same validation method and cache settings
+ * share one cache, see
+ * {@link #createInstance(String, String, ConfigReader, SessionAndFilenameValidaterIF, WMSLogger)}.
+ */
+public class CachingSessionAndFilenameValidater implements SessionAndFilenameValidaterIF {
+    /** Property for how long an allowed decision is cached. */
+    public static final String PROPERTY_ALLOW_TIME_TO_LIVE_SECONDS = "ValidationChaosV6CacheAllowTimeToLiveSeconds";
+    /** Property for how long a denied decision is cached. */
+    public static final String PROPERTY_DENY_TIME_TO_LIVE_SECONDS = "ValidationChaosV6CacheDenyTimeToLiveSeconds";
+    /** Property for the maximum number of cached decisions. */
+    public static final String PROPERTY_MAXIMUM_SIZE = "ValidationChaosV6CacheMaximumSize";
+
+    static final long DEFAULT_ALLOW_TIME_TO_LIVE_SECONDS = 30;
+    static final long DEFAULT_DENY_TIME_TO_LIVE_SECONDS = 5;
+    static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private static final Map<String, SessionAndFilenameValidaterIF> instances = new HashMap<>();
+
+    private final LoadingCache<Decision, Boolean> cache;
+
+    /**
+     * Create a caching validater.
+     * @param delegate The validater used for decisions that are not cached.
+     * @param maximumSize Maximum number of cached decisions.
+     * @param allowTimeToLive How long an allowed decision is cached.
+     * @param denyTimeToLive How long a denied decision is cached.
+     */
+    public CachingSessionAndFilenameValidater(SessionAndFilenameValidaterIF delegate, int maximumSize,
+                                              Duration allowTimeToLive, Duration denyTimeToLive) {
+        this.cache = new LoadingCache<>("ChaosV6 decisions", maximumSize, allowTimeToLive, Duration.ZERO,
+                                        new CacheLoader<Decision, Boolean>() {
+                                            @Override
+                                            public Boolean load(Decision key) throws Exception {
+                                                return delegate.validateRightsToPlayFile(key.sessionID, key.objectID,
+                                                                                         key.filename);
+                                            }
+
+                                            @Override
+                                            public Duration timeToLive(Decision key, Boolean allowed,
+                                                                       Duration defaultTimeToLive) {
+                                                return allowed ? allowTimeToLive : denyTimeToLive;
+                                            }
+                                        });
+    }
+
+    /**
+     * Get the validater for a CHAOS server, creating it from configuration if this is the first request for the
+     * server, validation method and cache settings. Only the first request for these actually creates the object,
+     * later requests get the same object and the same cache. Applications with a different validation method or cache
+     * settings get a cache of their own, so they never share decisions or times to live.
+     *
+     * @param connectionURLString URL of the CHAOS server, used for sharing the cache.
+     * @param validationMethod The validation method at the CHAOS server, used for sharing the cache.
+     * @param cr Configuration to read the cache settings from. Settings not given use defaults.
+     * @param delegate The validater used for decisions that are not cached.
+     * @param logger Logger for reporting that the cache is disabled.
+     * @return A caching validater, or the delegate itself if both times to live are zero.
+     */
+    public static synchronized SessionAndFilenameValidaterIF createInstance(String connectionURLString,
+                                                                            String validationMethod,
+                                                                            ConfigReader cr,
+                                                                            SessionAndFilenameValidaterIF delegate,
+                                                                            WMSLogger logger) {
+        long allowSeconds = Long.parseLong(
+                cr.get(PROPERTY_ALLOW_TIME_TO_LIVE_SECONDS, String.valueOf(DEFAULT_ALLOW_TIME_TO_LIVE_SECONDS)));
+        long denySeconds = Long.parseLong(
+                cr.get(PROPERTY_DENY_TIME_TO_LIVE_SECONDS, String.valueOf(DEFAULT_DENY_TIME_TO_LIVE_SECONDS)));
+        int maximumSize = Integer.parseInt(cr.get(PROPERTY_MAXIMUM_SIZE, String.valueOf(DEFAULT_MAXIMUM_SIZE)));
+        String key = connectionURLString + "|" + validationMethod + "|" + allowSeconds + "|" + denySeconds + "|"
+                + maximumSize;
+        SessionAndFilenameValidaterIF instance = instances.get(key);
+        if (instance == null) {
+            if (allowSeconds <= 0 && denySeconds <= 0) {
+                logger.info("ChaosV6 decision cache disabled for server: " + connectionURLString);
+                instance = delegate;
+            } else {
+                instance = new CachingSessionAndFilenameValidater(delegate, maximumSize,
+                                                                  Duration.ofSeconds(allowSeconds),
+                                                                  Duration.ofSeconds(denySeconds));
+            }
+            instances.put(key, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Validate rights to play file, using a cached decision if there is one.
+     *
+     * @see SessionAndFilenameValidaterIF#validateRightsToPlayFile(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean validateRightsToPlayFile(String sessionID, String objectID, String filename)
+            throws MalformedURLException, IOException, MCMOutputException {
+        if (sessionID == null || objectID == null || filename == null) {
+            throw new IllegalArgumentException(
+                    "WARNING: At least one of the arguments is null: " + "(sessionID=" + sessionID + ", objectID="
+                            + objectID + ", filename=" + filename + ")");
+        }
+        try {
+            return cache.get(new Decision(sessionID, objectID, filename));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof MCMOutputException) {
+                throw (MCMOutputException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MCMOutputException("Could not validate rights to play file", cause);
+        }
+    }
+
+    /**
+     * @return Hit rate and other counters for the cache.
+     */
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    /** The session, object and file a decision was made for. */
+    private static final class Decision {
+        private final String sessionID;
+        private final String objectID;
+        private final String filename;
+
+        private Decision(String sessionID, String objectID, String filename) {
+            this.sessionID = sessionID;
+            this.objectID = objectID;
+            this.filename = filename;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Decision)) {
+                return false;
+            }
+            Decision other = (Decision) o;
+            return sessionID.equals(other.sessionID) && objectID.equals(other.objectID)
+                    && filename.equals(other.filename);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sessionID, objectID, filename);
+        }
+    }
+}
@@ -3,13 +3,16 @@ package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication;
 import com.wowza.wms.logging.WMSLogger;
 
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOutputException;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Methods used when calling the CHAOS v6 API
@@ -19,15 +22,22 @@ public class ChaosV6API {
     private String connectionURLString;
     private String validationMethodAtServer;
     private WMSLogger logger;
+    private BackendHttpClient httpClient;
 
     public ChaosV6API(String connectionURLString, String validationMethodAtServer, WMSLogger logger) {
+        this(connectionURLString, validationMethodAtServer, logger, BackendHttpClient.getInstance());
+    }
+
+    public ChaosV6API(String connectionURLString, String validationMethodAtServer, WMSLogger logger,
+                      BackendHttpClient httpClient) {
         this.connectionURLString = connectionURLString;
         this.validationMethodAtServer = validationMethodAtServer;
         this.logger = logger;
+        this.httpClient = httpClient;
     }
 
     /**
-     * Call chaos to check session is valid. NOTE: In debug mode the call is made twice.
+     * Call chaos to check session is valid, using the shared backend HTTP client.
      *
      * @param sessionID CHAOS Session ID
      * @param objectID CHAOS Object ID
@@ -43,13 +53,18 @@ public class ChaosV6API {
         String urlStringToCHAOS = this.connectionURLString + "/" + this.validationMethodAtServer + "?" + "sessionGUID=" + sessionID
                 + "&" + "objectId=" + objectID + "&" + "filePath=" + URLEncoder.encode(filePath, "UTF-8");
 
-        InputStream in;
+        URI uri;
+        try {
+            uri = new URI(urlStringToCHAOS);
+        } catch (URISyntaxException e) {
+            throw new MalformedURLException("Bad CHAOS URL '" + urlStringToCHAOS + "': " + e.getMessage());
+        }
         if (logger.isDebugEnabled()) {
             logger.debug("CHAOS URL:" + urlStringToCHAOS);
-            InputStream inDebug = new URL(urlStringToCHAOS).openConnection().getInputStream();
-            logger.debug("Returned from CHAOS: " + StringAndTextUtil.convertStreamToString(inDebug));
+            String returned = httpClient.getString(uri);
+            logger.debug("Returned from CHAOS: " + returned);
+            return new ByteArrayInputStream(returned.getBytes(StandardCharsets.UTF_8));
         }
-        in = new URL(urlStringToCHAOS).openConnection().getInputStream();
-        return in;
+        return httpClient.getStream(uri);
     }
 }
@@ -8,9 +8,12 @@ import org.w3c.dom.NodeList;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOutputException;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMSessionAndFilenameValidater;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.SessionAndFilenameValidaterIF;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.XMLStreamParsing;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -71,11 +74,36 @@ public class ChaosV6SessionAndFilenameValidater extends MCMSessionAndFilenameVal
 
     /**
      * Check if the CHAOS result allows the stream to play, by looking for the "WasSuccess"-element in the output.
+     * The output is read with a streaming parser, which stops at the first "WasSuccess"-element.
      * @param in The output from CHAOS.
      * @return Whether the "WasSuccess"-element contains true.
      * @throws MCMOutputException If the output cannot be parsed or does not contain a "WasSuccess"-element.
      */
     protected boolean parseResult(InputStream in) throws MCMOutputException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XMLStreamParsing.createReader(in);
+            while (XMLStreamParsing.nextStartElement(reader)) {
+                if (reader.getLocalName().equals("WasSuccess")) {
+                    return Boolean.parseBoolean(XMLStreamParsing.readText(reader));
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new MCMOutputException("Unable to parse CHAOS result", e);
+        } finally {
+            XMLStreamParsing.closeQuietly(reader);
+        }
+        throw new MCMOutputException("No 'WasSuccess' element in CHAOS result");
+    }
+
+    /**
+     * Check if the CHAOS result allows the stream to play, by building a DOM of the output and looking for the
+     * "WasSuccess"-element in it. Gives the same result as {@link #parseResult(InputStream)}.
+     * @param in The output from CHAOS.
+     * @return Whether the "WasSuccess"-element contains true.
+     * @throws MCMOutputException If the output cannot be parsed or does not contain a "WasSuccess"-element.
+     */
+    protected boolean parseResultWithDOM(InputStream in) throws MCMOutputException {
         Document dom;
         try {
             DocumentBuilder db = documentBuilderFactory.newDocumentBuilder();
@@ -15,7 +15,10 @@ import com.wowza.wms.request.RequestFunction;
 import com.wowza.wms.stream.IMediaStream;
 import com.wowza.wms.stream.IMediaStreamActionNotify;
 
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.SessionAndFilenameValidaterIF;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 import java.io.File;
 import java.io.IOException;
@@ -33,6 +36,8 @@ public class WowzaSessionAuthenticationChaosV6ModuleBase extends ModuleBase
     private static final String PROPERTY_CHAOSV6_VALIDATION_METHOD = "ValidationChaosV6ValidationMethod";
     /** The authenticator used for validating playback permissions. */
     private StreamAuthenticater streamAuthenticater;
+    /** The validater used by the authenticator, which may cache decisions. */
+    private SessionAndFilenameValidaterIF validater;
 
     public WowzaSessionAuthenticationChaosV6ModuleBase() {
         super();
@@ -52,19 +57,21 @@ public class WowzaSessionAuthenticationChaosV6ModuleBase extends ModuleBase
             cr = new ConfigReader(new File(vhostDir + "/conf/" + appName + "/wowza-modules.properties"),
                                   PROPERTY_CHAOSV6_SERVER_URL_KEY, PROPERTY_CHAOSV6_VALIDATION_METHOD);
 
+            // Configure the shared HTTP client used for calling the backend
+            BackendHttpClient.createInstance(cr);
+
             //Read parameters
             String validationMethodAtServer = cr.get(PROPERTY_CHAOSV6_VALIDATION_METHOD);
             String connectionUrlString = cr.get(PROPERTY_CHAOSV6_SERVER_URL_KEY);
 
-            //Initialise stream authenticator
-            streamAuthenticater = new StreamAuthenticater(getLogger(),
-                                                          new ChaosV6SessionAndFilenameValidater(getLogger(),
-                                                                                                 connectionUrlString,
-                                                                                                 validationMethodAtServer,
-                                                                                                 new ChaosV6API(
-                                                                                                         connectionUrlString,
-                                                                                                         validationMethodAtServer,
-                                                                                                         getLogger())));
+            //Initialise stream authenticator, remembering decisions shared with other applications
+            validater = CachingSessionAndFilenameValidater.createInstance(
+                    connectionUrlString, validationMethodAtServer, cr,
+                    new ChaosV6SessionAndFilenameValidater(getLogger(), connectionUrlString, validationMethodAtServer,
+                                                           new ChaosV6API(connectionUrlString,
+                                                                          validationMethodAtServer, getLogger())),
+                    getLogger());
+            streamAuthenticater = new StreamAuthenticater(getLogger(), validater);
         } catch (IOException e) {
             throw new RuntimeException("Could not initialize StreamingDatabaseEventLogger.", e);
         }
@@ -135,6 +142,9 @@ public class WowzaSessionAuthenticationChaosV6ModuleBase extends ModuleBase
 
     public void onAppStop(IApplicationInstance appInstance) {
         getLogger().info("onAppStop: " + PLUGIN_NAME + " version " + PLUGIN_VERSION);
+        if (validater instanceof CachingSessionAndFilenameValidater) {
+            getLogger().info(((CachingSessionAndFilenameValidater) validater).getStats().toString());
+        }
     }
 
     @Override
@@ -147,7 +157,7 @@ public class WowzaSessionAuthenticationChaosV6ModuleBase extends ModuleBase
         try {
             getLogger().info("onHTTPSessionCreate by: " + ihttpStreamerSession.getIpAddress());
             boolean authenticated = streamAuthenticater
-                    .checkAuthorization(ihttpStreamerSession.getQueryStr(), ihttpStreamerSession.getStreamName());
+                    .checkAuthorization(QueryParams.of(ihttpStreamerSession), ihttpStreamerSession.getStreamName());
             if (!authenticated) {
                 getLogger().warn("Not authorized '" + ihttpStreamerSession.getUri() + "' for: " + ihttpStreamerSession.getIpAddress());
                 ihttpStreamerSession.rejectSession();
@@ -0,0 +1,134 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.CachingSessionAndFilenameValidater;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Test caching of ChaosV6 authorization decisions */
+public class CachingSessionAndFilenameValidaterTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testAllowedDecisionIsCached() throws Exception {
+        CachingSessionAndFilenameValidater validater = new CachingSessionAndFilenameValidater(
+                (sessionID, objectID, filename) -> {
+                    calls.incrementAndGet();
+                    return true;
+                }, 100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        assertTrue(validater.validateRightsToPlayFile("session", "object", "file.mp3"));
+        assertTrue(validater.validateRightsToPlayFile("session", "object", "file.mp3"));
+        assertEquals(1, calls.get());
+        assertTrue(validater.validateRightsToPlayFile("session", "object", "other.mp3"));
+        assertEquals(2, calls.get());
+        assertEquals(1, validater.getStats().getHits());
+        assertEquals(2, validater.getStats().getMisses());
+    }
+
+    @Test
+    public void testDeniedDecisionUsesItsOwnTimeToLive() throws Exception {
+        CachingSessionAndFilenameValidater validater = new CachingSessionAndFilenameValidater(
+                (sessionID, objectID, filename) -> {
+                    calls.incrementAndGet();
+                    return !sessionID.equals("expired");
+                }, 100, Duration.ofMinutes(1), Duration.ZERO);
+        assertFalse(validater.validateRightsToPlayFile("expired", "object", "file.mp3"));
+        assertFalse(validater.validateRightsToPlayFile("expired", "object", "file.mp3"));
+        assertEquals(2, calls.get());
+        assertTrue(validater.validateRightsToPlayFile("session", "object", "file.mp3"));
+        assertTrue(validater.validateRightsToPlayFile("session", "object", "file.mp3"));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testFailureIsNotCached() throws Exception {
+        CachingSessionAndFilenameValidater validater = new CachingSessionAndFilenameValidater(
+                (sessionID, objectID, filename) -> {
+                    if (calls.incrementAndGet() == 1) {
+                        throw new IOException("CHAOS is down");
+                    }
+                    return true;
+                }, 100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        assertThrows(IOException.class, () -> validater.validateRightsToPlayFile("session", "object", "file.mp3"));
+        assertTrue(validater.validateRightsToPlayFile("session", "object", "file.mp3"));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CachingSessionAndFilenameValidater validater = new CachingSessionAndFilenameValidater(
+                (sessionID, objectID, filename) -> {
+                    calls.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return true;
+                }, 100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(
+                        () -> validater.validateRightsToPlayFile("session", "object", "file.mp3")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testInstancesAreSharedOnlyWithTheSameMethodAndSettings() throws Exception {
+        SessionAndFilenameValidaterIF delegate = (sessionID, objectID, filename) -> true;
+        ConfigReader defaults = config("defaults.properties", "");
+        ConfigReader shortAllow = config("short.properties",
+                                         CachingSessionAndFilenameValidater.PROPERTY_ALLOW_TIME_TO_LIVE_SECONDS
+                                                 + "=1\n");
+        SessionAndFilenameValidaterIF shared = CachingSessionAndFilenameValidater.createInstance(
+                "http://chaos.test/v6", "LarmFile/CanAccess", defaults, delegate, logger);
+
+        assertSame(shared, CachingSessionAndFilenameValidater.createInstance(
+                "http://chaos.test/v6", "LarmFile/CanAccess", defaults, delegate, logger));
+        assertNotSame(shared, CachingSessionAndFilenameValidater.createInstance(
+                "http://chaos.test/v6", "Object/CanAccess", defaults, delegate, logger));
+        assertNotSame(shared, CachingSessionAndFilenameValidater.createInstance(
+                "http://chaos.test/v6", "LarmFile/CanAccess", shortAllow, delegate, logger));
+    }
+
+    private ConfigReader config(String name, String properties) throws IOException {
+        File file = directory.resolve(name).toFile();
+        Files.write(file.toPath(), properties.getBytes(StandardCharsets.UTF_8));
+        return new ConfigReader(file);
+    }
+}
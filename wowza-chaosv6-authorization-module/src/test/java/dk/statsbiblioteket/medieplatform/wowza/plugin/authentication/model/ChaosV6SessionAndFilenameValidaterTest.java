@@ -1,6 +1,8 @@
 package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import com.wowza.wms.logging.WMSLogger;
 import com.wowza.wms.logging.WMSLoggerFactory;
@@ -45,6 +47,22 @@ public class ChaosV6SessionAndFilenameValidaterTest {
         assertEquals(false, doesValidate, "Filename validation:");
     }
 
+    @Test
+    public void testValidateRightsToPlayFileStopsAtWasSuccess() throws MCMOutputException, IOException {
+        WMSLogger wmsLogger = WMSLoggerFactory.getLogger(this.getClass());
+        ChaosV6API chaosV6API = mock(ChaosV6API.class);
+        // The document is cut off after the WasSuccess element, which the streaming parser never reads
+        when(chaosV6API.larmValidateSession(anyString(), anyString(), anyString())).thenReturn(new ByteArrayInputStream(
+                "<PortalResult><ModuleResults><ModuleResult><Results><Result><WasSuccess>True</WasSuccess></Resu"
+                        .getBytes(StandardCharsets.UTF_8)));
+
+        ChaosV6SessionAndFilenameValidater validater = new ChaosV6SessionAndFilenameValidater(wmsLogger, "connectionURLString", "validationMethodAtServer",
+                                                                                              chaosV6API);
+        boolean doesValidate = validater.validateRightsToPlayFile("a", "b", "c");
+
+        assertEquals(true, doesValidate, "Filename validation:");
+    }
+
     @Test
     public void testValidateRightsToPlayFileError() throws MCMOutputException, IOException {
         WMSLogger wmsLogger = WMSLoggerFactory.getLogger(this.getClass());
@@ -0,0 +1,32 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.cache;
+
+import java.time.Duration;
+
+/**
+ * Loads values into a {@link LoadingCache}.
+ *
+ * @param <K> Type of keys.
+ * @param <V> Type of values.
+ */
+public interface CacheLoader<K, V> {
+    /**
+     * Load the value for a key.
+     * @param key The key.
+     * @return The value, or null if there is no value for the key. Null results are cached for the negative time to
+     * live of the cache.
+     * @throws Exception On trouble loading the value. Failures are not cached.
+     */
+    V load(K key) throws Exception;
+
+    /**
+     * Decide how long a loaded value may be cached. Override to give entries individual lifetimes, e.g. to not cache
+     * a value longer than the thing it describes is valid.
+     * @param key The key.
+     * @param value The loaded value. Never null.
+     * @param defaultTimeToLive The time to live configured for the cache.
+     * @return How long the value may be cached. Zero or negative means the value is not cached.
+     */
+    default Duration timeToLive(K key, V value, Duration defaultTimeToLive) {
+        return defaultTimeToLive;
+    }
+}
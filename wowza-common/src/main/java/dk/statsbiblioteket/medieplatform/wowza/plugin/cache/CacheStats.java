@@ -0,0 +1,126 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.cache;
+
+/**
+ * Snapshot of the counters of a {@link LoadingCache}.
+ */
+public class CacheStats {
+    private final String name;
+    private final long hits;
+    private final long negativeHits;
+    private final long misses;
+    private final long loads;
+    private final long loadFailures;
+    private final long totalLoadTimeNanos;
+    private final long evictions;
+    private final long refreshes;
+    private final int size;
+
+    public CacheStats(String name, long hits, long negativeHits, long misses, long loads, long loadFailures,
+                      long totalLoadTimeNanos, long evictions, long refreshes, int size) {
+        this.name = name;
+        this.hits = hits;
+        this.negativeHits = negativeHits;
+        this.misses = misses;
+        this.loads = loads;
+        this.loadFailures = loadFailures;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.evictions = evictions;
+        this.refreshes = refreshes;
+        this.size = size;
+    }
+
+    /**
+     * @return The name of the cache.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Number of lookups answered with a cached value.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups answered with a cached "not found".
+     */
+    public long getNegativeHits() {
+        return negativeHits;
+    }
+
+    /**
+     * @return Number of lookups that had to wait for a load.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of calls to the loader that returned a value or "not found", including refreshes.
+     */
+    public long getLoads() {
+        return loads;
+    }
+
+    /**
+     * @return Number of calls to the loader that failed.
+     */
+    public long getLoadFailures() {
+        return loadFailures;
+    }
+
+    /**
+     * @return Total time spent in the loader, in nanoseconds.
+     */
+    public long getTotalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    /**
+     * @return Average time spent in the loader, in milliseconds.
+     */
+    public double getAverageLoadTimeMillis() {
+        long calls = loads + loadFailures;
+        return calls == 0 ? 0.0 : totalLoadTimeNanos / 1000000.0 / calls;
+    }
+
+    /**
+     * @return Number of entries removed because the cache was full or the entry had expired.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Number of refreshes started ahead of expiry.
+     */
+    public long getRefreshes() {
+        return refreshes;
+    }
+
+    /**
+     * @return Number of entries in the cache.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Fraction of lookups answered from the cache, including negative hits.
+     */
+    public double getHitRate() {
+        long lookups = hits + negativeHits + misses;
+        return lookups == 0 ? 0.0 : (double) (hits + negativeHits) / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "Cache '" + name + "': size=" + size + ", hits=" + hits + ", negativeHits=" + negativeHits
+                + ", misses=" + misses + ", hitRate=" + String.format(java.util.Locale.ROOT, "%.3f", getHitRate())
+                + ", loads=" + loads + ", loadFailures=" + loadFailures + ", averageLoadTimeMillis="
+                + String.format(java.util.Locale.ROOT, "%.2f", getAverageLoadTimeMillis()) + ", evictions="
+                + evictions + ", refreshes=" + refreshes;
+    }
+}
@@ -0,0 +1,387 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.cache;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache for values that are expensive to look up, like tickets, authorization answers and resolved files.
+ *
+ * <ul>
+ *     <li>Values expire after a time to live, which the {@link CacheLoader} may shorten per entry.</li>
+ *     <li>When the loader finds no value (returns null), this is cached for a separate, usually shorter, time to
+ *     live.</li>
+ *     <li>Concurrent requests for a key that is not cached share a single call to the loader.</li>
+ *     <li>Optionally, a value requested after its refresh time is reloaded in the background, while the old value
+ *     is still served until it expires.</li>
+ *     <li>When the cache holds more than the maximum size, expired and then least recently used entries are
+ *     removed.</li>
+ *     <li>Failures from the loader are never cached.</li>
+ * </ul>
+ *
+ * Reads of cached values do not take any locks. Entries are stored in a {@link ConcurrentHashMap}, so writes to
+ * different keys do not contend.
+ *
+ * @param <K> Type of keys.
+ * @param <V> Type of values.
+ */
+public class LoadingCache<K, V> {
+    /** Fraction of the maximum size removed in addition to the excess when the cache is full. */
+    private static final int EVICTION_HEADROOM_DIVISOR = 10;
+
+    private static volatile ExecutorService defaultExecutor;
+
+    private final String name;
+    private final int maximumSize;
+    private final Duration timeToLive;
+    private final long negativeTimeToLiveNanos;
+    private final long refreshAfterNanos;
+    private final CacheLoader<K, V> loader;
+    private final Executor executor;
+    private final LongSupplier ticker;
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadTimeNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    /**
+     * Create a cache without refresh ahead of expiry.
+     * @param name Name used when logging statistics.
+     * @param maximumSize Maximum number of entries.
+     * @param timeToLive How long values are cached.
+     * @param negativeTimeToLive How long "not found" is cached. Zero disables negative caching.
+     * @param loader Loads values that are not cached.
+     */
+    public LoadingCache(String name, int maximumSize, Duration timeToLive, Duration negativeTimeToLive,
+                        CacheLoader<K, V> loader) {
+        this(name, maximumSize, timeToLive, negativeTimeToLive, Duration.ZERO, loader, getDefaultExecutor());
+    }
+
+    /**
+     * Create a cache.
+     * @param name Name used when logging statistics.
+     * @param maximumSize Maximum number of entries.
+     * @param timeToLive How long values are cached.
+     * @param negativeTimeToLive How long "not found" is cached. Zero disables negative caching.
+     * @param refreshAfter Values requested this long after they were loaded are reloaded in the background. Zero
+     * disables refresh ahead of expiry.
+     * @param loader Loads values that are not cached.
+     * @param executor Executor used for background refresh and {@link #getAsync(Object)}.
+     */
+    public LoadingCache(String name, int maximumSize, Duration timeToLive, Duration negativeTimeToLive,
+                        Duration refreshAfter, CacheLoader<K, V> loader, Executor executor) {
+        this(name, maximumSize, timeToLive, negativeTimeToLive, refreshAfter, loader, executor, System::nanoTime);
+    }
+
+    LoadingCache(String name, int maximumSize, Duration timeToLive, Duration negativeTimeToLive,
+                 Duration refreshAfter, CacheLoader<K, V> loader, Executor executor, LongSupplier ticker) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1, was " + maximumSize);
+        }
+        this.name = name;
+        this.maximumSize = maximumSize;
+        this.timeToLive = timeToLive;
+        this.negativeTimeToLiveNanos = negativeTimeToLive.toNanos();
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.loader = loader;
+        this.executor = executor;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Get the value for a key, loading it if it is not cached. If another thread is already loading the key, wait for
+     * that load instead of starting another.
+     * @param key The key.
+     * @return The value, or null if the loader found no value.
+     * @throws ExecutionException If the loader failed. The cause is the exception thrown by the loader.
+     */
+    public V get(K key) throws ExecutionException {
+        long now = ticker.getAsLong();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.isFresh(now)) {
+            return hit(key, entry, now);
+        }
+        misses.increment();
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = loading.putIfAbsent(key, future);
+        if (existing == null) {
+            load(key, future, false);
+            existing = future;
+        }
+        try {
+            return existing.join();
+        } catch (CompletionException e) {
+            throw new ExecutionException(e.getCause());
+        }
+    }
+
+    /**
+     * Get the value for a key without blocking. If the value is not cached, it is loaded using the executor of the
+     * cache.
+     * @param key The key.
+     * @return Future value, null if the loader found no value. Completes exceptionally if the loader failed.
+     */
+    public CompletableFuture<V> getAsync(K key) {
+        long now = ticker.getAsLong();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.isFresh(now)) {
+            return CompletableFuture.completedFuture(hit(key, entry, now));
+        }
+        misses.increment();
+        return loadInBackground(key, false);
+    }
+
+    /**
+     * Get the cached value for a key without loading it.
+     * @param key The key.
+     * @return The cached value, or null if the value is not cached or is cached as "not found".
+     */
+    public V getIfPresent(K key) {
+        long now = ticker.getAsLong();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.isFresh(now)) {
+            return hit(key, entry, now);
+        }
+        return null;
+    }
+
+    /**
+     * Put a value in the cache, replacing any cached value.
+     * @param key The key.
+     * @param value The value. Null caches "not found".
+     */
+    public void put(K key, V value) {
+        store(key, value, ticker.getAsLong());
+    }
+
+    /**
+     * Remove a key from the cache. A load in progress for the key is not cancelled, but its result will not be
+     * cached.
+     * @param key The key.
+     */
+    public void invalidate(K key) {
+        loading.remove(key);
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all entries from the cache. Results of loads in progress will not be cached.
+     */
+    public void invalidateAll() {
+        loading.clear();
+        entries.clear();
+    }
+
+    /**
+     * @return Number of entries in the cache, including expired entries not yet removed.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The name of the cache.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Snapshot of the cache counters.
+     */
+    public CacheStats getStats() {
+        return new CacheStats(name, hits.sum(), negativeHits.sum(), misses.sum(), loads.sum(), loadFailures.sum(),
+                              totalLoadTimeNanos.sum(), evictions.sum(), refreshes.sum(), entries.size());
+    }
+
+    private V hit(K key, Entry<V> entry, long now) {
+        entry.lastAccess = now;
+        if (entry.value == null) {
+            negativeHits.increment();
+        } else {
+            hits.increment();
+            if (now - entry.refreshAt >= 0 && !loading.containsKey(key)) {
+                refreshes.increment();
+                loadInBackground(key, true);
+            }
+        }
+        return entry.value;
+    }
+
+    private CompletableFuture<V> loadInBackground(K key, boolean refresh) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> load(key, future, refresh));
+        } catch (RuntimeException e) {
+            loading.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Load a key and complete the future of the load. Must only be called by the thread that registered the future.
+     */
+    private void load(K key, CompletableFuture<V> future, boolean refresh) {
+        try {
+            long start = ticker.getAsLong();
+            if (!refresh) {
+                // Another thread may have finished loading between our cache miss and registering this load
+                Entry<V> entry = entries.get(key);
+                if (entry != null && entry.isFresh(start)) {
+                    future.complete(entry.value);
+                    return;
+                }
+            }
+            V value;
+            try {
+                value = loader.load(key);
+            } catch (Exception | Error e) {
+                loadFailures.increment();
+                totalLoadTimeNanos.add(ticker.getAsLong() - start);
+                future.completeExceptionally(e);
+                return;
+            }
+            long end = ticker.getAsLong();
+            loads.increment();
+            totalLoadTimeNanos.add(end - start);
+            if (loading.get(key) == future) {
+                // Only store if the key was not invalidated while loading
+                store(key, value, end);
+            }
+            future.complete(value);
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private void store(K key, V value, long now) {
+        long timeToLiveNanos;
+        if (value == null) {
+            timeToLiveNanos = negativeTimeToLiveNanos;
+        } else {
+            Duration entryTimeToLive = loader.timeToLive(key, value, timeToLive);
+            timeToLiveNanos = entryTimeToLive == null ? timeToLive.toNanos() : entryTimeToLive.toNanos();
+        }
+        if (timeToLiveNanos <= 0) {
+            entries.remove(key);
+            return;
+        }
+        long refreshAt = refreshAfterNanos > 0 && refreshAfterNanos < timeToLiveNanos
+                ? now + refreshAfterNanos : now + timeToLiveNanos;
+        entries.put(key, new Entry<>(value, now + timeToLiveNanos, refreshAt, now));
+        if (entries.size() > maximumSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Remove expired entries, and then the least recently used entries until there is room for new entries.
+     * Only one thread evicts at a time, other threads continue without waiting.
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            if (entries.size() <= maximumSize) {
+                return;
+            }
+            long now = ticker.getAsLong();
+            int sizeBefore = entries.size();
+            entries.values().removeIf(entry -> !entry.isFresh(now));
+            int excess = entries.size() - maximumSize;
+            if (excess > 0) {
+                int toRemove = Math.min(entries.size(), excess + maximumSize / EVICTION_HEADROOM_DIVISOR);
+                long[] accessTimes = new long[entries.size()];
+                int count = 0;
+                for (Entry<V> entry : entries.values()) {
+                    if (count == accessTimes.length) {
+                        break;
+                    }
+                    accessTimes[count++] = entry.lastAccess - now;
+                }
+                Arrays.sort(accessTimes, 0, count);
+                long threshold = accessTimes[Math.min(toRemove, count) - 1];
+                AtomicInteger removed = new AtomicInteger();
+                entries.entrySet().removeIf(mapEntry -> mapEntry.getValue().lastAccess - now <= threshold
+                        && removed.getAndIncrement() < toRemove);
+            }
+            evictions.add(Math.max(0, sizeBefore - entries.size()));
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return Snapshot of the cached values. Mainly for diagnostics and tests.
+     */
+    Map<K, V> asMap() {
+        Map<K, V> result = new ConcurrentHashMap<>();
+        long now = ticker.getAsLong();
+        entries.forEach((key, entry) -> {
+            if (entry.isFresh(now) && entry.value != null) {
+                result.put(key, entry.value);
+            }
+        });
+        return result;
+    }
+
+    private static ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            synchronized (LoadingCache.class) {
+                if (defaultExecutor == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    defaultExecutor = Executors.newCachedThreadPool(runnable -> {
+                        Thread thread = new Thread(runnable, "LoadingCache-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private final long refreshAt;
+        private volatile long lastAccess;
+
+        private Entry(V value, long expiresAt, long refreshAt, long loadedAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+            this.lastAccess = loadedAt;
+        }
+
+        private boolean isFresh(long now) {
+            return now - expiresAt < 0;
+        }
+    }
+}
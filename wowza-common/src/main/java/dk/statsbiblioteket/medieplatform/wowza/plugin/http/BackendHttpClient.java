@@ -0,0 +1,330 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.http;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP client shared by all modules for calling backend services (ticket system, MCM, CHAOS).
+ *
+ * Connections are kept alive and reused between requests, so a call to a HTTPS backend does not pay for a new TLS
+ * handshake every time. HTTPS backends are called with HTTP/2 when the server supports it, negotiated during the TLS
+ * handshake. HTTP backends are called with HTTP/1.1, as asking a plain HTTP server to upgrade to HTTP/2 costs an extra
+ * round of headers on every new connection, and some servers and proxies reject the upgrade request.
+ *
+ * The number of requests in progress to each backend (scheme, host and port) at the same time is limited by a
+ * semaphore. This is not a limit on connections: HTTP/2 requests share one connection, and the HTTP/1.1 connections
+ * are pooled by the JDK client. Requests wait up to the request timeout for a permit, and fail with an
+ * {@link IOException} if none is free, if no connection can be made within the connect timeout, or if no response is
+ * received within the request timeout.
+ *
+ * Responses with a status code that is not 2xx are reported as {@link BackendHttpException}.
+ *
+ * The client is a singleton, configured from wowza-modules.properties by the first module that calls
+ * {@link #createInstance(ConfigReader)}. Modules that are not configured use the default settings.
+ */
+public class BackendHttpClient {
+    /** Property for the connect timeout in milliseconds. */
+    public static final String PROPERTY_CONNECT_TIMEOUT_MILLIS = "backendHttpConnectTimeoutMillis";
+    /** Property for the timeout waiting for a response in milliseconds. */
+    public static final String PROPERTY_REQUEST_TIMEOUT_MILLIS = "backendHttpRequestTimeoutMillis";
+    /** Property for the maximum number of requests in progress to each backend. */
+    public static final String PROPERTY_MAX_CONCURRENT_REQUESTS = "backendHttpMaxConcurrentRequests";
+    /**
+     * Former name of {@link #PROPERTY_MAX_CONCURRENT_REQUESTS}, still read when that is not set.
+     * @deprecated Use {@link #PROPERTY_MAX_CONCURRENT_REQUESTS}, as the setting limits requests, not connections.
+     */
+    @Deprecated
+    public static final String PROPERTY_MAX_CONNECTIONS_PER_BACKEND = "backendHttpMaxConnectionsPerBackend";
+
+    static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 10000;
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
+    private static BackendHttpClient instance = null;
+
+    /** Client for HTTP backends, using HTTP/1.1. */
+    private final HttpClient httpClient;
+    /** Client for HTTPS backends, using HTTP/2 if the server supports it. */
+    private final HttpClient httpsClient;
+    private final ExecutorService executor;
+    private final Duration requestTimeout;
+    private final int maxRequestsPerBackend;
+    private final ConcurrentMap<String, Semaphore> permitsPerBackend = new ConcurrentHashMap<>();
+
+    /**
+     * Create a client with the given settings.
+     * @param connectTimeout Timeout for establishing a connection.
+     * @param requestTimeout Timeout for receiving a response, also used when waiting for a request permit.
+     * @param maxRequestsPerBackend Maximum number of requests in progress to each backend at the same time.
+     */
+    public BackendHttpClient(Duration connectTimeout, Duration requestTimeout, int maxRequestsPerBackend) {
+        if (maxRequestsPerBackend < 1) {
+            throw new IllegalArgumentException(
+                    "maxRequestsPerBackend must be at least 1, was " + maxRequestsPerBackend);
+        }
+        this.requestTimeout = requestTimeout;
+        this.maxRequestsPerBackend = maxRequestsPerBackend;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "BackendHttpClient-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = newHttpClient(HttpClient.Version.HTTP_1_1, connectTimeout);
+        this.httpsClient = newHttpClient(HttpClient.Version.HTTP_2, connectTimeout);
+    }
+
+    private HttpClient newHttpClient(HttpClient.Version version, Duration connectTimeout) {
+        return HttpClient.newBuilder()
+                .version(version)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Creates the singleton client from configuration. Is robust for multiple concurrent requests for create.
+     * Only the first request for create, actually creates the object.
+     * @param cr Configuration to read settings from. Settings not given use defaults.
+     * @return The shared client.
+     */
+    public static synchronized BackendHttpClient createInstance(ConfigReader cr) {
+        if (instance == null) {
+            instance = new BackendHttpClient(
+                    Duration.ofMillis(Long.parseLong(cr.get(PROPERTY_CONNECT_TIMEOUT_MILLIS,
+                                                            String.valueOf(DEFAULT_CONNECT_TIMEOUT_MILLIS)))),
+                    Duration.ofMillis(Long.parseLong(cr.get(PROPERTY_REQUEST_TIMEOUT_MILLIS,
+                                                            String.valueOf(DEFAULT_REQUEST_TIMEOUT_MILLIS)))),
+                    Integer.parseInt(cr.get(PROPERTY_MAX_CONCURRENT_REQUESTS,
+                                            cr.get(PROPERTY_MAX_CONNECTIONS_PER_BACKEND,
+                                                   String.valueOf(DEFAULT_MAX_CONCURRENT_REQUESTS)))));
+        }
+        return instance;
+    }
+
+    /**
+     * Get the shared client. If no client has been created from configuration, one is created with default settings.
+     * @return The shared client.
+     */
+    public static synchronized BackendHttpClient getInstance() {
+        if (instance == null) {
+            instance = new BackendHttpClient(Duration.ofMillis(DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                                             Duration.ofMillis(DEFAULT_REQUEST_TIMEOUT_MILLIS),
+                                             DEFAULT_MAX_CONCURRENT_REQUESTS);
+        }
+        return instance;
+    }
+
+    public static synchronized void createInstanceForTestPurpose(BackendHttpClient testInstance) {
+        instance = testInstance;
+    }
+
+    /**
+     * Build a GET request for the given URI, with the configured request timeout.
+     * @param uri The URI to request.
+     * @return A request builder that may be further customised.
+     */
+    public HttpRequest.Builder newGetRequest(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(requestTimeout).GET();
+    }
+
+    /**
+     * Send a request and wait for the response. The status code of the response is not checked.
+     * @param request The request.
+     * @param bodyHandler Handler for the response body.
+     * @param <T> Type of the response body.
+     * @return The response.
+     * @throws IOException On timeout or trouble communicating with the backend.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException {
+        Semaphore permits = acquire(request.uri());
+        try {
+            return clientFor(request.uri()).send(request, bodyHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response from " + request.uri());
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Send a request asynchronously. The status code of the response is not checked.
+     * @param request The request.
+     * @param bodyHandler Handler for the response body.
+     * @param <T> Type of the response body.
+     * @return Future response. Completes exceptionally with an {@link IOException} on timeout or trouble
+     * communicating with the backend. Cancelling it gives back the request permit, also while waiting for one.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> bodyHandler) {
+        Semaphore permits = permitsFor(request.uri());
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        // Set when a permit is acquired, and cleared by whichever releases it, so it is released exactly once
+        AtomicBoolean acquired = new AtomicBoolean();
+        result.whenComplete((response, failure) -> {
+            if (acquired.getAndSet(false)) {
+                permits.release();
+            }
+        });
+        if (permits.tryAcquire()) {
+            send(request, bodyHandler, permits, acquired, result);
+        } else {
+            // Wait for a request permit without blocking the caller
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    acquire(permits, request.uri());
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                send(request, bodyHandler, permits, acquired, result);
+            });
+        }
+        return result;
+    }
+
+    /** Send a request with a permit acquired, unless the result was completed, as by cancelling, while acquiring. */
+    private <T> void send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, Semaphore permits,
+                          AtomicBoolean acquired, CompletableFuture<HttpResponse<T>> result) {
+        acquired.set(true);
+        if (result.isDone()) {
+            if (acquired.getAndSet(false)) {
+                permits.release();
+            }
+            return;
+        }
+        try {
+            clientFor(request.uri()).sendAsync(request, bodyHandler).whenComplete((response, failure) -> {
+                if (failure instanceof CompletionException && failure.getCause() != null) {
+                    result.completeExceptionally(failure.getCause());
+                } else if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(response);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * GET a URI and return the body as a string.
+     * @param uri The URI to request.
+     * @return The response body.
+     * @throws BackendHttpException If the response status is not 2xx.
+     * @throws IOException On timeout or trouble communicating with the backend.
+     */
+    public String getString(URI uri) throws IOException {
+        return checkStatus(send(newGetRequest(uri).build(), HttpResponse.BodyHandlers.ofString())).body();
+    }
+
+    /**
+     * GET a URI and return the body as a stream. The body is read completely before returning, so the connection is
+     * free for other requests when this method returns.
+     * @param uri The URI to request.
+     * @return The response body.
+     * @throws BackendHttpException If the response status is not 2xx.
+     * @throws IOException On timeout or trouble communicating with the backend.
+     */
+    public InputStream getStream(URI uri) throws IOException {
+        byte[] body = checkStatus(send(newGetRequest(uri).build(), HttpResponse.BodyHandlers.ofByteArray())).body();
+        return new ByteArrayInputStream(body);
+    }
+
+    /**
+     * GET a URI asynchronously and return the body as a string.
+     * @param uri The URI to request.
+     * @return Future response body. Completes exceptionally with a {@link BackendHttpException} if the response
+     * status is not 2xx, or with an {@link IOException} on timeout or trouble communicating with the backend.
+     */
+    public CompletableFuture<String> getStringAsync(URI uri) {
+        return sendAsync(newGetRequest(uri).build(), HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            try {
+                return checkStatus(response).body();
+            } catch (BackendHttpException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Check that a response has a 2xx status code.
+     * @param response The response.
+     * @param <T> Type of the response body.
+     * @return The response.
+     * @throws BackendHttpException If the response status is not 2xx.
+     */
+    public static <T> HttpResponse<T> checkStatus(HttpResponse<T> response) throws BackendHttpException {
+        int statusCode = response.statusCode();
+        if (statusCode < 200 || statusCode > 299) {
+            throw new BackendHttpException(response.uri(), statusCode);
+        }
+        return response;
+    }
+
+    /**
+     * Get the number of requests currently in progress to a backend.
+     * @param uri Any URI on the backend.
+     * @return The number of requests currently in progress.
+     */
+    public int getActiveRequests(URI uri) {
+        Semaphore permits = permitsPerBackend.get(backendKey(uri));
+        return permits == null ? 0 : maxRequestsPerBackend - permits.availablePermits();
+    }
+
+    private Semaphore acquire(URI uri) throws IOException {
+        Semaphore permits = permitsFor(uri);
+        acquire(permits, uri);
+        return permits;
+    }
+
+    private void acquire(Semaphore permits, URI uri) throws IOException {
+        try {
+            if (!permits.tryAcquire(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting to send a request to " + backendKey(uri) + ". All "
+                                              + maxRequestsPerBackend + " requests permitted are in progress.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request to " + backendKey(uri));
+        }
+    }
+
+    private Semaphore permitsFor(URI uri) {
+        return permitsPerBackend.computeIfAbsent(backendKey(uri), key -> new Semaphore(maxRequestsPerBackend));
+    }
+
+    private HttpClient clientFor(URI uri) {
+        return "https".equalsIgnoreCase(uri.getScheme()) ? httpsClient : httpClient;
+    }
+
+    private static String backendKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getAuthority();
+    }
+}
@@ -0,0 +1,36 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.http;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Thrown when a backend service answers with a status code that is not 2xx.
+ */
+public class BackendHttpException extends IOException {
+    private final int statusCode;
+    private final URI uri;
+
+    /**
+     * @param uri The URI requested.
+     * @param statusCode The status code returned by the backend service.
+     */
+    public BackendHttpException(URI uri, int statusCode) {
+        super("Backend service returned status " + statusCode + " for " + uri);
+        this.uri = uri;
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return The status code returned by the backend service.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The URI requested.
+     */
+    public URI getUri() {
+        return uri;
+    }
+}
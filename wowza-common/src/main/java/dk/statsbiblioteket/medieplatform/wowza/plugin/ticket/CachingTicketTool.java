@@ -0,0 +1,121 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.ticket;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.ticketsystem.Ticket;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.CacheStats;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.LoadingCache;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+
+/**
+ * Ticket tool that remembers resolved tickets, so the ticket service is called once per ticket rather than once per
+ * player event (connect, play, HTTP session, statistics logging).
+ *
+ * Tickets carry no expiry time, so a resolved ticket is cached for a fixed time to live from the moment it was
+ * resolved. The time to live must be configured no longer than the lifetime the ticket system gives its tickets, so a
+ * cached ticket never outlives the ticket itself. Tickets that could not be resolved are cached for a shorter time,
+ * so a player retrying with an unknown ticket does not call the ticket service for every attempt.
+ *
+ * All modules using the same ticket service share one cache, see
+ * {@link #createInstance(String, ConfigReader, TicketToolInterface, WMSLogger)}.
+ */
+public class CachingTicketTool implements TicketToolInterface {
+    /** Property for how long a resolved ticket is cached. Zero disables the cache. */
+    public static final String PROPERTY_TIME_TO_LIVE_SECONDS = "ticketCacheTimeToLiveSeconds";
+    /** Property for how long it is remembered that a ticket could not be resolved. */
+    public static final String PROPERTY_NEGATIVE_TIME_TO_LIVE_SECONDS = "ticketCacheNegativeTimeToLiveSeconds";
+    /** Property for the maximum number of cached tickets. */
+    public static final String PROPERTY_MAXIMUM_SIZE = "ticketCacheMaximumSize";
+
+    static final long DEFAULT_TIME_TO_LIVE_SECONDS = 30;
+    static final long DEFAULT_NEGATIVE_TIME_TO_LIVE_SECONDS = 2;
+    static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private static final Map<String, TicketToolInterface> instances = new HashMap<>();
+
+    private final LoadingCache<String, Ticket> cache;
+    private final WMSLogger logger;
+
+    /**
+     * Create a caching ticket tool.
+     * @param delegate The ticket tool used for resolving tickets that are not cached.
+     * @param logger Logger for reporting failures.
+     * @param maximumSize Maximum number of cached tickets.
+     * @param timeToLive How long a resolved ticket is cached. Must not be longer than the lifetime of tickets.
+     * @param negativeTimeToLive How long it is remembered that a ticket could not be resolved.
+     */
+    public CachingTicketTool(TicketToolInterface delegate, WMSLogger logger, int maximumSize, Duration timeToLive,
+                             Duration negativeTimeToLive) {
+        this.logger = logger;
+        this.cache = new LoadingCache<>("tickets", maximumSize, timeToLive, negativeTimeToLive,
+                                        delegate::resolveTicket);
+    }
+
+    /**
+     * Get the ticket tool for a ticket service, creating it from configuration if this is the first request for the
+     * service. Is robust for multiple concurrent requests for create. Only the first request for create for a ticket
+     * service, actually creates the object, later requests get the same object and the same cache.
+     *
+     * @param ticketCheckerLocation URL of the ticket service, used for sharing the cache.
+     * @param cr Configuration to read the cache settings from. Settings not given use defaults.
+     * @param delegate The ticket tool used for resolving tickets that are not cached.
+     * @param logger Logger for reporting failures.
+     * @return A caching ticket tool, or the delegate itself if the cache is disabled.
+     */
+    public static synchronized TicketToolInterface createInstance(String ticketCheckerLocation, ConfigReader cr,
+                                                                  TicketToolInterface delegate, WMSLogger logger) {
+        TicketToolInterface instance = instances.get(ticketCheckerLocation);
+        if (instance == null) {
+            long timeToLiveSeconds = Long.parseLong(
+                    cr.get(PROPERTY_TIME_TO_LIVE_SECONDS, String.valueOf(DEFAULT_TIME_TO_LIVE_SECONDS)));
+            if (timeToLiveSeconds <= 0) {
+                logger.info("Ticket cache disabled for ticket service: " + ticketCheckerLocation);
+                instance = delegate;
+            } else {
+                instance = new CachingTicketTool(
+                        delegate, logger,
+                        Integer.parseInt(cr.get(PROPERTY_MAXIMUM_SIZE, String.valueOf(DEFAULT_MAXIMUM_SIZE))),
+                        Duration.ofSeconds(timeToLiveSeconds),
+                        Duration.ofSeconds(Long.parseLong(cr.get(PROPERTY_NEGATIVE_TIME_TO_LIVE_SECONDS, String.valueOf(
+                                DEFAULT_NEGATIVE_TIME_TO_LIVE_SECONDS)))));
+            }
+            instances.put(ticketCheckerLocation, instance);
+        }
+        return instance;
+    }
+
+    /** Resolve a ticket from the cache, or from the ticket service if it is not cached.
+     *
+     * @param ticketID The ID of the ticket.
+     * @return The resolved ticket, or null if it could not be resolved.
+     */
+    @Override
+    public Ticket resolveTicket(String ticketID) {
+        try {
+            return cache.get(ticketID);
+        } catch (ExecutionException e) {
+            logger.error("Could not resolve ticket '" + ticketID + "'", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Forget a ticket, so it is resolved from the ticket service on next request.
+     * @param ticketID The ID of the ticket.
+     */
+    public void invalidate(String ticketID) {
+        cache.invalidate(ticketID);
+    }
+
+    /**
+     * @return Hit rate and other counters for the cache.
+     */
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+}
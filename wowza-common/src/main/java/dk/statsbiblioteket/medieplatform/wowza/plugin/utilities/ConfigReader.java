@@ -64,6 +64,13 @@ public class ConfigReader {
         return properties.getProperty(key, defaultValue);
     }
 
+    /**
+     * @return The keys of all properties set.
+     */
+    public Set<String> getPropertyNames() {
+        return properties.stringPropertyNames();
+    }
+
     /**
      * Throw exception if given property keys are not set.
      * @param propertyKeys Properties that must be set.
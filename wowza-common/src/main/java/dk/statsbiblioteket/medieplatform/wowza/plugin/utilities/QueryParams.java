@@ -0,0 +1,275 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.utilities;
+
+import com.wowza.wms.application.WMSProperties;
+import com.wowza.wms.client.IClient;
+import com.wowza.wms.httpstreamer.model.IHTTPStreamerSession;
+import com.wowza.wms.stream.IMediaStream;
+
+/**
+ * Parsed view of a Wowza query string.
+ *
+ * The query string is scanned once, recording the offsets of each key and value. Values are only copied out of the
+ * query string the first time they are asked for, and lookups return null instead of throwing on a missing key.
+ *
+ * Parsing follows the rules of {@link StringAndTextUtil#extractValueFromQueryStringAndKey(String, String)}: a trailing
+ * "/" is ignored, parameters are separated by "&amp;", empty parameters are skipped, parameters that do not consist of
+ * exactly one key and one value separated by "=" are ignored, keys are compared case insensitively, and the first
+ * matching parameter wins.
+ *
+ * Instances are immutable and safe to share between threads. Use the {@code of} methods to get an instance that is
+ * cached on the Wowza client or HTTP session, so the same query string is not parsed again for every event.
+ */
+public final class QueryParams {
+    /** The property name used for caching the parsed query string on clients and sessions. */
+    static final String PROPERTY_NAME = QueryParams.class.getName();
+
+    private static final QueryParams EMPTY = new QueryParams("");
+
+    private final String queryString;
+    /** Offsets of key start, key end, value start and value end for each parameter. */
+    private final int[] offsets;
+    private final int count;
+    private final String[] values;
+
+    private QueryParams(String queryString) {
+        this.queryString = queryString;
+        int end = queryString.length();
+        // Some players add a / to the query string. Ignore it
+        if (end > 0 && queryString.charAt(end - 1) == '/') {
+            end--;
+        }
+        int[] found = new int[16];
+        int parameters = 0;
+        int parameterStart = 0;
+        while (parameterStart <= end) {
+            int parameterEnd = queryString.indexOf('&', parameterStart);
+            if (parameterEnd < 0 || parameterEnd > end) {
+                parameterEnd = end;
+            }
+            if (parameterEnd > parameterStart) {
+                if (found.length < (parameters + 1) * 4) {
+                    int[] grown = new int[found.length * 2];
+                    System.arraycopy(found, 0, grown, 0, found.length);
+                    found = grown;
+                }
+                if (indexParameter(queryString, parameterStart, parameterEnd, found, parameters * 4)) {
+                    parameters++;
+                }
+            }
+            parameterStart = parameterEnd + 1;
+        }
+        this.offsets = found;
+        this.count = parameters;
+        this.values = new String[parameters];
+    }
+
+    /**
+     * Find the key and value of a single parameter, storing their offsets.
+     * Like a tokenizer on "=", runs of "=" are treated as one separator and leading or trailing "=" are ignored.
+     * @return true if the parameter consisted of exactly one key and one value.
+     */
+    private static boolean indexParameter(String queryString, int start, int end, int[] offsets, int offset) {
+        int tokens = 0;
+        int position = start;
+        while (position < end) {
+            while (position < end && queryString.charAt(position) == '=') {
+                position++;
+            }
+            if (position == end) {
+                break;
+            }
+            int tokenStart = position;
+            while (position < end && queryString.charAt(position) != '=') {
+                position++;
+            }
+            if (tokens == 2) {
+                return false;
+            }
+            offsets[offset + tokens * 2] = tokenStart;
+            offsets[offset + tokens * 2 + 1] = position;
+            tokens++;
+        }
+        return tokens == 2;
+    }
+
+    /**
+     * Parse a query string.
+     * @param queryString The query string. May be null, which is treated as an empty query string.
+     * @return The parsed query string.
+     */
+    public static QueryParams parse(String queryString) {
+        if (queryString == null || queryString.isEmpty()) {
+            return EMPTY;
+        }
+        return new QueryParams(queryString);
+    }
+
+    /**
+     * Get the parsed query string of a client, reusing the parsed value stored on the client if present.
+     * @param client The client.
+     * @return The parsed query string.
+     */
+    public static QueryParams of(IClient client) {
+        if (client == null) {
+            return EMPTY;
+        }
+        return cached(client.getProperties(), client.getQueryStr());
+    }
+
+    /**
+     * Get the parsed query string of a HTTP streamer session, reusing the parsed value stored on the session if
+     * present.
+     * @param httpSession The HTTP streamer session.
+     * @return The parsed query string.
+     */
+    public static QueryParams of(IHTTPStreamerSession httpSession) {
+        if (httpSession == null) {
+            return EMPTY;
+        }
+        return cached(httpSession.getProperties(), httpSession.getQueryStr());
+    }
+
+    /**
+     * Get the parsed query string of the client or HTTP streamer session owning a stream.
+     * @param stream The stream.
+     * @return The parsed query string, or an empty one if the stream has neither client nor HTTP session.
+     */
+    public static QueryParams of(IMediaStream stream) {
+        if (stream.getClient() != null) {
+            return of(stream.getClient());
+        } else if (stream.getHTTPStreamerSession() != null) {
+            return of(stream.getHTTPStreamerSession());
+        } else {
+            return EMPTY;
+        }
+    }
+
+    /**
+     * Get the parsed query string from the given properties, parsing and storing it if it is not there or is stale.
+     */
+    private static QueryParams cached(WMSProperties props, String queryString) {
+        if (queryString == null) {
+            queryString = "";
+        }
+        if (props == null) {
+            return parse(queryString);
+        }
+        QueryParams params;
+        synchronized (props) {
+            params = (QueryParams) props.get(PROPERTY_NAME);
+        }
+        if (params != null && params.matches(queryString)) {
+            return params;
+        }
+        params = parse(queryString);
+        synchronized (props) {
+            props.put(PROPERTY_NAME, params);
+        }
+        return params;
+    }
+
+    private boolean matches(String queryString) {
+        return this.queryString == queryString || this.queryString.equals(queryString);
+    }
+
+    /**
+     * Get the value of a key.
+     * @param key The key to look up. Compared case insensitively.
+     * @return The value of the first parameter with that key, or null if there is none.
+     */
+    public String get(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        String value = values[index];
+        if (value == null) {
+            // Racing threads may both copy the value, which is harmless
+            value = queryString.substring(offsets[index * 4 + 2], offsets[index * 4 + 3]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Get the value of a key, or a default value if the key is not present.
+     * @param key The key to look up. Compared case insensitively.
+     * @param defaultValue The value to return if the key is not present.
+     * @return The value of the first parameter with that key, or the default value.
+     */
+    public String get(String key, String defaultValue) {
+        String value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Get the value of a key, throwing an exception if it is not present.
+     * @param key The key to look up. Compared case insensitively.
+     * @return The value of the first parameter with that key.
+     * @throws IllegallyFormattedQueryStringException If key is not set in query string.
+     */
+    public String getRequired(String key) throws IllegallyFormattedQueryStringException {
+        String value = get(key);
+        if (value == null) {
+            throw new IllegallyFormattedQueryStringException(
+                    "Expected key '" + key + "' not found in query string" + queryString + "'");
+        }
+        return value;
+    }
+
+    /**
+     * Check whether a key is present.
+     * @param key The key to look up. Compared case insensitively.
+     * @return true if a parameter with that key is present.
+     */
+    public boolean contains(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Check whether the value of a key equals the given value, ignoring case. Does not copy the value.
+     * @param key The key to look up. Compared case insensitively.
+     * @param value The value to compare to.
+     * @return true if the first parameter with that key has the given value.
+     */
+    public boolean valueEqualsIgnoreCase(String key, String value) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        int valueStart = offsets[index * 4 + 2];
+        int valueLength = offsets[index * 4 + 3] - valueStart;
+        return valueLength == value.length() && queryString.regionMatches(true, valueStart, value, 0, valueLength);
+    }
+
+    /**
+     * @return The number of well formed parameters in the query string.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The query string this view was parsed from.
+     */
+    public String getQueryString() {
+        return queryString;
+    }
+
+    private int indexOf(String key) {
+        int keyLength = key.length();
+        for (int i = 0; i < count; i++) {
+            int keyStart = offsets[i * 4];
+            if (offsets[i * 4 + 1] - keyStart == keyLength
+                    && queryString.regionMatches(true, keyStart, key, 0, keyLength)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return queryString;
+    }
+}
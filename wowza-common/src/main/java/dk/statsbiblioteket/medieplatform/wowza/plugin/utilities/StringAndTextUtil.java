@@ -10,7 +10,6 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.StringTokenizer;
 
 /**
  * Utility methods for working with Wowza strings.
@@ -18,6 +17,8 @@ import java.util.StringTokenizer;
 public class StringAndTextUtil {
     /**
      * Given a query string, return the value for a given key. Throws exception if key is not set.
+     * When looking up more than one key, or looking up keys on every event, prefer {@link QueryParams}, which parses
+     * the query string once and does not throw on missing keys.
      * @param key The key to look up in query string.
      * @param queryString The query string to read key from.
      * @return The value of the given key.
@@ -27,29 +28,7 @@ public class StringAndTextUtil {
      */
     public static String extractValueFromQueryStringAndKey(String key,
             String queryString) throws IllegallyFormattedQueryStringException {
-        if (queryString == null) {
-            queryString = "";
-        }
-        // Some players add a / to the query string. Strip it
-        if (queryString.endsWith("/")) {
-            queryString = queryString.substring(0, queryString.length() - 1);
-        }
-        StringTokenizer queryItems = new StringTokenizer(queryString, "&");
-        while (queryItems.hasMoreTokens()) {
-            String queryParameter = queryItems.nextToken();
-            StringTokenizer paramTokenizer = new StringTokenizer(queryParameter, "=");
-            if (paramTokenizer.countTokens() != 2) {
-                //parameters not of the form a=b are ignored
-                continue;
-            }
-            String currentKey = paramTokenizer.nextToken();
-            String currentValue = paramTokenizer.nextToken();
-            if (currentKey.equalsIgnoreCase(key)) {
-                return currentValue;
-            }
-        }
-        throw new IllegallyFormattedQueryStringException(
-                "Expected key '" + key + "' not found in query string" + queryString + "'");
+        return QueryParams.parse(queryString).getRequired(key);
     }
 
     /**
@@ -95,7 +74,18 @@ public class StringAndTextUtil {
      */
     public static Ticket getTicket(String queryString, TicketToolInterface ticketTool)
             throws IllegallyFormattedQueryStringException {
-        String ticketID = extractValueFromQueryStringAndKey("ticket", queryString);
-        return ticketTool.resolveTicket(ticketID);
+        return getTicket(QueryParams.parse(queryString), ticketTool);
+    }
+
+    /**
+     * Get ticket extracted from a parsed query string.
+     * @param queryParams Parsed query string from which to extract the ticket.
+     * @param ticketTool Ticket tool used for looking up tickets.
+     * @return Ticket extracted
+     * @throws IllegallyFormattedQueryStringException If the query string contains no ticket
+     */
+    public static Ticket getTicket(QueryParams queryParams, TicketToolInterface ticketTool)
+            throws IllegallyFormattedQueryStringException {
+        return ticketTool.resolveTicket(queryParams.getRequired("ticket"));
     }
 }
@@ -0,0 +1,186 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.cache;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the loading cache, using a manual clock.
+ */
+public class LoadingCacheTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loaderCalls = new AtomicInteger();
+
+    private LoadingCache<String, String> createCache(int maximumSize, Duration refreshAfter) {
+        CacheLoader<String, String> loader = key -> {
+            loaderCalls.incrementAndGet();
+            if (key.startsWith("missing")) {
+                return null;
+            }
+            if (key.startsWith("failing")) {
+                throw new IOException("Backend down");
+            }
+            return key + "-" + loaderCalls.get();
+        };
+        return new LoadingCache<>("test", maximumSize, Duration.ofSeconds(60), Duration.ofSeconds(5),
+                                  refreshAfter, loader, Runnable::run, now::get);
+    }
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    public void testValuesAreCachedUntilExpiry() throws ExecutionException {
+        LoadingCache<String, String> cache = createCache(100, Duration.ZERO);
+        assertEquals("a-1", cache.get("a"));
+        assertEquals("a-1", cache.get("a"));
+        assertEquals(1, loaderCalls.get());
+        advance(Duration.ofSeconds(61));
+        assertEquals("a-2", cache.get("a"));
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2, stats.getLoads());
+    }
+
+    @Test
+    public void testNotFoundIsCachedForNegativeTimeToLive() throws ExecutionException {
+        LoadingCache<String, String> cache = createCache(100, Duration.ZERO);
+        assertNull(cache.get("missing"));
+        assertNull(cache.get("missing"));
+        assertEquals(1, loaderCalls.get());
+        assertEquals(1, cache.getStats().getNegativeHits());
+        advance(Duration.ofSeconds(6));
+        assertNull(cache.get("missing"));
+        assertEquals(2, loaderCalls.get());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        LoadingCache<String, String> cache = createCache(100, Duration.ZERO);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("failing");
+                fail("This statement should not be reached");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(2, loaderCalls.get());
+        assertEquals(2, cache.getStats().getLoadFailures());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPerEntryTimeToLive() throws ExecutionException {
+        LoadingCache<String, String> cache = new LoadingCache<>(
+                "test", 100, Duration.ofSeconds(60), Duration.ZERO, Duration.ZERO,
+                new CacheLoader<String, String>() {
+                    @Override
+                    public String load(String key) {
+                        loaderCalls.incrementAndGet();
+                        return key;
+                    }
+
+                    @Override
+                    public Duration timeToLive(String key, String value, Duration defaultTimeToLive) {
+                        return key.equals("short") ? Duration.ofSeconds(1) : defaultTimeToLive;
+                    }
+                }, Runnable::run, now::get);
+        cache.get("short");
+        cache.get("long");
+        advance(Duration.ofSeconds(2));
+        cache.get("short");
+        cache.get("long");
+        assertEquals(3, loaderCalls.get());
+    }
+
+    @Test
+    public void testRefreshAheadServesOldValueWhileReloading() throws ExecutionException {
+        LoadingCache<String, String> cache = createCache(100, Duration.ofSeconds(30));
+        assertEquals("a-1", cache.get("a"));
+        advance(Duration.ofSeconds(31));
+        // Refresh is triggered, the old value is returned. The executor runs the refresh immediately
+        assertEquals("a-1", cache.get("a"));
+        assertEquals("a-2", cache.get("a"));
+        assertEquals(1, cache.getStats().getRefreshes());
+        assertEquals(1, cache.getStats().getMisses());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch loaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoader = new CountDownLatch(1);
+        LoadingCache<String, String> cache = new LoadingCache<>("test", 100, Duration.ofSeconds(60), Duration.ZERO,
+                                                                 key -> {
+            loaderCalls.incrementAndGet();
+            loaderStarted.countDown();
+            releaseLoader.await(10, TimeUnit.SECONDS);
+            return "value";
+        });
+        ExecutorService threads = Executors.newFixedThreadPool(50);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                results.add(threads.submit(() -> cache.get("segment")));
+            }
+            assertTrue(loaderStarted.await(10, TimeUnit.SECONDS));
+            // Give the other threads time to join the load in progress
+            Thread.sleep(200);
+            releaseLoader.countDown();
+            for (Future<String> result : results) {
+                assertEquals("value", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        assertEquals(1, loaderCalls.get());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws ExecutionException {
+        LoadingCache<String, String> cache = createCache(10, Duration.ZERO);
+        for (int i = 0; i < 100; i++) {
+            cache.get("key" + i);
+            advance(Duration.ofMillis(1));
+        }
+        assertTrue(cache.size() <= 10, "Size was " + cache.size());
+        assertTrue(cache.getStats().getEvictions() >= 90);
+        // The most recently loaded key is still cached
+        assertNotNull(cache.getIfPresent("key99"));
+    }
+
+    @Test
+    public void testInvalidate() throws ExecutionException {
+        LoadingCache<String, String> cache = createCache(100, Duration.ZERO);
+        cache.get("a");
+        cache.get("b");
+        cache.invalidate("a");
+        assertNull(cache.getIfPresent("a"));
+        assertNotNull(cache.getIfPresent("b"));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testGetAsync() throws Exception {
+        LoadingCache<String, String> cache = createCache(100, Duration.ZERO);
+        assertEquals("a-1", cache.getAsync("a").get());
+        assertEquals("a-1", cache.getAsync("a").get());
+        assertEquals(1, loaderCalls.get());
+    }
+}
@@ -0,0 +1,155 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the shared backend HTTP client, using a local HTTP server.
+ */
+public class BackendHttpClientTest {
+    private HttpServer server;
+    private URI baseUri;
+    private CountDownLatch release;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        release = new CountDownLatch(0);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/ok", exchange -> {
+            byte[] body = "<WasSuccess>True</WasSuccess>".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/upgrade", exchange -> {
+            byte[] body = String.valueOf(exchange.getRequestHeaders().getFirst("Upgrade"))
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUri = URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testGetString() throws IOException {
+        BackendHttpClient client = new BackendHttpClient(Duration.ofSeconds(2), Duration.ofSeconds(2), 4);
+        assertEquals("<WasSuccess>True</WasSuccess>", client.getString(baseUri.resolve("/ok")));
+        assertEquals("<WasSuccess>True</WasSuccess>",
+                     StringAndTextUtil.convertStreamToString(client.getStream(baseUri.resolve("/ok"))));
+    }
+
+    @Test
+    public void testHttpBackendsAreNotAskedToUpgrade() throws IOException {
+        BackendHttpClient client = new BackendHttpClient(Duration.ofSeconds(2), Duration.ofSeconds(2), 4);
+        assertEquals("null", client.getString(baseUri.resolve("/upgrade")));
+    }
+
+    @Test
+    public void testNon2xxStatusFails() {
+        BackendHttpClient client = new BackendHttpClient(Duration.ofSeconds(2), Duration.ofSeconds(2), 4);
+        try {
+            client.getString(baseUri.resolve("/missing"));
+            fail("This statement should not be reached");
+        } catch (BackendHttpException e) {
+            assertEquals(404, e.getStatusCode());
+        } catch (IOException e) {
+            fail("Expected BackendHttpException, got " + e);
+        }
+    }
+
+    @Test
+    public void testGetStringAsync() throws InterruptedException, ExecutionException {
+        BackendHttpClient client = new BackendHttpClient(Duration.ofSeconds(2), Duration.ofSeconds(2), 4);
+        assertEquals("<WasSuccess>True</WasSuccess>", client.getStringAsync(baseUri.resolve("/ok")).get());
+        try {
+            client.getStringAsync(baseUri.resolve("/missing")).get();
+            fail("This statement should not be reached");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BackendHttpException);
+        }
+    }
+
+    @Test
+    public void testConnectionsPerBackendAreLimited() throws Exception {
+        release = new CountDownLatch(1);
+        BackendHttpClient client = new BackendHttpClient(Duration.ofSeconds(2), Duration.ofMillis(500), 1);
+        CompletableFuture<HttpResponse<Void>> slow = client.sendAsync(
+                client.newGetRequest(baseUri.resolve("/slow")).timeout(Duration.ofSeconds(10)).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertEquals(1, client.getActiveRequests(baseUri));
+        try {
+            client.getString(baseUri.resolve("/ok"));
+            fail("This statement should not be reached");
+        } catch (IOException e) {
+            // Expected, the only request permitted is in progress
+        }
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+        assertEquals("<WasSuccess>True</WasSuccess>", client.getString(baseUri.resolve("/ok")));
+        assertEquals(0, client.getActiveRequests(baseUri));
+    }
+
+    @Test
+    public void testPermitIsReleasedWhenCancelledWhileWaiting() throws Exception {
+        release = new CountDownLatch(1);
+        BackendHttpClient client = new BackendHttpClient(Duration.ofSeconds(2), Duration.ofSeconds(5), 1);
+        CompletableFuture<HttpResponse<Void>> slow = client.sendAsync(
+                client.newGetRequest(baseUri.resolve("/slow")).timeout(Duration.ofSeconds(10)).build(),
+                HttpResponse.BodyHandlers.discarding());
+        CompletableFuture<String> waiting = client.getStringAsync(baseUri.resolve("/ok"));
+        CompletableFuture<HttpResponse<String>> cancelled = client.sendAsync(
+                client.newGetRequest(baseUri.resolve("/ok")).build(), HttpResponse.BodyHandlers.ofString());
+        cancelled.cancel(true);
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+        assertEquals("<WasSuccess>True</WasSuccess>", waiting.get(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getActiveRequests(baseUri) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, client.getActiveRequests(baseUri));
+    }
+}
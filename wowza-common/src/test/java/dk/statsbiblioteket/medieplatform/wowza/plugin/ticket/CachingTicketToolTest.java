@@ -0,0 +1,73 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.ticket;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.wowza.wms.logging.WMSLoggerFactory;
+
+import dk.statsbiblioteket.medieplatform.ticketsystem.Ticket;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the caching ticket tool.
+ */
+public class CachingTicketToolTest {
+    private final AtomicInteger resolveCalls = new AtomicInteger();
+
+    private final TicketToolInterface ticketService = ticketID -> {
+        resolveCalls.incrementAndGet();
+        if (ticketID.startsWith("unknown")) {
+            return null;
+        }
+        return new Ticket("Stream", "127.0.0.1", Arrays.asList("doms_radioTVCollection:uuid:1"), new HashMap<>());
+    };
+
+    private CachingTicketTool createTicketTool() {
+        return new CachingTicketTool(ticketService, WMSLoggerFactory.getLogger(getClass()), 100,
+                                     Duration.ofSeconds(30), Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void testTicketIsResolvedOnce() {
+        CachingTicketTool ticketTool = createTicketTool();
+        Ticket ticket = ticketTool.resolveTicket("ticket1");
+        assertNotNull(ticket);
+        assertSame(ticket, ticketTool.resolveTicket("ticket1"));
+        assertSame(ticket, ticketTool.resolveTicket("ticket1"));
+        assertEquals(1, resolveCalls.get());
+        assertEquals(2, ticketTool.getStats().getHits());
+        assertEquals(2.0 / 3, ticketTool.getStats().getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testUnknownTicketIsRemembered() {
+        CachingTicketTool ticketTool = createTicketTool();
+        assertNull(ticketTool.resolveTicket("unknown1"));
+        assertNull(ticketTool.resolveTicket("unknown1"));
+        assertEquals(1, resolveCalls.get());
+        assertEquals(1, ticketTool.getStats().getNegativeHits());
+    }
+
+    @Test
+    public void testInvalidate() {
+        CachingTicketTool ticketTool = createTicketTool();
+        ticketTool.resolveTicket("ticket1");
+        ticketTool.invalidate("ticket1");
+        ticketTool.resolveTicket("ticket1");
+        assertEquals(2, resolveCalls.get());
+    }
+
+    @Test
+    public void testFailingTicketServiceGivesNoTicket() {
+        CachingTicketTool ticketTool = new CachingTicketTool(ticketID -> {
+            throw new IllegalStateException("Ticket service down");
+        }, WMSLoggerFactory.getLogger(getClass()), 100, Duration.ofSeconds(30), Duration.ofSeconds(2));
+        assertNull(ticketTool.resolveTicket("ticket1"));
+        assertEquals(1, ticketTool.getStats().getLoadFailures());
+    }
+}
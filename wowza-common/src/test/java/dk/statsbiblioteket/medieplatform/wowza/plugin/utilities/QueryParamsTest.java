@@ -0,0 +1,100 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.utilities;
+
+import com.wowza.wms.application.WMSProperties;
+import com.wowza.wms.client.IClient;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the parsed query string view.
+ */
+public class QueryParamsTest {
+    private String validSessionID = "5F95E509-FD84-4570-9382-FEC5481E342F";
+    private String validObjectID = "976";
+
+    @Test
+    public void testGetExistingAndMissingKeys() {
+        QueryParams params = QueryParams.parse("ObjectID=" + validObjectID + "&SessionID=" + validSessionID);
+        assertEquals(validObjectID, params.get("ObjectID"));
+        assertEquals(validSessionID, params.get("sessionid"), "Keys should be case insensitive.");
+        assertNull(params.get("nonexistingKey"));
+        assertEquals("default", params.get("nonexistingKey", "default"));
+        assertTrue(params.contains("SESSIONID"));
+        assertFalse(params.contains("Session"));
+        assertEquals(2, params.size());
+    }
+
+    @Test
+    public void testGetRequiredMissingKey() {
+        QueryParams params = QueryParams.parse("ObjectID=" + validObjectID);
+        try {
+            params.getRequired("SessionID");
+            fail("This statement should not be reached");
+        } catch (IllegallyFormattedQueryStringException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testParsingMatchesTokenizerRules() {
+        QueryParams params = QueryParams.parse("&&a=1&b&c=2=3&d==4&=e=5&f=6/");
+        assertEquals("1", params.get("a"));
+        assertNull(params.get("b"), "Parameters without value are ignored.");
+        assertNull(params.get("c"), "Parameters with more than one value are ignored.");
+        assertEquals("4", params.get("d"));
+        assertEquals("5", params.get("e"));
+        assertEquals("6", params.get("f"), "Trailing slash should be stripped.");
+        for (String key : new String[]{"a", "b", "c", "d", "e", "f"}) {
+            String expected;
+            try {
+                expected = StringAndTextUtil.extractValueFromQueryStringAndKey(key, params.getQueryString());
+            } catch (IllegallyFormattedQueryStringException e) {
+                expected = null;
+            }
+            assertEquals(expected, params.get(key), "Mismatch for key " + key);
+        }
+    }
+
+    @Test
+    public void testFirstMatchWins() {
+        QueryParams params = QueryParams.parse("param1Key=param1Value&PARAM1KEY=param2Value");
+        assertEquals("param1Value", params.get("param1key"));
+    }
+
+    @Test
+    public void testEmptyAndNullQueryString() {
+        assertEquals(0, QueryParams.parse(null).size());
+        assertEquals(0, QueryParams.parse("").size());
+        assertEquals(0, QueryParams.parse("/").size());
+        assertNull(QueryParams.parse(null).get("ticket"));
+    }
+
+    @Test
+    public void testValueEqualsIgnoreCase() {
+        QueryParams params = QueryParams.parse("statistics=OFF&other=offline");
+        assertTrue(params.valueEqualsIgnoreCase("statistics", "off"));
+        assertFalse(params.valueEqualsIgnoreCase("other", "off"));
+        assertFalse(params.valueEqualsIgnoreCase("missing", "off"));
+    }
+
+    @Test
+    public void testCachedOnClient() {
+        WMSProperties props = new WMSProperties();
+        IClient client = mock(IClient.class);
+        when(client.getProperties()).thenReturn(props);
+        when(client.getQueryStr()).thenReturn("ticket=1234");
+
+        QueryParams first = QueryParams.of(client);
+        assertEquals("1234", first.get("ticket"));
+        assertSame(first, QueryParams.of(client), "Parsed query string should be reused.");
+
+        when(client.getQueryStr()).thenReturn("ticket=5678");
+        QueryParams second = QueryParams.of(client);
+        assertNotSame(first, second, "Changed query string should be parsed again.");
+        assertEquals("5678", second.get("ticket"));
+    }
+}
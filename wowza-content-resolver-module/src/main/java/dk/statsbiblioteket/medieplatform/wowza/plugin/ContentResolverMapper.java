@@ -8,20 +8,52 @@ import com.wowza.wms.stream.MediaStreamFileMapperBase;
 
 import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
 import dk.statsbiblioteket.medieplatform.contentresolver.model.Resource;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.CacheStats;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.LoadingCache;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentPrefetcher;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverOverloadedException;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.SmilGenerator;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.StagingCache;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * This class is used to let the user see the correct file, given an identifier.
+ *
+ * Resolved files can be cached, so popular content is mapped from memory instead of by scanning directories. Names
+ * that could not be resolved are cached for a shorter time. Use {@link #invalidate(String)} when content is moved.
+ * With a staging cache, local copies of popular files are streamed instead of the files on remote storage. With a
+ * prefetcher, the start of each file returned is read in the background, so it is cached when Wowza opens it. With a
+ * SMIL generator, requests for "smil:id.smil" get an adaptive bitrate playlist of the renditions of the id.
  */
 public class ContentResolverMapper extends MediaStreamFileMapperBase implements IMediaStreamFileMapper {
+    /** Property for how long a resolved file is cached. Zero disables the cache. */
+    public static final String PROPERTY_CACHE_TIME_TO_LIVE_SECONDS = "contentResolverCacheTimeToLiveSeconds";
+    /** Property for how long it is remembered that a name could not be resolved. */
+    public static final String PROPERTY_CACHE_NEGATIVE_TIME_TO_LIVE_SECONDS
+            = "contentResolverCacheNegativeTimeToLiveSeconds";
+    /** Property for the maximum number of cached names. */
+    public static final String PROPERTY_CACHE_MAXIMUM_SIZE = "contentResolverCacheMaximumSize";
+    public static final long DEFAULT_CACHE_TIME_TO_LIVE_SECONDS = 300;
+    public static final long DEFAULT_CACHE_NEGATIVE_TIME_TO_LIVE_SECONDS = 10;
+    public static final int DEFAULT_CACHE_MAXIMUM_SIZE = 10000;
 
     private static final File FILE_NOT_FOUND_NON_EXISTENT_FILE = new File("file_not_found");
     private final WMSLogger logger;
     private String presentationType;
     private final IMediaStreamFileMapper defaultMapper;
     private final ContentResolver contentResolver;
+    /** Resolved files by cleaned name. Null if caching is disabled. */
+    private final LoadingCache<String, File> fileCache;
+    /** Local copies of popular files. Null if files are not copied. */
+    private StagingCache stagingCache;
+    /** Reader of the start of files returned. Null if files are not prefetched. */
+    private ContentPrefetcher prefetcher;
+    /** Generator of SMIL files for adaptive bitrate playback. Null if SMIL files are not generated. */
+    private SmilGenerator smilGenerator;
 
     /**
      * Initialise a content resolver mapper.
@@ -32,11 +64,53 @@ public class ContentResolverMapper extends MediaStreamFileMapperBase implements
      */
     public ContentResolverMapper(String presentationType, IMediaStreamFileMapper defaultMapper,
                                  ContentResolver contentResolver) {
+        this(presentationType, defaultMapper, contentResolver, DEFAULT_CACHE_MAXIMUM_SIZE, Duration.ZERO,
+             Duration.ZERO);
+    }
+
+    /**
+     * Initialise a content resolver mapper that caches resolved files.
+     *
+     * @param presentationType The presentation type used by the content resolver.
+     * @param defaultMapper The normal file mapper, used for passing on unresolved ids.
+     * @param contentResolver The content resolver used for resolving ids to file names.
+     * @param cacheMaximumSize Maximum number of cached names.
+     * @param cacheTimeToLive How long a resolved file is cached. Zero disables the cache.
+     * @param cacheNegativeTimeToLive How long it is remembered that a name could not be resolved.
+     */
+    public ContentResolverMapper(String presentationType, IMediaStreamFileMapper defaultMapper,
+                                 ContentResolver contentResolver, int cacheMaximumSize, Duration cacheTimeToLive,
+                                 Duration cacheNegativeTimeToLive) {
         super();
         this.presentationType = presentationType;
         this.defaultMapper = defaultMapper;
         this.contentResolver = contentResolver;
         this.logger = WMSLoggerFactory.getLogger(this.getClass());
+        if (cacheTimeToLive.isZero() || cacheTimeToLive.isNegative()) {
+            this.fileCache = null;
+        } else {
+            this.fileCache = new LoadingCache<>("resolved files", cacheMaximumSize, cacheTimeToLive,
+                                                cacheNegativeTimeToLive, this::resolveFile);
+        }
+    }
+
+    /**
+     * Initialise a content resolver mapper for another application, sharing the content resolver and the cache of
+     * resolved files of an existing mapper.
+     *
+     * @param defaultMapper The normal file mapper of this application, used for passing on unresolved ids.
+     * @param shared The mapper to share with.
+     */
+    public ContentResolverMapper(IMediaStreamFileMapper defaultMapper, ContentResolverMapper shared) {
+        super();
+        this.presentationType = shared.presentationType;
+        this.defaultMapper = defaultMapper;
+        this.contentResolver = shared.contentResolver;
+        this.logger = WMSLoggerFactory.getLogger(this.getClass());
+        this.fileCache = shared.fileCache;
+        this.stagingCache = shared.stagingCache;
+        this.prefetcher = shared.prefetcher;
+        this.smilGenerator = shared.smilGenerator;
     }
 
     /**
@@ -66,7 +140,10 @@ public class ContentResolverMapper extends MediaStreamFileMapperBase implements
         logger.trace(
                 "streamToFileForRead(IMediaStream stream=" + stream + ", String name=" + name + ", String ext=" + ext
                         + ", String streamQuery=" + streamQuery + ")");
-        File streamingFile = getFileToStream(name);
+        File streamingFile = getGeneratedFile(name, ext);
+        if (streamingFile == null) {
+            streamingFile = getFileToStream(name);
+        }
         logger.debug(
                 "streamToFileForRead(IMediaStream stream=" + stream + ", String name=" + name + ", String ext=" + ext
                         + ", String streamQuery=" + streamQuery + "). Resulting streaming file: '" + streamingFile
@@ -74,6 +151,22 @@ public class ContentResolverMapper extends MediaStreamFileMapperBase implements
         return streamingFile;
     }
 
+    /**
+     * Get the generated SMIL file or the rendition a name is for, if SMIL files are generated.
+     * @param name the name, as requested by the player
+     * @param ext the extension of the file, or null to take it from the name
+     * @return the file, or null if the name is not for a SMIL file or a rendition
+     */
+    private File getGeneratedFile(String name, String ext) {
+        if (smilGenerator == null) {
+            return null;
+        }
+        if (ext == null && name.contains(".")) {
+            ext = name.substring(name.lastIndexOf('.') + 1);
+        }
+        return smilGenerator.getFile(clean(name), ext);
+    }
+
     /**
      * Ignore parts of name after first . and before first :
      * @param name
@@ -99,6 +192,79 @@ public class ContentResolverMapper extends MediaStreamFileMapperBase implements
     protected File getFileToStream(String name) {
         // Extract
         name = clean(name);
+        File file;
+        try {
+            file = getResolvedFile(name);
+        } catch (ContentResolverOverloadedException e) {
+            // Not cached, so the name is looked up again on the next request
+            logger.warn("Could not resolve '" + name + "': " + e.getMessage());
+            return FILE_NOT_FOUND_NON_EXISTENT_FILE;
+        }
+        if (file == null) {
+            return FILE_NOT_FOUND_NON_EXISTENT_FILE;
+        }
+        if (stagingCache != null) {
+            file = stagingCache.get(file);
+        }
+        if (prefetcher != null) {
+            prefetcher.prefetch(file);
+        }
+        return file;
+    }
+
+    /**
+     * Check whether a name can be resolved, so requests for unknown content can be rejected before Wowza tries to open
+     * a file. With the cache of resolved files, a name that was not found is remembered for the negative time to
+     * live, so repeated requests for it do not touch the file system. Names of generated SMIL files and their
+     * renditions are checked as when streaming them.
+     * @param name the name, as requested by the player
+     * @return true if the content was found
+     * @throws ContentResolverOverloadedException if the content resolver was too busy to tell
+     */
+    public boolean hasContent(String name) {
+        return getGeneratedFile(name, null) != null || getResolvedFile(clean(name)) != null;
+    }
+
+    /**
+     * Resolve a name before it is requested, so the resolved file is cached. Unlike a request, this is not counted
+     * by the staging cache.
+     * @param name the name, as requested by the player
+     * @param prefetch whether to also read the start of the file in the background, if files are prefetched
+     * @return the resolved file, or null if the content was not found
+     */
+    public File warmUp(String name, boolean prefetch) {
+        File file = getResolvedFile(clean(name));
+        if (file != null && prefetch && prefetcher != null) {
+            prefetcher.prefetch(file);
+        }
+        return file;
+    }
+
+    /**
+     * Get the file of a name from the cache, or from the content resolver if files are not cached.
+     * @param name the cleaned name
+     * @return the resolved file, or null if the content was not found
+     */
+    private File getResolvedFile(String name) {
+        if (fileCache == null) {
+            return resolveFile(name);
+        }
+        try {
+            return fileCache.get(name);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Could not resolve '" + name + "'", e.getCause());
+        }
+    }
+
+    /**
+     * Query the content resolver for the streaming resource of a name.
+     * @param name the cleaned name
+     * @return the file to stream, or null if the content was not found
+     */
+    private File resolveFile(String name) {
         logger.debug("Looking up '" + name + "'");
         List<Resource> resources = contentResolver.getContent(name).getResources();
         if (resources != null) {
@@ -112,7 +278,79 @@ public class ContentResolverMapper extends MediaStreamFileMapperBase implements
             }
         }
         logger.info("Content not found for: '" + name + "'");
-        return FILE_NOT_FOUND_NON_EXISTENT_FILE;
+        return null;
+    }
+
+    /**
+     * Forget the cached file for a name, so it is resolved again on next request. Use this when content is moved or
+     * added.
+     * @param name the name, as requested by the player
+     */
+    public void invalidate(String name) {
+        if (fileCache != null) {
+            fileCache.invalidate(clean(name));
+        }
+    }
+
+    /**
+     * Forget all cached files.
+     */
+    public void invalidateAll() {
+        if (fileCache != null) {
+            fileCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return Hit rate and other counters for the cache of resolved files, or null if files are not cached.
+     */
+    public CacheStats getCacheStats() {
+        return fileCache == null ? null : fileCache.getStats();
+    }
+
+    /**
+     * @return The local copies of popular files, or null if files are not copied.
+     */
+    public StagingCache getStagingCache() {
+        return stagingCache;
+    }
+
+    /**
+     * Stream local copies of popular files, instead of the files on remote storage.
+     * @param stagingCache The local copies of popular files, or null to always stream the resolved files.
+     */
+    public void setStagingCache(StagingCache stagingCache) {
+        this.stagingCache = stagingCache;
+    }
+
+    /**
+     * @return The reader of the start of files returned, or null if files are not prefetched.
+     */
+    public ContentPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Read the start of each file returned in the background.
+     * @param prefetcher The reader of the start of files, or null to not prefetch files.
+     */
+    public void setPrefetcher(ContentPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * @return The generator of SMIL files for adaptive bitrate playback, or null if SMIL files are not generated.
+     */
+    public SmilGenerator getSmilGenerator() {
+        return smilGenerator;
+    }
+
+    /**
+     * Serve adaptive bitrate playlists of the renditions of an id, for requests for SMIL files.
+     * @param smilGenerator The generator of SMIL files, or null to not generate SMIL files.
+     */
+    public void setSmilGenerator(SmilGenerator smilGenerator) {
+        this.smilGenerator = smilGenerator;
     }
 
     @Override
@@ -0,0 +1,57 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin;
+
+import com.wowza.wms.http.HTTProvider2Base;
+import com.wowza.wms.http.IHTTPRequest;
+import com.wowza.wms.http.IHTTPResponse;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.vhost.IVHost;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverMetrics;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverRegistry;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.SharedContentResolver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP provider serving the metrics of the content resolvers in the VHost as JSON, for the content resolvers of
+ * applications with contentResolverMetrics set. It is added to the HTTPProviders of the Admin HostPort in VHost.xml,
+ * with the request filter "contentresolvermetrics*" and admin-digest authentication.
+ */
+public class ContentResolverMetricsHTTPProvider extends HTTProvider2Base {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Write the metrics of the content resolvers in the VHost.
+     *
+     * @param vhost The VHost the request is for.
+     * @param req The request.
+     * @param resp The response, a JSON object with the metrics of each content resolver in "contentResolvers".
+     */
+    @Override
+    public void onHTTPRequest(IVHost vhost, IHTTPRequest req, IHTTPResponse resp) {
+        if (!doHTTPAuthentication(vhost, req, resp)) {
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"contentResolvers\":[");
+        String separator = "";
+        // Registry keys start with the VHost name
+        String vhostKey = vhost.getName() + "|";
+        for (SharedContentResolver contentResolver : ContentResolverRegistry.getContentResolvers(vhostKey)) {
+            ContentResolverMetrics metrics = contentResolver.getMetrics();
+            if (metrics != null) {
+                json.append(separator).append(metrics.toJson());
+                separator = ",";
+            }
+        }
+        json.append("]}\n");
+        try {
+            resp.setHeader("Content-Type", "application/json");
+            OutputStream out = resp.getOutputStream();
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Could not write content resolver metrics", e);
+        }
+    }
+}
@@ -2,8 +2,13 @@ package dk.statsbiblioteket.medieplatform.wowza.plugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import com.wowza.wms.amf.AMFDataList;
 import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
 import com.wowza.wms.client.IClient;
 import com.wowza.wms.httpstreamer.model.IHTTPStreamerSession;
 import com.wowza.wms.module.IModuleOnApp;
@@ -13,14 +18,36 @@ import com.wowza.wms.module.IModuleOnStream;
 import com.wowza.wms.module.ModuleBase;
 import com.wowza.wms.request.RequestFunction;
 import com.wowza.wms.stream.IMediaStream;
+import com.wowza.wms.stream.IMediaStreamActionNotify;
 import com.wowza.wms.stream.IMediaStreamFileMapper;
 import com.wowza.wms.stream.IMediaStreamNotify;
 import dk.statsbiblioteket.medieplatform.contentresolver.lib.CombiningContentResolver;
 import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
 import dk.statsbiblioteket.medieplatform.contentresolver.lib.DirectoryBasedContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.BloomFilteredContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.Bulkhead;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.BulkheadContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.CacheWarmer;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentPrefetcher;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentProviderMetrics;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverMetrics;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverOverloadedException;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverRegistry;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.DirectPathContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.DirectoryLayout;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.IndexedContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ParallelContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.SharedContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.SmilGenerator;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.StagingCache;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -34,6 +61,22 @@ public class ContentResolverModule extends ModuleBase
 
     private static final String PLUGIN_NAME = "Wowza Content Resolver Plugin";
     private static final String PLUGIN_VERSION = ContentResolverModule.class.getPackage().getImplementationVersion();
+    /** Properties configuring a content provider, prefixed with the provider name if there are several providers. */
+    private static final List<String> PROVIDER_PROPERTIES = Arrays.asList(
+            "subdirectory", "characterDirs", "characterDirsWidth", "filenameRegexPattern",
+            BloomFilteredContentResolver.PROPERTY_BLOOM_FILTER_EXPECTED_IDS,
+            BloomFilteredContentResolver.PROPERTY_BLOOM_FILTER_FALSE_POSITIVE_RATE,
+            DirectPathContentResolver.PROPERTY_DIRECT_PATH_EXTENSIONS);
+    /** Property for rejecting sessions and streams for content that cannot be resolved, before playing starts. */
+    public static final String PROPERTY_REJECT_UNKNOWN_CONTENT = "contentResolverRejectUnknownContent";
+    private static final String UNKNOWN_CONTENT_REJECTER = "unknownContentRejecter";
+    private ContentResolverMapper contentResolverMapper;
+    private boolean rejectUnknownContent;
+    private UnknownContentRejecter unknownContentRejecter;
+    private final AtomicLong rejectedUnknownContent = new AtomicLong();
+    /** The content resolver being configured, or shared with other applications in the VHost once configured. */
+    private SharedContentResolver sharedContentResolver;
+    private String sharedContentResolverKey;
 
     public ContentResolverModule() {
         super();
@@ -64,17 +107,186 @@ public class ContentResolverModule extends ModuleBase
             //Read to initialise the content resolver for doms
             String presentationType = cr.get("presentationType", "Stream");
 
-            ContentResolver contentResolver = getContentResolver(cr, storageDir);
-
-            ContentResolverMapper contentResolverMapper = new ContentResolverMapper(presentationType, defaultMapper, contentResolver);
+            // Applications in the VHost with the same configuration share the content resolver and its caches
+            String key = getSharedContentResolverKey(appInstance.getVHost().getName(), storageDir, cr);
+            boolean[] created = {false};
+            SharedContentResolver shared = ContentResolverRegistry.acquire(key, () -> {
+                sharedContentResolver = new SharedContentResolver(getLogger());
+                try {
+                    ContentResolver contentResolver = getContentResolver(cr, storageDir);
+                    sharedContentResolver.setContentResolver(contentResolver);
+                    sharedContentResolver.start(
+                            Integer.parseInt(cr.get(IndexedContentResolver.PROPERTY_INDEX_PARALLELISM,
+                                                    String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                            Duration.ofMinutes(Long.parseLong(cr.get(
+                                    BloomFilteredContentResolver.PROPERTY_BLOOM_FILTER_REBUILD_MINUTES, String.valueOf(
+                                            BloomFilteredContentResolver.DEFAULT_BLOOM_FILTER_REBUILD_MINUTES)))));
+                    sharedContentResolver.setMapper(new ContentResolverMapper(
+                            presentationType, defaultMapper, contentResolver,
+                            Integer.parseInt(cr.get(ContentResolverMapper.PROPERTY_CACHE_MAXIMUM_SIZE,
+                                                    String.valueOf(ContentResolverMapper.DEFAULT_CACHE_MAXIMUM_SIZE))),
+                            Duration.ofSeconds(Long.parseLong(cr.get(
+                                    ContentResolverMapper.PROPERTY_CACHE_TIME_TO_LIVE_SECONDS,
+                                    String.valueOf(ContentResolverMapper.DEFAULT_CACHE_TIME_TO_LIVE_SECONDS)))),
+                            Duration.ofSeconds(Long.parseLong(cr.get(
+                                    ContentResolverMapper.PROPERTY_CACHE_NEGATIVE_TIME_TO_LIVE_SECONDS,
+                                    String.valueOf(
+                                            ContentResolverMapper.DEFAULT_CACHE_NEGATIVE_TIME_TO_LIVE_SECONDS))))));
+                    if (Boolean.parseBoolean(cr.get(ContentResolverMetrics.PROPERTY_METRICS, "false"))) {
+                        // Published for the shared content resolver, not the application that happens to create it
+                        ContentResolverMetrics metrics = new ContentResolverMetrics(
+                                getLogger(), key, appInstance.getVHost().getName(),
+                                new File(storageDir).getAbsolutePath(), sharedContentResolver);
+                        sharedContentResolver.setMetrics(metrics);
+                        metrics.registerMBeans();
+                    }
+                    String stagingDirectory = cr.get(StagingCache.PROPERTY_STAGING_DIRECTORY);
+                    if (stagingDirectory != null && !stagingDirectory.isEmpty()) {
+                        StagingCache stagingCache = new StagingCache(
+                                getLogger(), Paths.get(stagingDirectory),
+                                Long.parseLong(cr.get(StagingCache.PROPERTY_STAGING_MAXIMUM_MEGABYTES, String.valueOf(
+                                        StagingCache.DEFAULT_STAGING_MAXIMUM_MEGABYTES))) * 1024 * 1024,
+                                Integer.parseInt(cr.get(StagingCache.PROPERTY_STAGING_POPULARITY_THRESHOLD,
+                                        String.valueOf(StagingCache.DEFAULT_STAGING_POPULARITY_THRESHOLD))),
+                                Integer.parseInt(cr.get(StagingCache.PROPERTY_STAGING_THREADS,
+                                                        String.valueOf(StagingCache.DEFAULT_STAGING_THREADS))));
+                        sharedContentResolver.addCloseable(stagingCache);
+                        sharedContentResolver.getMapper().setStagingCache(stagingCache);
+                    }
+                    if (Boolean.parseBoolean(cr.get(ContentPrefetcher.PROPERTY_PREFETCH, "false"))) {
+                        ContentPrefetcher prefetcher = new ContentPrefetcher(
+                                getLogger(),
+                                Long.parseLong(cr.get(ContentPrefetcher.PROPERTY_PREFETCH_HEAD_KILOBYTES,
+                                        String.valueOf(ContentPrefetcher.DEFAULT_PREFETCH_HEAD_KILOBYTES))) * 1024,
+                                Long.parseLong(cr.get(ContentPrefetcher.PROPERTY_PREFETCH_MOOV_KILOBYTES,
+                                        String.valueOf(ContentPrefetcher.DEFAULT_PREFETCH_MOOV_KILOBYTES))) * 1024,
+                                Integer.parseInt(cr.get(ContentPrefetcher.PROPERTY_PREFETCH_THREADS,
+                                                        String.valueOf(ContentPrefetcher.DEFAULT_PREFETCH_THREADS))));
+                        sharedContentResolver.addCloseable(prefetcher);
+                        sharedContentResolver.getMapper().setPrefetcher(prefetcher);
+                    }
+                    String smilDirectory = cr.get(SmilGenerator.PROPERTY_ABR_SMIL_DIRECTORY);
+                    if (Boolean.parseBoolean(cr.get(SmilGenerator.PROPERTY_ABR, "false"))) {
+                        if (smilDirectory == null || smilDirectory.isEmpty()) {
+                            getLogger().warn(SmilGenerator.PROPERTY_ABR_SMIL_DIRECTORY
+                                                     + " is not set, SMIL files are not generated");
+                        } else {
+                            Files.createDirectories(Paths.get(smilDirectory));
+                            long cacheTimeToLiveSeconds = Long.parseLong(cr.get(
+                                    ContentResolverMapper.PROPERTY_CACHE_TIME_TO_LIVE_SECONDS,
+                                    String.valueOf(ContentResolverMapper.DEFAULT_CACHE_TIME_TO_LIVE_SECONDS)));
+                            sharedContentResolver.getMapper().setSmilGenerator(new SmilGenerator(
+                                    contentResolver, presentationType,
+                                    Pattern.compile(cr.get(SmilGenerator.PROPERTY_ABR_BITRATE_PATTERN,
+                                                           SmilGenerator.DEFAULT_ABR_BITRATE_PATTERN)),
+                                    Paths.get(smilDirectory),
+                                    Integer.parseInt(cr.get(ContentResolverMapper.PROPERTY_CACHE_MAXIMUM_SIZE,
+                                            String.valueOf(ContentResolverMapper.DEFAULT_CACHE_MAXIMUM_SIZE))),
+                                    // SMIL files are always cached, as they are written when loaded
+                                    Duration.ofSeconds(cacheTimeToLiveSeconds > 0 ? cacheTimeToLiveSeconds
+                                            : ContentResolverMapper.DEFAULT_CACHE_TIME_TO_LIVE_SECONDS),
+                                    Duration.ofSeconds(Long.parseLong(cr.get(
+                                            ContentResolverMapper.PROPERTY_CACHE_NEGATIVE_TIME_TO_LIVE_SECONDS,
+                                            String.valueOf(ContentResolverMapper
+                                                                   .DEFAULT_CACHE_NEGATIVE_TIME_TO_LIVE_SECONDS))))));
+                        }
+                    }
+                    String logFolder = cr.get(CacheWarmer.PROPERTY_STREAMING_STATISTICS_LOG_FOLDER);
+                    if (Boolean.parseBoolean(cr.get(CacheWarmer.PROPERTY_WARM_UP, "false")) && logFolder != null) {
+                        ContentResolverMapper mapper = sharedContentResolver.getMapper();
+                        boolean prefetch = Boolean.parseBoolean(cr.get(CacheWarmer.PROPERTY_WARM_UP_PREFETCH, "false"));
+                        CacheWarmer cacheWarmer = new CacheWarmer(
+                                getLogger(), Paths.get(logFolder),
+                                Integer.parseInt(cr.get(CacheWarmer.PROPERTY_WARM_UP_DAYS,
+                                                        String.valueOf(CacheWarmer.DEFAULT_WARM_UP_DAYS))),
+                                Integer.parseInt(cr.get(CacheWarmer.PROPERTY_WARM_UP_TOP_ITEMS,
+                                                        String.valueOf(CacheWarmer.DEFAULT_WARM_UP_TOP_ITEMS))),
+                                Double.parseDouble(cr.get(CacheWarmer.PROPERTY_WARM_UP_PER_SECOND,
+                                                          String.valueOf(CacheWarmer.DEFAULT_WARM_UP_PER_SECOND))),
+                                name -> mapper.warmUp(name, prefetch));
+                        sharedContentResolver.addCloseable(cacheWarmer);
+                        cacheWarmer.start();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    sharedContentResolver.close();
+                    sharedContentResolver = null;
+                    throw e;
+                }
+                created[0] = true;
+                return sharedContentResolver;
+            });
+            sharedContentResolver = shared;
+            sharedContentResolverKey = key;
+            if (created[0]) {
+                contentResolverMapper = shared.getMapper();
+            } else {
+                getLogger().info("Sharing content resolver with " + ContentResolverRegistry.getReferenceCount(key)
+                                         + " applications in the VHost");
+                contentResolverMapper = new ContentResolverMapper(defaultMapper, shared.getMapper());
+            }
             // Set File mapper
             appInstance.setStreamFileMapper(contentResolverMapper);
+            rejectUnknownContent = Boolean.parseBoolean(cr.get(PROPERTY_REJECT_UNKNOWN_CONTENT, "false"));
+            unknownContentRejecter = new UnknownContentRejecter(contentResolverMapper, getLogger(),
+                                                                rejectedUnknownContent);
         } catch (IOException e) {
             getLogger().error("An IO error occured.", e);
             throw new RuntimeException("An IO error occured.", e);
         }
     }
 
+    /**
+     * Get the configuration of the content resolver, as a key for sharing it with other applications.
+     *
+     * @param vhostName The name of the VHost.
+     * @param storageDir The storagedir for this appInstance
+     * @param cr Config Reader with wowza-modules.properties loaded
+     * @return The VHost, storage directory and all properties configuring the content resolver, including the folder
+     * of the StreamingStat logs the cache is warmed up from.
+     */
+    protected String getSharedContentResolverKey(String vhostName, String storageDir, ConfigReader cr) {
+        List<String> contentProviderNames = new ArrayList<>();
+        String cs = cr.get("contentResolverNames");
+        if (cs != null && !cs.isEmpty()) {
+            for (String name : cs.split(",")) {
+                contentProviderNames.add(name + ".");
+            }
+        } else {
+            contentProviderNames.add("");
+        }
+        SortedMap<String, String> settings = new TreeMap<>();
+        for (String name : cr.getPropertyNames()) {
+            if (name.startsWith("contentResolver") || name.equals("presentationType")
+                    || name.equals(CacheWarmer.PROPERTY_STREAMING_STATISTICS_LOG_FOLDER)) {
+                settings.put(name, cr.get(name));
+            }
+        }
+        for (String contentProviderName : contentProviderNames) {
+            for (String property : PROVIDER_PROPERTIES) {
+                String value = cr.get(contentProviderName + property);
+                if (value != null) {
+                    settings.put(contentProviderName + property, value);
+                }
+            }
+        }
+        return vhostName + "|" + new File(storageDir).getAbsolutePath() + "|" + settings;
+    }
+
+    /**
+     * The content resolver being configured, which the parts that must be started and stopped are added to. It is
+     * only created by the factory given to {@link ContentResolverRegistry#acquire}, so a content resolver is never
+     * configured without being shared and closed by the registry.
+     *
+     * @throws IllegalStateException If no content resolver is being configured.
+     */
+    private SharedContentResolver getSharedContentResolver() {
+        if (sharedContentResolver == null) {
+            throw new IllegalStateException("No content resolver is being configured, parts that must be stopped "
+                                                    + "are only configured when creating the shared content resolver");
+        }
+        return sharedContentResolver;
+    }
+
     /**
      * <p>
      * Configure and instantiate a ContentResolver</p>
@@ -84,6 +296,28 @@ public class ContentResolverModule extends ModuleBase
      * @return ContentResolver
      */
     protected ContentResolver getContentResolver(ConfigReader cr, String topdir) {
+        ContentResolver contentResolver = getContentProvidersResolver(cr, topdir);
+        if (Boolean.parseBoolean(cr.get(Bulkhead.PROPERTY_BULKHEAD, "false"))) {
+            // One permit for each ID looked up, however many content providers it is looked up in
+            Bulkhead bulkhead = new Bulkhead(
+                    Integer.parseInt(cr.get(Bulkhead.PROPERTY_BULKHEAD_MAX_CONCURRENT_SCANS,
+                                            String.valueOf(Bulkhead.DEFAULT_BULKHEAD_MAX_CONCURRENT_SCANS))),
+                    Duration.ofMillis(Long.parseLong(cr.get(Bulkhead.PROPERTY_BULKHEAD_WAIT_MILLIS,
+                                                            String.valueOf(Bulkhead.DEFAULT_BULKHEAD_WAIT_MILLIS)))));
+            getSharedContentResolver().setBulkhead(bulkhead);
+            contentResolver = new BulkheadContentResolver(getLogger(), contentResolver, bulkhead);
+        }
+        return contentResolver;
+    }
+
+    /**
+     * Instantiate the content resolvers of the configured content providers, combined into one.
+     *
+     * @param cr Config Reader with wowza-modules.properties loaded
+     * @param topdir The storagedir for this appInstance
+     * @return ContentResolver
+     */
+    private ContentResolver getContentProvidersResolver(ConfigReader cr, String topdir) {
         String[] contentresolvernames = {""};
         String cs = cr.get("contentResolverNames");
         if (cs != null && !cs.isEmpty()) {
@@ -95,6 +329,16 @@ public class ContentResolverModule extends ModuleBase
                     })
                     .collect(Collectors.toList());
 
+            if (Boolean.parseBoolean(cr.get(ParallelContentResolver.PROPERTY_PARALLEL, "false"))) {
+                ParallelContentResolver parallelContentResolver = new ParallelContentResolver(
+                        getLogger(), contentResolvers, cr.get("presentationType", "Stream"),
+                        Integer.parseInt(cr.get(ParallelContentResolver.PROPERTY_PARALLEL_THREADS,
+                                                String.valueOf(ParallelContentResolver.DEFAULT_PARALLEL_THREADS))),
+                        Long.parseLong(cr.get(ParallelContentResolver.PROPERTY_PARALLEL_TIMEOUT_MILLIS, String.valueOf(
+                                ParallelContentResolver.DEFAULT_PARALLEL_TIMEOUT_MILLIS))));
+                getSharedContentResolver().addCloseable(parallelContentResolver);
+                return parallelContentResolver;
+            }
             ContentResolver combinedResolver = new CombiningContentResolver(contentResolvers);
             return combinedResolver;
         } else {
@@ -123,10 +367,62 @@ public class ContentResolverModule extends ModuleBase
                 .get(contentProviderName + "filenameRegexPattern", "missing-filename-regex-pattern-in-property-file");
         String uriPattern = "file://" + baseDirectory + "/%s";
         String presentationType = cr.get("presentationType", "Stream");
+        DirectoryLayout layout = new DirectoryLayout(presentationType, baseDirectory, characterDirs,
+                                                     characterDirsWidth, filenameRegexPattern, uriPattern);
+        ContentProviderMetrics metrics = null;
+        if (Boolean.parseBoolean(cr.get(ContentResolverMetrics.PROPERTY_METRICS, "false"))) {
+            metrics = new ContentProviderMetrics(contentProviderName.isEmpty() ? ContentProviderMetrics.DEFAULT_NAME
+                    : contentProviderName.substring(0, contentProviderName.length() - 1), presentationType);
+            getSharedContentResolver().addProviderMetrics(metrics);
+        }
 
-        return new DirectoryBasedContentResolver(presentationType, baseDirectory,
+        if (Boolean.parseBoolean(cr.get(IndexedContentResolver.PROPERTY_INDEX, "false"))) {
+            Path indexFile = null;
+            String indexDirectory = cr.get(IndexedContentResolver.PROPERTY_INDEX_DIRECTORY);
+            if (indexDirectory != null && !indexDirectory.isEmpty()) {
+                indexFile = Paths.get(indexDirectory, IndexedContentResolver.getIndexFileName(layout));
+                try {
+                    Files.createDirectories(indexFile.getParent());
+                } catch (IOException e) {
+                    getLogger().warn("Could not create " + indexDirectory + ", content indexes are not kept", e);
+                    indexFile = null;
+                }
+            }
+            IndexedContentResolver contentIndex = new IndexedContentResolver(getLogger(), layout, indexFile);
+            getSharedContentResolver().addContentIndex(contentIndex);
+            if (metrics != null) {
+                metrics.setDirectoryScans(contentIndex::getDirectoryScans);
+                return metrics.measure(contentIndex);
+            }
+            return contentIndex;
+        }
+        ContentResolver contentResolver = new DirectoryBasedContentResolver(presentationType, baseDirectory,
                 characterDirs, characterDirsWidth, filenameRegexPattern,
                 uriPattern);
+        if (metrics != null) {
+            contentResolver = metrics.countScans(contentResolver);
+        }
+        if (Boolean.parseBoolean(cr.get(DirectPathContentResolver.PROPERTY_DIRECT_PATH, "false"))) {
+            String extensions = cr.get(contentProviderName + DirectPathContentResolver.PROPERTY_DIRECT_PATH_EXTENSIONS);
+            contentResolver = new DirectPathContentResolver(
+                    contentResolver, layout, extensions == null
+                    ? DirectPathContentResolver.getExtensions(filenameRegexPattern)
+                    : Arrays.asList(extensions.split(",", -1)));
+        }
+        if (Boolean.parseBoolean(cr.get(BloomFilteredContentResolver.PROPERTY_BLOOM_FILTER, "false"))) {
+            BloomFilteredContentResolver bloomFilter = new BloomFilteredContentResolver(
+                    getLogger(), contentResolver, layout,
+                    Long.parseLong(cr.get(contentProviderName
+                                                  + BloomFilteredContentResolver.PROPERTY_BLOOM_FILTER_EXPECTED_IDS,
+                                          String.valueOf(
+                                                  BloomFilteredContentResolver.DEFAULT_BLOOM_FILTER_EXPECTED_IDS))),
+                    Double.parseDouble(cr.get(
+                            contentProviderName + BloomFilteredContentResolver.PROPERTY_BLOOM_FILTER_FALSE_POSITIVE_RATE,
+                            String.valueOf(BloomFilteredContentResolver.DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE))));
+            getSharedContentResolver().addBloomFilter(bloomFilter);
+            contentResolver = bloomFilter;
+        }
+        return metrics == null ? contentResolver : metrics.measure(contentResolver);
 
     }
 
@@ -136,22 +432,62 @@ public class ContentResolverModule extends ModuleBase
     }
 
 
-    /*Mainly here to remember that we can hook this method*/
+    /**
+     * Add a listener that rejects RTMP streams for content that cannot be resolved, once we have the stream name.
+     *
+     * @param stream The stream being created.
+     */
     @Override
     public void onStreamCreate(IMediaStream stream) {
-        // Do nothing.
+        if (!rejectUnknownContent || stream.getClient() == null) {
+            //Not rejecting, or not an RTMP stream. HTTP sessions are checked on create.
+            return;
+        }
+        WMSProperties props = stream.getProperties();
+        synchronized(props) {
+            props.put(UNKNOWN_CONTENT_REJECTER, unknownContentRejecter);
+        }
+        stream.addClientListener(unknownContentRejecter);
     }
 
-    /*Mainly here to remember that we can hook this method*/
+    /**
+     * Remove the listener once we are done streaming. The listener in the stream may be from an earlier load of the
+     * application, so it is taken from the stream.
+     *
+     * @param stream The stream being destroyed.
+     */
     @Override
     public void onStreamDestroy(IMediaStream stream) {
-        // Do nothing.
+        WMSProperties props = stream.getProperties();
+        IMediaStreamActionNotify thisUnknownContentRejecter;
+        synchronized(props) {
+            thisUnknownContentRejecter = (IMediaStreamActionNotify) props.get(UNKNOWN_CONTENT_REJECTER);
+        }
+        if (thisUnknownContentRejecter != null) {
+            stream.removeClientListener(thisUnknownContentRejecter);
+            props.remove(UNKNOWN_CONTENT_REJECTER);
+        }
     }
 
-    /*Mainly here to remember that we can hook this method*/
+    /**
+     * Log how well the cache of resolved files worked, and stop using the shared content resolver. The last
+     * application using it stops its indexes, Bloom filters and threads.
+     */
     @Override
     public void onAppStop(IApplicationInstance appInstance) {
-        // Do nothing.
+        if (contentResolverMapper != null && contentResolverMapper.getCacheStats() != null) {
+            getLogger().info(contentResolverMapper.getCacheStats().toString());
+        }
+        if (rejectUnknownContent) {
+            getLogger().info("Rejected " + rejectedUnknownContent + " sessions and streams for unknown content");
+        }
+        if (sharedContentResolverKey != null) {
+            if (ContentResolverRegistry.release(sharedContentResolverKey)) {
+                getLogger().info("Stopped content resolver, no other applications in the VHost use it");
+            }
+            sharedContentResolverKey = null;
+            sharedContentResolver = null;
+        }
     }
 
     /*Mainly here to remember that we can hook this method*/
@@ -185,10 +521,27 @@ public class ContentResolverModule extends ModuleBase
         // Do nothing.
     }
 
-    /*Mainly here to remember that we can hook this method*/
+    /**
+     * Reject HTTP sessions for content that cannot be resolved, before Wowza tries to open a file for it.
+     *
+     * @param httpSession The session being created.
+     */
     @Override
     public void onHTTPSessionCreate(IHTTPStreamerSession httpSession) {
-        // Do nothing.
+        if (!rejectUnknownContent || contentResolverMapper == null) {
+            return;
+        }
+        String streamName = httpSession.getStreamName();
+        try {
+            if (streamName != null && !contentResolverMapper.hasContent(streamName)) {
+                rejectedUnknownContent.incrementAndGet();
+                httpSession.rejectSession();
+                getLogger().info("Content not found, rejected session for '" + streamName + "'");
+            }
+        } catch (ContentResolverOverloadedException e) {
+            // It is unknown whether the content exists, so the session is not rejected
+            getLogger().warn("Could not check content of session for '" + streamName + "': " + e.getMessage());
+        }
     }
 
     /*Mainly here to remember that we can hook this method*/
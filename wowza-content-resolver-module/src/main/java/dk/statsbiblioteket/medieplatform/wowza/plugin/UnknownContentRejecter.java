@@ -0,0 +1,66 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.stream.IMediaStream;
+import com.wowza.wms.stream.MediaStreamActionNotify3Base;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverOverloadedException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Action notifier that stops an RTMP stream playing content that cannot be resolved, before Wowza tries to open a
+ * file for it.
+ */
+class UnknownContentRejecter extends MediaStreamActionNotify3Base {
+
+    private final ContentResolverMapper contentResolverMapper;
+    private final WMSLogger logger;
+    private final AtomicLong rejected;
+
+    /**
+     * Initialise the notifier.
+     *
+     * @param contentResolverMapper The mapper used for resolving the stream names.
+     * @param logger Logger for reporting rejected streams.
+     * @param rejected Counter of rejected streams.
+     */
+    public UnknownContentRejecter(ContentResolverMapper contentResolverMapper, WMSLogger logger, AtomicLong rejected) {
+        super();
+        this.contentResolverMapper = contentResolverMapper;
+        this.logger = logger;
+        this.rejected = rejected;
+    }
+
+    /**
+     * Check that the stream name can be resolved. Close the stream if it cannot.
+     * Called when a stream gets a play event.
+     *
+     * @param stream The stream being played.
+     * @param streamName Name of stream.
+     * @param playStart Play start. Not used.
+     * @param playLen Play length. Not used.
+     * @param playReset Play reset. Not used.
+     */
+    public void onPlay(IMediaStream stream, String streamName, double playStart,
+            double playLen, int playReset) {
+        if (streamName == null) {
+            return;
+        }
+        try {
+            if (contentResolverMapper.hasContent(streamName)) {
+                return;
+            }
+        } catch (ContentResolverOverloadedException e) {
+            // It is unknown whether the content exists, so the stream is not rejected
+            logger.warn("Could not check content of stream for '" + streamName + "': " + e.getMessage());
+            return;
+        }
+        rejected.incrementAndGet();
+        logger.info("Content not found, rejected stream for '" + streamName + "'");
+        stream.sendStreamNotFound("Content not found");
+        if (stream.getClient() != null) {
+            stream.getClient().setShutdownClient(true);
+            stream.getClient().shutdownClient();
+        }
+    }
+}
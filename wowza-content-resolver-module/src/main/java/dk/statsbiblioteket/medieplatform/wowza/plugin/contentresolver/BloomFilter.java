@@ -0,0 +1,123 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings, telling whether a string was definitely never added, or may have been added.
+ *
+ * Strings can be added and checked from several threads at once. The filter is sized from the expected number of
+ * strings and the wanted rate of false positives. Adding more strings than expected raises the false positive rate,
+ * see {@link #getFalsePositiveRate()}.
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Create an empty Bloom filter.
+     *
+     * @param expectedInsertions Number of strings expected to be added.
+     * @param falsePositiveRate Wanted rate of false positives when that many strings are added, between 0 and 1.
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter size: expectedInsertions=" + expectedInsertions
+                                                       + ", falsePositiveRate=" + falsePositiveRate);
+        }
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate)
+                                                    / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = 64L * words;
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * Add a string.
+     * @param value The string.
+     */
+    public void put(String value) {
+        long first = hash(value);
+        long second = mix(first ^ 0x9e3779b97f4a7c15L);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(first, second, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+            } while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * Check whether a string may have been added.
+     * @param value The string.
+     * @return False if the string was definitely never added.
+     */
+    public boolean mightContain(String value) {
+        long first = hash(value);
+        long second = mix(first ^ 0x9e3779b97f4a7c15L);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(first, second, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the current rate of false positives, from the fraction of bits that are set.
+     * @return The probability that a string never added is reported as possibly added.
+     */
+    public double getFalsePositiveRate() {
+        long set = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            set += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) set / bitCount, hashCount);
+    }
+
+    /**
+     * @return Memory used for the bits of the filter, in bytes.
+     */
+    public long getMemoryBytes() {
+        return bitCount / 8;
+    }
+
+    /**
+     * @return Number of hash functions used.
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private long index(long first, long second, int i) {
+        long combined = first + i * second;
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return combined % bitCount;
+    }
+
+    /** 64 bit FNV-1a hash of the characters, finished with the MurmurHash3 mixing function. */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
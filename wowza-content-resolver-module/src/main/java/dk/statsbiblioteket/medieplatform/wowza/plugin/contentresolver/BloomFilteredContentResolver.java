@@ -0,0 +1,284 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content resolver that keeps a Bloom filter of the IDs in a content provider's directory tree, and only asks the
+ * content resolver of the provider about IDs that may be there. IDs that are definitely not there are answered
+ * without touching the file system, which saves a directory listing for each provider that does not have the content.
+ *
+ * The filter is built by walking the directories, and rebuilt at an interval so removed files are forgotten and the
+ * false positive rate stays low. Between rebuilds, files added are added to the filter as they are seen by a watch
+ * service. Until the first build is done, every ID is passed on.
+ *
+ * The watch service only sees files written on this host. Files written to NFS by other hosts are not in the filter
+ * until the next rebuild, so the rebuild interval is the window in which such content is answered as not found, and
+ * the mapper remembers that answer for its negative time to live. The filter is therefore off by default, and should
+ * only be used for content providers whose files are written on this host. A filter is only used until twice the
+ * rebuild interval after its walk started, so a rebuild that fails or hangs makes every ID pass on instead of keeping
+ * an old filter.
+ *
+ * The directories are walked in the pool given to {@link #start(Duration, ForkJoinPool)}, never in the common pool,
+ * so the blocking file system calls of a walk do not hold up other users of the common pool.
+ */
+public class BloomFilteredContentResolver implements ContentResolver, DirectoryWatcher.Listener, Closeable {
+    /** Property for keeping Bloom filters of the IDs of each content provider. */
+    public static final String PROPERTY_BLOOM_FILTER = "contentResolverBloomFilter";
+    /** Property for how often the Bloom filters are rebuilt. */
+    public static final String PROPERTY_BLOOM_FILTER_REBUILD_MINUTES = "contentResolverBloomFilterRebuildMinutes";
+    /** Property for the number of IDs expected in a content provider, prefixed with the provider name. */
+    public static final String PROPERTY_BLOOM_FILTER_EXPECTED_IDS = "bloomFilterExpectedIds";
+    /** Property for the wanted false positive rate for a content provider, prefixed with the provider name. */
+    public static final String PROPERTY_BLOOM_FILTER_FALSE_POSITIVE_RATE = "bloomFilterFalsePositiveRate";
+    public static final long DEFAULT_BLOOM_FILTER_REBUILD_MINUTES = 10;
+    public static final long DEFAULT_BLOOM_FILTER_EXPECTED_IDS = 1000000;
+    public static final double DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    private final WMSLogger logger;
+    private final ContentResolver contentResolver;
+    private final DirectoryLayout layout;
+    private final long expectedIds;
+    private final double falsePositiveRate;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    /** The filter used for lookups. Null until built. */
+    private volatile BloomFilter filter;
+    /** The filter being built, which must also get added IDs. Null if not rebuilding. */
+    private volatile BloomFilter nextFilter;
+    /** When the walk of the filter used for lookups started, from System.nanoTime(). */
+    private volatile long filterWalkStartNanos;
+    /** How long after its walk started a filter is used for lookups. */
+    private volatile long maxAgeNanos = Long.MAX_VALUE;
+    private DirectoryWatcher watcher;
+    private ScheduledExecutorService rebuilder;
+    /** The pool walking the directories. Null until started, walks then run in the common pool. */
+    private volatile ForkJoinPool walkPool;
+
+    /**
+     * Create a Bloom filtered content resolver. It passes every ID on until started.
+     *
+     * @param logger Logger for reporting builds of the filter.
+     * @param contentResolver The content resolver of the content provider.
+     * @param layout The directory layout of the content provider.
+     * @param expectedIds Number of IDs expected in the content provider.
+     * @param falsePositiveRate Wanted rate of IDs that are passed on although the provider does not have them.
+     */
+    public BloomFilteredContentResolver(WMSLogger logger, ContentResolver contentResolver, DirectoryLayout layout,
+                                        long expectedIds, double falsePositiveRate) {
+        this.logger = logger;
+        this.contentResolver = contentResolver;
+        this.layout = layout;
+        this.expectedIds = expectedIds;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Start watching the directories, build the filter in the background, and rebuild it at an interval.
+     *
+     * @param rebuildInterval How often the filter is rebuilt.
+     * @param walkPool The pool walking the directories, which must not be the common pool.
+     * @throws IOException If the watch service could not be created.
+     */
+    public void start(Duration rebuildInterval, ForkJoinPool walkPool) throws IOException {
+        this.walkPool = walkPool;
+        setMaxAge(rebuildInterval.multipliedBy(2));
+        watcher = new DirectoryWatcher(logger, layout, this);
+        watcher.start();
+        rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BloomFilterRebuilder-" + layout.getBaseDirectory().getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilder.scheduleWithFixedDelay(this::rebuild, 0, rebuildInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** Build a new filter from the directories, and use it for lookups. */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        long walkStart = System.nanoTime();
+        BloomFilter next = new BloomFilter(expectedIds, falsePositiveRate);
+        nextFilter = next;
+        try {
+            walk(new DirectoryWalk(logger, layout, watcher == null ? null : watcher::register,
+                                   file -> add(next, file)));
+            filterWalkStartNanos = walkStart;
+            filter = next;
+        } catch (RuntimeException e) {
+            logger.error("Could not build Bloom filter for " + layout.getBaseDirectory(), e);
+        } finally {
+            nextFilter = null;
+        }
+        logger.info("Built Bloom filter for " + layout.getBaseDirectory() + " in "
+                            + (System.currentTimeMillis() - start) + " ms. " + this);
+    }
+
+    /**
+     * Set how long after its walk started a filter is used for lookups. Older filters pass every ID on.
+     * @param maxAge The maximum age of the filter.
+     */
+    void setMaxAge(Duration maxAge) {
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    /**
+     * Resolve an ID, if the content provider may have it.
+     *
+     * @param id The ID.
+     * @return The content from the content resolver, or content without resources if the provider does not have it.
+     */
+    @Override
+    public Content getContent(String id) {
+        lookups.incrementAndGet();
+        BloomFilter current = filter;
+        if (current != null && System.nanoTime() - filterWalkStartNanos >= maxAgeNanos) {
+            // Too old to trust that IDs missing from it are missing from the directories
+            current = null;
+        }
+        if (current != null && !current.mightContain(id)) {
+            skipped.incrementAndGet();
+            Content content = new Content();
+            content.setResources(Collections.emptyList());
+            return content;
+        }
+        Content content = contentResolver.getContent(id);
+        if (current != null && (content == null || content.getResources() == null
+                || content.getResources().isEmpty())) {
+            falsePositives.incrementAndGet();
+        }
+        return content;
+    }
+
+    /**
+     * @return Number of IDs looked up.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return Number of IDs answered without asking the content resolver.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return Number of IDs passed on to the content resolver, which did not have them.
+     */
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    /**
+     * @return Observed rate of IDs passed on although the provider did not have them, among IDs it did not have.
+     */
+    public double getObservedFalsePositiveRate() {
+        long negatives = skipped.get() + falsePositives.get();
+        return negatives == 0 ? 0 : (double) falsePositives.get() / negatives;
+    }
+
+    /**
+     * @return False positive rate estimated from the filter. 1 until the filter is built.
+     */
+    public double getEstimatedFalsePositiveRate() {
+        BloomFilter current = filter;
+        return current == null ? 1 : current.getFalsePositiveRate();
+    }
+
+    /**
+     * @return Memory used by the filter in bytes.
+     */
+    public long getMemoryBytes() {
+        BloomFilter current = filter;
+        return current == null ? 0 : current.getMemoryBytes();
+    }
+
+    /**
+     * @return The directory layout of the content provider.
+     */
+    public DirectoryLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public void fileCreated(Path file) {
+        BloomFilter current = filter;
+        if (current != null) {
+            add(current, file);
+        }
+        BloomFilter next = nextFilter;
+        if (next != null) {
+            add(next, file);
+        }
+    }
+
+    @Override
+    public void fileDeleted(Path file) {
+        // Bloom filters cannot forget, removed files are forgotten at the next rebuild
+    }
+
+    @Override
+    public void directoryCreated(Path directory, int depth) {
+        walk(new DirectoryWalk(logger, layout, directory, depth, watcher::register, this::fileCreated));
+    }
+
+    @Override
+    public void directoryDeleted(Path directory) {
+        // Bloom filters cannot forget, removed files are forgotten at the next rebuild
+    }
+
+    @Override
+    public void changesLost(Path directory, int depth) {
+        directoryCreated(directory, depth);
+    }
+
+    /** Stop watching the directories and rebuilding the filter. The filter is kept. */
+    @Override
+    public void close() throws IOException {
+        if (rebuilder != null) {
+            rebuilder.shutdownNow();
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    private void walk(DirectoryWalk directoryWalk) {
+        ForkJoinPool pool = walkPool;
+        if (pool == null) {
+            directoryWalk.invoke();
+        } else {
+            pool.invoke(directoryWalk);
+        }
+    }
+
+    private void add(BloomFilter bloomFilter, Path file) {
+        String relativePath = layout.getRelativePath(file);
+        String relativeDirectory = relativePath.substring(0, relativePath.lastIndexOf('/') + 1);
+        for (String id : layout.getIds(relativeDirectory, file.getFileName().toString())) {
+            bloomFilter.put(id);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Bloom filter for " + layout.getBaseDirectory() + ": lookups=" + lookups + ", skipped=" + skipped
+                + ", falsePositives=" + falsePositives + ", estimatedFalsePositiveRate="
+                + String.format("%.4f", getEstimatedFalsePositiveRate()) + ", memoryBytes=" + getMemoryBytes();
+    }
+}
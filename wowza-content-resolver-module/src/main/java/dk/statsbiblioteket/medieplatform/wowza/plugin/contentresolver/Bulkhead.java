@@ -0,0 +1,120 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit on the number of lookups running at the same time in a content resolver. Each ID looked up takes one permit
+ * for its lookup in all content providers. A lookup waits a limited time for another lookup to finish before it is
+ * rejected, so a spike of lookups of cold content cannot block every Wowza handler thread on slow storage.
+ */
+public class Bulkhead {
+    /** Property for limiting the number of lookups running at the same time. */
+    public static final String PROPERTY_BULKHEAD = "contentResolverBulkhead";
+    /** Property for the number of lookups running at the same time. */
+    public static final String PROPERTY_BULKHEAD_MAX_CONCURRENT_SCANS = "contentResolverBulkheadMaxConcurrentScans";
+    /** Property for how long a lookup waits for another lookup to finish before it is rejected. */
+    public static final String PROPERTY_BULKHEAD_WAIT_MILLIS = "contentResolverBulkheadWaitMillis";
+    public static final int DEFAULT_BULKHEAD_MAX_CONCURRENT_SCANS = 8;
+    public static final long DEFAULT_BULKHEAD_WAIT_MILLIS = 2000;
+
+    private final int maxConcurrentScans;
+    private final Semaphore permits;
+    private final long waitNanos;
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+
+    /**
+     * Create a bulkhead.
+     *
+     * @param maxConcurrentScans Number of lookups running at the same time.
+     * @param waitTimeout How long a lookup waits for another lookup to finish before it is rejected.
+     */
+    public Bulkhead(int maxConcurrentScans, Duration waitTimeout) {
+        this.maxConcurrentScans = maxConcurrentScans;
+        this.permits = new Semaphore(maxConcurrentScans, true);
+        this.waitNanos = waitTimeout.toNanos();
+    }
+
+    /**
+     * Wait for a lookup to finish if the maximum number are running.
+     *
+     * @return True if the lookup may run, and {@link #release()} must be called after it. False if it was rejected.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    boolean acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        boolean acquired = permits.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+        waitNanosTotal.addAndGet(System.nanoTime() - start);
+        if (acquired) {
+            admitted.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+        }
+        return acquired;
+    }
+
+    /** Let the next lookup run. */
+    void release() {
+        permits.release();
+    }
+
+    /** Count a lookup that shared the result of a concurrent lookup of the same ID. */
+    void coalesced() {
+        coalesced.incrementAndGet();
+    }
+
+    /**
+     * @return How long a lookup waits for another lookup to finish before it is rejected, in nanoseconds.
+     */
+    long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * @return Number of lookups allowed to run.
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * @return Number of lookups rejected because too many lookups were running for too long.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return Number of lookups that shared the result of a concurrent lookup of the same ID.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return Number of lookups running now.
+     */
+    public int getActiveScans() {
+        return maxConcurrentScans - permits.availablePermits();
+    }
+
+    /**
+     * @return Number of lookups waiting for another lookup to finish now.
+     */
+    public int getQueuedLookups() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public String toString() {
+        long requests = admitted.get() + rejected.get();
+        return "Bulkhead of " + maxConcurrentScans + " lookups: admitted=" + admitted + ", rejected="
+                + rejected + ", coalesced=" + coalesced + ", averageWaitMillis=" + String.format(
+                "%.2f", requests == 0 ? 0.0 : waitNanosTotal.get() / 1e6 / requests);
+    }
+}
@@ -0,0 +1,99 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Content resolver that runs the lookups of the content providers through a {@link Bulkhead}, taking one permit for
+ * each ID looked up. Concurrent lookups of the same ID share one lookup, and lookups that cannot get a permit within
+ * the wait timeout fail with a {@link ContentResolverOverloadedException}, so they are not remembered as not found.
+ */
+public class BulkheadContentResolver implements ContentResolver {
+    private final WMSLogger logger;
+    private final ContentResolver contentResolver;
+    private final Bulkhead bulkhead;
+    /** Scans running or waiting, by ID. */
+    private final ConcurrentMap<String, CompletableFuture<Content>> lookups = new ConcurrentHashMap<>();
+
+    /**
+     * Create a bulkhead content resolver.
+     *
+     * @param logger Logger for reporting rejected lookups.
+     * @param contentResolver The content resolver of the content providers.
+     * @param bulkhead The bulkhead of the content resolver.
+     */
+    public BulkheadContentResolver(WMSLogger logger, ContentResolver contentResolver, Bulkhead bulkhead) {
+        this.logger = logger;
+        this.contentResolver = contentResolver;
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Look up an ID, or wait for a concurrent lookup of the ID.
+     *
+     * @param id The ID.
+     * @return The content from the content resolver.
+     * @throws ContentResolverOverloadedException If the lookup was rejected, timed out waiting for a concurrent lookup
+     * or was interrupted.
+     */
+    @Override
+    public Content getContent(String id) {
+        CompletableFuture<Content> lookup = new CompletableFuture<>();
+        CompletableFuture<Content> running = lookups.putIfAbsent(id, lookup);
+        if (running != null) {
+            bulkhead.coalesced();
+            return await(id, running);
+        }
+        try {
+            if (!bulkhead.acquire()) {
+                logger.warn("Too many lookups, rejected looking up '" + id + "'");
+                throw new ContentResolverOverloadedException("Too many lookups, rejected looking up '" + id + "'");
+            }
+            try {
+                Content content = contentResolver.getContent(id);
+                lookup.complete(content);
+                return content;
+            } finally {
+                bulkhead.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ContentResolverOverloadedException overloaded = new ContentResolverOverloadedException(
+                    "Interrupted while waiting to look up '" + id + "'", e);
+            lookup.completeExceptionally(overloaded);
+            throw overloaded;
+        } catch (RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            lookups.remove(id, lookup);
+        }
+    }
+
+    /** Wait for a concurrent lookup, at most as long as a lookup waits for a permit. */
+    private Content await(String id, CompletableFuture<Content> running) {
+        try {
+            return running.get(bulkhead.getWaitNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Timed out waiting for concurrent lookup of '" + id + "'");
+            throw new ContentResolverOverloadedException("Timed out waiting for concurrent lookup of '" + id + "'", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ContentResolverOverloadedException("Interrupted while waiting to look up '" + id + "'", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Could not resolve '" + id + "'", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the most played streams of the last days when the application starts, so the caches are warm before the
+ * viewers come back.
+ *
+ * The plays are counted from the StreamingStat logs written by the statistics module, named
+ * StreamingStat-yyyy-MM-dd.log with lines of the form "timestamp;PLAY;streaming URL;user attributes". The most played
+ * names are resolved one at a time from a low priority background thread, at a limited rate so live viewers are not
+ * slowed down.
+ */
+public class CacheWarmer implements Closeable {
+    /** Property for resolving the most played streams when the application starts. */
+    public static final String PROPERTY_WARM_UP = "contentResolverWarmUp";
+    /** Property for the number of days of StreamingStat logs read, before today. */
+    public static final String PROPERTY_WARM_UP_DAYS = "contentResolverWarmUpDays";
+    /** Property for the number of most played streams resolved. */
+    public static final String PROPERTY_WARM_UP_TOP_ITEMS = "contentResolverWarmUpTopItems";
+    /** Property for the maximum number of streams resolved per second. */
+    public static final String PROPERTY_WARM_UP_PER_SECOND = "contentResolverWarmUpPerSecond";
+    /** Property for also prefetching the start of the files resolved, if prefetching is on. */
+    public static final String PROPERTY_WARM_UP_PREFETCH = "contentResolverWarmUpPrefetch";
+    /** Property of the statistics module for the folder of the StreamingStat logs. */
+    public static final String PROPERTY_STREAMING_STATISTICS_LOG_FOLDER = "streamingStatisticsLogFolder";
+    public static final int DEFAULT_WARM_UP_DAYS = 1;
+    public static final int DEFAULT_WARM_UP_TOP_ITEMS = 1000;
+    public static final double DEFAULT_WARM_UP_PER_SECOND = 10;
+
+    private static final String FILENAME_PREFIX = "StreamingStat-";
+    private static final String PLAY_EVENT = "PLAY";
+    /** The StreamingStat logs are named by the date in the default time zone of the server. */
+    private static final ZoneId LOG_ZONE = ZoneId.systemDefault();
+
+    private final WMSLogger logger;
+    private final Path logFolder;
+    private final int days;
+    private final int topItems;
+    private final double perSecond;
+    private final Consumer<String> resolver;
+    private Thread thread;
+
+    /**
+     * Create a cache warmer.
+     *
+     * @param logger Logger for reporting the warm up.
+     * @param logFolder The folder of the StreamingStat logs.
+     * @param days Number of days of logs read, before today.
+     * @param topItems Number of most played names resolved.
+     * @param perSecond Maximum number of names resolved per second.
+     * @param resolver Resolves a name, as requested by a player.
+     */
+    public CacheWarmer(WMSLogger logger, Path logFolder, int days, int topItems, double perSecond,
+                       Consumer<String> resolver) {
+        this.logger = logger;
+        this.logFolder = logFolder;
+        this.days = days;
+        this.topItems = topItems;
+        this.perSecond = perSecond;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Read the logs and resolve the most played names in the background.
+     */
+    public void start() {
+        thread = new Thread(() -> warmUp(LocalDate.now(LOG_ZONE)), "CacheWarmer-" + logFolder.getFileName());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Read the logs and resolve the most played names, stopping if interrupted.
+     * @param today The date of today's log.
+     */
+    void warmUp(LocalDate today) {
+        long start = System.currentTimeMillis();
+        List<String> names = getMostPlayed(getLogFiles(today), topItems);
+        long intervalNanos = perSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / perSecond) : 0;
+        int resolved = 0;
+        try {
+            for (String name : names) {
+                long next = System.nanoTime() + intervalNanos;
+                try {
+                    resolver.accept(name);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not resolve '" + name + "' while warming up", e);
+                }
+                resolved++;
+                long remaining = next - System.nanoTime();
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Warmed up " + resolved + " of the " + names.size() + " most played streams in " + logFolder
+                            + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * @param today The date of today's log.
+     * @return The logs of the last days and today that exist, oldest first.
+     */
+    List<Path> getLogFiles(LocalDate today) {
+        List<Path> logFiles = new ArrayList<>();
+        for (int day = days; day >= 0; day--) {
+            Path logFile = logFolder.resolve(FILENAME_PREFIX + today.minusDays(day) + ".log");
+            if (Files.isRegularFile(logFile)) {
+                logFiles.add(logFile);
+            }
+        }
+        return logFiles;
+    }
+
+    /**
+     * Count the plays of each name in StreamingStat logs.
+     *
+     * @param logFiles The logs.
+     * @param topItems Number of names returned.
+     * @return The most played names, most played first.
+     */
+    List<String> getMostPlayed(List<Path> logFiles, int topItems) {
+        Map<String, Integer> plays = new HashMap<>();
+        for (Path logFile : logFiles) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(";", 4);
+                    if (fields.length >= 3 && fields[1].equals(PLAY_EVENT)) {
+                        String name = getStreamName(fields[2]);
+                        if (name != null) {
+                            plays.merge(name, 1, Integer::sum);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not read " + logFile + ", it is not used for warming up", e);
+            }
+        }
+        return plays.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(topItems)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the name of the stream from a streaming URL in the StreamingStat log. RTMP URLs have the form
+     * "uri?query/ext:name", HTTP URLs have the form "application/instance/ext:name/playlist?query".
+     *
+     * @param streamingUrl The streaming URL.
+     * @return The name, without extension, or null if the URL has neither form.
+     */
+    static String getStreamName(String streamingUrl) {
+        int query = streamingUrl.indexOf('?');
+        String segment;
+        if (query >= 0 && streamingUrl.indexOf('/', query) >= 0) {
+            segment = streamingUrl.substring(streamingUrl.lastIndexOf('/') + 1);
+        } else {
+            String[] segments = (query >= 0 ? streamingUrl.substring(0, query) : streamingUrl).split("/");
+            if (segments.length < 2) {
+                return null;
+            }
+            segment = segments[segments.length - 2];
+        }
+        // The same cleaning as the mapper does, so plays of the same content are counted together
+        if (segment.contains(".")) {
+            segment = segment.substring(0, segment.indexOf('.'));
+        }
+        segment = segment.substring(segment.lastIndexOf(':') + 1);
+        return segment.isEmpty() ? null : segment;
+    }
+
+    /**
+     * Stop warming up.
+     */
+    @Override
+    public void close() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the start of resolved files in the background, so the bytes Wowza reads first are in the page cache when it
+ * opens the file.
+ *
+ * The head of the file is read, and for MP4 files the top level boxes are walked to find the moov box, which is read
+ * too when it is after the head. Files are not prefetched again for a while after they were prefetched, as their start
+ * is then likely to still be cached. The time from opening a file to the first read returning is measured, as the time
+ * to first byte of the storage.
+ */
+public class ContentPrefetcher implements Closeable {
+    /** Property for reading the start of resolved files in the background. */
+    public static final String PROPERTY_PREFETCH = "contentResolverPrefetch";
+    /** Property for the number of bytes read from the start of a file. */
+    public static final String PROPERTY_PREFETCH_HEAD_KILOBYTES = "contentResolverPrefetchHeadKilobytes";
+    /** Property for the maximum number of bytes read from the moov box of an MP4 file. */
+    public static final String PROPERTY_PREFETCH_MOOV_KILOBYTES = "contentResolverPrefetchMoovKilobytes";
+    /** Property for the number of files read at the same time. */
+    public static final String PROPERTY_PREFETCH_THREADS = "contentResolverPrefetchThreads";
+    public static final long DEFAULT_PREFETCH_HEAD_KILOBYTES = 1024;
+    public static final long DEFAULT_PREFETCH_MOOV_KILOBYTES = 4096;
+    public static final int DEFAULT_PREFETCH_THREADS = 4;
+
+    /** How long a file is not prefetched again. */
+    private static final long PREFETCH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /** Number of files remembered as recently prefetched. */
+    private static final int MAXIMUM_RECENT_FILES = 10000;
+    /** Number of prefetches waiting for a thread. Files resolved while the queue is full are not prefetched. */
+    private static final int MAXIMUM_QUEUED_PREFETCHES = 1000;
+    /** Number of top level MP4 boxes looked at when looking for the moov box. */
+    private static final int MAXIMUM_BOXES = 64;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final WMSLogger logger;
+    private final long headBytes;
+    private final long moovBytes;
+    private final ThreadPoolExecutor prefetcher;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+    /** When files were last prefetched, by path, least recently prefetched first. Guarded by itself. */
+    private final LinkedHashMap<String, Long> recentFiles;
+    /** Paths being prefetched or waiting to be. */
+    private final Set<String> prefetching = ConcurrentHashMap.newKeySet();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong moovBoxes = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeToFirstByteNanos = new AtomicLong();
+    private final AtomicLong maxTimeToFirstByteNanos = new AtomicLong();
+
+    /**
+     * Create a content prefetcher.
+     *
+     * @param logger Logger for reporting failed prefetches.
+     * @param headBytes Number of bytes read from the start of a file.
+     * @param moovBytes Maximum number of bytes read from the moov box of an MP4 file. Zero to only read the head.
+     * @param threads Number of files read at the same time.
+     */
+    public ContentPrefetcher(WMSLogger logger, long headBytes, long moovBytes, int threads) {
+        this.logger = logger;
+        this.headBytes = headBytes;
+        this.moovBytes = moovBytes;
+        this.recentFiles = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAXIMUM_RECENT_FILES;
+            }
+        };
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.prefetcher = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                 new ArrayBlockingQueue<>(MAXIMUM_QUEUED_PREFETCHES), runnable -> {
+            Thread thread = new Thread(runnable, "ContentPrefetcher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Read the start of a file in the background, unless it was recently prefetched. Files skipped because the queue
+     * is full are prefetched the next time they are resolved.
+     *
+     * @param file The resolved file.
+     */
+    public void prefetch(File file) {
+        String path = file.getPath();
+        long now = System.currentTimeMillis();
+        synchronized (recentFiles) {
+            Long prefetched = recentFiles.get(path);
+            if (prefetched != null && now - prefetched < PREFETCH_INTERVAL_MILLIS) {
+                return;
+            }
+        }
+        if (!prefetching.add(path)) {
+            return;
+        }
+        try {
+            prefetcher.execute(() -> {
+                try {
+                    read(file);
+                } finally {
+                    prefetching.remove(path);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            prefetching.remove(path);
+            skipped.incrementAndGet();
+            return;
+        }
+        synchronized (recentFiles) {
+            // Re-inserted, so the map stays ordered by time of prefetch
+            recentFiles.remove(path);
+            recentFiles.put(path, now);
+        }
+    }
+
+    /** Read the head of a file, and the moov box if it is an MP4 file. */
+    private void read(File file) {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = buffers.get();
+            long size = channel.size();
+            long head = Math.min(headBytes, size);
+            // Only the first read is timed, the rest of the head measures throughput rather than latency
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), head));
+            long read = head == 0 ? 0 : Math.max(channel.read(buffer, 0), 0);
+            long timeToFirstByte = System.nanoTime() - start;
+            if (read > 0) {
+                read += read(channel, buffer, read, head - read);
+            }
+            if (moovBytes > 0) {
+                long[] moov = findMoov(channel, buffer, size);
+                if (moov != null) {
+                    moovBoxes.incrementAndGet();
+                    // Only the part of the box after the head is not read already
+                    long from = Math.max(moov[0], head);
+                    long to = Math.min(moov[0] + Math.min(moov[1], moovBytes), size);
+                    if (to > from) {
+                        read += read(channel, buffer, from, to - from);
+                    }
+                }
+            }
+            bytesRead.addAndGet(read);
+            // Counted with the prefetch, so the average is over prefetches that succeeded
+            timeToFirstByteNanos.addAndGet(timeToFirstByte);
+            maxTimeToFirstByteNanos.accumulateAndGet(timeToFirstByte, Math::max);
+            prefetches.incrementAndGet();
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            logger.warn("Could not prefetch " + file, e);
+        }
+    }
+
+    /** Read a region of a file, discarding the bytes. */
+    private static long read(FileChannel channel, ByteBuffer buffer, long position, long length) throws IOException {
+        long read = 0;
+        while (read < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - read));
+            int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Walk the top level boxes of an MP4 file to find the moov box.
+     *
+     * @return The offset and size of the moov box, or null if the file has no moov box or is not an MP4 file.
+     */
+    static long[] findMoov(FileChannel channel, ByteBuffer buffer, long size) throws IOException {
+        long position = 0;
+        for (int box = 0; box < MAXIMUM_BOXES && position + 8 <= size; box++) {
+            buffer.clear();
+            buffer.limit(16);
+            int n = channel.read(buffer, position);
+            if (n < 8) {
+                return null;
+            }
+            long boxSize = buffer.getInt(0) & 0xFFFFFFFFL;
+            byte[] type = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                type[i] = buffer.get(4 + i);
+            }
+            if (boxSize == 1) {
+                if (n < 16) {
+                    return null;
+                }
+                boxSize = buffer.getLong(8);
+            } else if (boxSize == 0) {
+                boxSize = size - position;
+            }
+            if (boxSize < 8) {
+                return null;
+            }
+            if (new String(type, StandardCharsets.ISO_8859_1).equals("moov")) {
+                return new long[]{position, boxSize};
+            }
+            position += boxSize;
+        }
+        return null;
+    }
+
+    /**
+     * @return Number of files prefetched.
+     */
+    public long getPrefetches() {
+        return prefetches.get();
+    }
+
+    /**
+     * @return Number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return Number of MP4 moov boxes found.
+     */
+    public long getMoovBoxes() {
+        return moovBoxes.get();
+    }
+
+    /**
+     * @return Average time from opening a file to the first read returning, in milliseconds, of the files prefetched.
+     * Failed prefetches are not included.
+     */
+    public double getAverageTimeToFirstByteMillis() {
+        long count = prefetches.get();
+        return count == 0 ? 0 : timeToFirstByteNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return Longest time from opening a file to the first read returning, in milliseconds, of the files prefetched.
+     */
+    public double getMaxTimeToFirstByteMillis() {
+        return maxTimeToFirstByteNanos.get() / 1e6;
+    }
+
+    /**
+     * Stop prefetching files.
+     */
+    @Override
+    public void close() {
+        logger.info(toString());
+        prefetcher.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "Content prefetcher: prefetches=" + prefetches + ", moovBoxes=" + moovBoxes + ", bytesRead=" + bytesRead
+                + ", skipped=" + skipped + ", failures=" + failures + ", averageTimeToFirstByteMillis="
+                + String.format("%.2f", getAverageTimeToFirstByteMillis()) + ", maxTimeToFirstByteMillis="
+                + String.format("%.2f", getMaxTimeToFirstByteMillis());
+    }
+}
@@ -0,0 +1,184 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Resource;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts the lookups, hits and misses of a content provider, the time the lookups take and the directories listed.
+ *
+ * The lookups are measured by wrapping the content resolver of the provider with {@link #measure(ContentResolver)},
+ * so the time includes the Bloom filter and direct path probing. Directory scans are counted by wrapping the resolver
+ * that lists directories with {@link #countScans(ContentResolver)}, or read from the content index with
+ * {@link #setDirectoryScans(LongSupplier)}.
+ */
+public class ContentProviderMetrics implements ContentProviderMetricsMXBean {
+    /** Name of the content provider if only one is configured. */
+    public static final String DEFAULT_NAME = "default";
+
+    private final String name;
+    private final String presentationType;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile LongSupplier directoryScans = () -> 0;
+
+    /**
+     * Create metrics for a content provider.
+     *
+     * @param name The name of the content provider.
+     * @param presentationType The presentation type of the files counted as hits.
+     */
+    public ContentProviderMetrics(String name, String presentationType) {
+        this.name = name;
+        this.presentationType = presentationType;
+    }
+
+    /**
+     * Measure the lookups of a content resolver.
+     *
+     * @param contentResolver The content resolver of the content provider.
+     * @return A content resolver resolving with the given one, recording each lookup.
+     */
+    public ContentResolver measure(ContentResolver contentResolver) {
+        return id -> {
+            long start = System.nanoTime();
+            lookups.incrementAndGet();
+            try {
+                Content content = contentResolver.getContent(id);
+                if (hasResource(content)) {
+                    hits.incrementAndGet();
+                } else {
+                    misses.incrementAndGet();
+                }
+                return content;
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                throw e;
+            } finally {
+                latency.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Count the lookups of a content resolver that lists the directory of the ID for each lookup.
+     *
+     * @param contentResolver The content resolver listing directories.
+     * @return A content resolver resolving with the given one, counting each lookup as a directory scan.
+     */
+    public ContentResolver countScans(ContentResolver contentResolver) {
+        AtomicLong scans = new AtomicLong();
+        directoryScans = scans::get;
+        return id -> {
+            scans.incrementAndGet();
+            return contentResolver.getContent(id);
+        };
+    }
+
+    /**
+     * Read the number of directory scans from the resolver that does them.
+     * @param directoryScans Number of directories listed so far.
+     */
+    public void setDirectoryScans(LongSupplier directoryScans) {
+        this.directoryScans = directoryScans;
+    }
+
+    private boolean hasResource(Content content) {
+        if (content == null || content.getResources() == null) {
+            return false;
+        }
+        for (Resource resource : content.getResources()) {
+            if (presentationType.equals(resource.getType()) && resource.getUris() != null
+                    && !resource.getUris().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long found = hits.get();
+        long total = found + misses.get();
+        return total == 0 ? 0.0 : (double) found / total;
+    }
+
+    @Override
+    public long getDirectoryScans() {
+        return directoryScans.getAsLong();
+    }
+
+    @Override
+    public double getAverageLatencyMillis() {
+        return latency.getAverageMillis();
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return latency.getMaxMillis();
+    }
+
+    @Override
+    public double getLatency50thPercentileMillis() {
+        return latency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getLatency95thPercentileMillis() {
+        return latency.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getLatency99thPercentileMillis() {
+        return latency.getPercentileMillis(99);
+    }
+
+    @Override
+    public long[] getLatencyBucketBoundsMillis() {
+        return latency.getBucketBoundsMillis();
+    }
+
+    @Override
+    public long[] getLatencyCounts() {
+        return latency.getCounts();
+    }
+
+    @Override
+    public String toString() {
+        return "Content provider '" + name + "': lookups=" + getLookups() + ", hits=" + getHits() + ", misses="
+                + getMisses() + ", failures=" + getFailures() + ", directoryScans=" + getDirectoryScans()
+                + ", averageLatencyMillis=" + String.format(java.util.Locale.ROOT, "%.2f", getAverageLatencyMillis())
+                + ", 99thPercentileMillis=" + getLatency99thPercentileMillis();
+    }
+}
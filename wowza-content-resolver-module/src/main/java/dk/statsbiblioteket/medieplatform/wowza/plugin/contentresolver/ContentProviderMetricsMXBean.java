@@ -0,0 +1,77 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+/**
+ * Metrics of the lookups in a content provider, published over JMX.
+ */
+public interface ContentProviderMetricsMXBean {
+    /**
+     * @return Name of the content provider, "default" if only one is configured.
+     */
+    String getName();
+
+    /**
+     * @return Number of IDs looked up in the content provider.
+     */
+    long getLookups();
+
+    /**
+     * @return Number of lookups finding files of the presentation type.
+     */
+    long getHits();
+
+    /**
+     * @return Number of lookups finding no files of the presentation type.
+     */
+    long getMisses();
+
+    /**
+     * @return Number of lookups that failed with an exception.
+     */
+    long getFailures();
+
+    /**
+     * @return Fraction of the lookups finding files of the presentation type.
+     */
+    double getHitRate();
+
+    /**
+     * @return Number of directories listed while looking up IDs.
+     */
+    long getDirectoryScans();
+
+    /**
+     * @return Average time of a lookup, in milliseconds.
+     */
+    double getAverageLatencyMillis();
+
+    /**
+     * @return Highest time of a lookup, in milliseconds.
+     */
+    double getMaxLatencyMillis();
+
+    /**
+     * @return Estimated median time of a lookup, in milliseconds.
+     */
+    double getLatency50thPercentileMillis();
+
+    /**
+     * @return Estimated 95th percentile of the time of a lookup, in milliseconds.
+     */
+    double getLatency95thPercentileMillis();
+
+    /**
+     * @return Estimated 99th percentile of the time of a lookup, in milliseconds.
+     */
+    double getLatency99thPercentileMillis();
+
+    /**
+     * @return Upper bounds of the buckets of the latency histogram, in milliseconds.
+     */
+    long[] getLatencyBucketBoundsMillis();
+
+    /**
+     * @return Number of lookups in each bucket of the latency histogram. The last bucket counts the lookups slower
+     * than the last bound.
+     */
+    long[] getLatencyCounts();
+}
@@ -0,0 +1,260 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.ContentResolverMapper;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.CacheStats;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Metrics of a {@link SharedContentResolver} and its content providers, published over JMX and as JSON for the
+ * metrics HTTP provider.
+ *
+ * The content resolver is published as "dk.statsbiblioteket.medieplatform.wowza:type=ContentResolver" and each
+ * content provider as "type=ContentProvider", both keyed by the content resolver rather than by the applications
+ * sharing it: the VHost, the storage directory, and a hash of the key of the content resolver in
+ * {@link ContentResolverRegistry}, which tells content resolvers of the same directory with different settings apart.
+ * The metrics are published while the content resolver is in use, until the last application releases it.
+ */
+public class ContentResolverMetrics implements ContentResolverMetricsMXBean {
+    /** Property for measuring the lookups of the content providers and publishing the metrics. */
+    public static final String PROPERTY_METRICS = "contentResolverMetrics";
+
+    private static final String DOMAIN = "dk.statsbiblioteket.medieplatform.wowza";
+
+    private final WMSLogger logger;
+    private final String vhostName;
+    private final String name;
+    private final String configuration;
+    private final SharedContentResolver contentResolver;
+    private final List<ObjectName> objectNames = new ArrayList<>();
+
+    /**
+     * Create metrics of a content resolver.
+     *
+     * @param logger Logger for reporting if the metrics could not be published.
+     * @param key The key of the content resolver in {@link ContentResolverRegistry}.
+     * @param vhostName The name of the VHost.
+     * @param storageDirectory The storage directory of the content resolver.
+     * @param contentResolver The content resolver, with the metrics of its content providers.
+     */
+    public ContentResolverMetrics(WMSLogger logger, String key, String vhostName, String storageDirectory,
+                                  SharedContentResolver contentResolver) {
+        this.logger = logger;
+        this.vhostName = vhostName;
+        this.name = storageDirectory;
+        this.configuration = Integer.toHexString(key.hashCode());
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Publish the metrics of the content resolver and its content providers over JMX.
+     */
+    public synchronized void registerMBeans() {
+        String keys = ",vhost=" + ObjectName.quote(vhostName) + ",storageDir=" + ObjectName.quote(name)
+                + ",configuration=" + configuration;
+        registerMBean(this, "type=ContentResolver" + keys);
+        for (ContentProviderMetrics provider : contentResolver.getProviderMetrics()) {
+            registerMBean(provider, "type=ContentProvider" + keys + ",name=" + ObjectName.quote(provider.getName()));
+        }
+    }
+
+    private void registerMBean(Object mbean, String properties) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + properties);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+            objectNames.add(objectName);
+        } catch (JMException e) {
+            logger.warn("Could not publish metrics of content resolver '" + name + "' over JMX", e);
+        }
+    }
+
+    /**
+     * Stop publishing the metrics over JMX.
+     */
+    public synchronized void unregisterMBeans() {
+        for (ObjectName objectName : objectNames) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.debug("Could not unregister metrics " + objectName, e);
+            }
+        }
+        objectNames.clear();
+    }
+
+    private CacheStats getCacheStats() {
+        ContentResolverMapper mapper = contentResolver.getMapper();
+        return mapper == null ? null : mapper.getCacheStats();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public String[] getContentProviders() {
+        return contentResolver.getProviderMetrics().stream().map(ContentProviderMetrics::getName)
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public long getCacheHits() {
+        CacheStats stats = getCacheStats();
+        return stats == null ? 0 : stats.getHits();
+    }
+
+    @Override
+    public long getCacheNegativeHits() {
+        CacheStats stats = getCacheStats();
+        return stats == null ? 0 : stats.getNegativeHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        CacheStats stats = getCacheStats();
+        return stats == null ? 0 : stats.getMisses();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        CacheStats stats = getCacheStats();
+        return stats == null ? 0.0 : stats.getHitRate();
+    }
+
+    @Override
+    public int getCacheSize() {
+        CacheStats stats = getCacheStats();
+        return stats == null ? 0 : stats.getSize();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        CacheStats stats = getCacheStats();
+        return stats == null ? 0 : stats.getEvictions();
+    }
+
+    @Override
+    public double getCacheAverageLoadMillis() {
+        CacheStats stats = getCacheStats();
+        return stats == null ? 0.0 : stats.getAverageLoadTimeMillis();
+    }
+
+    @Override
+    public double getRenditionsCacheHitRate() {
+        ContentResolverMapper mapper = contentResolver.getMapper();
+        return mapper == null || mapper.getSmilGenerator() == null ? 0.0
+                : mapper.getSmilGenerator().getCacheStats().getHitRate();
+    }
+
+    @Override
+    public double getStagingHitRate() {
+        ContentResolverMapper mapper = contentResolver.getMapper();
+        StagingCache stagingCache = mapper == null ? null : mapper.getStagingCache();
+        if (stagingCache == null) {
+            return 0.0;
+        }
+        long local = stagingCache.getLocalRequests();
+        long total = local + stagingCache.getRemoteRequests();
+        return total == 0 ? 0.0 : (double) local / total;
+    }
+
+    @Override
+    public long getBloomFilterSkipped() {
+        long skipped = 0;
+        for (BloomFilteredContentResolver bloomFilter : contentResolver.getBloomFilters()) {
+            skipped += bloomFilter.getSkipped();
+        }
+        return skipped;
+    }
+
+    @Override
+    public long getBulkheadRejected() {
+        Bulkhead bulkhead = contentResolver.getBulkhead();
+        return bulkhead == null ? 0 : bulkhead.getRejected();
+    }
+
+    /**
+     * @return The metrics of the content resolver and its content providers as a JSON object.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"name\":").append(quote(name));
+        json.append(",\"configuration\":").append(quote(configuration));
+        json.append(",\"cache\":{\"hits\":").append(getCacheHits())
+                .append(",\"negativeHits\":").append(getCacheNegativeHits())
+                .append(",\"misses\":").append(getCacheMisses())
+                .append(",\"hitRate\":").append(format(getCacheHitRate()))
+                .append(",\"size\":").append(getCacheSize())
+                .append(",\"evictions\":").append(getCacheEvictions())
+                .append(",\"averageLoadMillis\":").append(format(getCacheAverageLoadMillis())).append('}');
+        json.append(",\"renditionsCacheHitRate\":").append(format(getRenditionsCacheHitRate()));
+        json.append(",\"stagingHitRate\":").append(format(getStagingHitRate()));
+        json.append(",\"bloomFilterSkipped\":").append(getBloomFilterSkipped());
+        json.append(",\"bulkheadRejected\":").append(getBulkheadRejected());
+        json.append(",\"contentProviders\":[");
+        String separator = "";
+        for (ContentProviderMetrics provider : contentResolver.getProviderMetrics()) {
+            json.append(separator);
+            separator = ",";
+            json.append("{\"name\":").append(quote(provider.getName()))
+                    .append(",\"lookups\":").append(provider.getLookups())
+                    .append(",\"hits\":").append(provider.getHits())
+                    .append(",\"misses\":").append(provider.getMisses())
+                    .append(",\"failures\":").append(provider.getFailures())
+                    .append(",\"hitRate\":").append(format(provider.getHitRate()))
+                    .append(",\"directoryScans\":").append(provider.getDirectoryScans())
+                    .append(",\"latency\":{\"averageMillis\":").append(format(provider.getAverageLatencyMillis()))
+                    .append(",\"maxMillis\":").append(format(provider.getMaxLatencyMillis()))
+                    .append(",\"50thPercentileMillis\":").append(format(provider.getLatency50thPercentileMillis()))
+                    .append(",\"95thPercentileMillis\":").append(format(provider.getLatency95thPercentileMillis()))
+                    .append(",\"99thPercentileMillis\":").append(format(provider.getLatency99thPercentileMillis()))
+                    .append(",\"buckets\":{");
+            long[] bounds = provider.getLatencyBucketBoundsMillis();
+            long[] counts = provider.getLatencyCounts();
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                json.append(bucket == 0 ? "" : ",")
+                        .append(quote(bucket < bounds.length ? String.valueOf(bounds[bucket]) : "+Inf"))
+                        .append(':').append(counts[bucket]);
+            }
+            json.append("}}}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,77 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+/**
+ * Metrics of the caches in front of the content providers of a {@link SharedContentResolver}, published over JMX. The
+ * metrics of each content provider are published as a {@link ContentProviderMetricsMXBean}.
+ */
+public interface ContentResolverMetricsMXBean {
+    /**
+     * @return The storage directory of the content resolver.
+     */
+    String getName();
+
+    /**
+     * @return Hash of the settings of the content resolver, telling content resolvers of the same directory apart.
+     */
+    String getConfiguration();
+
+    /**
+     * @return Names of the content providers.
+     */
+    String[] getContentProviders();
+
+    /**
+     * @return Number of names answered from the cache of resolved files.
+     */
+    long getCacheHits();
+
+    /**
+     * @return Number of names answered from the cache of resolved files as not found.
+     */
+    long getCacheNegativeHits();
+
+    /**
+     * @return Number of names that had to be resolved by the content providers.
+     */
+    long getCacheMisses();
+
+    /**
+     * @return Fraction of names answered from the cache of resolved files, including negative hits.
+     */
+    double getCacheHitRate();
+
+    /**
+     * @return Number of names in the cache of resolved files.
+     */
+    int getCacheSize();
+
+    /**
+     * @return Number of names evicted from the cache of resolved files.
+     */
+    long getCacheEvictions();
+
+    /**
+     * @return Average time of resolving a name missing from the cache, in milliseconds.
+     */
+    double getCacheAverageLoadMillis();
+
+    /**
+     * @return Fraction of SMIL requests answered from the cache of renditions, 0 if SMIL files are not generated.
+     */
+    double getRenditionsCacheHitRate();
+
+    /**
+     * @return Fraction of streamed files served from local copies, 0 if files are not copied.
+     */
+    double getStagingHitRate();
+
+    /**
+     * @return Number of lookups Bloom filters answered without asking the content providers.
+     */
+    long getBloomFilterSkipped();
+
+    /**
+     * @return Number of lookups rejected because too many lookups were running.
+     */
+    long getBulkheadRejected();
+}
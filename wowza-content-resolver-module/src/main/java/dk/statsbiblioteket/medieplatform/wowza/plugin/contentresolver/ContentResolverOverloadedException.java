@@ -0,0 +1,22 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+/**
+ * Thrown when a lookup could not be done because the content resolver was overloaded, so it is unknown whether the
+ * content exists. Unlike content without resources, this must not be remembered as "not found".
+ */
+public class ContentResolverOverloadedException extends RuntimeException {
+    /**
+     * @param message What could not be looked up, and why.
+     */
+    public ContentResolverOverloadedException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message What could not be looked up, and why.
+     * @param cause The exception that stopped the lookup.
+     */
+    public ContentResolverOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
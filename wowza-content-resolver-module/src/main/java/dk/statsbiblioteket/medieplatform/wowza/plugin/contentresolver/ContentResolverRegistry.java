@@ -0,0 +1,145 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Registry of the content resolvers in use, so applications with the same content resolver configuration share one
+ * content resolver, and with it one set of indexes, Bloom filters and cache of resolved files.
+ *
+ * Content resolvers are reference counted. The first application to acquire a key creates the content resolver, and
+ * the last application to release it closes it. Keys should include the VHost, so the sharing is VHost wide.
+ *
+ * Content resolvers are created and closed outside the lock of the registry, as building indexes can take minutes.
+ * Applications acquiring a key being created wait for that content resolver only.
+ */
+public final class ContentResolverRegistry {
+    /** Creator of a content resolver, called by the first application to use a configuration. */
+    public interface Factory {
+        /**
+         * @return A new, started content resolver.
+         * @throws IOException If the content resolver could not be started.
+         */
+        SharedContentResolver create() throws IOException;
+    }
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+
+    private ContentResolverRegistry() {
+    }
+
+    /**
+     * Get the content resolver for a configuration, creating it if no application uses it yet. If another application
+     * is creating it, wait until it is created.
+     *
+     * @param key The configuration, including the VHost.
+     * @param factory Creator of the content resolver.
+     * @return The shared content resolver.
+     * @throws IOException If the content resolver could not be created.
+     */
+    public static SharedContentResolver acquire(String key, Factory factory) throws IOException {
+        Entry entry;
+        boolean create = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                create = true;
+            }
+            entry.references++;
+        }
+        if (create) {
+            try {
+                SharedContentResolver contentResolver = factory.create();
+                entry.contentResolver.complete(contentResolver);
+                return contentResolver;
+            } catch (IOException | RuntimeException e) {
+                // Let the next application try again
+                synchronized (entries) {
+                    entries.remove(key, entry);
+                }
+                entry.contentResolver.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return entry.contentResolver.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(key, entry);
+            throw new InterruptedIOException("Interrupted waiting for content resolver " + key);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException("Could not create content resolver " + key, e.getCause());
+            }
+            throw new IllegalStateException("Could not create content resolver " + key, e.getCause());
+        }
+    }
+
+    /**
+     * Stop using the content resolver for a configuration. It is closed when the last application stops using it.
+     *
+     * @param key The configuration, including the VHost.
+     * @return True if the content resolver was closed.
+     */
+    public static boolean release(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        return entry != null && release(key, entry);
+    }
+
+    private static boolean release(String key, Entry entry) {
+        synchronized (entries) {
+            if (entries.get(key) != entry || --entry.references > 0) {
+                return false;
+            }
+            entries.remove(key);
+        }
+        // The application that created it holds a reference until it is created, so it is done
+        entry.contentResolver.join().close();
+        return true;
+    }
+
+    /**
+     * @param key The configuration, including the VHost.
+     * @return Number of applications using the content resolver for the configuration.
+     */
+    public static int getReferenceCount(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry == null ? 0 : entry.references;
+        }
+    }
+
+    /**
+     * @param keyPrefix Start of the keys, like the VHost.
+     * @return The content resolvers in use whose keys start with the prefix, not including those still being created.
+     */
+    public static List<SharedContentResolver> getContentResolvers(String keyPrefix) {
+        List<SharedContentResolver> contentResolvers = new ArrayList<>();
+        synchronized (entries) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                CompletableFuture<SharedContentResolver> contentResolver = entry.getValue().contentResolver;
+                if (entry.getKey().startsWith(keyPrefix) && contentResolver.isDone()
+                        && !contentResolver.isCompletedExceptionally()) {
+                    contentResolvers.add(contentResolver.join());
+                }
+            }
+        }
+        return contentResolvers;
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<SharedContentResolver> contentResolver = new CompletableFuture<>();
+        private int references;
+    }
+}
@@ -0,0 +1,137 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content resolver that finds files by checking where they should be, instead of listing their directory.
+ *
+ * The directory of an ID follows from the directory layout, and with a filename pattern like "%s\.(mp3|mp4)" the
+ * file is named from the ID and one of a few extensions. Each candidate file is checked with a single stat, trying
+ * the extensions that have been found most often first. Only if no candidate exists is the content resolver of the
+ * provider asked, which lists the directory. The first file found is returned, where a directory listing would return
+ * every matching file.
+ */
+public class DirectPathContentResolver implements ContentResolver {
+    /** Property for checking candidate files directly before listing directories. */
+    public static final String PROPERTY_DIRECT_PATH = "contentResolverDirectPath";
+    /**
+     * Property for the extensions of candidate files, prefixed with the provider name. Comma separated, without dots.
+     * An empty extension means a file named exactly as the ID. Derived from the filename pattern if not given.
+     */
+    public static final String PROPERTY_DIRECT_PATH_EXTENSIONS = "directPathExtensions";
+
+    /** Filename patterns of the form %s\.ext or %s\.(ext1|ext2). */
+    private static final Pattern EXTENSIONS_PATTERN = Pattern.compile("^%s\\\\\\.\\(?([A-Za-z0-9|]+)\\)?$");
+
+    private final ContentResolver contentResolver;
+    private final DirectoryLayout layout;
+    private final String[] extensions;
+    /** Number of files found with each extension, used for ordering the checks. */
+    private final AtomicLongArray found;
+    private final AtomicLong directHits = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * Create a direct path content resolver.
+     *
+     * @param contentResolver The content resolver of the content provider, used when no candidate file exists.
+     * @param layout The directory layout of the content provider.
+     * @param extensions Extensions of candidate files, without dots. An empty extension means a file named exactly as
+     * the ID. No extensions means every lookup is passed on.
+     */
+    public DirectPathContentResolver(ContentResolver contentResolver, DirectoryLayout layout,
+                                     List<String> extensions) {
+        this.contentResolver = contentResolver;
+        this.layout = layout;
+        this.extensions = extensions.toArray(new String[0]);
+        this.found = new AtomicLongArray(this.extensions.length);
+    }
+
+    /**
+     * Find the extensions of the files a filename pattern matches, for the patterns "%s", "%s\.ext" and
+     * "%s\.(ext1|ext2)".
+     *
+     * @param filenameRegexPattern The filename pattern.
+     * @return The extensions, the empty string for "%s". Empty if the pattern has another form.
+     */
+    public static List<String> getExtensions(String filenameRegexPattern) {
+        if (filenameRegexPattern.equals("%s")) {
+            return Collections.singletonList("");
+        }
+        Matcher matcher = EXTENSIONS_PATTERN.matcher(filenameRegexPattern);
+        if (!matcher.matches()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(matcher.group(1).split("\\|"));
+    }
+
+    /**
+     * Resolve an ID by checking the candidate files.
+     *
+     * @param id The ID.
+     * @return Content with the first candidate file found, or the content from the content resolver of the provider.
+     */
+    @Override
+    public Content getContent(String id) {
+        String relativeDirectory = layout.getRelativeDirectory(id);
+        // IDs with separators would reach outside the directory of the ID
+        if (relativeDirectory != null && id.indexOf('/') < 0 && id.indexOf(File.separatorChar) < 0) {
+            Path directory = layout.getBaseDirectory().toPath().resolve(relativeDirectory);
+            for (int extension : getProbeOrder()) {
+                String filename = extensions[extension].isEmpty() ? id : id + "." + extensions[extension];
+                if (Files.isRegularFile(directory.resolve(filename)) && layout.matches(id, filename)) {
+                    found.incrementAndGet(extension);
+                    directHits.incrementAndGet();
+                    return layout.createContent(Collections.singletonList(relativeDirectory + filename));
+                }
+            }
+        }
+        fallbacks.incrementAndGet();
+        return contentResolver.getContent(id);
+    }
+
+    /**
+     * @return Number of IDs found by checking candidate files.
+     */
+    public long getDirectHits() {
+        return directHits.get();
+    }
+
+    /**
+     * @return Number of IDs passed on to the content resolver of the provider.
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /** The indexes of the extensions, most often found first. */
+    private Integer[] getProbeOrder() {
+        Integer[] order = new Integer[extensions.length];
+        long[] counts = new long[extensions.length];
+        for (int i = 0; i < extensions.length; i++) {
+            order[i] = i;
+            counts[i] = found.get(i);
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> counts[i]).reversed());
+        return order;
+    }
+
+    @Override
+    public String toString() {
+        return "Direct path lookups in " + layout.getBaseDirectory() + ": directHits=" + directHits + ", fallbacks="
+                + fallbacks;
+    }
+}
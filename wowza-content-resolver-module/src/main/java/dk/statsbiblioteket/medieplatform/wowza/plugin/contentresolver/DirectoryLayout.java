@@ -0,0 +1,159 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Resource;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The directory layout of one content provider, as configured for a DirectoryBasedContentResolver.
+ *
+ * Files for an ID are placed in a directory named from the first characters of the ID. With characterDirs 4 and
+ * characterDirsWidth 1, the files for the ID "0ef8f946" are in "0/e/f/8/". A file belongs to the ID if its name matches
+ * the filename regex pattern with the ID inserted.
+ */
+public class DirectoryLayout {
+    private final String presentationType;
+    private final File baseDirectory;
+    private final int characterDirs;
+    private final int characterDirsWidth;
+    private final String filenameRegexPattern;
+    private final String uriPattern;
+
+    /**
+     * Create a directory layout.
+     *
+     * @param presentationType The presentation type of the resources in this layout.
+     * @param baseDirectory The directory containing the character directories.
+     * @param characterDirs Number of levels of character directories.
+     * @param characterDirsWidth Number of characters of the ID in the name of each character directory.
+     * @param filenameRegexPattern Pattern for file names, with %s where the ID goes.
+     * @param uriPattern Pattern for the URIs of resources, with %s where the path relative to the base directory goes.
+     */
+    public DirectoryLayout(String presentationType, File baseDirectory, int characterDirs, int characterDirsWidth,
+                           String filenameRegexPattern, String uriPattern) {
+        this.presentationType = presentationType;
+        this.baseDirectory = baseDirectory;
+        this.characterDirs = characterDirs;
+        this.characterDirsWidth = characterDirsWidth;
+        this.filenameRegexPattern = filenameRegexPattern;
+        this.uriPattern = uriPattern;
+    }
+
+    public String getPresentationType() {
+        return presentationType;
+    }
+
+    public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    public int getCharacterDirs() {
+        return characterDirs;
+    }
+
+    public int getCharacterDirsWidth() {
+        return characterDirsWidth;
+    }
+
+    public String getFilenameRegexPattern() {
+        return filenameRegexPattern;
+    }
+
+    public String getUriPattern() {
+        return uriPattern;
+    }
+
+    /**
+     * Get the directory the files for an ID are placed in.
+     *
+     * @param id The ID.
+     * @return The directory relative to the base directory, using '/' as separator and ending with '/'. The empty
+     * string if there are no character directories. Null if the ID is too short to be placed in this layout.
+     */
+    public String getRelativeDirectory(String id) {
+        if (id.length() < characterDirs * characterDirsWidth) {
+            return null;
+        }
+        StringBuilder directory = new StringBuilder();
+        for (int i = 0; i < characterDirs; i++) {
+            directory.append(id, i * characterDirsWidth, (i + 1) * characterDirsWidth).append('/');
+        }
+        return directory.toString();
+    }
+
+    /**
+     * Check whether a file name belongs to an ID.
+     *
+     * @param id The ID.
+     * @param filename The file name without directories.
+     * @return True if the name matches the filename regex pattern for the ID.
+     */
+    public boolean matches(String id, String filename) {
+        return filename.matches(String.format(filenameRegexPattern, id));
+    }
+
+    /**
+     * Find the IDs a file in a character directory belongs to. The ID is the file name, or the file name with one or
+     * more extensions removed, and must match the directory the file is in.
+     *
+     * @param relativeDirectory The directory of the file, relative to the base directory, as returned by
+     * {@link #getRelativeDirectory(String)}.
+     * @param filename The file name without directories.
+     * @return The IDs the file belongs to. Usually one, or none if the file does not belong in this layout.
+     */
+    public List<String> getIds(String relativeDirectory, String filename) {
+        List<String> ids = new ArrayList<>(1);
+        int end = filename.length();
+        while (end > 0) {
+            String candidate = filename.substring(0, end);
+            if (relativeDirectory.equals(getRelativeDirectory(candidate)) && matches(candidate, filename)) {
+                ids.add(candidate);
+            }
+            end = filename.lastIndexOf('.', end - 1);
+        }
+        return ids;
+    }
+
+    /**
+     * Get the path of a file relative to the base directory, in the form used in URIs.
+     *
+     * @param file A file below the base directory.
+     * @return The relative path, using '/' as separator.
+     */
+    public String getRelativePath(Path file) {
+        return baseDirectory.toPath().relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Create the content for a set of files, as a DirectoryBasedContentResolver would.
+     *
+     * @param relativePaths Paths of the files relative to the base directory, using '/' as separator.
+     * @return Content with one resource per file.
+     */
+    public Content createContent(Collection<String> relativePaths) {
+        List<Resource> resources = new ArrayList<>(relativePaths.size());
+        for (String relativePath : relativePaths) {
+            Resource resource = new Resource();
+            resource.setType(presentationType);
+            resource.setUris(Collections.singletonList(URI.create(String.format(uriPattern, relativePath))));
+            resources.add(resource);
+        }
+        Content content = new Content();
+        content.setResources(resources);
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return "DirectoryLayout{" + "baseDirectory=" + baseDirectory + ", characterDirs=" + characterDirs
+                + ", characterDirsWidth=" + characterDirsWidth + ", filenameRegexPattern='" + filenameRegexPattern
+                + "'}";
+    }
+}
@@ -0,0 +1,82 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Walk the character directories of a directory layout with fork/join, forking a task for each subdirectory above the
+ * level where the files are. Files outside that level are ignored.
+ */
+public class DirectoryWalk extends RecursiveAction {
+    private final WMSLogger logger;
+    private final DirectoryLayout layout;
+    private final Path directory;
+    private final int depth;
+    private final Consumer<Path> directoryVisitor;
+    private final Consumer<Path> fileVisitor;
+
+    /**
+     * Create a walk of a directory tree.
+     *
+     * @param logger Logger for reporting directories that cannot be listed.
+     * @param layout The directory layout.
+     * @param directory The directory to walk.
+     * @param depth The level of the directory, 0 for the base directory of the layout.
+     * @param directoryVisitor Called with each directory before it is listed. May be null.
+     * @param fileVisitor Called with each file in the directories at the level of the files. Called from several
+     * threads at once.
+     */
+    public DirectoryWalk(WMSLogger logger, DirectoryLayout layout, Path directory, int depth,
+                         Consumer<Path> directoryVisitor, Consumer<Path> fileVisitor) {
+        this.logger = logger;
+        this.layout = layout;
+        this.directory = directory;
+        this.depth = depth;
+        this.directoryVisitor = directoryVisitor;
+        this.fileVisitor = fileVisitor;
+    }
+
+    /**
+     * Create a walk of the whole directory tree of a layout.
+     *
+     * @param logger Logger for reporting directories that cannot be listed.
+     * @param layout The directory layout.
+     * @param directoryVisitor Called with each directory before it is listed. May be null.
+     * @param fileVisitor Called with each file in the directories at the level of the files.
+     */
+    public DirectoryWalk(WMSLogger logger, DirectoryLayout layout, Consumer<Path> directoryVisitor,
+                         Consumer<Path> fileVisitor) {
+        this(logger, layout, layout.getBaseDirectory().toPath(), 0, directoryVisitor, fileVisitor);
+    }
+
+    @Override
+    protected void compute() {
+        if (directoryVisitor != null) {
+            directoryVisitor.accept(directory);
+        }
+        List<DirectoryWalk> subdirectories = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                if (depth < layout.getCharacterDirs()) {
+                    if (Files.isDirectory(child)) {
+                        subdirectories.add(new DirectoryWalk(logger, layout, child, depth + 1, directoryVisitor,
+                                                             fileVisitor));
+                    }
+                } else if (Files.isRegularFile(child)) {
+                    fileVisitor.accept(child);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not list " + directory, e);
+        }
+        invokeAll(subdirectories);
+    }
+}
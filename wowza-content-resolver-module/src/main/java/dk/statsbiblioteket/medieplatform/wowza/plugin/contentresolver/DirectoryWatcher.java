@@ -0,0 +1,187 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watch the character directories of a directory layout for files being added and removed.
+ *
+ * A watch service only watches the directories registered with it, so every directory must be registered, usually
+ * while walking the tree with a {@link DirectoryWalk}. Directories created later are reported to the listener, which
+ * should walk them so they are registered too. Events are delivered on one thread per watcher.
+ */
+public class DirectoryWatcher implements Closeable {
+    /** Receiver of changes to a directory tree. */
+    public interface Listener {
+        /**
+         * A file was added to a directory at the level of the files.
+         * @param file The file.
+         */
+        void fileCreated(Path file);
+
+        /**
+         * A file was removed from a directory at the level of the files.
+         * @param file The file.
+         */
+        void fileDeleted(Path file);
+
+        /**
+         * A character directory was added. It is not registered yet.
+         * @param directory The directory.
+         * @param depth The level of the directory.
+         */
+        void directoryCreated(Path directory, int depth);
+
+        /**
+         * A character directory was removed, with all files in it.
+         * @param directory The directory.
+         */
+        void directoryDeleted(Path directory);
+
+        /**
+         * Events for a directory were lost, and it should be walked again.
+         * @param directory The directory.
+         * @param depth The level of the directory.
+         */
+        void changesLost(Path directory, int depth);
+    }
+
+    private final WMSLogger logger;
+    private final DirectoryLayout layout;
+    private final Listener listener;
+    private final WatchService watchService;
+    /** Directories watched, by their watch key. */
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    /** Set when a directory could not be watched, so changes to it are not seen. */
+    private final AtomicBoolean incomplete = new AtomicBoolean(false);
+    private Thread thread;
+
+    /**
+     * Create a watcher. Nothing is watched until directories are registered.
+     *
+     * @param logger Logger for reporting problems.
+     * @param layout The directory layout.
+     * @param listener The receiver of changes.
+     * @throws IOException If the watch service could not be created.
+     */
+    public DirectoryWatcher(WMSLogger logger, DirectoryLayout layout, Listener listener) throws IOException {
+        this.logger = logger;
+        this.layout = layout;
+        this.listener = listener;
+        this.watchService = layout.getBaseDirectory().toPath().getFileSystem().newWatchService();
+    }
+
+    /**
+     * Watch a directory. Failures are logged once, and make the watcher incomplete.
+     *
+     * @param directory The directory.
+     */
+    public void register(Path directory) {
+        try {
+            watchedDirectories.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                                      StandardWatchEventKinds.ENTRY_DELETE), directory);
+        } catch (ClosedWatchServiceException e) {
+            // Closed while walking, nothing to watch
+        } catch (IOException e) {
+            if (incomplete.compareAndSet(false, true)) {
+                logger.warn("Could not watch " + directory + ", changes in " + layout.getBaseDirectory()
+                                    + " may be missed. Consider raising fs.inotify.max_user_watches", e);
+            }
+        }
+    }
+
+    /**
+     * @return True if some directory could not be watched.
+     */
+    public boolean isIncomplete() {
+        return incomplete.get();
+    }
+
+    /**
+     * Get the level of a directory.
+     *
+     * @param directory A directory in the tree.
+     * @return 0 for the base directory of the layout, 1 for its subdirectories, and so on.
+     */
+    public int getDepth(Path directory) {
+        Path base = layout.getBaseDirectory().toPath();
+        return directory.equals(base) ? 0 : base.relativize(directory).getNameCount();
+    }
+
+    /** Start delivering events to the listener. */
+    public void start() {
+        thread = new Thread(this::watch, "DirectoryWatcher-" + layout.getBaseDirectory().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop watching. */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = watchedDirectories.get(key);
+                if (directory != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        handle(directory, event);
+                    }
+                }
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close()
+        } catch (RuntimeException e) {
+            logger.error("Stopped watching " + layout.getBaseDirectory()
+                                 + ", files added or removed will not be seen", e);
+        }
+    }
+
+    private void handle(Path directory, WatchEvent<?> event) {
+        int depth = getDepth(directory);
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            logger.info("Lost track of changes in " + directory);
+            listener.changesLost(directory, depth);
+            return;
+        }
+        Path child = directory.resolve((Path) event.context());
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+            if (depth < layout.getCharacterDirs()) {
+                if (Files.isDirectory(child)) {
+                    listener.directoryCreated(child, depth + 1);
+                }
+            } else if (Files.isRegularFile(child)) {
+                listener.fileCreated(child);
+            }
+        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            if (depth < layout.getCharacterDirs()) {
+                listener.directoryDeleted(child);
+            } else {
+                listener.fileDeleted(child);
+            }
+        }
+    }
+}
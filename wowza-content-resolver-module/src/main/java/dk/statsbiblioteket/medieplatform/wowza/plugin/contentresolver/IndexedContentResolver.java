@@ -0,0 +1,395 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content resolver that keeps an index of all files in a content provider's directory tree in memory, so resolving a
+ * known ID never touches the file system.
+ *
+ * The index is built by {@link #build(ForkJoinPool)}, which walks the character directories in parallel. Afterwards a
+ * watch service keeps the index current as files are added and removed on this host. IDs that are not in the index
+ * are looked up in their directory like DirectoryBasedContentResolver does, because the watch service does not see
+ * files written to NFS by other hosts, nor files added to directories that could not be watched. The negative cache
+ * of the mapper bounds how often an ID that does not exist is looked up.
+ *
+ * Given an index file, the index is also kept on disk as a {@link MappedContentIndex}. When the file exists at
+ * startup it is used right away, and the directories are walked in the background to reconcile it with the files
+ * actually present. After each walk the index is written to the file and mapped, and only changes seen since then are
+ * kept on the Java heap.
+ *
+ * Directories created, or rescanned because the watch service lost changes, are walked in the pool the index was built
+ * in, never in the common pool.
+ */
+public class IndexedContentResolver implements ContentResolver, DirectoryWatcher.Listener, Closeable {
+    /** Property for enabling resolving from in-memory indexes instead of by scanning directories. */
+    public static final String PROPERTY_INDEX = "contentResolverIndex";
+    /** Property for the number of threads walking the directories when building the indexes. */
+    public static final String PROPERTY_INDEX_PARALLELISM = "contentResolverIndexParallelism";
+    /** Property for the directory keeping index files, so indexes survive restarts. No files if not given. */
+    public static final String PROPERTY_INDEX_DIRECTORY = "contentResolverIndexDirectory";
+
+    private final WMSLogger logger;
+    private final DirectoryLayout layout;
+    private final Path indexFile;
+    /** Paths relative to the base directory, by ID. With an index file, only paths not in the mapped index. */
+    private final Map<String, Set<String>> index = new ConcurrentHashMap<>();
+    /** Paths removed since the mapped index was written. */
+    private final Set<String> removedPaths = ConcurrentHashMap.newKeySet();
+    /** Directories listed for IDs not in the index. */
+    private final AtomicLong directoryScans = new AtomicLong();
+    private volatile MappedContentIndex mappedIndex;
+    private DirectoryWatcher watcher;
+    /** Pool walking new directories and rescanning directories whose changes were lost. */
+    private volatile ForkJoinPool walkPool;
+
+    /**
+     * Create an indexed content resolver. It looks up every ID in its directory until it has been built.
+     *
+     * @param logger Logger for reporting progress and problems.
+     * @param layout The directory layout of the content provider.
+     */
+    public IndexedContentResolver(WMSLogger logger, DirectoryLayout layout) {
+        this(logger, layout, null);
+    }
+
+    /**
+     * Create an indexed content resolver that keeps its index in a file. It looks up every ID in its directory until
+     * it has been built.
+     *
+     * @param logger Logger for reporting progress and problems.
+     * @param layout The directory layout of the content provider.
+     * @param indexFile The file to keep the index in. Null to only keep the index in memory.
+     */
+    public IndexedContentResolver(WMSLogger logger, DirectoryLayout layout, Path indexFile) {
+        this.logger = logger;
+        this.layout = layout;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Build the index and start watching for changes.
+     *
+     * @param pool The pool used for walking directories in parallel.
+     * @throws IOException If the watch service could not be created.
+     */
+    public void build(ForkJoinPool pool) throws IOException {
+        buildAll(Collections.singletonList(this), pool);
+    }
+
+    /**
+     * Build several indexes at once, walking all their directory trees in parallel. Indexes that could be loaded from
+     * their index file are ready at once, and are reconciled with the directories in the background.
+     *
+     * @param resolvers The resolvers to build.
+     * @param pool The pool used for walking directories in parallel. Background walks, and walks of directories created
+     * or rescanned later, run in the pool after this method returns, so the pool must not be shut down with
+     * shutdownNow.
+     * @throws IOException If a watch service could not be created.
+     */
+    public static void buildAll(Collection<IndexedContentResolver> resolvers, ForkJoinPool pool) throws IOException {
+        long start = System.currentTimeMillis();
+        List<IndexedContentResolver> walkNow = new ArrayList<>(resolvers.size());
+        for (IndexedContentResolver resolver : resolvers) {
+            resolver.walkPool = pool;
+            resolver.watcher = new DirectoryWatcher(resolver.logger, resolver.layout, resolver);
+            if (resolver.loadIndexFile()) {
+                resolver.watcher.start();
+                pool.execute(resolver::reconcile);
+            } else {
+                walkNow.add(resolver);
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(walkNow.stream().map(resolver -> new DirectoryWalk(
+                        resolver.logger, resolver.layout, resolver.watcher::register,
+                        file -> resolver.addFile(file, null))).toArray(RecursiveAction[]::new));
+            }
+        });
+        for (IndexedContentResolver resolver : walkNow) {
+            resolver.watcher.start();
+            resolver.logger.info("Indexed " + resolver.size() + " IDs in " + resolver.layout.getBaseDirectory()
+                                         + " in " + (System.currentTimeMillis() - start) + " ms");
+            resolver.writeIndexFile();
+        }
+    }
+
+    /**
+     * Get the name of the index file for a directory layout. The name changes when the layout changes, so an index
+     * file written for another layout is never used.
+     *
+     * @param layout The directory layout.
+     * @return The file name.
+     */
+    public static String getIndexFileName(DirectoryLayout layout) {
+        return "contentindex-" + layout.getBaseDirectory().getName() + "-"
+                + Integer.toHexString(layout.toString().hashCode()) + ".idx";
+    }
+
+    /**
+     * Resolve an ID from the index, or from its directory if it is not in the index.
+     *
+     * @param id The ID.
+     * @return Content with a resource for each file belonging to the ID. No resources if the ID is unknown.
+     */
+    @Override
+    public Content getContent(String id) {
+        Set<String> paths = index.get(id);
+        MappedContentIndex mapped = mappedIndex;
+        if (mapped != null) {
+            List<String> mappedPaths = mapped.lookup(id);
+            if (!mappedPaths.isEmpty()) {
+                Set<String> allPaths = new TreeSet<>(mappedPaths);
+                allPaths.removeAll(removedPaths);
+                if (paths != null) {
+                    allPaths.addAll(paths);
+                }
+                paths = allPaths.isEmpty() ? null : allPaths;
+            }
+        }
+        if (paths == null) {
+            return layout.createContent(scanDirectory(id));
+        }
+        return layout.createContent(paths);
+    }
+
+    /**
+     * Count the distinct IDs in the index. IDs on the Java heap that are also in the mapped index are counted once.
+     * IDs in the mapped index are still counted when all their paths have been removed since it was written.
+     *
+     * @return Number of IDs in the index.
+     */
+    public int size() {
+        MappedContentIndex mapped = mappedIndex;
+        if (mapped == null) {
+            return index.size();
+        }
+        int count = mapped.getIdCount();
+        for (String id : index.keySet()) {
+            if (mapped.lookup(id).isEmpty()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of directories listed for IDs not in the index.
+     */
+    public long getDirectoryScans() {
+        return directoryScans.get();
+    }
+
+    /**
+     * @return The directory layout this resolver indexes.
+     */
+    public DirectoryLayout getLayout() {
+        return layout;
+    }
+
+    /** Stop watching for changes. The index is kept, but is no longer updated. */
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Map the index file if there is one.
+     * @return True if the index file was mapped.
+     */
+    private boolean loadIndexFile() {
+        if (indexFile == null || !Files.isRegularFile(indexFile)) {
+            return false;
+        }
+        try {
+            mappedIndex = MappedContentIndex.open(indexFile);
+            logger.info("Loaded " + mappedIndex.size() + " paths in " + layout.getBaseDirectory() + " from "
+                                + indexFile);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not load " + indexFile + ", indexing " + layout.getBaseDirectory(), e);
+            return false;
+        }
+    }
+
+    /** Walk the directories to find files added or removed while the index file was not kept current. */
+    private void reconcile() {
+        long start = System.currentTimeMillis();
+        Set<String> walkedPaths = ConcurrentHashMap.newKeySet();
+        new DirectoryWalk(logger, layout, watcher::register, file -> addFile(file, walkedPaths)).invoke();
+        MappedContentIndex mapped = mappedIndex;
+        int removed = 0;
+        for (int record = 0; mapped != null && record < mapped.size(); record++) {
+            String path = mapped.getPath(record);
+            if (!walkedPaths.contains(path) && removedPaths.add(path)) {
+                removed++;
+            }
+        }
+        logger.info("Reconciled " + layout.getBaseDirectory() + " with " + indexFile + " in "
+                            + (System.currentTimeMillis() - start) + " ms, " + removed + " paths removed");
+        writeIndexFile();
+    }
+
+    /**
+     * Write all of the index to the index file, and map it, so only changes from now on are kept on the Java heap. The
+     * mapped index and the changes are merged while writing, without copying the index to the Java heap.
+     */
+    private void writeIndexFile() {
+        if (indexFile == null) {
+            return;
+        }
+        try {
+            Set<String> removedBefore = new HashSet<>(removedPaths);
+            MappedContentIndex.write(indexFile, mappedIndex, index, removedBefore);
+            MappedContentIndex written = MappedContentIndex.open(indexFile);
+            mappedIndex = written;
+            removedPaths.removeAll(removedBefore);
+            for (String id : index.keySet()) {
+                List<String> writtenPaths = written.lookup(id);
+                index.computeIfPresent(id, (key, paths) -> {
+                    paths.removeAll(writtenPaths);
+                    return paths.isEmpty() ? null : paths;
+                });
+            }
+            logger.info("Wrote " + mappedIndex.size() + " paths in " + layout.getBaseDirectory() + " to "
+                                + indexFile);
+        } catch (IOException e) {
+            logger.warn("Could not write " + indexFile + ", the index is kept in memory", e);
+        }
+    }
+
+    @Override
+    public void fileCreated(Path file) {
+        addFile(file, null);
+    }
+
+    @Override
+    public void fileDeleted(Path file) {
+        removeFile(file);
+    }
+
+    @Override
+    public void directoryCreated(Path directory, int depth) {
+        walk(new DirectoryWalk(logger, layout, directory, depth, watcher::register, file -> addFile(file, null)));
+    }
+
+    @Override
+    public void directoryDeleted(Path directory) {
+        removeTree(directory);
+    }
+
+    @Override
+    public void changesLost(Path directory, int depth) {
+        removeTree(directory);
+        directoryCreated(directory, depth);
+    }
+
+    /**
+     * Walk directories in the pool the index was built in, and wait for the walk. Walks started by the watcher thread
+     * would otherwise run their blocking file system calls in the common pool.
+     */
+    private void walk(DirectoryWalk directoryWalk) {
+        ForkJoinPool pool = walkPool;
+        if (pool == null) {
+            directoryWalk.invoke();
+        } else {
+            pool.invoke(directoryWalk);
+        }
+    }
+
+    private void addFile(Path file, Set<String> walkedPaths) {
+        String relativePath = layout.getRelativePath(file);
+        String relativeDirectory = relativePath.substring(0, relativePath.lastIndexOf('/') + 1);
+        List<String> ids = layout.getIds(relativeDirectory, file.getFileName().toString());
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (walkedPaths != null) {
+            walkedPaths.add(relativePath);
+        }
+        MappedContentIndex mapped = mappedIndex;
+        for (String id : ids) {
+            if (mapped == null || !mapped.lookup(id).contains(relativePath)) {
+                index.computeIfAbsent(id, key -> new ConcurrentSkipListSet<>()).add(relativePath);
+            }
+        }
+        removedPaths.remove(relativePath);
+    }
+
+    private void removeFile(Path file) {
+        String relativePath = layout.getRelativePath(file);
+        String relativeDirectory = relativePath.substring(0, relativePath.lastIndexOf('/') + 1);
+        for (String id : layout.getIds(relativeDirectory, file.getFileName().toString())) {
+            index.computeIfPresent(id, (key, paths) -> {
+                paths.remove(relativePath);
+                return paths.isEmpty() ? null : paths;
+            });
+        }
+        if (mappedIndex != null) {
+            removedPaths.add(relativePath);
+        }
+    }
+
+    private void removeTree(Path directory) {
+        String prefix = directory.equals(layout.getBaseDirectory().toPath()) ? ""
+                : layout.getRelativePath(directory) + "/";
+        for (String id : index.keySet()) {
+            index.computeIfPresent(id, (key, paths) -> {
+                paths.removeIf(path -> path.startsWith(prefix));
+                return paths.isEmpty() ? null : paths;
+            });
+        }
+        MappedContentIndex mapped = mappedIndex;
+        for (int record = 0; mapped != null && record < mapped.size(); record++) {
+            String path = mapped.getPath(record);
+            if (path.startsWith(prefix)) {
+                removedPaths.add(path);
+            }
+        }
+    }
+
+    private List<String> scanDirectory(String id) {
+        String relativeDirectory = layout.getRelativeDirectory(id);
+        if (relativeDirectory == null) {
+            return Collections.emptyList();
+        }
+        directoryScans.incrementAndGet();
+        List<String> paths = new ArrayList<>();
+        Path directory = layout.getBaseDirectory().toPath().resolve(relativeDirectory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (layout.matches(id, file.getFileName().toString())) {
+                    paths.add(layout.getRelativePath(file));
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Could not list " + directory, e);
+        }
+        return paths;
+    }
+}
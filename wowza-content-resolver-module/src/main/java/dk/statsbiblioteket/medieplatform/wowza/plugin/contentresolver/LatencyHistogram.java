@@ -0,0 +1,104 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in fixed buckets, cheap enough to record every lookup. Percentiles are estimated as the upper
+ * bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    /** Upper bounds of the buckets, in milliseconds. Latencies above the last bound are counted in an extra bucket. */
+    static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record a latency.
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return Upper bounds of the buckets, in milliseconds, not including the bucket of the latencies above them.
+     */
+    public long[] getBucketBoundsMillis() {
+        return BUCKET_BOUNDS_MILLIS.clone();
+    }
+
+    /**
+     * @return Number of latencies in each bucket. The last bucket counts the latencies above the last bound.
+     */
+    public long[] getCounts() {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return Number of latencies recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (long bucketCount : getCounts()) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return Average latency, in milliseconds.
+     */
+    public double getAverageMillis() {
+        long count = getCount();
+        return count == 0 ? 0.0 : totalNanos.get() / 1000000.0 / count;
+    }
+
+    /**
+     * @return Highest latency recorded, in milliseconds.
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * Estimate a percentile of the latencies.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound of the bucket the percentile falls in, in milliseconds, or the highest latency if it
+     * falls above the last bound. 0 if nothing is recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = getCounts();
+        long count = 0;
+        for (long bucketCount : snapshot) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_MILLIS[bucket];
+            }
+        }
+        return getMaxMillis();
+    }
+}
@@ -0,0 +1,289 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A read-only index from IDs to paths, stored in a file and memory mapped, so it is available right after a restart
+ * and takes no Java heap.
+ *
+ * The file holds one record per path, sorted by the UTF-8 bytes of the ID, followed by a table of record offsets and a
+ * trailer with the number of records and the position of the table. Lookups binary search the offset table and
+ * compare IDs directly in the mapped buffer.
+ * <pre>
+ * int magic, int version
+ * records: short idLength, id, short pathLength, path
+ * offsets: int offset of each record
+ * int recordCount, int offsetsPosition
+ * </pre>
+ */
+public class MappedContentIndex {
+    private static final int MAGIC = 0x43524958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 8;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int recordCount;
+    private final int offsetsPosition;
+    /** Number of distinct IDs, counted on first use. */
+    private volatile int idCount = -1;
+
+    private MappedContentIndex(Path file, ByteBuffer buffer, int recordCount, int offsetsPosition) {
+        this.file = file;
+        this.buffer = buffer;
+        this.recordCount = recordCount;
+        this.offsetsPosition = offsetsPosition;
+    }
+
+    /**
+     * Write an index file. Records are streamed to a temporary file, which replaces the index file when complete, so
+     * readers never see a partial index.
+     *
+     * @param file The index file.
+     * @param index Paths by ID.
+     * @throws IOException If the file could not be written.
+     */
+    public static void write(Path file, Map<String, ? extends Collection<String>> index) throws IOException {
+        write(file, null, index, Collections.emptySet());
+    }
+
+    /**
+     * Write an index file with the records of a mapped index and paths added and removed since. The records of the
+     * mapped index are merged in ID order with the added paths, so only the IDs of the added paths are sorted on the
+     * Java heap, and records are streamed to a temporary file, which replaces the index file when complete.
+     *
+     * @param file The index file, which may be the file of the mapped index.
+     * @param mapped The mapped index, or null.
+     * @param added Paths added by ID, which may also be in the mapped index.
+     * @param removed Paths of the mapped index to leave out.
+     * @throws IOException If the file could not be written.
+     */
+    public static void write(Path file, MappedContentIndex mapped, Map<String, ? extends Collection<String>> added,
+                             Set<String> removed) throws IOException {
+        List<byte[]> ids = new ArrayList<>(added.size());
+        for (String id : added.keySet()) {
+            ids.add(id.getBytes(StandardCharsets.UTF_8));
+        }
+        ids.sort(Arrays::compareUnsigned);
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        int mappedCount = mapped == null ? 0 : mapped.size();
+        int[] offsets = new int[Math.max(16, mappedCount + ids.size())];
+        int recordCount = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporaryFile), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int record = 0;
+            int next = 0;
+            while (record < mappedCount || next < ids.size()) {
+                int comparison = record == mappedCount ? 1 : next == ids.size() ? -1
+                        : mapped.compareId(mapped.recordOffset(record), ids.get(next));
+                byte[] id = comparison <= 0 ? mapped.getIdBytes(record) : ids.get(next);
+                Set<String> paths = new TreeSet<>();
+                for (; record < mappedCount && mapped.compareId(mapped.recordOffset(record), id) == 0; record++) {
+                    String path = mapped.getPath(record);
+                    if (!removed.contains(path)) {
+                        paths.add(path);
+                    }
+                }
+                if (comparison >= 0) {
+                    Collection<String> addedPaths = added.get(new String(id, StandardCharsets.UTF_8));
+                    if (addedPaths != null) {
+                        paths.addAll(addedPaths);
+                    }
+                    next++;
+                }
+                for (String path : paths) {
+                    byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+                    if (recordCount == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[recordCount++] = out.size();
+                    out.writeShort(id.length);
+                    out.write(id);
+                    out.writeShort(pathBytes.length);
+                    out.write(pathBytes);
+                }
+            }
+            int offsetsPosition = out.size();
+            for (int i = 0; i < recordCount; i++) {
+                out.writeInt(offsets[i]);
+            }
+            out.writeInt(recordCount);
+            out.writeInt(offsetsPosition);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Memory map an index file.
+     *
+     * @param file The index file.
+     * @return The index.
+     * @throws IOException If the file could not be read, or is not a valid index file.
+     */
+    public static MappedContentIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a content index file: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int recordCount = buffer.getInt((int) size - TRAILER_SIZE);
+            int offsetsPosition = buffer.getInt((int) size - TRAILER_SIZE + 4);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || recordCount < 0
+                    || offsetsPosition < HEADER_SIZE
+                    || (long) offsetsPosition + 4L * recordCount != size - TRAILER_SIZE) {
+                throw new IOException("Not a content index file: " + file);
+            }
+            return new MappedContentIndex(file, buffer, recordCount, offsetsPosition);
+        }
+    }
+
+    /**
+     * Look up the paths for an ID.
+     *
+     * @param id The ID.
+     * @return The paths, in the order they were written. Empty if the ID is not in the index.
+     */
+    public List<String> lookup(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = recordCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareId(recordOffset(middle), key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        List<String> paths = Collections.emptyList();
+        for (int record = low; record < recordCount; record++) {
+            int offset = recordOffset(record);
+            if (compareId(offset, key) != 0) {
+                break;
+            }
+            if (paths.isEmpty()) {
+                paths = new ArrayList<>(2);
+            }
+            int pathPosition = offset + 2 + key.length;
+            paths.add(readString(pathPosition + 2, buffer.getShort(pathPosition) & 0xFFFF));
+        }
+        return paths;
+    }
+
+    /**
+     * @return Number of paths in the index.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Count the distinct IDs in the index. The records are read once, on the first call, as records of the same ID are
+     * adjacent.
+     *
+     * @return Number of IDs in the index.
+     */
+    public int getIdCount() {
+        int count = idCount;
+        if (count < 0) {
+            count = 0;
+            byte[] previous = null;
+            for (int record = 0; record < recordCount; record++) {
+                byte[] id = getIdBytes(record);
+                if (!Arrays.equals(id, previous)) {
+                    count++;
+                }
+                previous = id;
+            }
+            idCount = count;
+        }
+        return count;
+    }
+
+    /**
+     * Get the ID of a record, for iterating over all records.
+     *
+     * @param record The record number, from 0 to {@link #size()}.
+     * @return The ID.
+     */
+    public String getId(int record) {
+        int offset = recordOffset(record);
+        return readString(offset + 2, buffer.getShort(offset) & 0xFFFF);
+    }
+
+    /**
+     * Get the path of a record, for iterating over all records.
+     *
+     * @param record The record number, from 0 to {@link #size()}.
+     * @return The path.
+     */
+    public String getPath(int record) {
+        int offset = recordOffset(record);
+        int pathPosition = offset + 2 + (buffer.getShort(offset) & 0xFFFF);
+        return readString(pathPosition + 2, buffer.getShort(pathPosition) & 0xFFFF);
+    }
+
+    /**
+     * @return The index file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    private int recordOffset(int record) {
+        return buffer.getInt(offsetsPosition + 4 * record);
+    }
+
+    /** Compare the ID of the record at an offset with a key, as unsigned bytes. */
+    private int compareId(int offset, byte[] key) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(offset + 2 + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    private byte[] getIdBytes(int record) {
+        int offset = recordOffset(record);
+        return readBytes(offset + 2, buffer.getShort(offset) & 0xFFFF);
+    }
+
+    private String readString(int position, int length) {
+        return new String(readBytes(position, length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,164 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Resource;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content resolver that asks several content resolvers at once, and answers with the content of the first one to
+ * return a resource of the presentation type.
+ *
+ * Where a CombiningContentResolver asks its resolvers one after another, and so pays for every miss before a hit, this
+ * takes as long as the fastest resolver that has the content. The remaining lookups are cancelled. A resolver that
+ * does not answer within the timeout is given up on. If several resolvers have the content, the fastest one wins, not
+ * the first one configured.
+ *
+ * Content without resources is only returned when every resolver answered without a resource of the presentation
+ * type. If a resolver failed or did not answer in time, and no other resolver had the content, the lookup fails, so it
+ * is not remembered as not found.
+ *
+ * Lookups run on a bounded pool of threads. When all threads are busy and the queue is full, the lookup fails right
+ * away with a {@link ContentResolverOverloadedException}.
+ */
+public class ParallelContentResolver implements ContentResolver, Closeable {
+    /** Property for asking the content resolvers in parallel instead of one after another. */
+    public static final String PROPERTY_PARALLEL = "contentResolverParallel";
+    /** Property for the number of threads asking content resolvers. */
+    public static final String PROPERTY_PARALLEL_THREADS = "contentResolverParallelThreads";
+    /** Property for how long to wait for a content resolver. */
+    public static final String PROPERTY_PARALLEL_TIMEOUT_MILLIS = "contentResolverParallelTimeoutMillis";
+    public static final int DEFAULT_PARALLEL_THREADS = 16;
+    public static final long DEFAULT_PARALLEL_TIMEOUT_MILLIS = 5000;
+
+    private final WMSLogger logger;
+    private final List<ContentResolver> contentResolvers;
+    private final String presentationType;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Create a parallel content resolver.
+     *
+     * @param logger Logger for reporting failing and slow content resolvers.
+     * @param contentResolvers The content resolvers to ask.
+     * @param presentationType The presentation type of the resources looked for.
+     * @param threads Number of threads asking content resolvers.
+     * @param timeoutMillis How long to wait for the content resolvers.
+     */
+    public ParallelContentResolver(WMSLogger logger, List<ContentResolver> contentResolvers, String presentationType,
+                                   int threads, long timeoutMillis) {
+        this.logger = logger;
+        this.contentResolvers = new ArrayList<>(contentResolvers);
+        this.presentationType = presentationType;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<>(threads * contentResolvers.size()), runnable -> {
+            Thread thread = new Thread(runnable, "ContentResolver-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Ask all content resolvers for the content of an ID.
+     *
+     * @param id The ID.
+     * @return The content from the first content resolver that has a resource of the presentation type. Content
+     * without resources if all content resolvers answered, and none has.
+     * @throws ContentResolverOverloadedException If no content resolver had the content, and some did not answer in
+     * time, or the lookup could not be started because all threads were busy.
+     * @throws RuntimeException The failure of a content resolver, if no other content resolver had the content.
+     */
+    @Override
+    public Content getContent(String id) {
+        CompletionService<Content> lookups = new ExecutorCompletionService<>(executor);
+        List<Future<Content>> futures = new ArrayList<>(contentResolvers.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Throwable failure = null;
+        try {
+            for (ContentResolver contentResolver : contentResolvers) {
+                futures.add(lookups.submit(() -> contentResolver.getContent(id)));
+            }
+            for (int remaining = futures.size(); remaining > 0; remaining--) {
+                Future<Content> lookup = lookups.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (lookup == null) {
+                    logger.warn("Timed out after " + timeoutMillis + " ms resolving '" + id + "', " + remaining
+                                        + " content resolvers did not answer");
+                    throw new ContentResolverOverloadedException(
+                            "Timed out after " + timeoutMillis + " ms resolving '" + id + "'");
+                }
+                try {
+                    Content content = lookup.get();
+                    if (hasPresentationType(content)) {
+                        return content;
+                    }
+                } catch (ExecutionException e) {
+                    logger.warn("Content resolver failed resolving '" + id + "'", e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            throw new ContentResolverOverloadedException("All threads busy, rejected resolving '" + id + "'", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ContentResolverOverloadedException("Interrupted while resolving '" + id + "'", e);
+        } finally {
+            for (Future<Content> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException("Could not resolve '" + id + "'", failure);
+        }
+        Content content = new Content();
+        content.setResources(Collections.emptyList());
+        return content;
+    }
+
+    private boolean hasPresentationType(Content content) {
+        if (content == null || content.getResources() == null) {
+            return false;
+        }
+        for (Resource resource : content.getResources()) {
+            if (presentationType.equals(resource.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of lookups in content resolvers waiting for a thread.
+     */
+    int getQueuedLookups() {
+        return executor.getQueue().size();
+    }
+
+    /** Stop the threads asking content resolvers. */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
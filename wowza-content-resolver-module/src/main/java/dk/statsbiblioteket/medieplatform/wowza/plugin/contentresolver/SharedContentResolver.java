@@ -0,0 +1,202 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.ContentResolverMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A configured content resolver, with the indexes, Bloom filters, threads and cache of resolved files it uses. One is
+ * shared by all applications in a VHost with the same content resolver configuration, see
+ * {@link ContentResolverRegistry}.
+ */
+public class SharedContentResolver implements Closeable {
+    /** How long closing waits for content indexes being reconciled in the background. */
+    private static final long WALK_POOL_TERMINATION_SECONDS = 60;
+
+    private final WMSLogger logger;
+    private final List<IndexedContentResolver> contentIndexes = new ArrayList<>();
+    private final List<BloomFilteredContentResolver> bloomFilters = new ArrayList<>();
+    private final List<Closeable> closeables = new ArrayList<>();
+    private final List<ContentProviderMetrics> providerMetrics = new ArrayList<>();
+    /** The pool walking the directories of the content indexes and Bloom filters. */
+    private ForkJoinPool walkPool;
+    private ContentResolver contentResolver;
+    private ContentResolverMapper mapper;
+    private Bulkhead bulkhead;
+    private ContentResolverMetrics metrics;
+
+    /**
+     * Create an empty shared content resolver, for the parts to be added to while configuring.
+     *
+     * @param logger Logger for reporting the state of the parts when closing.
+     */
+    public SharedContentResolver(WMSLogger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Add a content index, to be built by {@link #start(int, Duration)}.
+     * @param contentIndex The content index.
+     */
+    public void addContentIndex(IndexedContentResolver contentIndex) {
+        contentIndexes.add(contentIndex);
+    }
+
+    /**
+     * Add a Bloom filter, to be started by {@link #start(int, Duration)}.
+     * @param bloomFilter The Bloom filtered content resolver.
+     */
+    public void addBloomFilter(BloomFilteredContentResolver bloomFilter) {
+        bloomFilters.add(bloomFilter);
+    }
+
+    /**
+     * Add something to close when the content resolver is closed.
+     * @param closeable The thing to close.
+     */
+    public void addCloseable(Closeable closeable) {
+        closeables.add(closeable);
+    }
+
+    /**
+     * Add the metrics of a content provider, to be published with the metrics of the content resolver.
+     * @param metrics The metrics of the content provider.
+     */
+    public void addProviderMetrics(ContentProviderMetrics metrics) {
+        providerMetrics.add(metrics);
+    }
+
+    /**
+     * Build the content indexes and start the Bloom filters. Their directories are walked in a pool of their own, as
+     * the walks block on the file system.
+     *
+     * @param indexParallelism Number of threads walking directories.
+     * @param bloomFilterRebuildInterval How often Bloom filters are rebuilt.
+     * @throws IOException If watching the directories failed.
+     */
+    public void start(int indexParallelism, Duration bloomFilterRebuildInterval) throws IOException {
+        if (contentIndexes.isEmpty() && bloomFilters.isEmpty()) {
+            return;
+        }
+        walkPool = new ForkJoinPool(indexParallelism);
+        if (!contentIndexes.isEmpty()) {
+            IndexedContentResolver.buildAll(contentIndexes, walkPool);
+        }
+        for (BloomFilteredContentResolver bloomFilter : bloomFilters) {
+            bloomFilter.start(bloomFilterRebuildInterval, walkPool);
+        }
+    }
+
+    public ContentResolver getContentResolver() {
+        return contentResolver;
+    }
+
+    public void setContentResolver(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * @return The mapper of the first application, whose cache of resolved files is shared by the other applications.
+     */
+    public ContentResolverMapper getMapper() {
+        return mapper;
+    }
+
+    public void setMapper(ContentResolverMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return The limit on lookups running at the same time, or null if lookups are not limited.
+     */
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    public void setBulkhead(Bulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * @return The metrics of the content resolver, or null if the lookups are not measured.
+     */
+    public ContentResolverMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(ContentResolverMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public List<ContentProviderMetrics> getProviderMetrics() {
+        return providerMetrics;
+    }
+
+    public List<IndexedContentResolver> getContentIndexes() {
+        return contentIndexes;
+    }
+
+    public List<BloomFilteredContentResolver> getBloomFilters() {
+        return bloomFilters;
+    }
+
+    /**
+     * Log how well the Bloom filters, the bulkhead and the content providers worked, stop publishing metrics, stop
+     * keeping content indexes and Bloom filters current and stop the threads used for resolving content. Content
+     * indexes being reconciled in the background are given time to finish writing their index files.
+     */
+    @Override
+    public void close() {
+        for (ContentProviderMetrics metrics : providerMetrics) {
+            logger.info(metrics.toString());
+        }
+        if (metrics != null) {
+            metrics.unregisterMBeans();
+        }
+        for (IndexedContentResolver contentIndex : contentIndexes) {
+            try {
+                contentIndex.close();
+            } catch (IOException e) {
+                logger.warn("Could not stop watching " + contentIndex.getLayout().getBaseDirectory(), e);
+            }
+        }
+        for (BloomFilteredContentResolver bloomFilter : bloomFilters) {
+            logger.info(bloomFilter.toString());
+            try {
+                bloomFilter.close();
+            } catch (IOException e) {
+                logger.warn("Could not stop watching " + bloomFilter.getLayout().getBaseDirectory(), e);
+            }
+        }
+        if (bulkhead != null) {
+            logger.info(bulkhead.toString());
+        }
+        for (Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.warn("Could not close " + closeable, e);
+            }
+        }
+        if (walkPool != null) {
+            walkPool.shutdown();
+            try {
+                if (!walkPool.awaitTermination(WALK_POOL_TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warn("Directories still being walked after " + WALK_POOL_TERMINATION_SECONDS
+                                        + " seconds, not waiting for them");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Resource;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.CacheStats;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.LoadingCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates SMIL documents listing the renditions of an ID, so Wowza's HTTP streamers can serve adaptive bitrate
+ * playlists from the files the content resolver finds.
+ *
+ * The renditions are the files of all resources of the presentation type, with the bitrate read from the file name,
+ * like "id_1500k.mp4". A player asking for "smil:id.smil" gets a generated SMIL file listing the renditions by
+ * rendition names of the form "id_abr1500000". Wowza maps each rendition name through the file mapper again, which
+ * gets the file from the renditions of the ID, so only files found by the content resolver can be streamed.
+ * Renditions and SMIL files are cached, and SMIL files are written again when their cache entry is reloaded.
+ */
+public class SmilGenerator {
+    /** Property for serving adaptive bitrate playlists of the renditions of an ID. */
+    public static final String PROPERTY_ABR = "contentResolverAbr";
+    /** Property for the directory generated SMIL files are written to. */
+    public static final String PROPERTY_ABR_SMIL_DIRECTORY = "contentResolverAbrSmilDirectory";
+    /** Property for the pattern finding the bitrate of a rendition in its file name, in kbit/s as the first group. */
+    public static final String PROPERTY_ABR_BITRATE_PATTERN = "contentResolverAbrBitratePattern";
+    public static final String DEFAULT_ABR_BITRATE_PATTERN = "_(\\d+)k\\.\\w+$";
+
+    /** Separates the ID and the bitrate in rendition names. */
+    static final String RENDITION_SEPARATOR = "_abr";
+    private static final String SMIL_EXTENSION = "smil";
+    private static final List<String> AUDIO_EXTENSIONS = Arrays.asList("mp3", "m4a", "aac");
+
+    private final ContentResolver contentResolver;
+    private final String presentationType;
+    private final Pattern bitratePattern;
+    private final Path smilDirectory;
+    private final LoadingCache<String, Renditions> renditionsCache;
+
+    /**
+     * Create a SMIL generator.
+     *
+     * @param contentResolver The content resolver used for finding the renditions of an ID.
+     * @param presentationType The presentation type of the renditions.
+     * @param bitratePattern Pattern finding the bitrate of a rendition in its file name, in kbit/s as the first group.
+     * @param smilDirectory The directory generated SMIL files are written to.
+     * @param cacheMaximumSize Maximum number of IDs whose renditions are cached.
+     * @param cacheTimeToLive How long renditions and SMIL files are cached.
+     * @param cacheNegativeTimeToLive How long it is remembered that an ID has no renditions.
+     */
+    public SmilGenerator(ContentResolver contentResolver, String presentationType, Pattern bitratePattern,
+                         Path smilDirectory, int cacheMaximumSize, Duration cacheTimeToLive,
+                         Duration cacheNegativeTimeToLive) {
+        this.contentResolver = contentResolver;
+        this.presentationType = presentationType;
+        this.bitratePattern = bitratePattern;
+        this.smilDirectory = smilDirectory;
+        this.renditionsCache = new LoadingCache<>("renditions", cacheMaximumSize, cacheTimeToLive,
+                                                  cacheNegativeTimeToLive, this::loadRenditions);
+    }
+
+    /**
+     * Get the file for a request, if it is for a SMIL file or a rendition.
+     *
+     * @param name The cleaned name.
+     * @param ext The extension of the request.
+     * @return The generated SMIL file or the file of the rendition, or null if the request is for neither or the ID
+     * has no renditions.
+     */
+    public File getFile(String name, String ext) {
+        int separator = name.lastIndexOf(RENDITION_SEPARATOR);
+        if (SMIL_EXTENSION.equalsIgnoreCase(ext)) {
+            Renditions renditions = getRenditions(name);
+            return renditions == null ? null : renditions.smilFile;
+        } else if (separator > 0) {
+            Renditions renditions = getRenditions(name.substring(0, separator));
+            if (renditions != null) {
+                String bitrate = name.substring(separator + RENDITION_SEPARATOR.length());
+                for (Rendition rendition : renditions.renditions) {
+                    if (String.valueOf(rendition.bitrate).equals(bitrate)) {
+                        return rendition.file;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Hit rate and other counters for the cache of renditions.
+     */
+    public CacheStats getCacheStats() {
+        return renditionsCache.getStats();
+    }
+
+    private Renditions getRenditions(String id) {
+        try {
+            return renditionsCache.get(id);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Could not generate SMIL for '" + id + "'", e.getCause());
+        }
+    }
+
+    /** Find the renditions of an ID and write its SMIL file. */
+    private Renditions loadRenditions(String id) throws IOException {
+        List<Rendition> renditions = getRenditions(contentResolver.getContent(id));
+        if (renditions.isEmpty()) {
+            return null;
+        }
+        // IDs come from players, so only IDs that name a file in the SMIL directory are written
+        Path smilFile = smilDirectory.resolve(id + "." + SMIL_EXTENSION);
+        if (!smilFile.getParent().equals(smilDirectory)) {
+            return null;
+        }
+        Path temporary = Files.createTempFile(smilDirectory, id, ".tmp");
+        try {
+            Files.write(temporary, toSmil(id, renditions).getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, smilFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return new Renditions(renditions, smilFile.toFile());
+    }
+
+    /**
+     * Get the renditions in content, with their bitrates read from the file names.
+     *
+     * @param content The content of an ID.
+     * @return The renditions with a bitrate, highest bitrate first.
+     */
+    List<Rendition> getRenditions(Content content) {
+        List<Rendition> renditions = new ArrayList<>();
+        if (content == null || content.getResources() == null) {
+            return renditions;
+        }
+        for (Resource resource : content.getResources()) {
+            if (!presentationType.equals(resource.getType()) || resource.getUris() == null) {
+                continue;
+            }
+            for (URI uri : resource.getUris()) {
+                File file = new File(uri.getPath());
+                Matcher matcher = bitratePattern.matcher(file.getName());
+                if (matcher.find()) {
+                    long bitrate = Long.parseLong(matcher.group(1)) * 1000;
+                    if (renditions.stream().noneMatch(rendition -> rendition.bitrate == bitrate)) {
+                        renditions.add(new Rendition(file, bitrate));
+                    }
+                }
+            }
+        }
+        renditions.sort(Comparator.comparingLong((Rendition rendition) -> rendition.bitrate).reversed());
+        return renditions;
+    }
+
+    /**
+     * Write a SMIL document with the renditions of an ID in a switch.
+     *
+     * @param id The ID.
+     * @param renditions The renditions.
+     * @return The SMIL document.
+     */
+    static String toSmil(String id, List<Rendition> renditions) {
+        StringBuilder smil = new StringBuilder();
+        smil.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        smil.append("<smil>\n  <head></head>\n  <body>\n    <switch>\n");
+        for (Rendition rendition : renditions) {
+            String name = rendition.file.getName();
+            String extension = name.contains(".") ? name.substring(name.lastIndexOf('.') + 1).toLowerCase() : "mp4";
+            String element = AUDIO_EXTENSIONS.contains(extension) ? "audio" : "video";
+            smil.append("      <").append(element).append(" src=\"").append(extension).append(':')
+                    .append(escape(id)).append(RENDITION_SEPARATOR).append(rendition.bitrate).append('.')
+                    .append(extension).append("\" system-bitrate=\"").append(rendition.bitrate).append("\"/>\n");
+        }
+        smil.append("    </switch>\n  </body>\n</smil>\n");
+        return smil.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /** A file of an ID at a bitrate. */
+    static final class Rendition {
+        final File file;
+        final long bitrate;
+
+        Rendition(File file, long bitrate) {
+            this.file = file;
+            this.bitrate = bitrate;
+        }
+    }
+
+    private static final class Renditions {
+        private final List<Rendition> renditions;
+        private final File smilFile;
+
+        private Renditions(List<Rendition> renditions, File smilFile) {
+            this.renditions = Collections.unmodifiableList(renditions);
+            this.smilFile = smilFile;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Local copies of popular files, so files on slow network storage are streamed from a local disk once they are in
+ * demand.
+ *
+ * Each request for a remote file is counted. When a file has been requested a number of times, it is copied to the
+ * staging directory in the background, to a temporary file that is renamed when complete, so a partial copy is never
+ * streamed. Until the copy is done, the remote file is used. Room for a copy is made before copying, by deleting the
+ * least recently requested copies, so copies made at the same time never take up more than the maximum number of
+ * bytes. Remote files are only looked at when they are copied, so requests for them do not touch remote storage.
+ *
+ * Remote files are assumed not to change once written, as copies are not compared to them again. Copies are deleted
+ * when the cache is created and closed.
+ */
+public class StagingCache implements Closeable {
+    /** Property for the local directory popular files are copied to. Files are not copied if not set. */
+    public static final String PROPERTY_STAGING_DIRECTORY = "contentResolverStagingDirectory";
+    /** Property for the maximum size of the copies in the staging directory. */
+    public static final String PROPERTY_STAGING_MAXIMUM_MEGABYTES = "contentResolverStagingMaximumMegabytes";
+    /** Property for the number of requests for a file before it is copied. */
+    public static final String PROPERTY_STAGING_POPULARITY_THRESHOLD = "contentResolverStagingPopularityThreshold";
+    /** Property for the number of files copied at the same time. */
+    public static final String PROPERTY_STAGING_THREADS = "contentResolverStagingThreads";
+    public static final long DEFAULT_STAGING_MAXIMUM_MEGABYTES = 10240;
+    public static final int DEFAULT_STAGING_POPULARITY_THRESHOLD = 3;
+    public static final int DEFAULT_STAGING_THREADS = 2;
+
+    /** Number of remote files whose requests are counted. The least recently requested are forgotten. */
+    private static final int MAXIMUM_COUNTED_FILES = 100000;
+    /** Number of copies waiting for a thread. Files requested while the queue is full are copied later. */
+    private static final int MAXIMUM_QUEUED_COPIES = 1000;
+    private static final String TEMPORARY_SUFFIX = ".staging";
+    /** Names of copies and temporary files made by the staging cache. */
+    private static final Pattern STAGED_FILE_PATTERN = Pattern.compile(
+            "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}-.*");
+
+    private final WMSLogger logger;
+    private final Path directory;
+    private final long maximumBytes;
+    private final int popularityThreshold;
+    private final ThreadPoolExecutor copier;
+    /** Requests by remote path, least recently requested first. Guarded by itself. */
+    private final LinkedHashMap<String, Integer> requests;
+    /** Copies by remote path, least recently requested first. Guarded by itself. */
+    private final LinkedHashMap<String, StagedFile> stagedFiles = new LinkedHashMap<>(16, 0.75f, true);
+    /** Remote paths being copied. */
+    private final Set<String> copying = ConcurrentHashMap.newKeySet();
+    /** Size of the copies, and of the copies being made. Guarded by stagedFiles. */
+    private long stagedBytes;
+    private final AtomicLong localRequests = new AtomicLong();
+    private final AtomicLong localFileBytesRequested = new AtomicLong();
+    private final AtomicLong remoteRequests = new AtomicLong();
+    private final AtomicLong copies = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a staging cache, deleting copies left in the staging directory by an earlier staging cache.
+     *
+     * @param logger Logger for reporting copies.
+     * @param directory The local directory files are copied to. Created if it does not exist.
+     * @param maximumBytes Maximum total size of the copies.
+     * @param popularityThreshold Number of requests for a file before it is copied.
+     * @param threads Number of files copied at the same time.
+     * @throws IOException If the staging directory could not be created or cleaned.
+     */
+    public StagingCache(WMSLogger logger, Path directory, long maximumBytes, int popularityThreshold, int threads)
+            throws IOException {
+        this.logger = logger;
+        this.directory = directory;
+        this.maximumBytes = maximumBytes;
+        this.popularityThreshold = popularityThreshold;
+        this.requests = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > MAXIMUM_COUNTED_FILES;
+            }
+        };
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.copier = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                             new ArrayBlockingQueue<>(MAXIMUM_QUEUED_COPIES), runnable -> {
+            Thread thread = new Thread(runnable, "StagingCache-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.copier.allowCoreThreadTimeOut(true);
+        Files.createDirectories(directory);
+        deleteStagedFiles();
+    }
+
+    /**
+     * Get the file to stream for a remote file, and count the request.
+     *
+     * @param remoteFile The file on remote storage.
+     * @return The local copy if there is one, otherwise the remote file.
+     */
+    public File get(File remoteFile) {
+        String remotePath = remoteFile.getPath();
+        StagedFile stagedFile;
+        synchronized (stagedFiles) {
+            stagedFile = stagedFiles.get(remotePath);
+        }
+        if (stagedFile != null) {
+            localRequests.incrementAndGet();
+            localFileBytesRequested.addAndGet(stagedFile.size);
+            return stagedFile.path.toFile();
+        }
+        remoteRequests.incrementAndGet();
+        int count;
+        synchronized (requests) {
+            count = requests.merge(remotePath, 1, Integer::sum);
+        }
+        if (count >= popularityThreshold && copying.add(remotePath)) {
+            try {
+                copier.execute(() -> stage(remoteFile));
+            } catch (RejectedExecutionException e) {
+                copying.remove(remotePath);
+            }
+        }
+        return remoteFile;
+    }
+
+    /**
+     * Copy a remote file to the staging directory. Copies are evicted to make room for it before copying, and the
+     * file is not copied if there is no room, because of other copies being made.
+     */
+    private void stage(File remoteFile) {
+        String remotePath = remoteFile.getPath();
+        Path target = directory.resolve(
+                UUID.nameUUIDFromBytes(remotePath.getBytes(StandardCharsets.UTF_8)) + "-" + remoteFile.getName());
+        Path temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+        long size = remoteFile.length();
+        if (size > maximumBytes || !remoteFile.isFile() || !reserve(size)) {
+            copying.remove(remotePath);
+            return;
+        }
+        boolean staged = false;
+        try {
+            long start = System.currentTimeMillis();
+            Files.copy(remoteFile.toPath(), temporary, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (stagedFiles) {
+                stagedFiles.put(remotePath, new StagedFile(target, size));
+            }
+            staged = true;
+            synchronized (requests) {
+                requests.remove(remotePath);
+            }
+            copies.incrementAndGet();
+            logger.info("Copied " + remotePath + " to " + target + " in " + (System.currentTimeMillis() - start)
+                                + " ms");
+        } catch (IOException e) {
+            logger.warn("Could not copy " + remotePath + " to " + target, e);
+            delete(temporary);
+        } finally {
+            if (!staged) {
+                synchronized (stagedFiles) {
+                    stagedBytes -= size;
+                }
+            }
+            copying.remove(remotePath);
+        }
+    }
+
+    /**
+     * Delete the least recently requested copies until there is room for a file, and count the file as staged.
+     *
+     * @param size The size of the file.
+     * @return False if there is no room, because of other copies being made.
+     */
+    private boolean reserve(long size) {
+        synchronized (stagedFiles) {
+            Iterator<StagedFile> iterator = stagedFiles.values().iterator();
+            while (stagedBytes + size > maximumBytes && iterator.hasNext()) {
+                StagedFile evicted = iterator.next();
+                iterator.remove();
+                stagedBytes -= evicted.size;
+                evictions.incrementAndGet();
+                // Streams already reading the copy keep reading it after it is deleted
+                delete(evicted.path);
+            }
+            if (stagedBytes + size > maximumBytes) {
+                return false;
+            }
+            stagedBytes += size;
+            return true;
+        }
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete " + path, e);
+        }
+    }
+
+    /** Delete the copies and temporary files in the staging directory, leaving other files alone. */
+    private void deleteStagedFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (STAGED_FILE_PATTERN.matcher(file.getFileName().toString()).matches()) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of requests answered with a local copy.
+     */
+    public long getLocalRequests() {
+        return localRequests.get();
+    }
+
+    /**
+     * @return Total size of the local copies requested. Not the number of bytes streamed, as streams seldom read all of
+     * a file.
+     */
+    public long getLocalFileBytesRequested() {
+        return localFileBytesRequested.get();
+    }
+
+    /**
+     * @return Number of requests answered with a remote file.
+     */
+    public long getRemoteRequests() {
+        return remoteRequests.get();
+    }
+
+    /**
+     * @return Total size of the copies in the staging directory, including copies being made.
+     */
+    public long getStagedBytes() {
+        synchronized (stagedFiles) {
+            return stagedBytes;
+        }
+    }
+
+    /**
+     * @return Number of copies deleted to make room for other copies.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Stop copying files, and delete the copies.
+     */
+    @Override
+    public void close() {
+        logger.info(toString());
+        copier.shutdownNow();
+        try {
+            copier.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (stagedFiles) {
+            stagedFiles.clear();
+            stagedBytes = 0;
+        }
+        try {
+            deleteStagedFiles();
+        } catch (IOException e) {
+            logger.warn("Could not clean " + directory, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Staging cache in " + directory + ": localRequests=" + localRequests + ", localFileBytesRequested="
+                + localFileBytesRequested + ", remoteRequests=" + remoteRequests + ", stagedBytes=" + getStagedBytes()
+                + ", copies=" + copies + ", evictions=" + evictions;
+    }
+
+    private static final class StagedFile {
+        private final Path path;
+        private final long size;
+
+        private StagedFile(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+}
@@ -7,15 +7,27 @@ import com.wowza.wms.stream.IMediaStream;
 import com.wowza.wms.stream.IMediaStreamFileMapper;
 import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
 import dk.statsbiblioteket.medieplatform.contentresolver.lib.DirectoryBasedContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.ContentResolverOverloadedException;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.DirectoryLayout;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver.SmilGenerator;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
 import org.apache.log4j.Logger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -37,6 +49,9 @@ public class ContentResolverMapperTest {
     String programID = "0ef8f946-4e90-4c9d-843a-a03504d2ee6c";
     String name = "0ef8f946-4e90-4c9d-843a-a03504d2ee6c.flv";
 
+    @TempDir
+    Path directory;
+
 
     public ContentResolverMapperTest() {
         super();
@@ -160,4 +175,111 @@ public class ContentResolverMapperTest {
         // Validate
         assertEquals("0/e/f/8/0ef8f946-4e90-4c9d-843a-a03504d2ee6c.flv", result, "Expected equal result");
     }
+
+    @Test
+    public void testResolvedFilesAreCached() {
+        // Setup
+        AtomicInteger lookups = new AtomicInteger();
+        ContentResolver directoryResolver = new DirectoryBasedContentResolver("Stream", new File(storageDir), 4,
+                                                                              "%s\\.flv", "%s");
+        ContentResolver contentResolver = new ContentResolver() {
+            @Override
+            public Content getContent(String id) {
+                lookups.incrementAndGet();
+                return directoryResolver.getContent(id);
+            }
+        };
+        ContentResolverMapper contentResolverMapper = new ContentResolverMapper("Stream", null, contentResolver, 100,
+                                                                                Duration.ofMinutes(5),
+                                                                                Duration.ofMinutes(1));
+        // Test
+        for (int i = 0; i < 3; i++) {
+            assertEquals("0/e/f/8/0ef8f946-4e90-4c9d-843a-a03504d2ee6c.flv",
+                         contentResolverMapper.getFileToStream("flv:" + name).getPath(), "Expected equal result");
+            assertEquals("file_not_found", contentResolverMapper.getFileToStream("unknown.flv").getPath(),
+                         "Expected file not found");
+        }
+        // Validate
+        assertEquals(2, lookups.get());
+        contentResolverMapper.invalidate(name);
+        contentResolverMapper.getFileToStream(name);
+        assertEquals(3, lookups.get());
+        assertEquals(2, contentResolverMapper.getCacheStats().getHits());
+        assertEquals(2, contentResolverMapper.getCacheStats().getNegativeHits());
+    }
+
+    @Test
+    public void testMissingContentIsRememberedForRejecting() {
+        // Setup
+        AtomicInteger lookups = new AtomicInteger();
+        ContentResolver directoryResolver = new DirectoryBasedContentResolver("Stream", new File(storageDir), 4,
+                                                                              "%s\\.flv", "%s");
+        ContentResolver contentResolver = new ContentResolver() {
+            @Override
+            public Content getContent(String id) {
+                lookups.incrementAndGet();
+                return directoryResolver.getContent(id);
+            }
+        };
+        ContentResolverMapper contentResolverMapper = new ContentResolverMapper("Stream", null, contentResolver, 100,
+                                                                                Duration.ofMinutes(5),
+                                                                                Duration.ofMinutes(1));
+        // Test
+        for (int i = 0; i < 3; i++) {
+            assertTrue(contentResolverMapper.hasContent("flv:" + name));
+            assertFalse(contentResolverMapper.hasContent("flv:unknown.flv"));
+        }
+        // Validate
+        assertEquals(2, lookups.get());
+        assertEquals(2, contentResolverMapper.getCacheStats().getNegativeHits());
+    }
+
+    @Test
+    public void testOverloadedLookupsAreNotRememberedAsMissing() {
+        // Setup
+        AtomicInteger lookups = new AtomicInteger();
+        ContentResolver contentResolver = new ContentResolver() {
+            @Override
+            public Content getContent(String id) {
+                lookups.incrementAndGet();
+                throw new ContentResolverOverloadedException("Too many lookups, rejected looking up '" + id + "'");
+            }
+        };
+        ContentResolverMapper contentResolverMapper = new ContentResolverMapper("Stream", null, contentResolver, 100,
+                                                                                Duration.ofMinutes(5),
+                                                                                Duration.ofMinutes(1));
+        // Test
+        for (int i = 0; i < 3; i++) {
+            assertThrows(ContentResolverOverloadedException.class, () -> contentResolverMapper.hasContent(name));
+            assertEquals("file_not_found", contentResolverMapper.getFileToStream(name).getPath(),
+                         "Expected file not found");
+        }
+        // Validate
+        assertEquals(6, lookups.get());
+        assertEquals(0, contentResolverMapper.getCacheStats().getNegativeHits());
+    }
+
+    @Test
+    public void testGeneratedSmilFilesAndRenditionsAreNotRejected() throws IOException {
+        // Setup
+        Files.createDirectories(directory.resolve("a/b"));
+        Files.createFile(directory.resolve("a/b/abc_500k.mp4"));
+        Files.createFile(directory.resolve("a/b/abc_1500k.mp4"));
+        DirectoryLayout layout = new DirectoryLayout("Stream", directory.toFile(), 2, 1, "%s_\\d+k\\.mp4",
+                                                     "file://" + directory + "/%s");
+        ContentResolver contentResolver = id -> layout.createContent(
+                id.equals("abc") ? Arrays.asList("a/b/abc_500k.mp4", "a/b/abc_1500k.mp4") : Collections.emptyList());
+        ContentResolverMapper contentResolverMapper = new ContentResolverMapper("Stream", null, contentResolver, 100,
+                                                                                Duration.ofMinutes(5),
+                                                                                Duration.ofMinutes(1));
+        contentResolverMapper.setSmilGenerator(new SmilGenerator(
+                contentResolver, "Stream", Pattern.compile(SmilGenerator.DEFAULT_ABR_BITRATE_PATTERN),
+                Files.createDirectories(directory.resolve("smil")), 100, Duration.ofMinutes(5),
+                Duration.ofMinutes(1)));
+        // Test and validate, as checked when rejecting unknown content
+        assertTrue(contentResolverMapper.hasContent("smil:abc.smil"));
+        assertTrue(contentResolverMapper.hasContent("mp4:abc_abr500000.mp4"));
+        assertFalse(contentResolverMapper.hasContent("mp4:abc_abr700000.mp4"));
+        assertFalse(contentResolverMapper.hasContent("smil:unknown.smil"));
+    }
 }
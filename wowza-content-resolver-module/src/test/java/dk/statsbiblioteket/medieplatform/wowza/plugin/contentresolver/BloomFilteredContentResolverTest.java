@@ -0,0 +1,107 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.DirectoryBasedContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test skipping content providers with a Bloom filter of their IDs.
+ */
+public class BloomFilteredContentResolverTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @TempDir
+    Path baseDirectory;
+
+    @Test
+    public void testBloomFilterHasNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("id" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("id" + i));
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300, "False positives: " + falsePositives);
+        assertEquals(0.01, filter.getFalsePositiveRate(), 0.005);
+        assertEquals(7, filter.getHashCount());
+    }
+
+    @Test
+    public void testUnknownIdsAreSkipped() throws Exception {
+        Files.createDirectories(baseDirectory.resolve("a/b"));
+        Files.createFile(baseDirectory.resolve("a/b/abc.mp3"));
+        AtomicInteger lookups = new AtomicInteger();
+        DirectoryLayout layout = new DirectoryLayout("Stream", baseDirectory.toFile(), 2, 1, "%s\\.(mp3|mp4)",
+                                                     "file://" + baseDirectory + "/%s");
+        DirectoryBasedContentResolver directoryResolver = new DirectoryBasedContentResolver(
+                "Stream", baseDirectory.toFile(), 2, 1, "%s\\.(mp3|mp4)", "file://" + baseDirectory + "/%s");
+        BloomFilteredContentResolver resolver = new BloomFilteredContentResolver(logger, id -> {
+            lookups.incrementAndGet();
+            return directoryResolver.getContent(id);
+        }, layout, 1000, 0.001);
+        ForkJoinPool walkPool = new ForkJoinPool(2);
+        try {
+            resolver.start(Duration.ofHours(1), walkPool);
+            long deadline = System.currentTimeMillis() + 20000;
+            while (resolver.getMemoryBytes() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, resolver.getContent("abc").getResources().size());
+            Content content = resolver.getContent("xyz");
+            assertTrue(content.getResources().isEmpty());
+            assertEquals(1, lookups.get());
+            assertEquals(1, resolver.getSkipped());
+
+            // Files added after the build are seen through the watch service
+            Files.createDirectories(baseDirectory.resolve("x/y"));
+            Files.createFile(baseDirectory.resolve("x/y/xyz.mp4"));
+            while (resolver.getContent("xyz").getResources().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, resolver.getContent("xyz").getResources().size());
+            // The directories are walked in the given pool
+            assertTrue(walkPool.getPoolSize() > 0);
+        } finally {
+            resolver.close();
+            walkPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testOldFiltersAreNotTrusted() throws Exception {
+        Files.createDirectories(baseDirectory.resolve("a/b"));
+        Files.createFile(baseDirectory.resolve("a/b/abc.mp3"));
+        DirectoryLayout layout = new DirectoryLayout("Stream", baseDirectory.toFile(), 2, 1, "%s\\.(mp3|mp4)",
+                                                     "file://" + baseDirectory + "/%s");
+        DirectoryBasedContentResolver directoryResolver = new DirectoryBasedContentResolver(
+                "Stream", baseDirectory.toFile(), 2, 1, "%s\\.(mp3|mp4)", "file://" + baseDirectory + "/%s");
+        BloomFilteredContentResolver resolver = new BloomFilteredContentResolver(logger, directoryResolver, layout,
+                                                                                 1000, 0.001);
+        resolver.rebuild();
+        // Like a file written to NFS by another host, which is not seen until the next rebuild
+        Files.createDirectories(baseDirectory.resolve("x/y"));
+        Files.createFile(baseDirectory.resolve("x/y/xyz.mp4"));
+        assertTrue(resolver.getContent("xyz").getResources().isEmpty());
+        assertEquals(1, resolver.getSkipped());
+
+        resolver.setMaxAge(Duration.ZERO);
+        assertEquals(1, resolver.getContent("xyz").getResources().size());
+        assertEquals(1, resolver.getSkipped());
+    }
+}
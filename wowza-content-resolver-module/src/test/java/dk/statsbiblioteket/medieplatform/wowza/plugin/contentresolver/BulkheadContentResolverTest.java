@@ -0,0 +1,99 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test limiting and coalescing directory scans.
+ */
+public class BulkheadContentResolverTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @Test
+    public void testConcurrentLookupsOfAnIdShareOneScan() throws Exception {
+        AtomicInteger scans = new AtomicInteger();
+        CountDownLatch scanning = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Content found = new Content();
+        Bulkhead bulkhead = new Bulkhead(1, Duration.ofSeconds(10));
+        BulkheadContentResolver resolver = new BulkheadContentResolver(logger, id -> {
+            scans.incrementAndGet();
+            scanning.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return found;
+        }, bulkhead);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Content>> lookups = new ArrayList<>();
+            lookups.add(executor.submit(() -> resolver.getContent("id")));
+            assertTrue(scanning.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                lookups.add(executor.submit(() -> resolver.getContent("id")));
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (bulkhead.getCoalesced() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<Content> lookup : lookups) {
+                assertSame(found, lookup.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, scans.get());
+            assertEquals(3, bulkhead.getCoalesced());
+            assertEquals(0, bulkhead.getActiveScans());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLookupsAreRejectedWhenScansTakeTooLong() throws Exception {
+        CountDownLatch scanning = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Bulkhead bulkhead = new Bulkhead(1, Duration.ofMillis(50));
+        BulkheadContentResolver resolver = new BulkheadContentResolver(logger, id -> {
+            scanning.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Content content = new Content();
+            content.setResources(Collections.emptyList());
+            return content;
+        }, bulkhead);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Content> slow = executor.submit(() -> resolver.getContent("slow"));
+            assertTrue(scanning.await(10, TimeUnit.SECONDS));
+            // Overloaded is not the same as not found
+            assertThrows(ContentResolverOverloadedException.class, () -> resolver.getContent("other"));
+            assertEquals(1, bulkhead.getRejected());
+            assertEquals(1, bulkhead.getActiveScans());
+            release.countDown();
+            slow.get(10, TimeUnit.SECONDS);
+            assertEquals(1, bulkhead.getAdmitted());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test resolving the most played streams from StreamingStat logs.
+ */
+public class CacheWarmerTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @TempDir
+    Path logFolder;
+
+    @Test
+    public void testGetStreamName() {
+        assertEquals("0ef8f946-4e90-4c9d-843a-a03504d2ee6c", CacheWarmer.getStreamName(
+                "rtmp://localhost:1935/mediestream?ticket=abc/mp4:0ef8f946-4e90-4c9d-843a-a03504d2ee6c.mp4"));
+        assertEquals("0ef8f946-4e90-4c9d-843a-a03504d2ee6c", CacheWarmer.getStreamName(
+                "mediestream/_definst_/mp4:0ef8f946-4e90-4c9d-843a-a03504d2ee6c.mp4/playlist.m3u8?ticket=abc"));
+        assertNull(CacheWarmer.getStreamName("null?ticket=abc"));
+    }
+
+    @Test
+    public void testMostPlayedStreamsAreResolved() throws Exception {
+        LocalDate today = LocalDate.of(2026, 10, 18);
+        Files.write(logFolder.resolve("StreamingStat-2026-10-17.log"), Arrays.asList(
+                "Timestamp;Event;Streaming URL;User attributes",
+                "2026-10-17 10:00:00.000;PLAY;rtmp://host/mediestream?ticket=t/mp4:b.mp4;{}",
+                "2026-10-17 10:00:01.000;STOP;rtmp://host/mediestream?ticket=t/mp4:c.mp4;{}",
+                "2026-10-17 10:00:02.000;STOP;rtmp://host/mediestream?ticket=t/mp4:c.mp4;{}",
+                "2026-10-17 10:00:03.000;PLAY;mediestream/_definst_/mp4:a.mp4/playlist.m3u8?ticket=t;{}"));
+        Files.write(logFolder.resolve("StreamingStat-2026-10-18.log"), Arrays.asList(
+                "2026-10-18 08:00:00.000;PLAY;rtmp://host/mediestream?ticket=t/mp4:a.mp4;{}",
+                "2026-10-18 08:00:01.000;PLAY;rtmp://host/mediestream?ticket=t/mp4:c.mp4;{}"));
+        // Older than the days read
+        Files.write(logFolder.resolve("StreamingStat-2026-10-16.log"), Arrays.asList(
+                "2026-10-16 08:00:00.000;PLAY;rtmp://host/mediestream?ticket=t/mp4:d.mp4;{}"));
+
+        List<String> resolved = new ArrayList<>();
+        CacheWarmer cacheWarmer = new CacheWarmer(logger, logFolder, 1, 2, 0, resolved::add);
+        List<Path> logFiles = cacheWarmer.getLogFiles(today);
+        assertEquals(2, logFiles.size());
+        List<String> mostPlayed = cacheWarmer.getMostPlayed(logFiles, 2);
+        assertEquals("a", mostPlayed.get(0));
+        assertEquals(2, mostPlayed.size());
+        assertFalse(mostPlayed.contains("d"));
+
+        cacheWarmer.warmUp(today);
+        assertEquals(mostPlayed, resolved);
+    }
+}
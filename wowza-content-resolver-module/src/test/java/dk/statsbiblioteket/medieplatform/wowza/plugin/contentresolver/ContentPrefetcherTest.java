@@ -0,0 +1,75 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test reading the start of files in the background.
+ */
+public class ContentPrefetcherTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testMoovBoxIsFoundAfterMediaData() throws Exception {
+        // ftyp, then 10000 bytes of mdat, then moov at the end of the file
+        Path file = directory.resolve("file.mp4");
+        ByteBuffer mp4 = ByteBuffer.allocate(16 + 10008 + 1008);
+        box(mp4, "ftyp", 16);
+        box(mp4, "mdat", 10008);
+        box(mp4, "moov", 1008);
+        Files.write(file, mp4.array());
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] moov = ContentPrefetcher.findMoov(channel, ByteBuffer.allocate(16), channel.size());
+            assertNotNull(moov);
+            assertEquals(16 + 10008, moov[0]);
+            assertEquals(1008, moov[1]);
+        }
+
+        ContentPrefetcher prefetcher = new ContentPrefetcher(logger, 100, 4096, 1);
+        try {
+            prefetcher.prefetch(file.toFile());
+            // Recently prefetched files are not prefetched again
+            prefetcher.prefetch(file.toFile());
+            long deadline = System.currentTimeMillis() + 20000;
+            while (prefetcher.getPrefetches() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(100);
+            assertEquals(1, prefetcher.getPrefetches());
+            assertEquals(1, prefetcher.getMoovBoxes());
+            assertEquals(100 + 1008, prefetcher.getBytesRead());
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    @Test
+    public void testOtherFilesHaveNoMoovBox() throws Exception {
+        Path file = directory.resolve("file.mp3");
+        Files.write(file, "ID3 and some audio".getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertNull(ContentPrefetcher.findMoov(channel, ByteBuffer.allocate(16), channel.size()));
+        }
+    }
+
+    private static void box(ByteBuffer buffer, String type, int size) {
+        buffer.putInt(size);
+        buffer.put(type.getBytes(StandardCharsets.US_ASCII));
+        buffer.position(buffer.position() + size - 8);
+    }
+}
@@ -0,0 +1,82 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test measuring the lookups of a content provider.
+ */
+public class ContentProviderMetricsTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testLookupsAreCounted() {
+        DirectoryLayout layout = new DirectoryLayout("Stream", directory.toFile(), 2, 1, "%s\\.mp4",
+                                                     "file://" + directory + "/%s");
+        ContentProviderMetrics metrics = new ContentProviderMetrics("doms", "Stream");
+        ContentResolver contentResolver = metrics.measure(metrics.countScans(id -> {
+            if (id.equals("broken")) {
+                throw new IllegalStateException("Storage is gone");
+            }
+            return layout.createContent(id.equals("abc")
+                                                ? Collections.singletonList("a/b/abc.mp4")
+                                                : Collections.emptyList());
+        }));
+
+        assertFalse(contentResolver.getContent("abc").getResources().isEmpty());
+        contentResolver.getContent("abc");
+        contentResolver.getContent("unknown");
+        assertThrows(IllegalStateException.class, () -> contentResolver.getContent("broken"));
+
+        assertEquals(4, metrics.getLookups());
+        assertEquals(2, metrics.getHits());
+        assertEquals(1, metrics.getMisses());
+        assertEquals(1, metrics.getFailures());
+        assertEquals(2.0 / 3, metrics.getHitRate(), 0.001);
+        assertEquals(4, metrics.getDirectoryScans());
+        assertEquals(4, Arrays.stream(metrics.getLatencyCounts()).sum());
+
+        SharedContentResolver shared = new SharedContentResolver(logger);
+        shared.addProviderMetrics(metrics);
+        String json = new ContentResolverMetrics(logger, "_defaultVHost_|/storage|{}", "_defaultVHost_", "/storage",
+                                                 shared).toJson();
+        assertTrue(json.startsWith("{\"name\":\"/storage\",\"configuration\":\""), json);
+        assertTrue(json.contains("\"contentProviders\":[{\"name\":\"doms\",\"lookups\":4,\"hits\":2,\"misses\":1,"),
+                   json);
+        assertTrue(json.contains("\"+Inf\":0"), json);
+    }
+
+    @Test
+    public void testPercentilesAreUpperBoundsOfBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0.0, histogram.getPercentileMillis(50));
+        for (int i = 0; i < 98; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(1500));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(150));
+        histogram.record(TimeUnit.SECONDS.toNanos(7));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(2.0, histogram.getPercentileMillis(50));
+        assertEquals(2.0, histogram.getPercentileMillis(98));
+        assertEquals(200.0, histogram.getPercentileMillis(99));
+        assertEquals(7000.0, histogram.getPercentileMillis(100));
+        assertEquals(7000.0, histogram.getMaxMillis());
+        long[] counts = histogram.getCounts();
+        assertEquals(98, counts[1]);
+        assertEquals(1, counts[counts.length - 1]);
+    }
+}
@@ -0,0 +1,126 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test sharing content resolvers between applications.
+ */
+public class ContentResolverRegistryTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @Test
+    public void testContentResolverIsSharedUntilLastRelease() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        ContentResolverRegistry.Factory factory = () -> {
+            created.incrementAndGet();
+            SharedContentResolver contentResolver = new SharedContentResolver(logger);
+            contentResolver.addCloseable(closed::incrementAndGet);
+            return contentResolver;
+        };
+
+        SharedContentResolver first = ContentResolverRegistry.acquire("vhost|a", factory);
+        SharedContentResolver second = ContentResolverRegistry.acquire("vhost|a", factory);
+        SharedContentResolver other = ContentResolverRegistry.acquire("vhost|b", factory);
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(2, created.get());
+        assertEquals(2, ContentResolverRegistry.getReferenceCount("vhost|a"));
+
+        assertFalse(ContentResolverRegistry.release("vhost|a"));
+        assertEquals(0, closed.get());
+        assertTrue(ContentResolverRegistry.release("vhost|a"));
+        assertEquals(1, closed.get());
+        assertEquals(0, ContentResolverRegistry.getReferenceCount("vhost|a"));
+        assertFalse(ContentResolverRegistry.release("vhost|a"));
+
+        assertTrue(ContentResolverRegistry.release("vhost|b"));
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void testMetricsArePublishedUntilLastRelease() throws Exception {
+        String key = "metrics|/storage|{}";
+        ContentResolverRegistry.Factory factory = () -> {
+            SharedContentResolver contentResolver = new SharedContentResolver(logger);
+            ContentResolverMetrics metrics = new ContentResolverMetrics(logger, key, "metrics", "/storage",
+                                                                        contentResolver);
+            contentResolver.setMetrics(metrics);
+            metrics.registerMBeans();
+            return contentResolver;
+        };
+        SharedContentResolver contentResolver = ContentResolverRegistry.acquire(key, factory);
+        ContentResolverRegistry.acquire(key, factory);
+        ObjectName objectName = new ObjectName(
+                "dk.statsbiblioteket.medieplatform.wowza:type=ContentResolver,vhost=\"metrics\","
+                        + "storageDir=\"/storage\",configuration=" + contentResolver.getMetrics().getConfiguration());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals("/storage", server.getAttribute(objectName, "Name"));
+
+        assertFalse(ContentResolverRegistry.release(key));
+        assertTrue(server.isRegistered(objectName));
+        assertTrue(ContentResolverRegistry.release(key));
+        assertFalse(server.isRegistered(objectName));
+    }
+
+    @Test
+    public void testCreatingOneContentResolverDoesNotBlockOthers() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch created = new CountDownLatch(1);
+        CompletableFuture<SharedContentResolver> slow = CompletableFuture.supplyAsync(() -> {
+            try {
+                return ContentResolverRegistry.acquire("blocking|slow", () -> {
+                    creating.countDown();
+                    try {
+                        created.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return new SharedContentResolver(logger);
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        creating.await();
+
+        SharedContentResolver fast = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> ContentResolverRegistry
+                .acquire("blocking|fast", () -> new SharedContentResolver(logger)));
+        assertEquals(1, ContentResolverRegistry.getContentResolvers("blocking|").size());
+        assertSame(fast, ContentResolverRegistry.getContentResolvers("blocking|").get(0));
+        assertTrue(ContentResolverRegistry.release("blocking|fast"));
+
+        created.countDown();
+        assertSame(slow.get(), ContentResolverRegistry.acquire("blocking|slow", () -> {
+            throw new IOException("Created twice");
+        }));
+        assertFalse(ContentResolverRegistry.release("blocking|slow"));
+        assertTrue(ContentResolverRegistry.release("blocking|slow"));
+    }
+
+    @Test
+    public void testFailedCreationIsTriedAgain() throws Exception {
+        assertThrows(IOException.class, () -> ContentResolverRegistry.acquire("failing|a", () -> {
+            throw new IOException("Storage is gone");
+        }));
+        assertEquals(0, ContentResolverRegistry.getReferenceCount("failing|a"));
+
+        SharedContentResolver contentResolver = ContentResolverRegistry.acquire(
+                "failing|a", () -> new SharedContentResolver(logger));
+        assertNotNull(contentResolver);
+        assertTrue(ContentResolverRegistry.release("failing|a"));
+    }
+}
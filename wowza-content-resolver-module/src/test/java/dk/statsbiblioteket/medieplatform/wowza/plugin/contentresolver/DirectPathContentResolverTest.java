@@ -0,0 +1,59 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test finding files by checking candidate paths.
+ */
+public class DirectPathContentResolverTest {
+    @TempDir
+    Path baseDirectory;
+
+    @Test
+    public void testGetExtensions() {
+        assertEquals(Arrays.asList("mp3", "mp4"), DirectPathContentResolver.getExtensions("%s\\.(mp3|mp4)"));
+        assertEquals(Collections.singletonList("flv"), DirectPathContentResolver.getExtensions("%s\\.flv"));
+        assertEquals(Collections.singletonList(""), DirectPathContentResolver.getExtensions("%s"));
+        assertTrue(DirectPathContentResolver.getExtensions("%s_.*\\.mp3").isEmpty());
+    }
+
+    @Test
+    public void testCandidatesAreCheckedBeforeListing() throws Exception {
+        Files.createDirectories(baseDirectory.resolve("a/b"));
+        Files.createFile(baseDirectory.resolve("a/b/abc.mp4"));
+        Files.createFile(baseDirectory.resolve("a/b/abd_extra.mp3"));
+        AtomicInteger listings = new AtomicInteger();
+        DirectoryLayout layout = new DirectoryLayout("Stream", baseDirectory.toFile(), 2, 1, "%s.*\\.(mp3|mp4)",
+                                                     "file://" + baseDirectory + "/%s");
+        DirectPathContentResolver resolver = new DirectPathContentResolver(id -> {
+            listings.incrementAndGet();
+            return layout.createContent(Collections.singletonList("a/b/" + id + "_extra.mp3"));
+        }, layout, Arrays.asList("mp3", "mp4"));
+
+        Content content = resolver.getContent("abc");
+        assertEquals("file://" + baseDirectory + "/a/b/abc.mp4",
+                     content.getResources().get(0).getUris().get(0).toString());
+        assertEquals(0, listings.get());
+        assertEquals(1, resolver.getDirectHits());
+
+        // The file is not named from the ID and an extension, so the directory is listed
+        content = resolver.getContent("abd");
+        assertEquals("file://" + baseDirectory + "/a/b/abd_extra.mp3",
+                     content.getResources().get(0).getUris().get(0).toString());
+        assertEquals(1, listings.get());
+        assertEquals(1, resolver.getFallbacks());
+
+        resolver.getContent("a/../abc");
+        assertEquals(2, listings.get());
+    }
+}
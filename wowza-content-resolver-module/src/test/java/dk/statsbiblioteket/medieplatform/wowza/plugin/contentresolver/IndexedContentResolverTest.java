@@ -0,0 +1,106 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test resolving content from an in-memory index of a directory tree.
+ */
+public class IndexedContentResolverTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+    private final String programID = "0ef8f946-4e90-4c9d-843a-a03504d2ee6c";
+    private IndexedContentResolver resolver;
+
+    @TempDir
+    Path baseDirectory;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (resolver != null) {
+            resolver.close();
+        }
+    }
+
+    private DirectoryLayout createLayout() {
+        return new DirectoryLayout("Stream", baseDirectory.toFile(), 4, 1, "%s\\.(mp3|mp4)",
+                                   "file://" + baseDirectory + "/%s");
+    }
+
+    private Path createFile(String relativePath) throws IOException {
+        Path file = baseDirectory.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        return Files.createFile(file);
+    }
+
+    @Test
+    public void testDirectoryLayout() {
+        DirectoryLayout layout = new DirectoryLayout("Stream", baseDirectory.toFile(), 3, 2, "%s", "%s");
+        assertEquals("0e/f8/f9/", layout.getRelativeDirectory(programID));
+        assertNull(layout.getRelativeDirectory("0ef8f"));
+        assertEquals(1, layout.getIds("0e/f8/f9/", programID).size());
+        assertTrue(layout.getIds("0e/f8/f8/", programID).isEmpty());
+        assertEquals(programID + ".mp4", createLayout().getIds("0/e/f/8/", programID + ".mp4.mp4").get(0));
+    }
+
+    @Test
+    public void testIndexIsBuiltFromDirectoryTree() throws IOException {
+        createFile("0/e/f/8/" + programID + ".mp3");
+        createFile("0/e/f/8/" + programID + ".mp4");
+        createFile("0/e/f/8/" + programID + ".txt");
+        createFile("1/2/3/4/" + programID + ".mp3");
+        createFile("1/2/3/4/1234.mp4");
+        resolver = new IndexedContentResolver(logger, createLayout());
+        resolver.build(ForkJoinPool.commonPool());
+
+        assertEquals(2, resolver.size());
+        Content content = resolver.getContent(programID);
+        assertEquals(2, content.getResources().size());
+        assertEquals("Stream", content.getResources().get(0).getType());
+        assertEquals("file://" + baseDirectory + "/0/e/f/8/" + programID + ".mp3",
+                     content.getResources().get(0).getUris().get(0).toString());
+        assertEquals(1, resolver.getContent("1234").getResources().size());
+        assertTrue(resolver.getContent("unknown-id").getResources().isEmpty());
+    }
+
+    @Test
+    public void testIndexFollowsChanges() throws Exception {
+        createFile("1/2/3/4/1234.mp4");
+        resolver = new IndexedContentResolver(logger, createLayout());
+        resolver.build(ForkJoinPool.commonPool());
+        assertTrue(resolver.getContent(programID).getResources().isEmpty());
+
+        createFile("0/e/f/8/" + programID + ".mp3");
+        Files.delete(baseDirectory.resolve("1/2/3/4/1234.mp4"));
+        long deadline = System.currentTimeMillis() + 20000;
+        while ((resolver.getContent(programID).getResources().isEmpty()
+                || !resolver.getContent("1234").getResources().isEmpty()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, resolver.getContent(programID).getResources().size());
+        assertTrue(resolver.getContent("1234").getResources().isEmpty());
+    }
+
+    @Test
+    public void testFilesNotSeenByWatcherAreFound() throws Exception {
+        resolver = new IndexedContentResolver(logger, createLayout());
+        resolver.build(ForkJoinPool.commonPool());
+        // Like files written to NFS by another host, which the watch service does not see
+        resolver.close();
+        createFile("0/e/f/8/" + programID + ".mp4");
+
+        assertEquals(1, resolver.getContent(programID).getResources().size());
+        assertTrue(resolver.getContent("unknown-id").getResources().isEmpty());
+        assertEquals(2, resolver.getDirectoryScans());
+    }
+}
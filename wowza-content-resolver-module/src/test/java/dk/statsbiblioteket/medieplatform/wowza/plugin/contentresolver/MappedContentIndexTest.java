@@ -0,0 +1,123 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test the memory mapped content index, and keeping indexes in files between restarts.
+ */
+public class MappedContentIndexTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testWriteAndLookup() throws IOException {
+        Map<String, List<String>> index = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            index.put("id" + i, Collections.singletonList("i/d/" + i + ".mp3"));
+        }
+        index.put("id5", Arrays.asList("i/d/id5.mp3", "i/d/id5.mp4"));
+        index.put("idæøå", Collections.singletonList("i/d/idæøå"));
+        Path file = directory.resolve("test.idx");
+        MappedContentIndex.write(file, index);
+
+        MappedContentIndex mapped = MappedContentIndex.open(file);
+        assertEquals(1002, mapped.size());
+        assertEquals(1001, mapped.getIdCount());
+        assertEquals(Arrays.asList("i/d/id5.mp3", "i/d/id5.mp4"), mapped.lookup("id5"));
+        assertEquals(Collections.singletonList("i/d/999.mp3"), mapped.lookup("id999"));
+        assertEquals(Collections.singletonList("i/d/idæøå"), mapped.lookup("idæøå"));
+        assertTrue(mapped.lookup("id").isEmpty());
+        assertTrue(mapped.lookup("id1000").isEmpty());
+        assertTrue(mapped.lookup("zzz").isEmpty());
+    }
+
+    @Test
+    public void testChangesAreMergedWithMappedIndex() throws IOException {
+        Map<String, List<String>> index = new TreeMap<>();
+        index.put("abc", Arrays.asList("a/b/abc.mp3", "a/b/abc.mp4"));
+        index.put("abd", Collections.singletonList("a/b/abd.mp3"));
+        index.put("xyz", Collections.singletonList("x/y/xyz.mp3"));
+        Path file = directory.resolve("test.idx");
+        MappedContentIndex.write(file, index);
+
+        Map<String, List<String>> added = new HashMap<>();
+        added.put("abc", Arrays.asList("a/b/abc.mp3", "a/b/abc.wav"));
+        added.put("aaa", Collections.singletonList("a/a/aaa.mp3"));
+        added.put("zzz", Collections.singletonList("z/z/zzz.mp3"));
+        MappedContentIndex.write(file, MappedContentIndex.open(file), added,
+                                 Collections.singleton("a/b/abd.mp3"));
+
+        MappedContentIndex mapped = MappedContentIndex.open(file);
+        assertEquals(6, mapped.size());
+        assertEquals(4, mapped.getIdCount());
+        assertEquals(Arrays.asList("a/b/abc.mp3", "a/b/abc.mp4", "a/b/abc.wav"), mapped.lookup("abc"));
+        assertTrue(mapped.lookup("abd").isEmpty());
+        assertEquals(Collections.singletonList("a/a/aaa.mp3"), mapped.lookup("aaa"));
+        assertEquals(Collections.singletonList("x/y/xyz.mp3"), mapped.lookup("xyz"));
+        assertEquals(Collections.singletonList("z/z/zzz.mp3"), mapped.lookup("zzz"));
+        assertEquals("aaa", mapped.getId(0));
+        assertEquals("zzz", mapped.getId(5));
+    }
+
+    @Test
+    public void testInvalidFileIsRejected() throws IOException {
+        Path file = Files.write(directory.resolve("invalid.idx"), new byte[100]);
+        assertThrows(IOException.class, () -> MappedContentIndex.open(file));
+    }
+
+    @Test
+    public void testIndexIsReconciledAfterRestart() throws Exception {
+        Path baseDirectory = Files.createDirectories(directory.resolve("doms"));
+        DirectoryLayout layout = new DirectoryLayout("Stream", baseDirectory.toFile(), 2, 1, "%s\\.(mp3|mp4)",
+                                                     "file://" + baseDirectory + "/%s");
+        Path indexFile = directory.resolve(IndexedContentResolver.getIndexFileName(layout));
+        Files.createDirectories(baseDirectory.resolve("a/b"));
+        Files.createFile(baseDirectory.resolve("a/b/abc.mp3"));
+        Files.createFile(baseDirectory.resolve("a/b/abd.mp3"));
+        Files.createFile(baseDirectory.resolve("a/b/abd.mp4"));
+
+        IndexedContentResolver resolver = new IndexedContentResolver(logger, layout, indexFile);
+        resolver.build(ForkJoinPool.commonPool());
+        resolver.close();
+        assertEquals(3, MappedContentIndex.open(indexFile).size());
+        assertEquals(2, resolver.size());
+
+        // Changes while the server is down are found by the walk after restart
+        Files.delete(baseDirectory.resolve("a/b/abd.mp3"));
+        Files.delete(baseDirectory.resolve("a/b/abd.mp4"));
+        Files.createFile(baseDirectory.resolve("a/b/abe.mp4"));
+        resolver = new IndexedContentResolver(logger, layout, indexFile);
+        try {
+            resolver.build(ForkJoinPool.commonPool());
+            assertEquals(1, resolver.getContent("abc").getResources().size());
+            long deadline = System.currentTimeMillis() + 20000;
+            while ((resolver.getContent("abe").getResources().isEmpty()
+                    || !resolver.getContent("abd").getResources().isEmpty())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(resolver.getContent("abd").getResources().isEmpty());
+            assertEquals(1, resolver.getContent("abe").getResources().size());
+        } finally {
+            resolver.close();
+        }
+    }
+}
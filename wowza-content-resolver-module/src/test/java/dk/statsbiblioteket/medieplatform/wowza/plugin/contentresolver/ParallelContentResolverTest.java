@@ -0,0 +1,137 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import dk.statsbiblioteket.medieplatform.contentresolver.lib.ContentResolver;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Content;
+import dk.statsbiblioteket.medieplatform.contentresolver.model.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test asking several content resolvers in parallel.
+ */
+public class ParallelContentResolverTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+    private ParallelContentResolver resolver;
+
+    @AfterEach
+    public void tearDown() {
+        if (resolver != null) {
+            resolver.close();
+        }
+    }
+
+    private ContentResolver createResolver(long delayMillis, String type, String uri) {
+        return id -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new RuntimeException(e);
+            }
+            List<Resource> resources = new ArrayList<>();
+            if (uri != null) {
+                Resource resource = new Resource();
+                resource.setType(type);
+                resource.setUris(Collections.singletonList(URI.create(uri)));
+                resources.add(resource);
+            }
+            Content content = new Content();
+            content.setResources(resources);
+            return content;
+        };
+    }
+
+    @Test
+    public void testFastestMatchingResolverWins() throws Exception {
+        resolver = new ParallelContentResolver(logger, Arrays.asList(
+                createResolver(10, "Stream", null),
+                createResolver(20, "Thumbnail", "file:///thumbnail.jpg"),
+                createResolver(50, "Stream", "file:///kuana-radio/id"),
+                createResolver(10000, "Stream", "file:///slow/id")), "Stream", 4, 5000);
+        long start = System.currentTimeMillis();
+        Content content = resolver.getContent("id");
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, content.getResources().size());
+        assertEquals("file:///kuana-radio/id", content.getResources().get(0).getUris().get(0).toString());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "Slow lookup was not cancelled");
+    }
+
+    @Test
+    public void testNoResourcesOnlyWhenAllResolversAnswered() {
+        resolver = new ParallelContentResolver(logger, Arrays.asList(
+                createResolver(10, "Stream", null),
+                createResolver(20, "Thumbnail", "file:///thumbnail.jpg")), "Stream", 2, 5000);
+        assertTrue(resolver.getContent("id").getResources().isEmpty());
+    }
+
+    @Test
+    public void testTimeoutAndFailureAreNotAnsweredAsNotFound() {
+        resolver = new ParallelContentResolver(logger, Arrays.asList(
+                id -> {
+                    throw new IllegalStateException("Storage unavailable");
+                },
+                createResolver(10000, "Stream", "file:///slow/id")), "Stream", 2, 100);
+        long start = System.currentTimeMillis();
+        assertThrows(ContentResolverOverloadedException.class, () -> resolver.getContent("id"));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        resolver.close();
+
+        resolver = new ParallelContentResolver(logger, Arrays.asList(
+                id -> {
+                    throw new IllegalStateException("Storage unavailable");
+                },
+                createResolver(10, "Stream", null)), "Stream", 2, 5000);
+        assertThrows(IllegalStateException.class, () -> resolver.getContent("id"));
+    }
+
+    @Test
+    public void testLookupsFailFastWhenAllThreadsAreBusy() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        resolver = new ParallelContentResolver(logger, Collections.singletonList(id -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return createResolver(0, "Stream", "file:///id").getContent(id);
+        }), "Stream", 1, 10000);
+        // One lookup running and one queued fill the pool
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Content> running = callers.submit(() -> resolver.getContent("running"));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Content> queued = callers.submit(() -> resolver.getContent("queued"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (resolver.getQueuedLookups() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            long start = System.currentTimeMillis();
+            assertThrows(ContentResolverOverloadedException.class, () -> resolver.getContent("rejected"));
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            release.countDown();
+            assertFalse(running.get(5, TimeUnit.SECONDS).getResources().isEmpty());
+            assertFalse(queued.get(5, TimeUnit.SECONDS).getResources().isEmpty());
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test generating SMIL files of the renditions of an ID.
+ */
+public class SmilGeneratorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testSmilListsRenditionsByBitrate() throws Exception {
+        Path smilDirectory = Files.createDirectories(directory.resolve("smil"));
+        DirectoryLayout layout = new DirectoryLayout("Stream", directory.toFile(), 2, 1, "%s_\\d+k\\.mp4",
+                                                     "file://" + directory + "/%s");
+        AtomicInteger lookups = new AtomicInteger();
+        SmilGenerator smilGenerator = new SmilGenerator(id -> {
+            lookups.incrementAndGet();
+            return id.equals("abc")
+                    ? layout.createContent(Arrays.asList("a/b/abc_500k.mp4", "a/b/abc_1500k.mp4", "a/b/abc.mp4"))
+                    : layout.createContent(Collections.emptyList());
+        }, "Stream", Pattern.compile(SmilGenerator.DEFAULT_ABR_BITRATE_PATTERN), smilDirectory, 100,
+                Duration.ofMinutes(5), Duration.ofMinutes(1));
+
+        File smilFile = smilGenerator.getFile("abc", "smil");
+        assertEquals(smilDirectory.resolve("abc.smil").toFile(), smilFile);
+        String smil = new String(Files.readAllBytes(smilFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(smil.indexOf("src=\"mp4:abc_abr1500000.mp4\" system-bitrate=\"1500000\"")
+                           < smil.indexOf("src=\"mp4:abc_abr500000.mp4\" system-bitrate=\"500000\""), smil);
+        assertFalse(smil.contains("abc.mp4"), smil);
+
+        assertEquals(new File(directory + "/a/b/abc_500k.mp4"), smilGenerator.getFile("abc_abr500000", "mp4"));
+        assertNull(smilGenerator.getFile("abc_abr700000", "mp4"));
+        assertNull(smilGenerator.getFile("abc", "mp4"));
+        assertEquals(1, lookups.get());
+
+        assertNull(smilGenerator.getFile("unknown", "smil"));
+        assertNull(smilGenerator.getFile("a/../../x", "smil"));
+    }
+}
@@ -0,0 +1,64 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.contentresolver;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test copying popular files to a local directory.
+ */
+public class StagingCacheTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testPopularFilesAreCopied() throws Exception {
+        Path remote = Files.createDirectories(directory.resolve("remote"));
+        File first = Files.write(remote.resolve("first.mp4"), new byte[100]).toFile();
+        File second = Files.write(remote.resolve("second.mp4"), new byte[100]).toFile();
+        Path staging = directory.resolve("staging");
+        StagingCache stagingCache = new StagingCache(logger, staging, 150, 2, 1);
+        try {
+            assertEquals(first, stagingCache.get(first));
+            File local = waitForCopy(stagingCache, first);
+            assertTrue(local.toPath().startsWith(staging));
+            assertEquals(100, local.length());
+            assertEquals(100, stagingCache.getLocalFileBytesRequested());
+            assertTrue(stagingCache.getRemoteRequests() >= 2);
+
+            // There is only room for one copy, so the first is evicted
+            stagingCache.get(second);
+            waitForCopy(stagingCache, second);
+            assertEquals(1, stagingCache.getEvictions());
+            assertEquals(100, stagingCache.getStagedBytes());
+            assertFalse(local.exists());
+            assertEquals(first, stagingCache.get(first));
+        } finally {
+            stagingCache.close();
+        }
+        try (Stream<Path> files = Files.list(staging)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private File waitForCopy(StagingCache stagingCache, File remoteFile) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        File file = stagingCache.get(remoteFile);
+        while (file.equals(remoteFile) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            file = stagingCache.get(remoteFile);
+        }
+        assertNotEquals(remoteFile, file);
+        return file;
+    }
+}
@@ -12,10 +12,12 @@ import com.wowza.wms.stream.IMediaStreamActionNotify;
 
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.SessionIDPair;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingStatLogEntry;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db.BatchingEventWriter;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db.DatabaseConnectionPool;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db.EventIdAllocator;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db.StreamingDatabaseEventLogger;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.IllegallyFormattedQueryStringException;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 import java.io.File;
 import java.io.IOException;
@@ -70,21 +72,45 @@ public class StatisticLoggingSBModuleBase extends ModuleBase
             String dbUser = cr.get(PROPERTY_STATISTICS_LOGGING_DBUSER);
             String dbPassword = cr.get(PROPERTY_STATISTICS_LOGGING_DB_PASSWORD);
 
-            //Initialize event logger
-            StreamingDatabaseEventLogger
-                    .createInstance(getLogger(), jdbcDriverString, dbConnectionURLString, dbUser, dbPassword);
+            //Initialize event logger, unless another application already did
+            if (StreamingDatabaseEventLogger.getInstance() == null) {
+                StreamingDatabaseEventLogger.createInstance(
+                        getLogger(),
+                        DatabaseConnectionPool.createFromConfig(getLogger(), cr, jdbcDriverString,
+                                                                dbConnectionURLString, dbUser, dbPassword),
+                        EventIdAllocator.createFromConfig(cr),
+                        Boolean.parseBoolean(cr.get(BatchingEventWriter.PROPERTY_ASYNC, "false"))
+                                ? Integer.parseInt(cr.get(BatchingEventWriter.PROPERTY_QUEUE_SIZE,
+                                                          String.valueOf(BatchingEventWriter.DEFAULT_QUEUE_SIZE)))
+                                : 0,
+                        Integer.parseInt(cr.get(BatchingEventWriter.PROPERTY_BATCH_SIZE,
+                                                String.valueOf(BatchingEventWriter.DEFAULT_BATCH_SIZE))),
+                        Long.parseLong(cr.get(BatchingEventWriter.PROPERTY_MAX_BATCH_AGE_MILLIS,
+                                              String.valueOf(BatchingEventWriter.DEFAULT_MAX_BATCH_AGE_MILLIS))));
+            }
+            StreamingDatabaseEventLogger.addApplication();
         } catch (IOException e) {
             throw new RuntimeException("Could not initialize StreamingDatabaseEventLogger.", e);
         }
     }
 
     /**
-     * On App Stop nothing special is done.
+     * On App Stop, log the metrics of the event writer and the database connection pool. The logger is shared with
+     * other applications. When the last of them stops, the event writer is closed, writing the queued events, and the
+     * connection pool is closed.
      * @param appInstance appinstance
      */
     @Override
     public void onAppStop(IApplicationInstance appInstance) {
         getLogger().info("onAppStop: " + PLUGIN_NAME + " version " + PLUGIN_VERSION);
+        StreamingDatabaseEventLogger eventLogger = StreamingDatabaseEventLogger.getInstance();
+        if (eventLogger != null) {
+            if (eventLogger.getBatchingEventWriter() != null) {
+                getLogger().info(eventLogger.getBatchingEventWriter().toString());
+            }
+            getLogger().info(eventLogger.getConnectionPool().toString());
+        }
+        StreamingDatabaseEventLogger.removeApplication();
     }
 
     /**
@@ -95,22 +121,18 @@ public class StatisticLoggingSBModuleBase extends ModuleBase
     @Override
     public void onStreamCreate(IMediaStream stream) {
         getLogger().info("onStreamCreate by: " + stream.getClientId());
-        String queryString = getQueryString(stream);
-        String statisticsParameter;
-
         //Check if statistics are turned off
-        try {
-            statisticsParameter = StringAndTextUtil.extractValueFromQueryStringAndKey("statistics", queryString);
-            if (statisticsParameter.equalsIgnoreCase("off")) {
-                return;
-            }
-        } catch (IllegallyFormattedQueryStringException e) {
-            //Not turned off, so ignore
+        if (QueryParams.of(stream).valueEqualsIgnoreCase("statistics", "off")) {
+            return;
+        }
+        StreamingDatabaseEventLogger eventLogger = StreamingDatabaseEventLogger.getInstance();
+        if (eventLogger == null) {
+            getLogger().warn("Statistics logger is closed, events of the stream are not logged.");
+            return;
         }
 
         IMediaStreamActionNotify streamActionNotify = new StatisticLoggingStreamListener(getLogger(), stream,
-                                                                                         StreamingDatabaseEventLogger
-                                                                                                 .getInstance());
+                                                                                         eventLogger);
         WMSProperties props = stream.getProperties();
         synchronized (props) {
             props.put("streamActionNotifierForStatistics", streamActionNotify);
@@ -118,21 +140,6 @@ public class StatisticLoggingSBModuleBase extends ModuleBase
         stream.addClientListener(streamActionNotify);
     }
 
-    /**
-     * Helper method to get query string.
-     * @param stream THe stream to get query string from
-     * @return Query string
-     */
-    private String getQueryString(IMediaStream stream) {
-        if (stream.getClient() != null) {
-            return String.valueOf(stream.getClient().getQueryStr());
-        } else if (stream.getHTTPStreamerSession() != null) {
-            return String.valueOf(stream.getHTTPStreamerSession().getQueryStr());
-        } else {
-            return "";
-        }
-    }
-
     /**
      * On stream destruction, remove the action listener that logs events.
      * @param stream stream
@@ -159,24 +166,18 @@ public class StatisticLoggingSBModuleBase extends ModuleBase
     @Override
     public void onHTTPSessionCreate(IHTTPStreamerSession ihttpStreamerSession) {
         getLogger().info("onHttpSessionCreate by: " + ihttpStreamerSession.getIpAddress());
-
-        String queryString = String.valueOf(ihttpStreamerSession.getQueryStr());
-        String mcmObjectID;
-        String wayfAttr;
-        try {
-            wayfAttr = StringAndTextUtil.extractValueFromQueryStringAndKey("wayfAttr", queryString);
-            if(!wayfAttr.startsWith("{")){
-                wayfAttr = new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
-            }
-        } catch (IllegallyFormattedQueryStringException e) {
-            wayfAttr = "";
+        StreamingDatabaseEventLogger eventLogger = StreamingDatabaseEventLogger.getInstance();
+        if (eventLogger == null) {
+            getLogger().warn("Statistics logger is closed, the event is not logged.");
+            return;
         }
-        try {
-            mcmObjectID = StringAndTextUtil.extractValueFromQueryStringAndKey("ObjectID", queryString);
-        } catch (IllegallyFormattedQueryStringException e) {
-            mcmObjectID = "Unknown";
+
+        QueryParams queryParams = QueryParams.of(ihttpStreamerSession);
+        String mcmObjectID = queryParams.get("ObjectID", "Unknown");
+        String wayfAttr = queryParams.get("wayfAttr", "");
+        if (!wayfAttr.isEmpty() && !wayfAttr.startsWith("{")) {
+            wayfAttr = new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
         }
-        StreamingDatabaseEventLogger eventLogger = StreamingDatabaseEventLogger.getInstance();
         SessionIDPair sessionIDPair = eventLogger.getStreamingLogSessionID(mcmObjectID);
         StreamingStatLogEntry logEntry = new StreamingStatLogEntry(getLogger(),
                 ihttpStreamerSession.getStreamName(),
@@ -198,24 +199,18 @@ public class StatisticLoggingSBModuleBase extends ModuleBase
     @Override
     public void onHTTPSessionDestroy(IHTTPStreamerSession ihttpStreamerSession) {
         getLogger().info("onHttpSessionDestroy by: " + ihttpStreamerSession.getIpAddress());
-
-        String queryString = String.valueOf(ihttpStreamerSession.getQueryStr());
-        String mcmObjectID;
-        String wayfAttr;
-        try {
-            wayfAttr = StringAndTextUtil.extractValueFromQueryStringAndKey("wayfAttr", queryString);
-            if(!wayfAttr.startsWith("{")){
-                wayfAttr = new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
-            }
-        } catch (IllegallyFormattedQueryStringException e) {
-            wayfAttr = "";
+        StreamingDatabaseEventLogger eventLogger = StreamingDatabaseEventLogger.getInstance();
+        if (eventLogger == null) {
+            getLogger().warn("Statistics logger is closed, the event is not logged.");
+            return;
         }
-        try {
-            mcmObjectID = StringAndTextUtil.extractValueFromQueryStringAndKey("ObjectID", queryString);
-        } catch (IllegallyFormattedQueryStringException e) {
-            mcmObjectID = "Unknown";
+
+        QueryParams queryParams = QueryParams.of(ihttpStreamerSession);
+        String mcmObjectID = queryParams.get("ObjectID", "Unknown");
+        String wayfAttr = queryParams.get("wayfAttr", "");
+        if (!wayfAttr.isEmpty() && !wayfAttr.startsWith("{")) {
+            wayfAttr = new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
         }
-        StreamingDatabaseEventLogger eventLogger = StreamingDatabaseEventLogger.getInstance();
         SessionIDPair sessionIDPair = eventLogger.getStreamingLogSessionID(mcmObjectID);
         StreamingStatLogEntry logEntry = new StreamingStatLogEntry(getLogger(),
                 ihttpStreamerSession.getStreamName(),
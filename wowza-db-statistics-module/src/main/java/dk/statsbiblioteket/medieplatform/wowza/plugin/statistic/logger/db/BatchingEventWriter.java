@@ -0,0 +1,254 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingStatLogEntry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes statistics events to the database from a background thread, so the Wowza threads reporting events never
+ * wait for the database.
+ *
+ * Events are put on a bounded queue. One writer thread takes them off in batches, and inserts each batch with
+ * {@link PreparedStatement#addBatch()} in one transaction. A batch is written when it is full, or when its first event
+ * has waited the maximum batch age. If the database is slow and the queue fills up, new events are shed and counted.
+ * Batches that fail are rolled back and counted as failed.
+ */
+public class BatchingEventWriter {
+    /** Property for turning on asynchronous writing. */
+    public static final String PROPERTY_ASYNC = "StatisticsLoggingDBAsync";
+    /** Property for the maximum number of events waiting to be written. */
+    public static final String PROPERTY_QUEUE_SIZE = "StatisticsLoggingDBAsyncQueueSize";
+    /** Property for the maximum number of events inserted in one transaction. */
+    public static final String PROPERTY_BATCH_SIZE = "StatisticsLoggingDBAsyncBatchSize";
+    /** Property for the maximum time in milliseconds an event waits for its batch to fill. */
+    public static final String PROPERTY_MAX_BATCH_AGE_MILLIS = "StatisticsLoggingDBAsyncMaxBatchAgeMillis";
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_MAX_BATCH_AGE_MILLIS = 1000;
+    private static final long CLOSE_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final WMSLogger logger;
+    private final DatabaseConnectionPool connectionPool;
+    private final EventIdAllocator eventIdAllocator;
+    private final BlockingQueue<StreamingStatLogEntry> queue;
+    private final int batchSize;
+    private final long maxBatchAgeNanos;
+    private final Thread writerThread;
+    private final AtomicLong shedEvents = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
+    private final AtomicLong writtenEvents = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private long reportedShedEvents = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Create the writer and start its thread.
+     * @param logger Logger for reporting problems.
+     * @param connectionPool Pool of connections to the database.
+     * @param eventIdAllocator Strategy for choosing the IDs of new events.
+     * @param queueSize Maximum number of events waiting to be written.
+     * @param batchSize Maximum number of events inserted in one transaction.
+     * @param maxBatchAgeMillis Maximum time an event waits for its batch to fill.
+     */
+    public BatchingEventWriter(WMSLogger logger, DatabaseConnectionPool connectionPool,
+                               EventIdAllocator eventIdAllocator, int queueSize, int batchSize,
+                               long maxBatchAgeMillis) {
+        this.logger = logger;
+        this.connectionPool = connectionPool;
+        this.eventIdAllocator = eventIdAllocator;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxBatchAgeMillis));
+        this.writerThread = new Thread(this::runWriter, "BatchingEventWriter");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        logger.info("Statistics events are written to the database asynchronously, queue size " + queueSize
+                            + ", batch size " + this.batchSize + ", max batch age " + maxBatchAgeMillis + " ms.");
+    }
+
+    /**
+     * Queue an event for writing. Never waits; if the queue is full, or the writer is closed, the event is shed.
+     * @param logEntry The event.
+     * @return True if the event was queued, false if it was shed.
+     */
+    public boolean submit(StreamingStatLogEntry logEntry) {
+        if (closed || !queue.offer(logEntry)) {
+            shedEvents.incrementAndGet();
+            return false;
+        }
+        if (closed && queue.remove(logEntry)) {
+            // Closed while queueing, so the event may be after the last drain of the queue
+            shedEvents.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Take events from the queue and write them in batches, until the writer is closed and the queue is empty.
+     */
+    private void runWriter() {
+        List<StreamingStatLogEntry> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                StreamingStatLogEntry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxBatchAgeNanos;
+                while (true) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || closed) {
+                        break;
+                    }
+                    // Wake up regularly, so close does not wait for the batch to age
+                    StreamingStatLogEntry next = queue.poll(Math.min(remaining, CLOSE_CHECK_INTERVAL_NANOS),
+                                                            TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                writeBatch(batch);
+                batch.clear();
+                reportShedEvents();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Whatever was taken from the queue is written by close, if there is room for it
+            for (StreamingStatLogEntry logEntry : batch) {
+                if (!queue.offer(logEntry)) {
+                    shedEvents.incrementAndGet();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Statistics database writer stopped unexpectedly.", e);
+        }
+    }
+
+    /**
+     * Insert a batch of events in one transaction. On failure the transaction is rolled back, and the events are
+     * counted as failed.
+     * @param batch The events.
+     */
+    void writeBatch(List<StreamingStatLogEntry> batch) {
+        if (eventIdAllocator.isSerialized()) {
+            synchronized (eventIdAllocator) {
+                insertBatch(batch);
+            }
+        } else {
+            insertBatch(batch);
+        }
+    }
+
+    private void insertBatch(List<StreamingStatLogEntry> batch) {
+        boolean assignedOnInsert = eventIdAllocator.isAssignedOnInsert();
+        String query = assignedOnInsert ? StreamingDatabaseEventLogger.INSERT_WITHOUT_ID
+                : StreamingDatabaseEventLogger.INSERT_WITH_ID;
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                long[] ids = eventIdAllocator.allocate(connection, batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    StreamingStatLogEntry logEntry = batch.get(i);
+                    if (ids != null) {
+                        logEntry.setEventID(ids[i]);
+                    }
+                    StreamingDatabaseEventLogger.setInsertParameters(stmt, logEntry, ids != null);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                connection.commit();
+                writtenEvents.addAndGet(batch.size());
+                writtenBatches.incrementAndGet();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | RuntimeException e) {
+            failedEvents.addAndGet(batch.size());
+            logger.error("Could not write " + batch.size() + " statistics events to the database.", e);
+        }
+    }
+
+    private void reportShedEvents() {
+        long shed = shedEvents.get();
+        if (shed != reportedShedEvents) {
+            logger.warn("Statistics database queue full, " + (shed - reportedShedEvents)
+                                + " events were shed. Events shed in total: " + shed);
+            reportedShedEvents = shed;
+        }
+    }
+
+    /**
+     * Write the events that are queued now, on the calling thread.
+     */
+    public void flush() {
+        List<StreamingStatLogEntry> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write all queued events and stop the writer thread. Events submitted after this are shed.
+     */
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        logger.info(toString());
+    }
+
+    /**
+     * @return Number of events shed because the queue was full, or because they were submitted after close.
+     */
+    public long getShedEvents() {
+        return shedEvents.get();
+    }
+
+    /**
+     * @return Number of events in batches that could not be written.
+     */
+    public long getFailedEvents() {
+        return failedEvents.get();
+    }
+
+    /**
+     * @return Number of events written.
+     */
+    public long getWrittenEvents() {
+        return writtenEvents.get();
+    }
+
+    /**
+     * @return Number of events waiting to be written.
+     */
+    public int getQueuedEvents() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Statistics database writer: queued=" + getQueuedEvents() + ", written=" + getWrittenEvents()
+                + ", batches=" + writtenBatches.get() + ", shed=" + getShedEvents() + ", failed=" + getFailedEvents();
+    }
+}
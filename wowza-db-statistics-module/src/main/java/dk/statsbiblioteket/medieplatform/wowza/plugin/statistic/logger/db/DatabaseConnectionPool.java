@@ -0,0 +1,835 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A pool of JDBC connections to the statistics database.
+ *
+ * Connections are handed out by {@link #getConnection()} and returned to the pool when closed. At most the maximum
+ * size of connections are open at the same time, and a request for a connection fails with a
+ * {@link SQLTimeoutException} if none is free within the borrow timeout. Idle connections are validated before they
+ * are handed out, and closed when they have been idle longer than the idle timeout, as long as the minimum size of
+ * connections stays open. Each connection keeps a cache of its prepared statements, so a statement is only prepared
+ * once per connection. Borrowers only ever see handles of the connections, statements and result sets, which cannot
+ * be unwrapped, so a physical connection cannot be used after it is returned to the pool. Closing a connection closes
+ * the statements the borrower left open, returning cached statements to the cache. The database metadata of a
+ * connection is not wrapped, so the connection and result sets it returns are the physical ones.
+ *
+ * The metrics of the pool are published over JMX, see {@link DatabaseConnectionPoolMXBean}.
+ */
+public class DatabaseConnectionPool implements DatabaseConnectionPoolMXBean {
+    /** Property for the number of connections always kept open. */
+    public static final String PROPERTY_MINIMUM_SIZE = "StatisticsLoggingDBPoolMinimumSize";
+    /** Property for the maximum number of connections open at the same time. */
+    public static final String PROPERTY_MAXIMUM_SIZE = "StatisticsLoggingDBPoolMaximumSize";
+    /** Property for how long to wait for a free connection in milliseconds. */
+    public static final String PROPERTY_BORROW_TIMEOUT_MILLIS = "StatisticsLoggingDBPoolBorrowTimeoutMillis";
+    /** Property for how long a connection may be idle before it is closed, in seconds. Zero keeps idle connections. */
+    public static final String PROPERTY_IDLE_TIMEOUT_SECONDS = "StatisticsLoggingDBPoolIdleTimeoutSeconds";
+    /** Property for how long to wait for the database when validating a connection, in seconds. */
+    public static final String PROPERTY_VALIDATION_TIMEOUT_SECONDS = "StatisticsLoggingDBPoolValidationTimeoutSeconds";
+    /** Property for the number of prepared statements cached per connection. Zero disables the cache. */
+    public static final String PROPERTY_STATEMENT_CACHE_SIZE = "StatisticsLoggingDBPoolStatementCacheSize";
+
+    static final int DEFAULT_MINIMUM_SIZE = 1;
+    static final int DEFAULT_MAXIMUM_SIZE = 8;
+    static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 2000;
+    static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+    static final int DEFAULT_VALIDATION_TIMEOUT_SECONDS = 2;
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 16;
+
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 30000;
+
+    /** Opens new physical connections to the database. */
+    public interface ConnectionFactory {
+        /**
+         * @return A new connection.
+         * @throws SQLException If the database cannot be reached.
+         */
+        Connection createConnection() throws SQLException;
+    }
+
+    private final String name;
+    private final WMSLogger logger;
+    private final ConnectionFactory connectionFactory;
+    private final int minimumSize;
+    private final int maximumSize;
+    private final long borrowTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    /** Idle connections, most recently used first. */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+    private ObjectName objectName;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowTimeouts = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final LongAdder connectionsCreated = new LongAdder();
+    private final LongAdder connectionsDestroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    /**
+     * Create a connection pool. No connections are opened until the first maintenance run or the first request.
+     *
+     * @param name Name of the pool, used for logging and the JMX name.
+     * @param logger Logger for reporting problems.
+     * @param connectionFactory Opens the physical connections.
+     * @param minimumSize Number of connections always kept open.
+     * @param maximumSize Maximum number of connections open at the same time.
+     * @param borrowTimeout How long to wait for a free connection.
+     * @param idleTimeout How long a connection may be idle before it is closed. Zero keeps idle connections open.
+     * @param validationTimeoutSeconds How long to wait for the database when validating a connection.
+     * @param statementCacheSize Number of prepared statements cached per connection. Zero disables the cache.
+     */
+    public DatabaseConnectionPool(String name, WMSLogger logger, ConnectionFactory connectionFactory, int minimumSize,
+                                  int maximumSize, Duration borrowTimeout, Duration idleTimeout,
+                                  int validationTimeoutSeconds, int statementCacheSize) {
+        if (maximumSize < 1 || minimumSize < 0 || minimumSize > maximumSize) {
+            throw new IllegalArgumentException(
+                    "Pool size must be 0 <= minimum <= maximum and maximum >= 1, was minimum=" + minimumSize
+                            + " maximum=" + maximumSize);
+        }
+        this.name = name;
+        this.logger = logger;
+        this.connectionFactory = connectionFactory;
+        this.minimumSize = minimumSize;
+        this.maximumSize = maximumSize;
+        this.borrowTimeoutNanos = borrowTimeout.toNanos();
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maximumSize, true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DatabaseConnectionPool-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = MAINTENANCE_INTERVAL_MILLIS;
+        if (idleTimeoutNanos > 0) {
+            interval = Math.max(1000, Math.min(interval, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 2));
+        }
+        maintenance.scheduleWithFixedDelay(this::maintain, 0, interval, TimeUnit.MILLISECONDS);
+        registerMBean();
+        logger.info("Database connection pool '" + name + "' created, minimum size " + minimumSize + ", maximum size "
+                            + maximumSize + ", borrow timeout " + borrowTimeout.toMillis() + " ms, idle timeout "
+                            + idleTimeout.getSeconds() + " s, statement cache size " + statementCacheSize);
+    }
+
+    /**
+     * Create a connection pool for the statistics database, configured from wowza-modules.properties.
+     *
+     * @param logger Logger for reporting problems.
+     * @param cr Configuration to read from. Pool settings not given use defaults.
+     * @param jdbcDriverString The JDBC driver to use.
+     * @param dbConnectionURLString The connection string to the database.
+     * @param dbUser Database username.
+     * @param dbPassword Database password.
+     * @return The connection pool.
+     */
+    public static DatabaseConnectionPool createFromConfig(WMSLogger logger, ConfigReader cr, String jdbcDriverString,
+                                                          String dbConnectionURLString, String dbUser,
+                                                          String dbPassword) {
+        return new DatabaseConnectionPool(
+                "StatisticsLogging", logger,
+                createDriverManagerConnectionFactory(logger, jdbcDriverString, dbConnectionURLString, dbUser,
+                                                     dbPassword),
+                Integer.parseInt(cr.get(PROPERTY_MINIMUM_SIZE, String.valueOf(DEFAULT_MINIMUM_SIZE))),
+                Integer.parseInt(cr.get(PROPERTY_MAXIMUM_SIZE, String.valueOf(DEFAULT_MAXIMUM_SIZE))),
+                Duration.ofMillis(Long.parseLong(cr.get(PROPERTY_BORROW_TIMEOUT_MILLIS,
+                                                        String.valueOf(DEFAULT_BORROW_TIMEOUT_MILLIS)))),
+                Duration.ofSeconds(Long.parseLong(cr.get(PROPERTY_IDLE_TIMEOUT_SECONDS,
+                                                         String.valueOf(DEFAULT_IDLE_TIMEOUT_SECONDS)))),
+                Integer.parseInt(cr.get(PROPERTY_VALIDATION_TIMEOUT_SECONDS,
+                                        String.valueOf(DEFAULT_VALIDATION_TIMEOUT_SECONDS))),
+                Integer.parseInt(cr.get(PROPERTY_STATEMENT_CACHE_SIZE,
+                                        String.valueOf(DEFAULT_STATEMENT_CACHE_SIZE))));
+    }
+
+    /**
+     * Create a factory that opens connections with the {@link DriverManager}.
+     *
+     * @param logger Logger for reporting problems.
+     * @param jdbcDriverString The JDBC driver to use. It is loaded once, here.
+     * @param dbConnectionURLString The connection string to the database.
+     * @param dbUser Database username.
+     * @param dbPassword Database password.
+     * @return The connection factory.
+     */
+    public static ConnectionFactory createDriverManagerConnectionFactory(WMSLogger logger, String jdbcDriverString,
+                                                                         String dbConnectionURLString, String dbUser,
+                                                                         String dbPassword) {
+        try {
+            Class.forName(jdbcDriverString);
+        } catch (ClassNotFoundException e) {
+            logger.error("Could not find the JDBC driver! - " + jdbcDriverString, e);
+            throw new RuntimeException("Could not find the JDBC driver! - " + jdbcDriverString, e);
+        }
+        return () -> {
+            Connection connection = DriverManager.getConnection(dbConnectionURLString, dbUser, dbPassword);
+            logger.info("Created connection: " + connection);
+            return connection;
+        };
+    }
+
+    /**
+     * Borrow a connection from the pool. Closing the connection returns it to the pool.
+     *
+     * @return A connection, which must be closed by the caller.
+     * @throws SQLTimeoutException If no connection is free within the borrow timeout.
+     * @throws SQLException If a new connection could not be opened, or the pool is closed.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Database connection pool '" + name + "' is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                borrowTimeouts.increment();
+                throw new SQLTimeoutException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(borrowTimeoutNanos)
+                                                      + " ms waiting for a connection from pool '" + name + "'");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection from pool '" + name + "'", e);
+        }
+        borrowWaitNanos.add(System.nanoTime() - start);
+        borrowCount.increment();
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isValid(pooled.connection)) {
+                    break;
+                }
+                validationFailures.increment();
+                logger.warn("Closing invalid connection from pool '" + name + "': " + pooled.connection);
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            activeConnections.incrementAndGet();
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Close all idle connections and stop the pool. Connections in use are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        unregisterMBean();
+        logger.info("Database connection pool closed. " + this);
+    }
+
+    /**
+     * Close connections that have been idle too long, and open connections until the minimum size is reached.
+     */
+    void maintain() {
+        try {
+            if (idleTimeoutNanos > 0) {
+                long now = System.nanoTime();
+                // The least recently used connections are last
+                Iterator<PooledConnection> iterator = idle.descendingIterator();
+                while (iterator.hasNext() && totalConnections.get() > minimumSize) {
+                    PooledConnection pooled = iterator.next();
+                    if (now - pooled.lastUsedNanos > idleTimeoutNanos && idle.removeFirstOccurrence(pooled)) {
+                        destroy(pooled);
+                    }
+                }
+            }
+            while (!closed && totalConnections.get() < minimumSize && permits.tryAcquire()) {
+                try {
+                    idle.offerLast(create());
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            logger.warn("Could not open connection for pool '" + name + "'", e);
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        PooledConnection pooled = new PooledConnection(connectionFactory.createConnection());
+        totalConnections.incrementAndGet();
+        connectionsCreated.increment();
+        return pooled;
+    }
+
+    private void destroy(PooledConnection pooled) {
+        pooled.closeStatements();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing connection: " + pooled.connection, e);
+        }
+        totalConnections.decrementAndGet();
+        connectionsDestroyed.increment();
+    }
+
+    /**
+     * Return a connection to the pool, rolling back any unfinished transaction.
+     */
+    private void release(PooledConnection pooled) {
+        activeConnections.decrementAndGet();
+        try {
+            boolean reusable = !closed && !pooled.connection.isClosed();
+            if (reusable && !pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            if (reusable) {
+                pooled.lastUsedNanos = System.nanoTime();
+                idle.offerFirst(pooled);
+            } else {
+                destroy(pooled);
+            }
+        } catch (SQLException e) {
+            logger.warn("Could not reset connection returned to pool '" + name + "', closing it", e);
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        } catch (AbstractMethodError e) {
+            // Driver older than JDBC 4, fall back to the cheap check
+            try {
+                return !connection.isClosed();
+            } catch (SQLException e2) {
+                return false;
+            }
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("dk.statsbiblioteket.medieplatform.wowza:type=DatabaseConnectionPool,name="
+                                                + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.warn("Could not publish metrics of database connection pool '" + name + "' over JMX", e);
+            objectName = null;
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.debug("Could not unregister metrics of database connection pool '" + name + "'", e);
+            }
+        }
+    }
+
+    @Override
+    public int getMinimumSize() {
+        return minimumSize;
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    @Override
+    public long getBorrowTimeouts() {
+        return borrowTimeouts.sum();
+    }
+
+    @Override
+    public double getAverageBorrowWaitMillis() {
+        long borrows = borrowCount.sum();
+        return borrows == 0 ? 0.0 : borrowWaitNanos.sum() / 1000000.0 / borrows;
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return connectionsCreated.sum();
+    }
+
+    @Override
+    public long getConnectionsDestroyed() {
+        return connectionsDestroyed.sum();
+    }
+
+    @Override
+    public long getValidationFailures() {
+        return validationFailures.sum();
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Database connection pool '" + name + "': total=" + getTotalConnections() + ", active="
+                + getActiveConnections() + ", idle=" + getIdleConnections() + ", waiting=" + getWaitingThreads()
+                + ", borrows=" + getBorrowCount() + ", borrowTimeouts=" + getBorrowTimeouts()
+                + ", averageBorrowWaitMillis=" + String.format(java.util.Locale.ROOT, "%.2f",
+                                                               getAverageBorrowWaitMillis())
+                + ", created=" + getConnectionsCreated() + ", destroyed=" + getConnectionsDestroyed()
+                + ", validationFailures=" + getValidationFailures() + ", statementCacheHits="
+                + getStatementCacheHits() + ", statementCacheMisses=" + getStatementCacheMisses();
+    }
+
+    /**
+     * A physical connection in the pool, with its statement cache. Used by one borrower at a time.
+     */
+    private final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, CachedStatement> statements;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        eldest.getValue().evict();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * @return A new connection handed to a borrower, which returns this connection to the pool when closed.
+         */
+        private Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                       new Class<?>[]{Connection.class}, new ConnectionHandle(this));
+        }
+
+        /**
+         * Get a prepared statement from the cache, preparing it if it is not there.
+         * @param owner The connection handle of the borrower, which closes the statement when it is closed.
+         * @param handle The connection seen by the borrower, returned as the connection of the statement.
+         * @return The cached statement, or null if the statement should not be cached.
+         */
+        private PreparedStatement prepareStatement(ConnectionHandle owner, Connection handle, Method method,
+                                                   Object[] args)
+                throws SQLException {
+            if (statementCacheSize <= 0) {
+                return null;
+            }
+            String key = getStatementKey(args);
+            if (key == null) {
+                return null;
+            }
+            CachedStatement cached = statements.get(key);
+            if (cached != null && cached.inUse) {
+                // The borrower prepared the same statement twice, give it a separate one
+                return null;
+            }
+            if (cached != null && !cached.statement.isClosed()) {
+                statementCacheHits.increment();
+            } else {
+                statementCacheMisses.increment();
+                cached = new CachedStatement((PreparedStatement) invoke(connection, method, args));
+                statements.put(key, cached);
+            }
+            cached.inUse = true;
+            return (PreparedStatement) newStatementHandle(PreparedStatement.class, cached.statement, cached, owner,
+                                                          handle);
+        }
+
+        private void closeStatements() {
+            for (CachedStatement cached : statements.values()) {
+                cached.evict();
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * @return The cache key of the prepareStatement arguments, or null if the statement should not be cached.
+     */
+    private static String getStatementKey(Object[] args) {
+        if (args.length == 1) {
+            return (String) args[0];
+        }
+        if (args.length == 2 && args[1] instanceof Integer) {
+            return args[0] + "\u0000keys=" + args[1];
+        }
+        if (args.length == 2 && args[1] instanceof String[]) {
+            return args[0] + "\u0000columns=" + Arrays.toString((String[]) args[1]);
+        }
+        return null;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws SQLException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * Wrap a statement, so it returns the connection handle of the borrower rather than the physical connection, and
+     * is closed when the connection handle is closed.
+     *
+     * @param type The interface of the statement.
+     * @param statement The statement.
+     * @param cached The cached statement, or null if the statement is closed when the borrower closes it.
+     * @param owner The connection handle of the borrower.
+     * @param connection The connection seen by the borrower.
+     * @return The statement seen by the borrower.
+     */
+    private static Statement newStatementHandle(Class<?> type, Statement statement, CachedStatement cached,
+                                                ConnectionHandle owner, Connection connection) {
+        StatementHandle handle = new StatementHandle(statement, cached, owner, connection);
+        owner.statements.add(handle);
+        return (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handle);
+    }
+
+    /**
+     * Unwrap a handle as itself only, so the physical connection, statement or result set is never handed out.
+     */
+    private static Object unwrap(Object proxy, Object[] args) throws SQLException {
+        if (((Class<?>) args[0]).isInstance(proxy)) {
+            return proxy;
+        }
+        throw new SQLException("Pooled connections, statements and result sets cannot be unwrapped as " + args[0]);
+    }
+
+    /**
+     * The connection seen by a borrower. Closing it closes the statements still open and returns the physical
+     * connection to the pool, after which the handle and its statements cannot be used. Statements created by it
+     * return the handle as their connection.
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Set<StatementHandle> statements = new HashSet<>();
+        private boolean closed = false;
+
+        private ConnectionHandle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        for (StatementHandle statement : new ArrayList<>(statements)) {
+                            statement.closeQuietly();
+                        }
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    if (closed) {
+                        return true;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled connection from '" + name + "': " + pooled.connection;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "unwrap":
+                    return unwrap(proxy, args);
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            if (method.getName().equals("prepareStatement")) {
+                PreparedStatement cached = pooled.prepareStatement(this, (Connection) proxy, method, args);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            Object result = DatabaseConnectionPool.invoke(pooled.connection, method, args);
+            if (result instanceof Statement) {
+                return newStatementHandle(method.getReturnType(), (Statement) result, null, this,
+                                          (Connection) proxy);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A prepared statement kept open in the statement cache.
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        /**
+         * Make the statement ready for the next borrower, with no batch and no parameters. If it cannot be cleared,
+         * it is closed, and prepared again the next time it is used.
+         */
+        private void release() {
+            inUse = false;
+            if (!evicted) {
+                try {
+                    statement.clearBatch();
+                    statement.clearParameters();
+                    return;
+                } catch (SQLException e) {
+                    evicted = true;
+                }
+            }
+            closeQuietly();
+        }
+
+        /**
+         * Remove from the cache. The statement is closed now, or when the borrower closes it.
+         */
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Nothing to do, the statement is discarded anyway
+            }
+        }
+    }
+
+    /**
+     * A statement seen by a borrower. Closing the handle of a cached statement leaves the statement open, with its
+     * batch and parameters cleared, after which the handle cannot be used. The handle cannot be used either once its
+     * connection handle is closed. Result sets of the statement return the handle as their statement.
+     */
+    private static final class StatementHandle implements InvocationHandler {
+        private final Statement statement;
+        private final CachedStatement cached;
+        private final ConnectionHandle owner;
+        private final Connection connection;
+        private boolean closed = false;
+
+        private StatementHandle(Statement statement, CachedStatement cached, ConnectionHandle owner,
+                                Connection connection) {
+            this.statement = statement;
+            this.cached = cached;
+            this.owner = owner;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || owner.closed || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return (cached == null ? "Statement: " : "Cached statement: ") + statement;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "unwrap":
+                    return unwrap(proxy, args);
+                default:
+                    break;
+            }
+            if (closed || owner.closed) {
+                throw new SQLException("Statement is closed");
+            }
+            if (method.getName().equals("getConnection")) {
+                return connection;
+            }
+            Object result = DatabaseConnectionPool.invoke(statement, method, args);
+            if (result instanceof ResultSet) {
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                                              new ResultSetHandle((ResultSet) result, this, (Statement) proxy));
+            }
+            return result;
+        }
+
+        private void close() throws SQLException {
+            if (!closed) {
+                closed = true;
+                owner.statements.remove(this);
+                if (cached == null) {
+                    statement.close();
+                } else {
+                    cached.release();
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                close();
+            } catch (SQLException e) {
+                // Nothing to do, the connection is returned to the pool anyway
+            }
+        }
+    }
+
+    /**
+     * A result set seen by a borrower, returning the statement handle as its statement. It cannot be used once its
+     * statement handle is closed.
+     */
+    private static final class ResultSetHandle implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final StatementHandle owner;
+        private final Statement statement;
+
+        private ResultSetHandle(ResultSet resultSet, StatementHandle owner, Statement statement) {
+            this.resultSet = resultSet;
+            this.owner = owner;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    resultSet.close();
+                    return null;
+                case "isClosed":
+                    return owner.closed || owner.owner.closed || resultSet.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Result set: " + resultSet;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "unwrap":
+                    return unwrap(proxy, args);
+                default:
+                    break;
+            }
+            if (owner.closed || owner.owner.closed) {
+                throw new SQLException("Result set is closed");
+            }
+            if (method.getName().equals("getStatement")) {
+                return statement;
+            }
+            return DatabaseConnectionPool.invoke(resultSet, method, args);
+        }
+    }
+}
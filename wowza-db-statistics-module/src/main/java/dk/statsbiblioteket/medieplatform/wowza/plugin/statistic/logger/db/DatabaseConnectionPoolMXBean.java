@@ -0,0 +1,76 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+/**
+ * Metrics of a {@link DatabaseConnectionPool}, published over JMX.
+ */
+public interface DatabaseConnectionPoolMXBean {
+    /**
+     * @return Minimum number of connections kept open.
+     */
+    int getMinimumSize();
+
+    /**
+     * @return Maximum number of connections open at the same time.
+     */
+    int getMaximumSize();
+
+    /**
+     * @return Number of open connections, in use or idle.
+     */
+    int getTotalConnections();
+
+    /**
+     * @return Number of connections borrowed and not yet returned.
+     */
+    int getActiveConnections();
+
+    /**
+     * @return Number of open connections waiting in the pool.
+     */
+    int getIdleConnections();
+
+    /**
+     * @return Number of threads waiting for a connection.
+     */
+    int getWaitingThreads();
+
+    /**
+     * @return Number of connections handed out.
+     */
+    long getBorrowCount();
+
+    /**
+     * @return Number of requests for a connection that timed out.
+     */
+    long getBorrowTimeouts();
+
+    /**
+     * @return Average time spent waiting for a connection, in milliseconds.
+     */
+    double getAverageBorrowWaitMillis();
+
+    /**
+     * @return Number of connections opened.
+     */
+    long getConnectionsCreated();
+
+    /**
+     * @return Number of connections closed, because they were idle, invalid or the pool was closed.
+     */
+    long getConnectionsDestroyed();
+
+    /**
+     * @return Number of idle connections that failed validation when borrowed.
+     */
+    long getValidationFailures();
+
+    /**
+     * @return Number of prepared statements reused from the statement cache.
+     */
+    long getStatementCacheHits();
+
+    /**
+     * @return Number of prepared statements that had to be prepared.
+     */
+    long getStatementCacheMisses();
+}
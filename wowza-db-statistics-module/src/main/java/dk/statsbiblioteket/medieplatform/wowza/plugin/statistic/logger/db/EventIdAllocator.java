@@ -0,0 +1,104 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Strategy for choosing the event_id of new rows in the events table.
+ *
+ * The strategies are:
+ * <ul>
+ *     <li>{@value #STRATEGY_MAX}: One more than the largest event_id in the table. Inserts have to wait for each
+ *     other, and only one Wowza server may log to the database. This is the default, and needs no change to the
+ *     database.</li>
+ *     <li>{@value #STRATEGY_SEQUENCE}: The next value of a database sequence, one round trip per event.</li>
+ *     <li>{@value #STRATEGY_BLOCK}: Blocks of IDs reserved from a database sequence that increments by the block
+ *     size, one round trip per block.</li>
+ *     <li>{@value #STRATEGY_IDENTITY}: Assigned by the database on insert, from an identity column, and returned as
+ *     a generated key.</li>
+ * </ul>
+ */
+public interface EventIdAllocator {
+    /** Property for the strategy to use. */
+    String PROPERTY_STRATEGY = "StatisticsLoggingEventIdStrategy";
+    /** Property for the query that gets the next value of the sequence, for the sequence and block strategies. */
+    String PROPERTY_SEQUENCE_QUERY = "StatisticsLoggingEventIdSequenceQuery";
+    /** Property for the number of IDs in a block, which must be the increment of the sequence. */
+    String PROPERTY_BLOCK_SIZE = "StatisticsLoggingEventIdBlockSize";
+
+    String STRATEGY_MAX = "max";
+    String STRATEGY_SEQUENCE = "sequence";
+    String STRATEGY_BLOCK = "block";
+    String STRATEGY_IDENTITY = "identity";
+
+    String DEFAULT_SEQUENCE_QUERY = "SELECT nextval('events_event_id_seq')";
+    int DEFAULT_BLOCK_SIZE = 100;
+
+    /**
+     * Get the ID for the next event.
+     * @param connection Connection to the database.
+     * @return The ID, or null if the database assigns it on insert.
+     * @throws SQLException On database trouble.
+     */
+    Long allocate(Connection connection) throws SQLException;
+
+    /**
+     * Get the IDs for a batch of events, which are inserted in one transaction.
+     * @param connection Connection to the database, used for the whole batch.
+     * @param count Number of IDs.
+     * @return The IDs, or null if the database assigns them on insert.
+     * @throws SQLException On database trouble.
+     */
+    default long[] allocate(Connection connection, int count) throws SQLException {
+        if (isAssignedOnInsert()) {
+            return null;
+        }
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = allocate(connection);
+        }
+        return ids;
+    }
+
+    /**
+     * @return True if the database assigns the ID on insert, and it must be read from the generated keys.
+     */
+    default boolean isAssignedOnInsert() {
+        return false;
+    }
+
+    /**
+     * @return True if allocating the ID and inserting the row must happen while no other insert is running.
+     */
+    default boolean isSerialized() {
+        return false;
+    }
+
+    /**
+     * Create the strategy given in wowza-modules.properties.
+     * @param cr Configuration to read from. The max strategy is used if none is given.
+     * @return The strategy.
+     */
+    static EventIdAllocator createFromConfig(ConfigReader cr) {
+        String strategy = cr.get(PROPERTY_STRATEGY, STRATEGY_MAX).trim();
+        String sequenceQuery = cr.get(PROPERTY_SEQUENCE_QUERY, DEFAULT_SEQUENCE_QUERY);
+        switch (strategy) {
+            case STRATEGY_MAX:
+                return new MaxEventIdAllocator();
+            case STRATEGY_SEQUENCE:
+                return new SequenceEventIdAllocator(sequenceQuery);
+            case STRATEGY_BLOCK:
+                return new BlockEventIdAllocator(new SequenceEventIdAllocator(sequenceQuery), Integer.parseInt(
+                        cr.get(PROPERTY_BLOCK_SIZE, String.valueOf(DEFAULT_BLOCK_SIZE))));
+            case STRATEGY_IDENTITY:
+                return new IdentityEventIdAllocator();
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown value '" + strategy + "' of " + PROPERTY_STRATEGY + ", expected one of "
+                                + STRATEGY_MAX + ", " + STRATEGY_SEQUENCE + ", " + STRATEGY_BLOCK + ", "
+                                + STRATEGY_IDENTITY);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import java.sql.Connection;
+
+/**
+ * Leaves the ID to the database, which assigns it on insert from an identity column. The ID is read from the
+ * generated keys of the insert. In PostgreSQL 10 or newer:
+ * <pre>
+ * ALTER TABLE events ALTER COLUMN event_id ADD GENERATED BY DEFAULT AS IDENTITY;
+ * SELECT setval(pg_get_serial_sequence('events', 'event_id'), (SELECT COALESCE(MAX(event_id), 0) + 1 FROM events),
+ *               false);
+ * </pre>
+ */
+public class IdentityEventIdAllocator implements EventIdAllocator {
+    @Override
+    public Long allocate(Connection connection) {
+        return null;
+    }
+
+    @Override
+    public boolean isAssignedOnInsert() {
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Uses one more than the largest event_id in the events table. The query gets slower as the table grows, and is only
+ * correct if no other insert runs between it and the insert, so inserts are serialized and only one Wowza server may
+ * log to the database.
+ */
+public class MaxEventIdAllocator implements EventIdAllocator {
+    @Override
+    public Long allocate(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(event_id) as max_event_id FROM events")) {
+            rs.next();
+            return rs.getLong("max_event_id") + 1;
+        }
+    }
+
+    /**
+     * The rows of the batch are not in the table yet, so the IDs are counted up from the largest one that is.
+     */
+    @Override
+    public long[] allocate(Connection connection, int count) throws SQLException {
+        long first = allocate(connection);
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = first + i;
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean isSerialized() {
+        return true;
+    }
+}
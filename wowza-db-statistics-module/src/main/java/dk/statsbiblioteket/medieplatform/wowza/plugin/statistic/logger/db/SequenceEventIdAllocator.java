@@ -0,0 +1,37 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Uses the next value of a database sequence. Sequences are safe for concurrent inserts from any number of Wowza
+ * servers, and cost the same no matter how large the table is. In PostgreSQL, create the sequence with
+ * <pre>
+ * CREATE SEQUENCE events_event_id_seq OWNED BY events.event_id;
+ * SELECT setval('events_event_id_seq', (SELECT COALESCE(MAX(event_id), 0) + 1 FROM events), false);
+ * </pre>
+ */
+public class SequenceEventIdAllocator implements EventIdAllocator {
+    private final String sequenceQuery;
+
+    /**
+     * @param sequenceQuery Query returning the next value of the sequence as the first column of one row, like
+     * <code>SELECT nextval('events_event_id_seq')</code>.
+     */
+    public SequenceEventIdAllocator(String sequenceQuery) {
+        this.sequenceQuery = sequenceQuery;
+    }
+
+    @Override
+    public Long allocate(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sequenceQuery);
+             ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("No value returned by sequence query: " + sequenceQuery);
+            }
+            return rs.getLong(1);
+        }
+    }
+}
@@ -10,12 +10,12 @@ import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.Streaming
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -26,71 +26,62 @@ import java.util.List;
 public class StreamingDatabaseEventLogger implements StreamingEventLoggerIF {
     /** The used logger. */
     private final WMSLogger logger;
-    private Connection testConnection;
-    private String jdbcDriverString;
-    private String dbConnectionURLString;
-    private String dbUser;
-    private String dbPassword;
+    private final DatabaseConnectionPool connectionPool;
+    private final EventIdAllocator eventIdAllocator;
+    private final BatchingEventWriter batchingEventWriter;
+
+    static final String INSERT_WITH_ID = "INSERT INTO events "
+            + "(event_id, timestamp, stream_name, event_type, user_id, started_at, ended_at, wayf_attr) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String INSERT_WITHOUT_ID = "INSERT INTO events "
+            + "(timestamp, stream_name, event_type, user_id, started_at, ended_at, wayf_attr) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
     private static StreamingDatabaseEventLogger instance = null;
+    private static int applications = 0;
     private int session = 0;
 
     /**
-     * Creates database connection using given properties.
+     * Creates the logger, using connections from the given pool.
      *
      * @param logger The wowza logger.
-     * @param jdbcDriverString The JDBC driver to use.
-     * @param dbConnectionURLString The connection string to the database.
-     * @param dbUser Database username.
-     * @param dbPassword Database password.
+     * @param connectionPool The pool of connections to the database.
+     * @param eventIdAllocator Strategy for choosing the IDs of new events.
+     * @param batchingEventWriter Writer for asynchronous writing, or null to write events when they are logged.
      */
-    private StreamingDatabaseEventLogger(WMSLogger logger, String jdbcDriverString, String dbConnectionURLString,
-                                         String dbUser, String dbPassword) {
+    private StreamingDatabaseEventLogger(WMSLogger logger, DatabaseConnectionPool connectionPool,
+                                         EventIdAllocator eventIdAllocator, BatchingEventWriter batchingEventWriter) {
         this.logger = logger;
-        this.jdbcDriverString = jdbcDriverString;
-        this.dbConnectionURLString = dbConnectionURLString;
-        this.dbUser = dbUser;
-        this.dbPassword = dbPassword;
-        this.logger.info("Statistics logger " + this.getClass().getName() + " has been created.");
+        this.connectionPool = connectionPool;
+        this.eventIdAllocator = eventIdAllocator;
+        this.batchingEventWriter = batchingEventWriter;
+        this.logger.info("Statistics logger " + this.getClass().getName() + " has been created, using "
+                                 + eventIdAllocator.getClass().getSimpleName() + " for event IDs.");
     }
 
     /**
-     * Make a connection to the database.
+     * Borrow a connection to the database from the pool. The connection must be closed to return it to the pool.
      * @return A database connection.
+     * @throws SQLException If no connection could be had within the borrow timeout of the pool.
      */
-    private Connection getDBConnection() {
-        if (testConnection != null) {
-            return testConnection;
-        }
-        try {
-            synchronized (StreamingDatabaseEventLogger.class) {
-                try {
-                    Class.forName(this.jdbcDriverString);
-                } catch (ClassNotFoundException e) {
-                    this.logger.error("Could not find the JDBC driver! - " + this.jdbcDriverString, e);
-                    throw new RuntimeException("Could not find the JDBC driver! - " + this.jdbcDriverString, e);
-                }
-                Connection dbConnection = DriverManager.getConnection(this.dbConnectionURLString, this.dbUser, this.dbPassword);
-                logger.info("Created connection: " + dbConnection);
-                return dbConnection;
-            }
-        } catch (SQLException sqle) {
-            this.logger
-                    .error("Could not connect to db with the connection string: " + this.dbConnectionURLString + ", username: " + this.dbUser
-                                   + ", password: " + this.dbPassword, sqle);
-            throw new RuntimeException(
-                    "Could not connect to db with the connection string: " + this.dbConnectionURLString + ", username: " + this.dbUser
-                            + ", password: " + this.dbPassword, sqle);
-        }
+    private Connection getDBConnection() throws SQLException {
+        return connectionPool.getConnection();
     }
 
-    /** TEST constructor!!! initalises database in alternative fashion. */
-    private StreamingDatabaseEventLogger(WMSLogger logger, Connection connection) {
-        super();
-        this.testConnection = connection;
-        this.logger = logger;
-        this.logger.info("Statistics logger " + this.getClass().getName() + " has been created. "
-                                 + "ONLY FOR TEST PURPOSE! DB-connection not established in a safe way.");
+    /**
+     * Get the connection pool, for reading its metrics.
+     * @return The connection pool.
+     */
+    public DatabaseConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Get the writer used for asynchronous writing, for flushing it and reading its counters.
+     * @return The writer, or null if events are written when they are logged.
+     */
+    public BatchingEventWriter getBatchingEventWriter() {
+        return batchingEventWriter;
     }
 
     /**
@@ -111,7 +102,11 @@ public class StreamingDatabaseEventLogger implements StreamingEventLoggerIF {
                     "A parameter is null. " + "logger=" + logger + " " + "connection=" + connection);
         }
         if (instance == null) {
-            instance = new StreamingDatabaseEventLogger(logger, connection);
+            // A pool of the one connection, which is never closed. ONLY FOR TEST PURPOSE!
+            instance = new StreamingDatabaseEventLogger(logger, new DatabaseConnectionPool(
+                    "StatisticsLoggingTest", logger, () -> connection, 0, 1, Duration.ofSeconds(10), Duration.ZERO,
+                    DatabaseConnectionPool.DEFAULT_VALIDATION_TIMEOUT_SECONDS,
+                    DatabaseConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE), new MaxEventIdAllocator(), null);
         }
     }
 
@@ -134,11 +129,89 @@ public class StreamingDatabaseEventLogger implements StreamingEventLoggerIF {
                     "A parameter is null. " + "logger=" + logger);
         }
         if (instance == null) {
-            instance = new StreamingDatabaseEventLogger(logger, jdbcDriverString, dbConnectionURLString, dbUser,
-                                                        dbPassword);
+            instance = new StreamingDatabaseEventLogger(logger, new DatabaseConnectionPool(
+                    "StatisticsLogging", logger, DatabaseConnectionPool.createDriverManagerConnectionFactory(
+                            logger, jdbcDriverString, dbConnectionURLString, dbUser, dbPassword),
+                    DatabaseConnectionPool.DEFAULT_MINIMUM_SIZE, DatabaseConnectionPool.DEFAULT_MAXIMUM_SIZE,
+                    Duration.ofMillis(DatabaseConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS),
+                    Duration.ofSeconds(DatabaseConnectionPool.DEFAULT_IDLE_TIMEOUT_SECONDS),
+                    DatabaseConnectionPool.DEFAULT_VALIDATION_TIMEOUT_SECONDS,
+                    DatabaseConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE), new MaxEventIdAllocator(), null);
+        }
+    }
+
+    /**
+     * Creates the singleton objects, using connections from the given pool. Is robust for multiple concurrent
+     * requests for create. Only the first request for create, actually creates the object. Later requests close the
+     * given pool.
+     * @param logger logger
+     * @param connectionPool The pool of connections to the database.
+     * @param eventIdAllocator Strategy for choosing the IDs of new events.
+     */
+    public static synchronized void createInstance(WMSLogger logger, DatabaseConnectionPool connectionPool,
+                                                   EventIdAllocator eventIdAllocator) {
+        createInstance(logger, connectionPool, eventIdAllocator, 0, BatchingEventWriter.DEFAULT_BATCH_SIZE,
+                       BatchingEventWriter.DEFAULT_MAX_BATCH_AGE_MILLIS);
+    }
+
+    /**
+     * Creates the singleton objects, using connections from the given pool, optionally writing events
+     * asynchronously in batches. Is robust for multiple concurrent requests for create. Only the first request for
+     * create, actually creates the object. Later requests close the given pool.
+     * @param logger logger
+     * @param connectionPool The pool of connections to the database.
+     * @param eventIdAllocator Strategy for choosing the IDs of new events.
+     * @param asyncQueueSize Maximum number of events waiting to be written. Zero or less means events are written
+     * when they are logged.
+     * @param batchSize Maximum number of events inserted in one transaction.
+     * @param maxBatchAgeMillis Maximum time an event waits for its batch to fill.
+     */
+    public static synchronized void createInstance(WMSLogger logger, DatabaseConnectionPool connectionPool,
+                                                   EventIdAllocator eventIdAllocator, int asyncQueueSize,
+                                                   int batchSize, long maxBatchAgeMillis) {
+        if ((logger == null) || (connectionPool == null) || (eventIdAllocator == null)) {
+            throw new IllegalArgumentException(
+                    "A parameter is null. " + "logger=" + logger + " " + "connectionPool=" + connectionPool + " "
+                            + "eventIdAllocator=" + eventIdAllocator);
+        }
+        if (instance == null) {
+            BatchingEventWriter batchingEventWriter = null;
+            if (asyncQueueSize > 0) {
+                batchingEventWriter = new BatchingEventWriter(logger, connectionPool, eventIdAllocator,
+                                                              asyncQueueSize, batchSize, maxBatchAgeMillis);
+            }
+            instance = new StreamingDatabaseEventLogger(logger, connectionPool, eventIdAllocator,
+                                                        batchingEventWriter);
+        } else if (instance.connectionPool != connectionPool) {
+            connectionPool.close();
         }
     }
 
+    /**
+     * Register an application using the singleton instance, so it is not closed until the application is
+     * unregistered with {@link #removeApplication()}.
+     */
+    public static synchronized void addApplication() {
+        applications++;
+    }
+
+    /**
+     * Unregister an application using the singleton instance. When the last application is unregistered, the
+     * writer is closed, writing the queued events, and the connection pool is closed. The singleton is discarded, so
+     * the next application to start creates a new one.
+     */
+    public static synchronized void removeApplication() {
+        if (applications == 0 || --applications > 0 || instance == null) {
+            return;
+        }
+        if (instance.batchingEventWriter != null) {
+            instance.batchingEventWriter.close();
+        }
+        instance.logger.info(instance.connectionPool.toString());
+        instance.connectionPool.close();
+        instance = null;
+    }
+
     /**
      * Get the singleton instance, assuming it is already initialised.
      * @return The singleton instance.
@@ -169,7 +242,11 @@ public class StreamingDatabaseEventLogger implements StreamingEventLoggerIF {
                 || Event.REWIND.equals(logEntry.getEvent()) || Event.STOP.equals(logEntry.getEvent())) {
             logger.info("Streaming statistics logging line: " + logEntry);
             logger.info("Streaming statistics logging line (in DB): " + logEntry);
-            logEventInDB(logEntry);
+            if (batchingEventWriter != null) {
+                batchingEventWriter.submit(logEntry);
+            } else {
+                logEventInDB(logEntry);
+            }
         }
     }
 
@@ -178,21 +255,37 @@ public class StreamingDatabaseEventLogger implements StreamingEventLoggerIF {
      * Will log errors in log files, but otherwise ognore them.
      * @param logEntry The log entry to add.
      */
-    private synchronized void logEventInDB(StreamingStatLogEntry logEntry) {
-        String query = "INSERT INTO events VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
-        try (PreparedStatement stmt = getDBConnection().prepareStatement(query)) {
-            logEntry.setEventID(getNextEventID());
-            logger.info("Next event id: " + logEntry.getEventID());
-            stmt.setLong(1, logEntry.getEventID());
-            stmt.setTimestamp(2, new Timestamp(logEntry.getTimestamp().getTime()));
-            stmt.setString(3, logEntry.getStreamName());
-            stmt.setString(4, logEntry.getEvent().toString());
-            stmt.setInt(5, logEntry.getUserID());
-            stmt.setLong(6, logEntry.getStartedAt());
-            stmt.setLong(7, logEntry.getEndedAt());
-            stmt.setString(8, logEntry.getWayfAttr());
+    private void logEventInDB(StreamingStatLogEntry logEntry) {
+        if (eventIdAllocator.isSerialized()) {
+            synchronized (eventIdAllocator) {
+                insertEvent(logEntry);
+            }
+        } else {
+            insertEvent(logEntry);
+        }
+    }
+
+    private void insertEvent(StreamingStatLogEntry logEntry) {
+        boolean assignedOnInsert = eventIdAllocator.isAssignedOnInsert();
+        String query = assignedOnInsert ? INSERT_WITHOUT_ID : INSERT_WITH_ID;
+        try (Connection connection = getDBConnection();
+             PreparedStatement stmt = assignedOnInsert
+                     ? connection.prepareStatement(query, new String[]{"event_id"})
+                     : connection.prepareStatement(query)) {
+            if (!assignedOnInsert) {
+                logEntry.setEventID(eventIdAllocator.allocate(connection));
+                logger.info("Next event id: " + logEntry.getEventID());
+            }
+            setInsertParameters(stmt, logEntry, !assignedOnInsert);
             logger.info("Executing query: " + query);
             stmt.executeUpdate();
+            if (assignedOnInsert) {
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        logEntry.setEventID(generatedKeys.getLong(1));
+                    }
+                }
+            }
             logger.info("Creating event: " + query);
         } catch (SQLException e) {
             logger.error(
@@ -200,24 +293,37 @@ public class StreamingDatabaseEventLogger implements StreamingEventLoggerIF {
         }
     }
 
+    /**
+     * Set the parameters of {@link #INSERT_WITH_ID} or {@link #INSERT_WITHOUT_ID} from a log entry.
+     * @param stmt The insert statement.
+     * @param logEntry The log entry to insert.
+     * @param withID Whether the statement includes the event ID, which must be set in the log entry.
+     * @throws SQLException on database trouble.
+     */
+    static void setInsertParameters(PreparedStatement stmt, StreamingStatLogEntry logEntry, boolean withID)
+            throws SQLException {
+        int column = 1;
+        if (withID) {
+            stmt.setLong(column++, logEntry.getEventID());
+        }
+        stmt.setTimestamp(column++, new Timestamp(logEntry.getTimestamp().getTime()));
+        stmt.setString(column++, logEntry.getStreamName());
+        stmt.setString(column++, logEntry.getEvent().toString());
+        stmt.setInt(column++, logEntry.getUserID());
+        stmt.setLong(column++, logEntry.getStartedAt());
+        stmt.setLong(column++, logEntry.getEndedAt());
+        stmt.setString(column, logEntry.getWayfAttr());
+    }
+
     /**
      * Gets next event ID to generate log entry.
-     * @return Next event ID. Assumes no other process is writing event IDs to the database.
+     * @return Next event ID, or null if the database assigns it on insert.
      * @throws SQLException on database trouble.
      */
-    protected synchronized int getNextEventID() throws SQLException {
-        try (Statement stmt = getDBConnection().createStatement()) {
-            String queryString = "SELECT MAX(event_id) as max_event_id FROM events";
-            logger.info("[TEST] Executing query: " + queryString);
-            ResultSet rs = stmt.executeQuery(queryString);
-            rs.next();
-            int eventID = rs.getInt("max_event_id");
-            return eventID + 1;
+    protected Long getNextEventID() throws SQLException {
+        try (Connection connection = getDBConnection()) {
+            return eventIdAllocator.allocate(connection);
         }
-        /*
-                 ResultSet resultSet = stmt.getGeneratedKeys();
-                 resultSet.getLong("event_id");
-                 */
     }
 
     /**
@@ -241,7 +347,8 @@ public class StreamingDatabaseEventLogger implements StreamingEventLoggerIF {
      */
     public List<StreamingStatLogEntry> getLogEntryLatest(int numberOfEntries) {
         List<StreamingStatLogEntry> logEntries = new ArrayList<StreamingStatLogEntry>();
-        try (Statement stmt = getDBConnection().createStatement()) {
+        try (Connection connection = getDBConnection();
+             Statement stmt = connection.createStatement()) {
             String mcmSessionID = null;
             String mcmObjectSessionID = null;
             String queryString = "SELECT * FROM events ORDER BY event_id DESC LIMIT " + numberOfEntries;
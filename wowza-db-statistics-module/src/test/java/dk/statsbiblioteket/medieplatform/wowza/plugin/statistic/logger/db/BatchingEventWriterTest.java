@@ -0,0 +1,183 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingStatLogEntry;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingStatLogEntry.Event;
+
+/** Test asynchronous batched writing of events, using a fake database that records what is committed. */
+public class BatchingEventWriterTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+    private final List<Long> committedIds = new ArrayList<>();
+    private final AtomicInteger commits = new AtomicInteger();
+    private final AtomicInteger rollbacks = new AtomicInteger();
+    private volatile boolean failing = false;
+    private DatabaseConnectionPool pool;
+    private BatchingEventWriter writer;
+
+    private Connection createConnection() {
+        List<Long> batchIds = new ArrayList<>();
+        List<Long> executedIds = new ArrayList<>();
+        boolean[] autoCommit = {true};
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setLong":
+                            if ((Integer) args[0] == 1) {
+                                batchIds.add((Long) args[1]);
+                            }
+                            return null;
+                        case "executeBatch":
+                            if (failing) {
+                                throw new SQLException("Database down");
+                            }
+                            executedIds.addAll(batchIds);
+                            batchIds.clear();
+                            return new int[executedIds.size()];
+                        case "isClosed":
+                            return false;
+                        default:
+                            return null;
+                    }
+                });
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            return statement;
+                        case "commit":
+                            synchronized (committedIds) {
+                                committedIds.addAll(executedIds);
+                            }
+                            executedIds.clear();
+                            commits.incrementAndGet();
+                            return null;
+                        case "rollback":
+                            executedIds.clear();
+                            rollbacks.incrementAndGet();
+                            return null;
+                        case "setAutoCommit":
+                            autoCommit[0] = (Boolean) args[0];
+                            return null;
+                        case "getAutoCommit":
+                            return autoCommit[0];
+                        case "isValid":
+                            return true;
+                        case "isClosed":
+                            return false;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private BatchingEventWriter createWriter(int queueSize, int batchSize, long maxBatchAgeMillis) {
+        AtomicLong sequence = new AtomicLong(1);
+        pool = new DatabaseConnectionPool("test", logger, this::createConnection, 0, 1, Duration.ofSeconds(5),
+                                          Duration.ZERO, 1, 4);
+        writer = new BatchingEventWriter(logger, pool, connection -> sequence.getAndIncrement(), queueSize,
+                                         batchSize, maxBatchAgeMillis);
+        return writer;
+    }
+
+    private StreamingStatLogEntry createLogEntry() {
+        return new StreamingStatLogEntry(logger, "sample.mp4", 3, "abcdef", "xyz", 0, 0, Event.PLAY, "");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testEventsAreWrittenInBatches() {
+        createWriter(1000, 10, 10000);
+        for (int i = 0; i < 95; i++) {
+            assertTrue(writer.submit(createLogEntry()));
+        }
+        writer.close();
+        assertEquals(95, writer.getWrittenEvents());
+        assertEquals(95, committedIds.size());
+        assertTrue(commits.get() >= 10 && commits.get() < 95, "Commits: " + commits.get());
+        assertEquals(0, writer.getShedEvents());
+    }
+
+    @Test
+    public void testEventsAreShedWhenQueueIsFull() {
+        createWriter(10, 5, 0);
+        // Holding the lock of the committed IDs stops the writer at its first commit
+        int submitted = 0;
+        synchronized (committedIds) {
+            for (int i = 0; i < 100; i++) {
+                if (writer.submit(createLogEntry())) {
+                    submitted++;
+                }
+            }
+        }
+        writer.close();
+        assertTrue(writer.getShedEvents() > 0);
+        assertEquals(100, submitted + writer.getShedEvents());
+        assertEquals(submitted, writer.getWrittenEvents());
+    }
+
+    @Test
+    public void testEventsSubmittedWhileClosingAreWrittenOrShed() throws InterruptedException {
+        createWriter(1000, 10, 10000);
+        AtomicInteger accepted = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    if (writer.submit(createLogEntry())) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        Thread.sleep(5);
+        writer.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * 2000, accepted.get() + writer.getShedEvents());
+        assertEquals(accepted.get(), writer.getWrittenEvents());
+        assertEquals(0, writer.getQueuedEvents());
+    }
+
+    @Test
+    public void testFailedBatchIsRolledBack() {
+        createWriter(1000, 10, 10000);
+        failing = true;
+        for (int i = 0; i < 5; i++) {
+            writer.submit(createLogEntry());
+        }
+        writer.close();
+        assertEquals(5, writer.getFailedEvents());
+        assertEquals(0, writer.getWrittenEvents());
+        assertTrue(committedIds.isEmpty());
+        assertEquals(1, rollbacks.get());
+    }
+}
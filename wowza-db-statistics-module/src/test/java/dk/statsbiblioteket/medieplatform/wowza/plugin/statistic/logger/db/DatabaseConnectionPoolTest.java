@@ -0,0 +1,215 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+
+/** Test the database connection pool, using fake connections. */
+public class DatabaseConnectionPoolTest {
+    private final WMSLogger logger = WMSLoggerFactory.getLogger(this.getClass());
+    private final List<FakeConnection> connections = new ArrayList<>();
+    private final AtomicInteger preparedStatements = new AtomicInteger();
+    private final AtomicInteger clearedStatements = new AtomicInteger();
+    private DatabaseConnectionPool pool;
+
+    /** A connection that records whether it was closed, and can be made invalid. */
+    private class FakeConnection {
+        private boolean valid = true;
+        private boolean closed = false;
+        private final Connection connection = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                            return valid && !closed;
+                        case "isClosed":
+                            return closed;
+                        case "close":
+                            closed = true;
+                            return null;
+                        case "getAutoCommit":
+                            return true;
+                        case "prepareStatement":
+                            preparedStatements.incrementAndGet();
+                            return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                                          new Class<?>[]{PreparedStatement.class},
+                                                          (statement, statementMethod, statementArgs) -> {
+                                                              switch (statementMethod.getName()) {
+                                                                  case "isClosed":
+                                                                      return false;
+                                                                  case "executeUpdate":
+                                                                      return 1;
+                                                                  case "getGeneratedKeys":
+                                                                      return Proxy.newProxyInstance(
+                                                                              ResultSet.class.getClassLoader(),
+                                                                              new Class<?>[]{ResultSet.class},
+                                                                              (resultSet, resultSetMethod,
+                                                                               resultSetArgs) -> statement);
+                                                                  case "clearBatch":
+                                                                  case "clearParameters":
+                                                                      clearedStatements.incrementAndGet();
+                                                                      return null;
+                                                                  default:
+                                                                      return null;
+                                                              }
+                                                          });
+                        case "toString":
+                            return "FakeConnection";
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private DatabaseConnectionPool createPool(int minimumSize, int maximumSize, Duration idleTimeout) {
+        pool = new DatabaseConnectionPool("test", logger, () -> {
+            FakeConnection connection = new FakeConnection();
+            synchronized (connections) {
+                connections.add(connection);
+            }
+            return connection.connection;
+        }, minimumSize, maximumSize, Duration.ofMillis(200), idleTimeout, 1, 4);
+        return pool;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws SQLException {
+        createPool(0, 2, Duration.ZERO);
+        Connection first = pool.getConnection();
+        assertEquals(1, pool.getActiveConnections());
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(0, pool.getActiveConnections());
+        assertEquals(1, pool.getIdleConnections());
+        try (Connection second = pool.getConnection()) {
+            assertFalse(second.isClosed());
+        }
+        assertEquals(1, pool.getConnectionsCreated());
+        assertFalse(connections.get(0).closed);
+        try {
+            first.createStatement();
+            fail("This statement should not be reached");
+        } catch (SQLException e) {
+            // Expected, the connection has been returned
+        }
+    }
+
+    @Test
+    public void testBorrowTimesOutWhenPoolIsExhausted() throws SQLException {
+        createPool(0, 2, Duration.ZERO);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+            fail("This statement should not be reached");
+        } catch (SQLTimeoutException e) {
+            // Expected
+        }
+        assertEquals(1, pool.getBorrowTimeouts());
+        first.close();
+        pool.getConnection().close();
+        second.close();
+        assertEquals(2, pool.getTotalConnections());
+    }
+
+    @Test
+    public void testInvalidConnectionIsReplaced() throws SQLException {
+        createPool(0, 2, Duration.ZERO);
+        pool.getConnection().close();
+        connections.get(0).valid = false;
+        pool.getConnection().close();
+        assertEquals(1, pool.getValidationFailures());
+        assertTrue(connections.get(0).closed);
+        assertEquals(2, pool.getConnectionsCreated());
+        assertEquals(1, pool.getTotalConnections());
+    }
+
+    @Test
+    public void testStatementsAreCached() throws SQLException {
+        createPool(0, 1, Duration.ZERO);
+        for (int i = 0; i < 3; i++) {
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement("INSERT INTO events VALUES (?)")) {
+                statement.setInt(1, i);
+                statement.executeUpdate();
+            }
+        }
+        assertEquals(1, preparedStatements.get());
+        assertEquals(2, pool.getStatementCacheHits());
+        assertEquals(1, pool.getStatementCacheMisses());
+    }
+
+    @Test
+    public void testCachedStatementsAreClearedAndHideThePhysicalConnection() throws SQLException {
+        createPool(0, 1, Duration.ZERO);
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO events VALUES (?)")) {
+                statement.setInt(1, 1);
+                statement.addBatch();
+                assertSame(connection, statement.getConnection());
+                assertSame(statement, statement.unwrap(PreparedStatement.class));
+                assertThrows(SQLException.class, () -> statement.unwrap(String.class));
+            }
+            assertEquals(2, clearedStatements.get());
+            assertSame(connection, connection.unwrap(Connection.class));
+            assertFalse(connection.isWrapperFor(String.class));
+        }
+    }
+
+    @Test
+    public void testClosingTheConnectionClosesItsStatements() throws SQLException {
+        createPool(0, 1, Duration.ZERO);
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO events VALUES (?)", 1);
+        ResultSet keys = statement.getGeneratedKeys();
+        assertSame(statement, keys.getStatement());
+        connection.close();
+        assertTrue(statement.isClosed());
+        assertThrows(SQLException.class, statement::executeUpdate);
+        assertThrows(SQLException.class, keys::next);
+
+        try (Connection next = pool.getConnection();
+             PreparedStatement cached = next.prepareStatement("INSERT INTO events VALUES (?)", 1)) {
+            cached.executeUpdate();
+        }
+        assertEquals(1, preparedStatements.get());
+        assertEquals(1, pool.getStatementCacheHits());
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvictedDownToMinimumSize() throws SQLException, InterruptedException {
+        createPool(1, 3, Duration.ofMillis(50));
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        Connection third = pool.getConnection();
+        first.close();
+        second.close();
+        third.close();
+        assertEquals(3, pool.getIdleConnections());
+        Thread.sleep(100);
+        pool.maintain();
+        assertEquals(1, pool.getTotalConnections());
+        assertEquals(2, pool.getConnectionsDestroyed());
+    }
+}
@@ -0,0 +1,54 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.db;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Test the event ID strategies that do not need a database. */
+public class EventIdAllocatorTest {
+
+    @Test
+    public void testBlockAllocatorReservesOneBlockPerRoundTrip() throws SQLException {
+        AtomicLong sequence = new AtomicLong(1);
+        AtomicLong roundTrips = new AtomicLong();
+        // A sequence incrementing by the block size
+        EventIdAllocator blockStarts = connection -> {
+            roundTrips.incrementAndGet();
+            return sequence.getAndAdd(10);
+        };
+        BlockEventIdAllocator allocator = new BlockEventIdAllocator(blockStarts, 10);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 25; i++) {
+            assertTrue(ids.add(allocator.allocate(null)));
+        }
+        assertEquals(Long.valueOf(26), allocator.allocate(null));
+        assertEquals(3, roundTrips.get());
+        assertFalse(allocator.isSerialized());
+    }
+
+    @Test
+    public void testBlockAllocatorsShareSequenceWithoutOverlap() throws SQLException {
+        AtomicLong sequence = new AtomicLong(1);
+        EventIdAllocator blockStarts = connection -> sequence.getAndAdd(5);
+        BlockEventIdAllocator first = new BlockEventIdAllocator(blockStarts, 5);
+        BlockEventIdAllocator second = new BlockEventIdAllocator(blockStarts, 5);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 12; i++) {
+            assertTrue(ids.add(first.allocate(null)));
+            assertTrue(ids.add(second.allocate(null)));
+        }
+    }
+
+    @Test
+    public void testIdentityAllocatorLeavesIdToDatabase() throws SQLException {
+        IdentityEventIdAllocator allocator = new IdentityEventIdAllocator();
+        assertNull(allocator.allocate(null));
+        assertTrue(allocator.isAssignedOnInsert());
+        assertTrue(new MaxEventIdAllocator().isSerialized());
+    }
+}
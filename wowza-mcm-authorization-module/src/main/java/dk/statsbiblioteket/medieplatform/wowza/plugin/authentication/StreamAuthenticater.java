@@ -7,8 +7,7 @@ import com.wowza.wms.stream.IMediaStreamActionNotify2;
 
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOutputException;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.SessionAndFilenameValidaterIF;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.IllegallyFormattedQueryStringException;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
@@ -35,7 +34,7 @@ class StreamAuthenticater  implements IMediaStreamActionNotify2 {
 
     /**
      * Prevent playing if session is not valid. Session is validated using values for ObjectID and SessionID given in
-     * query string on stream, and stream name. {@link #checkAuthorization(String, String)} is used to check
+     * query string on stream, and stream name. {@link #checkAuthorization(QueryParams, String)} is used to check
      * authorization.
      * Stream is shut down if client not allowed to play.
      * Called by wowza on playevent.
@@ -49,8 +48,7 @@ class StreamAuthenticater  implements IMediaStreamActionNotify2 {
     @Override
     public void onPlay(IMediaStream stream, String streamName, double playStart,
             double playLen, int playReset) {
-        String queryString = String.valueOf(stream.getClient().getQueryStr());
-        boolean isAuthorized = checkAuthorization(queryString, stream.getName());
+        boolean isAuthorized = checkAuthorization(QueryParams.of(stream.getClient()), stream.getName());
         if (!isAuthorized) {
             wmsLogger.warn("User not allowed to get content streamed.", stream);
             stream.getClient().setShutdownClient(true);
@@ -66,13 +64,21 @@ class StreamAuthenticater  implements IMediaStreamActionNotify2 {
      * @return Whether stream is valid for playing.
      */
     public boolean checkAuthorization(String queryString, String filename) {
-        String sessionID;
-        String objectID;
-        try {
-            sessionID = StringAndTextUtil.extractValueFromQueryStringAndKey("SessionID", queryString);
-            objectID = StringAndTextUtil.extractValueFromQueryStringAndKey("ObjectID", queryString);
-        } catch (IllegallyFormattedQueryStringException e) {
-            wmsLogger.warn("User not allowed to get content streamed, because SessionID or ObjectID was not sent", e);
+        return checkAuthorization(QueryParams.parse(queryString), filename);
+    }
+
+    /**
+     * Extract ObjectID and SessionID from a parsed query string and call
+     * {@link #checkAuthorization(String, String, String)}.
+     * @param queryParams Parsed query string to extract SessionID and ObjectID from
+     * @param filename File name to pass on.
+     * @return Whether stream is valid for playing.
+     */
+    public boolean checkAuthorization(QueryParams queryParams, String filename) {
+        String sessionID = queryParams.get("SessionID");
+        String objectID = queryParams.get("ObjectID");
+        if (sessionID == null || objectID == null) {
+            wmsLogger.warn("User not allowed to get content streamed, because SessionID or ObjectID was not sent");
             return false;
         }
         wmsLogger.info("Object ID (onPlay)   : MCM authenticating: " +
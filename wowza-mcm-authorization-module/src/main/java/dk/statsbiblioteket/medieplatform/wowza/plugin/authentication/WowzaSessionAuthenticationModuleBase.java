@@ -15,7 +15,9 @@ import com.wowza.wms.request.RequestFunction;
 import com.wowza.wms.stream.IMediaStream;
 import com.wowza.wms.stream.IMediaStreamActionNotify;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMSessionAndFilenameValidater;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 import java.io.File;
 import java.io.IOException;
@@ -54,6 +56,9 @@ public class WowzaSessionAuthenticationModuleBase extends ModuleBase
             cr = new ConfigReader(new File(vhostDir + "/conf/" + appName + "/wowza-modules.properties"),
                                   PROPERTY_MCM_SERVER_URL_KEY, PROPERTY_MCM_VALIDATION_METHOD);
 
+            // Configure the shared HTTP client used for calling the backend
+            BackendHttpClient.createInstance(cr);
+
             // Read configuration
             String connectionURLString = cr.get(PROPERTY_MCM_SERVER_URL_KEY);
             String validationMethodAtServer = cr.get(PROPERTY_MCM_VALIDATION_METHOD);
@@ -149,7 +154,7 @@ public class WowzaSessionAuthenticationModuleBase extends ModuleBase
         try {
             getLogger().info("onHTTPSessionCreate by: " + ihttpStreamerSession.getIpAddress());
             boolean authenticated = streamAuthenticater
-                    .checkAuthorization(ihttpStreamerSession.getQueryStr(), ihttpStreamerSession.getStreamName());
+                    .checkAuthorization(QueryParams.of(ihttpStreamerSession), ihttpStreamerSession.getStreamName());
             if (!authenticated) {
                 getLogger().warn("Not authorized '" + ihttpStreamerSession.getUri() + "' for: " + ihttpStreamerSession.getIpAddress());
                 ihttpStreamerSession.rejectSession();
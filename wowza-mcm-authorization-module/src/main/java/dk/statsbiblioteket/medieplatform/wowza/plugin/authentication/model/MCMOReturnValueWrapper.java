@@ -9,6 +9,8 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -16,6 +18,9 @@ import java.util.List;
 
 /**
  * Wrapper for a response from MCM. Will update the state of the return value from the response ML document.
+ *
+ * The response is read with a streaming StAX parser, which stops as soon as the values are known. The original DOM
+ * based parsing is kept, and can be chosen when constructing the wrapper.
  */
 public class MCMOReturnValueWrapper {
 
@@ -25,19 +30,60 @@ public class MCMOReturnValueWrapper {
     protected List<String> filenames;
     
     public MCMOReturnValueWrapper(Logger logger, InputStream inputStreamFromMCM) throws MCMOutputException {
+        this(logger, inputStreamFromMCM, false);
+    }
+
+    /**
+     * Parse a response from MCM.
+     * @param logger The logger.
+     * @param inputStreamFromMCM Returned XML document. Not closed by the wrapper.
+     * @param useDOM If true, build a DOM of the whole document instead of reading it with a streaming parser.
+     * @throws MCMOutputException On trouble communicating or parsing.
+     */
+    public MCMOReturnValueWrapper(Logger logger, InputStream inputStreamFromMCM, boolean useDOM)
+            throws MCMOutputException {
         super();
         this.logger = logger;
-        extractReturnValuesFromXML(inputStreamFromMCM);
+        if (useDOM) {
+            extractReturnValuesFromDOM(inputStreamFromMCM);
+        } else {
+            extractReturnValuesFromXML(inputStreamFromMCM);
+        }
     }
 
     /**
      * Get the result from the call.
-     * Reads XML document from input stream, and parses values using
-     * {@link #extractMultipleElementsStringContent(Element, String)}
+     * Reads XML document from input stream with a streaming parser, and parses values using
+     * {@link #extractReturnValuesForSession(XMLStreamReader)}
      * @param mcmXMLOutputIS Returned XML document.
      * @throws MCMOutputException On trouble communicating or parsing.
      */
     protected void extractReturnValuesFromXML(InputStream mcmXMLOutputIS) throws MCMOutputException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XMLStreamParsing.createReader(mcmXMLOutputIS);
+            if (!XMLStreamParsing.nextStartElement(reader)) {
+                throw new MCMOutputException("Could not parse MCM xml output. No root element.");
+            }
+            extractReturnValuesForSession(reader);
+        } catch (XMLStreamException e) {
+            if (e.getNestedException() instanceof IOException) {
+                throw new MCMOutputException("Could not retrieve MCM output.", e);
+            }
+            throw new MCMOutputException("Could not parse MCM xml output.", e);
+        } finally {
+            XMLStreamParsing.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Get the result from the call.
+     * Reads XML document from input stream into a DOM, and parses values using
+     * {@link #extractMultipleElementsStringContent(Element, String)}
+     * @param mcmXMLOutputIS Returned XML document.
+     * @throws MCMOutputException On trouble communicating or parsing.
+     */
+    protected void extractReturnValuesFromDOM(InputStream mcmXMLOutputIS) throws MCMOutputException {
         try {
             Document dom = null;
             DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -77,6 +123,41 @@ public class MCMOReturnValueWrapper {
         }
     }
 
+    /**
+     * Get the result from the call, reading from a streaming parser.
+     * If the call is successful, extracts object ID from the first element ObjectID and file names from the elements
+     * Filename. If MCM returned an exception, the rest of the document is not read.
+     * @param reader Reader positioned on the root element of the returned XML document.
+     * @throws MCMOutputException On unexpected output.
+     * @throws XMLStreamException On trouble parsing.
+     */
+    protected void extractReturnValuesForSession(XMLStreamReader reader)
+            throws MCMOutputException, XMLStreamException {
+        String returnType = reader.getLocalName();
+        if (returnType.equals("ICollection")) {
+            this.isSessionValid = true;
+            this.objectID = "";
+            this.filenames = new ArrayList<String>();
+            boolean objectIDFound = false;
+            while (XMLStreamParsing.nextStartElement(reader)) {
+                String elementName = reader.getLocalName();
+                if (!objectIDFound && elementName.equals("ObjectID")) {
+                    this.objectID = XMLStreamParsing.readText(reader);
+                    objectIDFound = true;
+                } else if (elementName.equals("Filename")) {
+                    this.filenames.add(XMLStreamParsing.readText(reader));
+                }
+            }
+        } else if (returnType.equals("Exception")) {
+            this.isSessionValid = false;
+            this.objectID = null;
+            this.filenames = null;
+            logger.warn("Exception returned from MCM.");
+        } else {
+            throw new MCMOutputException("Unexpected return value from MCM. Root element was: " + returnType);
+        }
+    }
+
     /**
      * Helper method to extract values from an element in an XML document.
      * @param docEle XML document to extract values from.
@@ -2,12 +2,15 @@ package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model;
 
 import com.wowza.wms.logging.WMSLogger;
 
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -67,9 +70,22 @@ public class MCMSessionAndFilenameValidater implements SessionAndFilenameValidat
                             + objectID + ", filename=" + filenameAndPath + ")");
         }
         MCMOReturnValueWrapper returnValues = getInputFromMCM(sessionID, objectID);
+        boolean filenameEquals = validateFilerequestWithMCMResult(filenameAndPath, returnValues.getFilenames());
+        return isAllowedToStream(objectID, filenameAndPath, returnValues, filenameEquals);
+    }
+
+    /**
+     * Decide whether a file may be played, from the values returned by MCM. Logs the reason if it may not.
+     * @param objectID The requested ObjectID.
+     * @param filenameAndPath The requested file.
+     * @param returnValues The values returned by MCM for the session and object.
+     * @param filenameEquals Whether the requested file is one of the files of the object.
+     * @return True if the session is valid, the object is the requested object, and the file is one of its files.
+     */
+    protected boolean isAllowedToStream(String objectID, String filenameAndPath, MCMOReturnValueWrapper returnValues,
+                                        boolean filenameEquals) {
         boolean isSessionValid = returnValues.isSessionValid();
         boolean objectIDEquals = objectID.equals(returnValues.getObjectID());
-        boolean filenameEquals = validateFilerequestWithMCMResult(filenameAndPath, returnValues.getFilenames());
         boolean isAllowedToStream = isSessionValid && objectIDEquals && filenameEquals;
         if (!isAllowedToStream) {
             logger.warn("MCM validation. Did not validate right to play file. MCM return: " + returnValues
@@ -141,12 +157,32 @@ public class MCMSessionAndFilenameValidater implements SessionAndFilenameValidat
             throws IOException, MalformedURLException, MCMOutputException {
         String urlStringToMCM = connectionURLString + "/" + validationMethodAtServer + "?" + "sessionID=" + sessionID
                 + "&" + "objectID=" + objectID + "&" + "includeFiles=true";
+        try (InputStream in = getFromServer(urlStringToMCM)) {
+            return new MCMOReturnValueWrapper(logger, in);
+        }
+    }
+
+    /**
+     * Request an URL from the server, using the shared backend HTTP client.
+     * In debug mode the URL and the returned content are logged.
+     * @param urlString The URL to request.
+     * @return The content returned by the server.
+     * @throws IOException On trouble communicating, or if the server does not return a 2xx status.
+     * @throws MalformedURLException On trouble with the URL
+     */
+    protected InputStream getFromServer(String urlString) throws IOException, MalformedURLException {
+        URI uri;
+        try {
+            uri = new URI(urlString);
+        } catch (URISyntaxException e) {
+            throw new MalformedURLException("Bad URL '" + urlString + "': " + e.getMessage());
+        }
         if (logger.isDebugEnabled()) {
-            logger.debug("MCM URL:" + urlStringToMCM);
-            InputStream inDebug = new URL(urlStringToMCM).openConnection().getInputStream();
-            logger.debug("Returned from MCM: " + StringAndTextUtil.convertStreamToString(inDebug));
+            logger.debug("MCM URL:" + urlString);
+            String returned = BackendHttpClient.getInstance().getString(uri);
+            logger.debug("Returned from MCM: " + returned);
+            return new ByteArrayInputStream(returned.getBytes(StandardCharsets.UTF_8));
         }
-        InputStream in = new URL(urlStringToMCM).openConnection().getInputStream();
-        return new MCMOReturnValueWrapper(logger, in);
+        return BackendHttpClient.getInstance().getStream(uri);
     }
 }
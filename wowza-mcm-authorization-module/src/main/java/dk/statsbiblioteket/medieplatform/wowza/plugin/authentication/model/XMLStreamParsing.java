@@ -0,0 +1,77 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * Helpers for reading MCM and CHAOS responses with a streaming StAX parser.
+ *
+ * The parser factory is created once and shared, since creating readers from a configured factory is thread safe.
+ * DTDs and external entities are disabled, as the responses never use them.
+ */
+public final class XMLStreamParsing {
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private XMLStreamParsing() {
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Create a streaming reader for an XML document. Closing the reader does not close the input stream.
+     * @param in The XML document.
+     * @return A reader positioned before the document.
+     * @throws XMLStreamException If the reader cannot be created.
+     */
+    public static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        return INPUT_FACTORY.createXMLStreamReader(in);
+    }
+
+    /**
+     * Move the reader to the next start element, skipping everything else.
+     * @param reader The reader.
+     * @return True if the reader is on a start element, false if the end of the document was reached.
+     * @throws XMLStreamException If the document is not well formed.
+     */
+    public static boolean nextStartElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the text content of the element the reader is on, and move the reader to the end of the element.
+     * @param reader The reader, on a start element containing only text.
+     * @return The text content, trimmed.
+     * @throws XMLStreamException If the element contains other elements, or the document is not well formed.
+     */
+    public static String readText(XMLStreamReader reader) throws XMLStreamException {
+        return reader.getElementText().trim();
+    }
+
+    /**
+     * Close a reader, ignoring errors. The underlying input stream is not closed.
+     * @param reader The reader, may be null.
+     */
+    public static void closeQuietly(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // Nothing to do, the input stream is closed by its owner
+            }
+        }
+    }
+}
@@ -7,9 +7,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 
@@ -91,6 +93,30 @@ public class MCMOReturnValueWrapperTest {
         assertTrue(returnedFilenames.contains(expectedValue2), "Filename");
     }
 
+    @Test
+    public void testStreamingAndDOMParsingAgree() throws FileNotFoundException, MCMOutputException {
+        for (String filename : new String[]{filenameOfvalidMCMOutputFull, filenameOfvalidMCMOutputMultipleFiles,
+                filenameOfvalidMCMOutputInvalidSession}) {
+            MCMOReturnValueWrapper streamed = new MCMOReturnValueWrapper(logger,
+                                                                         getTestDataFileAsInputStream(filename));
+            MCMOReturnValueWrapper dom = new MCMOReturnValueWrapper(logger, getTestDataFileAsInputStream(filename),
+                                                                    true);
+            assertEquals(dom.isSessionValid(), streamed.isSessionValid(), "Valid session in " + filename);
+            assertEquals(dom.getObjectID(), streamed.getObjectID(), "ObjectID in " + filename);
+            assertEquals(dom.getFilenames(), streamed.getFilenames(), "Filenames in " + filename);
+        }
+    }
+
+    @Test
+    public void testStreamingParsingStopsAtException() throws MCMOutputException {
+        // The document is cut off after the root element, which the streaming parser never reads
+        InputStream is = new ByteArrayInputStream(
+                "<Exception><Message>The SessionID is not valid</Message><Unfinished".getBytes(
+                        StandardCharsets.UTF_8));
+        MCMOReturnValueWrapper returnWrapper = new MCMOReturnValueWrapper(logger, is);
+        assertFalse(returnWrapper.isSessionValid(), "Valid session");
+    }
+
     private InputStream getTestDataFileAsInputStream(String inputstring) throws FileNotFoundException {
         FileInputStream fis;
         try {
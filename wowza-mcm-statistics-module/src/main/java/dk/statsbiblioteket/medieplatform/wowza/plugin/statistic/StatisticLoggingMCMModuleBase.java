@@ -20,9 +20,10 @@ import com.wowza.wms.stream.IMediaStreamActionNotify;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingStatLogEntry;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.mcm.MCMPortalInterfaceStatisticsImpl;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.mcm.StreamingMCMEventLogger;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.IllegallyFormattedQueryStringException;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 /**
  * Module that logs events in the MCM database.
@@ -93,6 +94,9 @@ public class StatisticLoggingMCMModuleBase extends ModuleBase implements IModule
                                   PROPERTY_STATISTICS_LOGGING_MCM_VALUE_OBJECT_COLLECTION_ID,
                                   PROPERTY_STATISTICS_LOGGING_MCM_STATISTICS_METHOD_CREATE_DURATION_SESSION);
 
+            // Configure the shared HTTP client used for calling MCM
+            BackendHttpClient.createInstance(cr);
+
             //Read parameters
             String mcmConnectionURLString = cr.get(PROPERTY_GENERAL_MCM_SERVER_URL);
             String mcmStatisticsMethodCreateStatSession = cr
@@ -141,17 +145,9 @@ public class StatisticLoggingMCMModuleBase extends ModuleBase implements IModule
             return;
         }
         getLogger().info("onStreamCreate by: " + stream.getClientId());
-        String queryString = String.valueOf(stream.getClient().getQueryStr());
-        String statisticsParameter;
-
         //Check if statistics are turned off
-        try {
-            statisticsParameter = StringAndTextUtil.extractValueFromQueryStringAndKey("statistics", queryString);
-            if (statisticsParameter.equalsIgnoreCase("off")) {
-                return;
-            }
-        } catch (IllegallyFormattedQueryStringException e) {
-            //Not turned off, so ignore
+        if (QueryParams.of(stream.getClient()).valueEqualsIgnoreCase("statistics", "off")) {
+            return;
         }
 
         IMediaStreamActionNotify streamActionNotify = new StatisticLoggingStreamListener(getLogger(), stream,
@@ -193,24 +189,17 @@ public class StatisticLoggingMCMModuleBase extends ModuleBase implements IModule
     public void onHTTPSessionCreate(IHTTPStreamerSession ihttpStreamerSession) {
         WMSLogger logger = getLogger();
         logger.info("onHTTPSessionCreate by: " + ihttpStreamerSession.getIpAddress());
-        String queryString = ihttpStreamerSession.getQueryStr();
-        String statisticsParameter;
+        QueryParams queryParams = QueryParams.of(ihttpStreamerSession);
 
         //Check if statistics are turned off
-        try {
-            statisticsParameter = StringAndTextUtil.extractValueFromQueryStringAndKey("statistics", queryString);
-            if (statisticsParameter.equalsIgnoreCase("off")) {
-                return;
-            }
-        } catch (IllegallyFormattedQueryStringException e) {
-            //Not turned off, so ignore
+        if (queryParams.valueEqualsIgnoreCase("statistics", "off")) {
+            return;
         }
 
-        String wayfAttr;
-        try {
-            wayfAttr = StringAndTextUtil.extractValueFromQueryStringAndKey("wayfAttr", queryString);
+        String wayfAttr = queryParams.get("wayfAttr");
+        if (wayfAttr != null) {
             wayfAttr = new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
-        } catch (IllegallyFormattedQueryStringException e) {
+        } else {
             wayfAttr = "";
         }
 
@@ -218,8 +207,8 @@ public class StatisticLoggingMCMModuleBase extends ModuleBase implements IModule
         String sessionID;
         String objectID;
         try {
-            sessionID = StringAndTextUtil.extractValueFromQueryStringAndKey("SessionID", queryString);
-            objectID = StringAndTextUtil.extractValueFromQueryStringAndKey("ObjectID", queryString);
+            sessionID = queryParams.getRequired("SessionID");
+            objectID = queryParams.getRequired("ObjectID");
         } catch (IllegallyFormattedQueryStringException e) {
             logger.warn("Illegal query string in '" + ihttpStreamerSession.getUri() + "'. Not able to log.", e);
             return;
@@ -246,31 +235,24 @@ public class StatisticLoggingMCMModuleBase extends ModuleBase implements IModule
     public void onHTTPSessionDestroy(IHTTPStreamerSession ihttpStreamerSession) {
         WMSLogger logger = getLogger();
         logger.info("onHTTPSessionDestroy by: " + ihttpStreamerSession.getIpAddress());
-        String queryString = String.valueOf(ihttpStreamerSession.getQueryStr());
-        String statisticsParameter;
+        QueryParams queryParams = QueryParams.of(ihttpStreamerSession);
 
         //Check if statistics are turned off
-        try {
-            statisticsParameter = StringAndTextUtil.extractValueFromQueryStringAndKey("statistics", queryString);
-            if (statisticsParameter.equalsIgnoreCase("off")) {
-                return;
-            }
-        } catch (IllegallyFormattedQueryStringException e) {
-            //Not turned off, so ignore
+        if (queryParams.valueEqualsIgnoreCase("statistics", "off")) {
+            return;
         }
 
-        String wayfAttr;
-        try {
-            wayfAttr = StringAndTextUtil.extractValueFromQueryStringAndKey("wayfAttr", queryString);
+        String wayfAttr = queryParams.get("wayfAttr");
+        if (wayfAttr != null) {
             wayfAttr = new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
-        } catch (IllegallyFormattedQueryStringException e) {
+        } else {
             wayfAttr = "";
         }
 
         // Get object ID
         String objectID;
         try {
-            objectID = StringAndTextUtil.extractValueFromQueryStringAndKey("ObjectID", queryString);
+            objectID = queryParams.getRequired("ObjectID");
         } catch (IllegallyFormattedQueryStringException e) {
             logger.warn("Illegal query string in '" + ihttpStreamerSession.getUri() + "'. Not able to log.", e);
             return;
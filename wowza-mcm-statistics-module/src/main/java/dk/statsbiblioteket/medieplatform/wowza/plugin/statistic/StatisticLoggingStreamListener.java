@@ -9,8 +9,7 @@ import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.SessionID
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingEventLoggerIF;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingStatLogEntry;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.StreamingStatLogEntry.Event;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.IllegallyFormattedQueryStringException;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
@@ -43,28 +42,13 @@ public class StatisticLoggingStreamListener implements IMediaStreamActionNotify2
     public StatisticLoggingStreamListener(WMSLogger logger, IMediaStream stream, StreamingEventLoggerIF streamingEventLogger) {
         this.logger = logger;
         this.streamingEventLogger = streamingEventLogger;
-        String queryString = getQueryString(stream);
-        try {
-            this.mcmObjectID = StringAndTextUtil.extractValueFromQueryStringAndKey("ObjectID", queryString);
-        } catch (IllegallyFormattedQueryStringException e) {
-            this.mcmObjectID = "Unknown";
-        }
+        this.mcmObjectID = QueryParams.of(stream).get("ObjectID", "Unknown");
         this.sessionIDPair = streamingEventLogger.getStreamingLogSessionID(mcmObjectID);
         this.clientID = stream.getClientId();
         this.lastStartTime = null;
         this.lastStartLocation = -1;
     }
 
-    private String getQueryString(IMediaStream stream) {
-        if (stream.getClient() != null) {
-            return String.valueOf(stream.getClient().getQueryStr());
-        } else if (stream.getHTTPStreamerSession() != null) {
-            return String.valueOf(stream.getHTTPStreamerSession().getQueryStr());
-        } else {
-            return "";
-        }
-    }
-
     /**
      * Log play event.
      * @param stream Stream to log
@@ -155,14 +139,11 @@ public class StatisticLoggingStreamListener implements IMediaStreamActionNotify2
     }
 
     private String getWayfAttributes(IMediaStream stream) {
-        String wayfAttr;
-        try {
-            wayfAttr = StringAndTextUtil.extractValueFromQueryStringAndKey("wayfAttr", stream.getClient().getQueryStr());
-            wayfAttr = new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
-        } catch (IllegallyFormattedQueryStringException e) {
-            wayfAttr = "";
+        String wayfAttr = QueryParams.of(stream).get("wayfAttr");
+        if (wayfAttr == null) {
+            return "";
         }
-        return wayfAttr;
+        return new String(Base64.getDecoder().decode(wayfAttr), StandardCharsets.UTF_8);
     }
 
     /** See {@link #onPause(IMediaStream, boolean, double)}  */
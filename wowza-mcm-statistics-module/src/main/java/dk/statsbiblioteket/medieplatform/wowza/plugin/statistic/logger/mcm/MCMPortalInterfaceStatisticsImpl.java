@@ -2,12 +2,13 @@ package dk.statsbiblioteket.medieplatform.wowza.plugin.statistic.logger.mcm;
 
 import com.wowza.wms.logging.WMSLogger;
 
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 
 /** Functionality for logging events to MCM, and reading them.
  * @deprecated */
@@ -106,11 +107,10 @@ public class MCMPortalInterfaceStatisticsImpl implements MCMPortalInterfaceStati
     @Override
     public String getStatisticsSession() {
         String urlStringToMCM = mcmConnectionURLString + "/" + mcmStatisticsMethodCreateStatSession + "?"
-            + "clientSettingID=" + clientSettingID + "&"
-            + "repositoryID=" + repositoryID;
+            + "clientSettingID=" + encode(clientSettingID) + "&"
+            + "repositoryID=" + encode(repositoryID);
         try {
-            InputStream in = new URL(urlStringToMCM).openConnection().getInputStream();
-            String returnValueFromMCM = StringAndTextUtil.convertStreamToString(in);
+            String returnValueFromMCM = BackendHttpClient.getInstance().getString(URI.create(urlStringToMCM));
             String sessionID = null;
             String[] parts = returnValueFromMCM.split("<SessionID>");
             if (parts.length > 0) {
@@ -134,17 +134,16 @@ public class MCMPortalInterfaceStatisticsImpl implements MCMPortalInterfaceStati
     @Override
     public String getStatisticsObjectSession(String sessionID, String mcmObjectID) {
         String urlStringToMCM = mcmConnectionURLString + "/" + mcmStatisticsMethodCreateStatObjectSession + "?"
-            + "objectTypeID=" + objectTypeID + "&"
-            + "channelTypeID=" + channelTypeID + "&"
-            + "channelIdentifier=" + channelIdentifier + "&"
-            + "objectTitle=" + objectTitle + "&"
-            + "eventTypeID=" + eventTypeID + "&"
-            + "objectCollectionID=" + objectCollectionID + "&"
-            + "objectIdentifier=" + mcmObjectID + "&"
-            + "sessionID=" + sessionID;
+            + "objectTypeID=" + encode(objectTypeID) + "&"
+            + "channelTypeID=" + encode(channelTypeID) + "&"
+            + "channelIdentifier=" + encode(channelIdentifier) + "&"
+            + "objectTitle=" + encode(objectTitle) + "&"
+            + "eventTypeID=" + encode(eventTypeID) + "&"
+            + "objectCollectionID=" + encode(objectCollectionID) + "&"
+            + "objectIdentifier=" + encode(mcmObjectID) + "&"
+            + "sessionID=" + encode(sessionID);
         try {
-            InputStream in = new URL(urlStringToMCM).openConnection().getInputStream();
-            String returnValueFromMCM = StringAndTextUtil.convertStreamToString(in);
+            String returnValueFromMCM = BackendHttpClient.getInstance().getString(URI.create(urlStringToMCM));
             String objectSessionID = returnValueFromMCM; 
             logger.info("MCM returnvalue objectSessionID: " + objectSessionID);
             if (logger.isDebugEnabled()) {
@@ -160,13 +159,12 @@ public class MCMPortalInterfaceStatisticsImpl implements MCMPortalInterfaceStati
     @Override
     public String logPlayDuration(String sessionID, String objectSessionID, long startedAd, long endedAt) {
         String urlStringToMCM = mcmConnectionURLString + "/" + mcmStatisticsMethodCreateDurationSession + "?"
-            + "sessionID=" + sessionID + "&"
-            + "objectSessionID=" + objectSessionID + "&"
+            + "sessionID=" + encode(sessionID) + "&"
+            + "objectSessionID=" + encode(objectSessionID) + "&"
             + "startedAt=" + startedAd + "&"
             + "endedAt=" + endedAt;
         try {
-            InputStream in = new URL(urlStringToMCM).openConnection().getInputStream();
-            String returnValueFromMCM = StringAndTextUtil.convertStreamToString(in);
+            String returnValueFromMCM = BackendHttpClient.getInstance().getString(URI.create(urlStringToMCM));
             if (logger.isDebugEnabled()) {
                 logger.debug("MCM URL:" + urlStringToMCM);
                 logger.debug("Returned from MCM: " + returnValueFromMCM);
@@ -176,4 +174,9 @@ public class MCMPortalInterfaceStatisticsImpl implements MCMPortalInterfaceStati
             throw new RuntimeException("Error contacting server: " + urlStringToMCM, e);
         }
     }
+
+    /** Encode a query parameter value, so values from configuration and clients always make a valid URI. */
+    private static String encode(String value) {
+        return URLEncoder.encode(String.valueOf(value), StandardCharsets.UTF_8);
+    }
 }
@@ -6,8 +6,13 @@ import org.w3c.dom.NodeList;
 
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOReturnValueWrapper;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOutputException;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.XMLStreamParsing;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 
 /**
  * Wrapper for a response from MCM3. Will update the state of the return value from the response ML document.
@@ -17,6 +22,54 @@ public class MCM3OReturnValueWrapper extends MCMOReturnValueWrapper {
         super(logger, inputStreamFromMCM);
     }
 
+    /**
+     * Parse a response from MCM3.
+     * @param logger The logger.
+     * @param inputStreamFromMCM Returned XML document. Not closed by the wrapper.
+     * @param useDOM If true, build a DOM of the whole document instead of reading it with a streaming parser.
+     * @throws MCMOutputException On trouble communicating or parsing.
+     */
+    public MCM3OReturnValueWrapper(Logger logger, InputStream inputStreamFromMCM, boolean useDOM)
+            throws MCMOutputException {
+        super(logger, inputStreamFromMCM, useDOM);
+    }
+
+    /**
+     * Get the result from the call, reading from a streaming parser.
+     * If the call is successful, extracts object ID from the first element ObjectGuid and file names from the elements
+     * Filename. As soon as an element Error is met, the session is invalid and the rest of the document is not read.
+     * @param reader Reader positioned on the root element of the returned XML document.
+     * @throws MCMOutputException On unexpected output.
+     * @throws XMLStreamException On trouble parsing.
+     */
+    @Override
+    protected void extractReturnValuesForSession(XMLStreamReader reader)
+            throws MCMOutputException, XMLStreamException {
+        String returnType = reader.getLocalName();
+        if (!returnType.equals("PortalResult")) {
+            throw new MCMOutputException("Unexpected return value from MCM. Root element was: " + returnType);
+        }
+        this.isSessionValid = true;
+        this.objectID = "";
+        this.filenames = new ArrayList<String>();
+        boolean objectIDFound = false;
+        while (XMLStreamParsing.nextStartElement(reader)) {
+            String elementName = reader.getLocalName();
+            if (elementName.equals("Error")) {
+                this.isSessionValid = false;
+                this.objectID = null;
+                this.filenames = null;
+                logger.warn("Error returned from MCM.");
+                return;
+            } else if (!objectIDFound && elementName.equals("ObjectGuid")) {
+                this.objectID = XMLStreamParsing.readText(reader);
+                objectIDFound = true;
+            } else if (elementName.equals("Filename")) {
+                this.filenames.add(XMLStreamParsing.readText(reader));
+            }
+        }
+    }
+
     /**
      * Get the result from the call.
      * If the call is successful, extracts object ID from the element GUID and file name from the element Filename.
@@ -6,18 +6,38 @@ import com.wowza.wms.logging.WMSLogger;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOReturnValueWrapper;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOutputException;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMSessionAndFilenameValidater;
-import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.SessionAndFilenameValidaterIF;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.CacheStats;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.cache.LoadingCache;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Call MCM to see if session is valid and lookup object from the GUID.
+ *
+ * Optionally, the object returned by MCM3 is cached per session and object for a short time, so playing several files
+ * of the same object, or replaying one, is validated in memory against the cleaned file names of the object.
  */
 public class MCM3SessionAndFilenameValidater extends MCMSessionAndFilenameValidater {
+    /** Property for how long an object returned by MCM3 is cached. Zero disables the cache. */
+    public static final String PROPERTY_CACHE_TIME_TO_LIVE_SECONDS = "ValidationMCM3CacheTimeToLiveSeconds";
+    /** Property for the maximum number of cached objects. */
+    public static final String PROPERTY_CACHE_MAXIMUM_SIZE = "ValidationMCM3CacheMaximumSize";
+    public static final long DEFAULT_CACHE_TIME_TO_LIVE_SECONDS = 10;
+    public static final int DEFAULT_CACHE_MAXIMUM_SIZE = 1000;
+
+    /** Objects returned by MCM3, keyed by session and object ID. Null if caching is disabled. */
+    private LoadingCache<List<String>, ValidatedObject> objectCache;
+
     /**
      * Reads server connection configuration from property-file. Property file
      * is expected to be at "&lt;VHost_HOME&gt;/&lt;propertyFilePath&gt;"
@@ -48,6 +68,65 @@ public class MCM3SessionAndFilenameValidater extends MCMSessionAndFilenameValida
         super(logger, connectionURLString, validationMethodAtServer);
     }
 
+    /**
+     * Create a validater that caches the objects returned by MCM3.
+     * @param logger the logger
+     * @param connectionURLString chaos media content manager service url
+     * @param validationMethodAtServer name of the validate method in the chaos media content manager service
+     * @param cacheMaximumSize maximum number of cached objects
+     * @param cacheTimeToLive how long an object is cached. Zero disables the cache.
+     */
+    public MCM3SessionAndFilenameValidater(WMSLogger logger, String connectionURLString,
+                                           String validationMethodAtServer, int cacheMaximumSize,
+                                           Duration cacheTimeToLive) {
+        super(logger, connectionURLString, validationMethodAtServer);
+        if (!cacheTimeToLive.isZero() && !cacheTimeToLive.isNegative()) {
+            objectCache = new LoadingCache<>("MCM3 objects", cacheMaximumSize, cacheTimeToLive, Duration.ZERO,
+                                             key -> new ValidatedObject(getInputFromMCM(key.get(0), key.get(1))));
+        }
+    }
+
+    /**
+     * Validate rights to play file. If objects are cached, the file is checked against the cached object.
+     *
+     * @see SessionAndFilenameValidaterIF#validateRightsToPlayFile(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean validateRightsToPlayFile(String sessionID, String objectID, String filenameAndPath)
+            throws MalformedURLException, IOException, MCMOutputException {
+        if (objectCache == null) {
+            return super.validateRightsToPlayFile(sessionID, objectID, filenameAndPath);
+        }
+        if (sessionID == null || objectID == null || filenameAndPath == null) {
+            throw new IllegalArgumentException(
+                    "WARNING: At least one of the arguments is null: " + "(sessionID=" + sessionID + ", objectID="
+                            + objectID + ", filename=" + filenameAndPath + ")");
+        }
+        ValidatedObject object;
+        try {
+            object = objectCache.get(Arrays.asList(sessionID, objectID));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof MCMOutputException) {
+                throw (MCMOutputException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MCMOutputException("Could not get object from MCM", cause);
+        }
+        boolean filenameEquals = object.cleanedFilenames.contains(cleanFilename(filenameAndPath));
+        return isAllowedToStream(objectID, filenameAndPath, object.returnValues, filenameEquals);
+    }
+
+    /**
+     * @return Hit rate and other counters for the object cache, or null if objects are not cached.
+     */
+    public CacheStats getCacheStats() {
+        return objectCache == null ? null : objectCache.getStats();
+    }
+
     /**
      * Get session validation information from MCM3.
      * @param sessionID MCM3 Session ID
@@ -62,18 +141,22 @@ public class MCM3SessionAndFilenameValidater extends MCMSessionAndFilenameValida
             throws IOException, MalformedURLException, MCMOutputException {
         String urlStringToMCM = connectionURLString + "/" + validationMethodAtServer + "?" + "sessionGUID=" + sessionID
                 + "&" + "objectGuids=" + objectID + "&" + "includeMetadata=true" + "&" + "includeFiles=true";
-        InputStream in = null;
-        try {
-            if (logger.isDebugEnabled()) {
-                logger.debug("MCM URL:" + urlStringToMCM);
-                InputStream inDebug = new URL(urlStringToMCM).openConnection().getInputStream();
-                logger.debug("Returned from MCM: " + StringAndTextUtil.convertStreamToString(inDebug));
-            }
-            in = new URL(urlStringToMCM).openConnection().getInputStream();
+        try (InputStream in = getFromServer(urlStringToMCM)) {
             return new MCM3OReturnValueWrapper(logger, in);
-        } finally {
-            if (in != null) {
-                in.close();
+        }
+    }
+
+    /** An object returned by MCM3, with the cleaned names of its files for checking requested files. */
+    private final class ValidatedObject {
+        private final MCMOReturnValueWrapper returnValues;
+        private final Set<String> cleanedFilenames = new HashSet<>();
+
+        private ValidatedObject(MCMOReturnValueWrapper returnValues) {
+            this.returnValues = returnValues;
+            if (returnValues.getFilenames() != null) {
+                for (String filename : returnValues.getFilenames()) {
+                    cleanedFilenames.add(cleanFilename(filename));
+                }
             }
         }
     }
@@ -15,10 +15,13 @@ import com.wowza.wms.request.RequestFunction;
 import com.wowza.wms.stream.IMediaStream;
 import com.wowza.wms.stream.IMediaStreamActionNotify;
 
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
 
 /**
  * Module that registers an action listener, which prevents playback if stream is not authenticated using MCM3.
@@ -33,6 +36,8 @@ public class WowzaSessionAuthenticationMCM3ModuleBase extends ModuleBase
     private static final String PROPERTY_MCM3_VALIDATION_METHOD = "ValidationMCM3ValidationMethod";
     /** The authenticator used for validating playback permissions. */
     private StreamAuthenticater streamAuthenticater;
+    /** The validater used by the authenticator, which may cache objects. */
+    private MCM3SessionAndFilenameValidater validater;
 
     public WowzaSessionAuthenticationMCM3ModuleBase() {
         super();
@@ -52,14 +57,22 @@ public class WowzaSessionAuthenticationMCM3ModuleBase extends ModuleBase
             cr = new ConfigReader(new File(vhostDir + "/conf/" + appName + "/wowza-modules.properties"),
                                   PROPERTY_MCM3_SERVER_URL_KEY, PROPERTY_MCM3_VALIDATION_METHOD);
 
+            // Configure the shared HTTP client used for calling the backend
+            BackendHttpClient.createInstance(cr);
+
             //Read parameters
             String validationMethodAtServer = cr.get(PROPERTY_MCM3_VALIDATION_METHOD);
             String connectionUrlString = cr.get(PROPERTY_MCM3_SERVER_URL_KEY);
 
-            //Initialise stream authenticator
-            streamAuthenticater = new StreamAuthenticater(getLogger(),
-                                                          new MCM3SessionAndFilenameValidater(getLogger(), appInstance,
-                                                                                              connectionUrlString, validationMethodAtServer));
+            //Initialise stream authenticator, caching the objects returned by MCM3
+            validater = new MCM3SessionAndFilenameValidater(
+                    getLogger(), connectionUrlString, validationMethodAtServer,
+                    Integer.parseInt(cr.get(MCM3SessionAndFilenameValidater.PROPERTY_CACHE_MAXIMUM_SIZE, String.valueOf(
+                            MCM3SessionAndFilenameValidater.DEFAULT_CACHE_MAXIMUM_SIZE))),
+                    Duration.ofSeconds(Long.parseLong(cr.get(
+                            MCM3SessionAndFilenameValidater.PROPERTY_CACHE_TIME_TO_LIVE_SECONDS, String.valueOf(
+                                    MCM3SessionAndFilenameValidater.DEFAULT_CACHE_TIME_TO_LIVE_SECONDS)))));
+            streamAuthenticater = new StreamAuthenticater(getLogger(), validater);
         } catch (IOException e) {
             throw new RuntimeException("Could not initialize StreamingDatabaseEventLogger.", e);
         }
@@ -130,6 +143,9 @@ public class WowzaSessionAuthenticationMCM3ModuleBase extends ModuleBase
 
     public void onAppStop(IApplicationInstance appInstance) {
         getLogger().info("onAppStop: " + PLUGIN_NAME + " version " + PLUGIN_VERSION);
+        if (validater != null && validater.getCacheStats() != null) {
+            getLogger().info(validater.getCacheStats().toString());
+        }
     }
 
     @Override
@@ -142,7 +158,7 @@ public class WowzaSessionAuthenticationMCM3ModuleBase extends ModuleBase
         try {
             getLogger().info("onHTTPSessionCreate by: " + ihttpStreamerSession.getIpAddress());
             boolean authenticated = streamAuthenticater
-                    .checkAuthorization(ihttpStreamerSession.getQueryStr(), ihttpStreamerSession.getStreamName());
+                    .checkAuthorization(QueryParams.of(ihttpStreamerSession), ihttpStreamerSession.getStreamName());
             if (!authenticated) {
                 getLogger().warn("Not authorized '" + ihttpStreamerSession.getUri() + "' for: " + ihttpStreamerSession.getIpAddress());
                 ihttpStreamerSession.rejectSession();
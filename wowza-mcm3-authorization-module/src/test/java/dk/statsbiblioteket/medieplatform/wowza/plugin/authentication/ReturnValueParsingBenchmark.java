@@ -0,0 +1,145 @@
+package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication;
+
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOReturnValueWrapper;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model.MCMOutputException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare streaming and DOM parsing of MCM and MCM3 responses listing many files.
+ *
+ * Run after test-compile with
+ * <pre>
+ * java -cp target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main ReturnValueParsingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReturnValueParsingBenchmark {
+    /** Number of files listed in the response. */
+    @Param({"2", "50", "500"})
+    public int fileCount;
+
+    private final Logger logger = WMSLoggerFactory.getLogger(ReturnValueParsingBenchmark.class);
+    private byte[] mcmResponse;
+    private byte[] mcm3Response;
+
+    @Setup
+    public void setUp() {
+        mcmResponse = createMCMResponse(fileCount).getBytes(StandardCharsets.UTF_8);
+        mcm3Response = createMCM3Response(fileCount).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public MCMOReturnValueWrapper mcmStreaming() throws MCMOutputException {
+        return new MCMOReturnValueWrapper(logger, new ByteArrayInputStream(mcmResponse), false);
+    }
+
+    @Benchmark
+    public MCMOReturnValueWrapper mcmDOM() throws MCMOutputException {
+        return new MCMOReturnValueWrapper(logger, new ByteArrayInputStream(mcmResponse), true);
+    }
+
+    @Benchmark
+    public MCMOReturnValueWrapper mcm3Streaming() throws MCMOutputException {
+        return new MCM3OReturnValueWrapper(logger, new ByteArrayInputStream(mcm3Response), false);
+    }
+
+    @Benchmark
+    public MCMOReturnValueWrapper mcm3DOM() throws MCMOutputException {
+        return new MCM3OReturnValueWrapper(logger, new ByteArrayInputStream(mcm3Response), true);
+    }
+
+    /**
+     * Create an MCM Object_Get response like test_data_MCM_output_multiple_files.xml, with the given number of files.
+     * @param files Number of files.
+     * @return The response.
+     */
+    static String createMCMResponse(int files) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<ICollection MinimumSucceedingObjectCount=\"0\" TotalObjectCount=\"1\">\n");
+        sb.append("\t<MCM.Data.DTO.ExtendedObjectInfo>\n\t\t<FileInfos>\n");
+        for (int i = 0; i < files; i++) {
+            String filename = "P2_1800_2000_890121_" + i + ".mp3";
+            sb.append("\t\t\t<MCM.Data.DTO.FileInfo>\n");
+            sb.append("\t\t\t\t<ObjectID>662670</ObjectID>\n");
+            sb.append("\t\t\t\t<Format>MP3 128 kbit CBR</Format>\n");
+            sb.append("\t\t\t\t<MimeType>audio/mpeg</MimeType>\n");
+            sb.append("\t\t\t\t<MediaTypeID>15225</MediaTypeID>\n");
+            sb.append("\t\t\t\t<RelativeFilePath>Kulturarv_MP3\\Batch02\\Disc05\\mp3_128kbps\\").append(filename)
+                    .append("</RelativeFilePath>\n");
+            sb.append("\t\t\t\t<AccessProviders>\n\t\t\t\t\t<MCM.Data.DTO.AccessProvider>\n");
+            sb.append("\t\t\t\t\t\t<Name>RTMP</Name>\n\t\t\t\t\t\t<DestinationID>7763</DestinationID>\n");
+            sb.append("\t\t\t\t\t\t<Uri>rtmp://streaming.chaos.larm-archive.org/chaos?sessionID=&amp;objectID=")
+                    .append("&amp;includeFiles=true/mp3:Kulturarv_MP3/Batch02/Disc05/mp3_128kbps/").append(filename)
+                    .append("</Uri>\n");
+            sb.append("\t\t\t\t\t</MCM.Data.DTO.AccessProvider>\n\t\t\t\t</AccessProviders>\n");
+            sb.append("\t\t\t\t<ID>").append(400923 + i).append("</ID>\n");
+            sb.append("\t\t\t\t<Filename>").append(filename).append("</Filename>\n");
+            sb.append("\t\t\t\t<OriginalFilename>").append(filename).append("</OriginalFilename>\n");
+            sb.append("\t\t\t\t<FolderPath>Kulturarv_MP3\\Batch02\\Disc05\\mp3_128kbps\\</FolderPath>\n");
+            sb.append("\t\t\t\t<DateCreated>2010-09-19T21:27:32Z</DateCreated>\n");
+            sb.append("\t\t\t\t<FileTypeID>2</FileTypeID>\n\t\t\t\t<FormatID>7426</FormatID>\n");
+            sb.append("\t\t\t\t<ByteSize>0</ByteSize>\n\t\t\t\t<DestinationID>7763</DestinationID>\n");
+            sb.append("\t\t\t</MCM.Data.DTO.FileInfo>\n");
+        }
+        sb.append("\t\t</FileInfos>\n");
+        sb.append("\t\t<ObjectTypeName>Larm.File</ObjectTypeName>\n\t\t<ID>662670</ID>\n");
+        sb.append("\t</MCM.Data.DTO.ExtendedObjectInfo>\n</ICollection>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Create an MCM3 Object/Get response like test_data_MCM3_output_full.xml, with the given number of files.
+     * @param files Number of files.
+     * @return The response.
+     */
+    static String createMCM3Response(int files) {
+        String guid = "84802737-4910-d941-a7f0-14e4bdf1bc4d";
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"yes\"?><PortalResult Duration=\"213\">");
+        sb.append("<ModuleResults><ModuleResult Fullname=\"Portal\" Duration=\"0\" Count=\"1\" TotalCount=\"1\">");
+        sb.append("<Results><Result FullName=\"Chaos.Mcm.View.ObjectViewData\"><Id>").append(guid).append("</Id>");
+        sb.append("<ObjectTypeId>24</ObjectTypeId><DateCreated>28-02-2013 00:28:10</DateCreated><Metadatas>");
+        sb.append("<Result FullName=\"Chaos.Mcm.Data.Dto.ObjectMetadata\">");
+        sb.append("<Guid>15d1f40a-12c5-45ae-8438-64ffe80decf7</Guid><LanguageCode>da</LanguageCode>");
+        sb.append("<MetadataXml>&lt;Larm.Program&gt;&lt;PublicationChannel&gt;DR P1&lt;/PublicationChannel&gt;");
+        sb.append("&lt;Title&gt;Tysk propaganda-udsendelse - Reportage fra østfronten&lt;/Title&gt;");
+        sb.append("&lt;Abstract /&gt;&lt;Description /&gt;&lt;/Larm.Program&gt;</MetadataXml>");
+        sb.append("<DateCreated>28-02-2013 00:28:10</DateCreated></Result></Metadatas><Files>");
+        for (int i = 0; i < files; i++) {
+            String filename = "P1_0000_000850_00000000_" + i + "_Tysk propaganda-udsendelse.mp3";
+            sb.append("<Result FullName=\"Chaos.Mcm.Data.Dto.FileInfo\"><ID>").append(3606432 + i).append("</ID>");
+            sb.append("<ObjectGuid>").append(guid).append("</ObjectGuid>");
+            sb.append("<Filename>").append(filename).append("</Filename>");
+            sb.append("<OriginalFilename>").append(filename).append("</OriginalFilename>");
+            sb.append("<Token>RTMP Streaming</Token><URL>rtmp://130.225.250.44:1935/chaos_non/mp3:/Kulturarv_MP3/")
+                    .append(filename).append("</URL>");
+            sb.append("<FormatID>49</FormatID><FormatCategory>LARM</FormatCategory><FormatType>Audio</FormatType>");
+            sb.append("</Result>");
+        }
+        sb.append("</Files></Result></Results></ModuleResult></ModuleResults></PortalResult>");
+        return sb.toString();
+    }
+}
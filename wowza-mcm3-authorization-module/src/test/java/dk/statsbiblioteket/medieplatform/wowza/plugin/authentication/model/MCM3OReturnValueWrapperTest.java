@@ -1,8 +1,10 @@
 package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import com.wowza.wms.logging.WMSLoggerFactory;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.MCM3OReturnValueWrapper;
@@ -87,6 +89,29 @@ public class MCM3OReturnValueWrapperTest {
         assertTrue(returnedFilenames.contains(expectedValue2), "Filename");
     }
 
+    @Test
+    public void testStreamingAndDOMParsingAgree() throws FileNotFoundException, MCMOutputException {
+        for (String filename : new String[]{filenameOfvalidMCMOutputFull, filenameOfvalidMCMOutputInvalidSession}) {
+            MCM3OReturnValueWrapper streamed = new MCM3OReturnValueWrapper(logger,
+                                                                           getTestDataFileAsInputStream(filename));
+            MCM3OReturnValueWrapper dom = new MCM3OReturnValueWrapper(logger, getTestDataFileAsInputStream(filename),
+                                                                      true);
+            assertEquals(dom.isSessionValid(), streamed.isSessionValid(), "Valid session in " + filename);
+            assertEquals(dom.getObjectID(), streamed.getObjectID(), "ObjectID in " + filename);
+            assertEquals(dom.getFilenames(), streamed.getFilenames(), "Filenames in " + filename);
+        }
+    }
+
+    @Test
+    public void testStreamingParsingStopsAtError() throws MCMOutputException {
+        // The document is cut off after the error, which the streaming parser never reads
+        InputStream is = new ByteArrayInputStream(
+                "<PortalResult><ModuleResults><ModuleResult><Results><Error><Message>No access</Message></Error><Unfi"
+                        .getBytes(StandardCharsets.UTF_8));
+        MCM3OReturnValueWrapper returnWrapper = new MCM3OReturnValueWrapper(logger, is);
+        assertFalse(returnWrapper.isSessionValid(), "Valid session");
+    }
+
     private InputStream getTestDataFileAsInputStream(String inputstring) throws FileNotFoundException {
         FileInputStream fis;
         try {
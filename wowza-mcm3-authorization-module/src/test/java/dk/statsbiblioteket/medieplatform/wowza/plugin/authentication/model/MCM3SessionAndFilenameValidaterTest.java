@@ -1,8 +1,11 @@
 package dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.model;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.wowza.wms.logging.WMSLogger;
 import com.wowza.wms.logging.WMSLoggerFactory;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.authentication.MCM3SessionAndFilenameValidater;
@@ -56,4 +59,27 @@ public class MCM3SessionAndFilenameValidaterTest {
         boolean doesValidate = validater.validateFilerequestWithMCMResult(pathAndFilename, validatingFilenames);
         assertEquals(true, doesValidate, "Filename validation:");
     }
+
+    @Test
+    public void testFilesOfCachedObjectAreValidatedWithoutCallingMCM() throws MCMOutputException, IOException {
+        WMSLogger wmsLogger = WMSLoggerFactory.getLogger(this.getClass());
+        AtomicInteger calls = new AtomicInteger();
+        MCM3SessionAndFilenameValidater validater = new MCM3SessionAndFilenameValidater(
+                wmsLogger, "connectionURLString", "validationMethodAtServer", 10, Duration.ofMinutes(1)) {
+            @Override
+            protected InputStream getFromServer(String urlString) {
+                calls.incrementAndGet();
+                return Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                        "test_data_MCM3_output_full.xml");
+            }
+        };
+        String objectID = "84802737-4910-d941-a7f0-14e4bdf1bc4d";
+        assertTrue(validater.validateRightsToPlayFile("session", objectID, "LarmLogos/P1_logo.png"));
+        assertTrue(validater.validateRightsToPlayFile("session", objectID, "LarmLogos/P1_logo.flv"));
+        assertFalse(validater.validateRightsToPlayFile("session", objectID, "LarmLogos/P2_logo.png"));
+        assertEquals(1, calls.get());
+        assertTrue(validater.validateRightsToPlayFile("other session", objectID, "P1_logo.png"));
+        assertEquals(2, calls.get());
+        assertEquals(2, validater.getCacheStats().getHits());
+    }
 }
@@ -5,6 +5,7 @@ import com.wowza.wms.stream.IMediaStream;
 import com.wowza.wms.stream.IMediaStreamActionNotify2;
 
 import dk.statsbiblioteket.medieplatform.wowza.plugin.streamingstatistics.StreamingEventLogger;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 /**
  * This class handles logging of users actually playing the video
@@ -17,17 +18,13 @@ public class StreamingStatisticsIMediaStreamActionNotify2 implements IMediaStrea
         this.streamingEventLogger = streamingEventLogger;
     }
 
-    private static String getQueryString(IMediaStream stream) {
-        return stream.getClient().getQueryStr();
-    }
-
     private static String getStreamingUrl(IMediaStream stream) {
         return stream.getClient().getUri() + '?' + stream.getClient().getQueryStr() + '/' +  stream.getExt() + ':'
                     + stream.getName();
     }
 
     public void onPlay(IMediaStream stream, String streamName, double playStart, double playLen, int playReset) {
-        streamingEventLogger.logUserEventPlay(getQueryString(stream),
+        streamingEventLogger.logUserEventPlay(QueryParams.of(stream),
                                               getStreamingUrl(stream));
     }
 
@@ -36,17 +33,17 @@ public class StreamingStatisticsIMediaStreamActionNotify2 implements IMediaStrea
     }
 
     public void onPauseRaw(IMediaStream stream, boolean isPause, double location) {
-        streamingEventLogger.logUserEventPause(getQueryString(stream),
+        streamingEventLogger.logUserEventPause(QueryParams.of(stream),
                                                getStreamingUrl(stream));
     }
 
     public void onSeek(IMediaStream stream, double location) {
-        streamingEventLogger.logUserEventSeek(getQueryString(stream),
+        streamingEventLogger.logUserEventSeek(QueryParams.of(stream),
                                               getStreamingUrl(stream));
     }
 
     public void onStop(IMediaStream stream) {
-        streamingEventLogger.logUserEventStop(getQueryString(stream),
+        streamingEventLogger.logUserEventStop(QueryParams.of(stream),
                                               getStreamingUrl(stream));
     }
 
@@ -59,7 +56,7 @@ public class StreamingStatisticsIMediaStreamActionNotify2 implements IMediaStrea
     }
 
     public void onPause(IMediaStream stream, boolean isPause, double location) {
-        streamingEventLogger.logUserEventPause(getQueryString(stream),
+        streamingEventLogger.logUserEventPause(QueryParams.of(stream),
                                                getStreamingUrl(stream));
     }
 }
@@ -16,9 +16,13 @@ import com.wowza.wms.request.RequestFunction;
 import com.wowza.wms.stream.IMediaStream;
 import com.wowza.wms.stream.IMediaStreamActionNotify;
 import com.wowza.wms.stream.IMediaStreamNotify;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.streamingstatistics.StreamingEventLogger;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.CachingTicketTool;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.TicketTool;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.TicketToolInterface;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 
 /**
  * This class handles events that happen during streaming. Also sets up the file
@@ -58,12 +62,26 @@ public class StreamingStatisticsModule extends ModuleBase
             //Read to initialise the ticket checker
             String ticketCheckerLocation = cr
                     .get("ticketCheckerLocation", "missing-ticket-checker-location-in-property-file");
-            TicketTool ticketTool = new TicketTool(ticketCheckerLocation, getLogger());
+            TicketToolInterface ticketTool = CachingTicketTool.createInstance(
+                    ticketCheckerLocation, cr,
+                    new TicketTool(ticketCheckerLocation, getLogger(), BackendHttpClient.createInstance(cr)),
+                    getLogger());
 
             // Setup streaming statistics logger
             String statLogFileHomeDir = cr
                     .get("streamingStatisticsLogFolder", "missing-streamingStatisticsLogFolder");
-            streamingEventLogger = new StreamingEventLogger(ticketTool, getLogger(), statLogFileHomeDir);
+            if (Boolean.parseBoolean(cr.get(StreamingEventLogger.PROPERTY_ASYNC, "false"))) {
+                streamingEventLogger = new StreamingEventLogger(
+                        ticketTool, getLogger(), statLogFileHomeDir,
+                        Integer.parseInt(cr.get(StreamingEventLogger.PROPERTY_QUEUE_SIZE,
+                                                String.valueOf(StreamingEventLogger.DEFAULT_QUEUE_SIZE))),
+                        Integer.parseInt(cr.get(StreamingEventLogger.PROPERTY_BATCH_SIZE,
+                                                String.valueOf(StreamingEventLogger.DEFAULT_BATCH_SIZE))),
+                        Long.parseLong(cr.get(StreamingEventLogger.PROPERTY_FLUSH_INTERVAL_MILLIS,
+                                              String.valueOf(StreamingEventLogger.DEFAULT_FLUSH_INTERVAL_MILLIS))));
+            } else {
+                streamingEventLogger = new StreamingEventLogger(ticketTool, getLogger(), statLogFileHomeDir);
+            }
         } catch (IOException e) {
             getLogger().error("An IO error occured.", e);
             throw new RuntimeException("An IO error occured.", e);
@@ -125,10 +143,16 @@ public class StreamingStatisticsModule extends ModuleBase
         }
     }
 
-    /*Mainly here to remember that we can hook this method*/
+    /**
+     * Called when the application is stopped. Writes the statistics lines that are still queued.
+     *
+     * @param appInstance The application stopping.
+     */
     @Override
     public void onAppStop(IApplicationInstance appInstance) {
-        // Do nothing.
+        if (streamingEventLogger != null) {
+            streamingEventLogger.close();
+        }
     }
 
     /*Mainly here to remember that we can hook this method*/
@@ -163,13 +187,13 @@ public class StreamingStatisticsModule extends ModuleBase
 
     @Override
     public void onHTTPSessionCreate(IHTTPStreamerSession ihttpStreamerSession) {
-        streamingEventLogger.logUserEventPlay(ihttpStreamerSession.getQueryStr(),
+        streamingEventLogger.logUserEventPlay(QueryParams.of(ihttpStreamerSession),
                                               ihttpStreamerSession.getUri() + "?" + ihttpStreamerSession.getQueryStr());
     }
 
     @Override
     public void onHTTPSessionDestroy(IHTTPStreamerSession ihttpStreamerSession) {
-        streamingEventLogger.logUserEventStop(ihttpStreamerSession.getQueryStr(),
+        streamingEventLogger.logUserEventStop(QueryParams.of(ihttpStreamerSession),
                                               ihttpStreamerSession.getUri() + "?" + ihttpStreamerSession.getQueryStr());
     }
 }
@@ -11,8 +11,17 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.wowza.wms.logging.WMSLogger;
 
@@ -20,90 +29,308 @@ import dk.statsbiblioteket.medieplatform.ticketsystem.Ticket;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.streamingstatistics.StreamingStatLogEntry.Event;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.TicketToolInterface;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.IllegallyFormattedQueryStringException;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
 
+/**
+ * Writes the StreamingStat log, one line per user event, in a new file every day.
+ *
+ * By default every line is written and flushed by the thread reporting the event. In asynchronous mode lines are put
+ * on a bounded queue, and one writer thread writes them in batches, flushing once per batch. A batch is written when
+ * it is full, or when the flush interval has passed since its first line was queued. If the queue is full, lines are
+ * dropped and counted rather than making the streaming threads wait. Call {@link #close()} to write what is queued.
+ *
+ * A line is written to the file of the day its event happened, also if it waited in the queue past midnight. Several
+ * applications may log to the same folder, so loggers of the same folder take turns writing, and a logger always
+ * writes and flushes all its lines before the next one writes.
+ */
 public class StreamingEventLogger {
     private static final String DATE_PATTERN = "yyyy-MM-dd";
     public static final String FILENAME_PREFIX = "StreamingStat-";
+    /** Property for turning on asynchronous writing. */
+    public static final String PROPERTY_ASYNC = "streamingStatisticsAsync";
+    /** Property for the maximum number of lines waiting to be written in asynchronous mode. */
+    public static final String PROPERTY_QUEUE_SIZE = "streamingStatisticsQueueSize";
+    /** Property for the maximum number of lines written between flushes in asynchronous mode. */
+    public static final String PROPERTY_BATCH_SIZE = "streamingStatisticsBatchSize";
+    /** Property for the maximum time in milliseconds a line waits before it is flushed in asynchronous mode. */
+    public static final String PROPERTY_FLUSH_INTERVAL_MILLIS = "streamingStatisticsFlushIntervalMillis";
+    public static final int DEFAULT_QUEUE_SIZE = 65536;
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+    /** Longest time the writer thread waits for lines before checking whether the logger is closed. */
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /** Locks of the folders logged to, shared by all loggers of a folder. */
+    private static final ConcurrentMap<String, Object> FOLDER_LOCKS = new ConcurrentHashMap<>();
+
     private String statLogFileHomeDir;
+    private final Object folderLock;
     private BufferedWriter statLogWriter;
+    private Date dateOfLogFile;
     private Date dateForNewLogFile;
 
     private WMSLogger logger;
     private TicketToolInterface ticketTool;
     private String newlineString;
 
+    private final BlockingQueue<LogLine> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Thread writerThread;
+    private final AtomicLong droppedLines = new AtomicLong();
+    private long reportedDroppedLines = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a logger that writes every line when it is logged.
+     * @param ticketTool Used for resolving the ticket of a user event.
+     * @param logger Logger for reporting problems.
+     * @param statLogFileHomeDir Folder to write the StreamingStat files in.
+     */
     public StreamingEventLogger(TicketToolInterface ticketTool, WMSLogger logger, String statLogFileHomeDir) {
+        this(ticketTool, logger, statLogFileHomeDir, 0, 1, 0);
+    }
+
+    /**
+     * Create a logger that writes lines asynchronously, in batches, from one writer thread.
+     * @param ticketTool Used for resolving the ticket of a user event.
+     * @param logger Logger for reporting problems.
+     * @param statLogFileHomeDir Folder to write the StreamingStat files in.
+     * @param queueSize Maximum number of lines waiting to be written. Zero or less means lines are written when they
+     * are logged.
+     * @param batchSize Maximum number of lines written between flushes.
+     * @param flushIntervalMillis Maximum time a line waits for its batch to fill before it is flushed.
+     */
+    public StreamingEventLogger(TicketToolInterface ticketTool, WMSLogger logger, String statLogFileHomeDir,
+                                int queueSize, int batchSize, long flushIntervalMillis) {
         super();
         this.logger = logger;
         this.ticketTool = ticketTool;
         this.statLogFileHomeDir = statLogFileHomeDir;
+        this.folderLock = FOLDER_LOCKS.computeIfAbsent(getFolderKey(statLogFileHomeDir), key -> new Object());
         this.statLogWriter = null;
-        logger.info("Statistics logger " + this.getClass().getName() + " has been created, logging files to '"
-                            + statLogFileHomeDir + "'.");
         this.dateForNewLogFile = new Date();
         this.newlineString = System.getProperty("line.separator");
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMillis));
+        if (queueSize > 0) {
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.writerThread = new Thread(this::runWriter, "StreamingEventLogger-writer");
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
+        } else {
+            this.queue = null;
+            this.writerThread = null;
+        }
+        logger.info("Statistics logger " + this.getClass().getName() + " has been created, logging files to '"
+                            + statLogFileHomeDir + "'" + (queue == null ? "." : " asynchronously, queue size "
+                + queueSize + ", batch size " + this.batchSize + ", flush interval " + flushIntervalMillis + " ms."));
     }
 
-    public void logUserEventPlay(String queryString, String streamingUrl) {
-        logUserEvent(Event.PLAY, queryString, streamingUrl);
+    public void logUserEventPlay(QueryParams queryParams, String streamingUrl) {
+        logUserEvent(Event.PLAY, queryParams, streamingUrl);
     }
 
-    public void logUserEventStop(String queryString, String streamingUrl) {
-        logUserEvent(Event.STOP, queryString, streamingUrl);
+    public void logUserEventStop(QueryParams queryParams, String streamingUrl) {
+        logUserEvent(Event.STOP, queryParams, streamingUrl);
     }
 
-    public void logUserEventPause(String queryString, String streamingUrl) {
-        logUserEvent(Event.PAUSE, queryString, streamingUrl);
+    public void logUserEventPause(QueryParams queryParams, String streamingUrl) {
+        logUserEvent(Event.PAUSE, queryParams, streamingUrl);
     }
 
-    public void logUserEventSeek(String queryString, String streamingUrl) {
-        logUserEvent(Event.SEEK, queryString, streamingUrl);
+    public void logUserEventSeek(QueryParams queryParams, String streamingUrl) {
+        logUserEvent(Event.SEEK, queryParams, streamingUrl);
     }
 
     /**
      * Log the given event
      * @param event The event to log
-     * @param queryString Query string to read parameters for
+     * @param queryParams Parsed query string to read parameters for, as cached on the client or session
      * @param streamingURL The URL or this stream
      */
-    private void logUserEvent(Event event, String queryString, String streamingURL) {
-        if (queryString == null)  {
+    private void logUserEvent(Event event, QueryParams queryParams, String streamingURL) {
+        if (queryParams.getQueryString().isEmpty())  {
             logger.warn("No logging was performed. Query string of client could not be found.");
             return;
         }
         try {
-            Ticket streamingTicket = StringAndTextUtil.getTicket(queryString, ticketTool);
-            String logString = new StreamingStatLogEntry(event, streamingTicket, streamingURL).getLogString();
-            writeEventLog(logString);
+            Ticket streamingTicket = StringAndTextUtil.getTicket(queryParams, ticketTool);
+            StreamingStatLogEntry logEntry = new StreamingStatLogEntry(event, streamingTicket, streamingURL);
+            writeEventLog(logEntry.getTimestamp(), logEntry.getLogString());
         } catch (IllegallyFormattedQueryStringException e) {
             logger.warn("No logging was performed. Query string of client does not match expected format. Was "
-                    + queryString);
+                    + queryParams.getQueryString());
         }
     }
 
-    protected synchronized void writeEventLog(String logString) {
+    /**
+     * Write a line to the log, or queue it for writing in asynchronous mode.
+     * @param logString The line to write.
+     */
+    protected void writeEventLog(String logString) {
+        writeEventLog(new Date(), logString);
+    }
+
+    /**
+     * Write a line to the log file of the day of the event, or queue it for writing in asynchronous mode.
+     * @param time The time of the event.
+     * @param logString The line to write.
+     */
+    protected void writeEventLog(Date time, String logString) {
+        LogLine logLine = new LogLine(time, logString);
+        if (queue == null) {
+            writeEventLogLines(Collections.singletonList(logLine));
+        } else if (closed || !queue.offer(logLine)) {
+            droppedLines.incrementAndGet();
+        } else if (closed && queue.remove(logLine)) {
+            // Closed while queueing, so the line may be after the last drain of the queue
+            droppedLines.incrementAndGet();
+        }
+    }
+
+    /**
+     * Write lines to the log and flush once. Each line is written to the file of the day of its event. No other
+     * logger writes to the folder until the lines are flushed, so lines of different loggers are never mixed.
+     * @param logLines The lines to write.
+     */
+    protected synchronized void writeEventLogLines(List<LogLine> logLines) {
+        synchronized (folderLock) {
+            try {
+                BufferedWriter statLogWriter = null;
+                for (LogLine logLine : logLines) {
+                    // Changing file closes, and thereby flushes, the previous file
+                    statLogWriter = getStatLogWriter(logLine.time);
+                    statLogWriter.write(logLine.line);
+                    statLogWriter.write(this.newlineString);
+                }
+                if (statLogWriter != null) {
+                    statLogWriter.flush();
+                }
+            } catch (IOException e) {
+                logger.error("An IO-error occured when writing statistics log.", e);
+            }
+        }
+    }
+
+    /**
+     * Take lines from the queue and write them in batches, until the logger is closed and the queue is empty.
+     */
+    private void runWriter() {
+        List<LogLine> batch = new ArrayList<>(batchSize);
         try {
-            BufferedWriter statLogWriter = getStatLogWriter();
-            statLogWriter.write(logString);
-            statLogWriter.write(this.newlineString);
-            statLogWriter.flush();
-        } catch (IOException e) {
-            logger.error("An IO-error occured when writing statistics log.", e);
+            while (!closed || !queue.isEmpty()) {
+                LogLine first = queue.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long flushDeadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = flushDeadline - System.nanoTime();
+                    if (batch.size() >= batchSize || closed || remaining <= 0) {
+                        break;
+                    }
+                    LogLine next = queue.poll(Math.min(remaining, POLL_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                writeEventLogLines(batch);
+                batch.clear();
+                reportDroppedLines();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Whatever was taken from the queue is written by close, if there is room for it
+            for (LogLine logLine : batch) {
+                if (!queue.offer(logLine)) {
+                    droppedLines.incrementAndGet();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Statistics log writer stopped unexpectedly.", e);
+        }
+    }
+
+    private void reportDroppedLines() {
+        long dropped = droppedLines.get();
+        if (dropped != reportedDroppedLines) {
+            logger.warn("Statistics log queue full, " + (dropped - reportedDroppedLines)
+                                + " lines were dropped. Lines dropped in total: " + dropped);
+            reportedDroppedLines = dropped;
+        }
+    }
+
+    /**
+     * @return The number of lines dropped because the queue was full, or because they were logged after close.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * @return The number of lines waiting to be written.
+     */
+    public int getQueuedLines() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Write all queued lines, stop the writer thread and close the log file. Lines logged after this are dropped.
+     */
+    public void close() {
+        closed = true;
+        if (writerThread != null) {
+            try {
+                writerThread.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<LogLine> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                writeEventLogLines(remaining);
+            }
+            if (droppedLines.get() > 0) {
+                logger.warn("Statistics log closed. Lines dropped in total: " + droppedLines.get());
+            }
+        }
+        synchronized (this) {
+            if (statLogWriter != null) {
+                try {
+                    statLogWriter.close();
+                } catch (IOException e) {
+                    logger.error("An IO-error occured when closing statistics log.", e);
+                }
+                statLogWriter = null;
+            }
         }
     }
 
     protected BufferedWriter getStatLogWriter() throws IOException {
+        return getStatLogWriter(new Date());
+    }
+
+    /**
+     * Get the writer of the log file of the day of an event, changing the log file if it is another day.
+     * @param time The time of the event.
+     * @return The writer of the log file.
+     * @throws IOException If the log file could not be opened.
+     */
+    protected BufferedWriter getStatLogWriter(Date time) throws IOException {
         File currentStatLogFile;
-        Date now = new Date();
-        if ((statLogWriter == null) || (this.dateForNewLogFile.before(now))) {
+        if ((statLogWriter == null) || !this.dateForNewLogFile.after(time) || time.before(this.dateOfLogFile)) {
             if (statLogWriter != null) {
                 statLogWriter.close();
             }
-            String filenameWithCorrectDate = getFilename(now);
+            String filenameWithCorrectDate = getFilename(time);
             currentStatLogFile = new File(this.statLogFileHomeDir, filenameWithCorrectDate);
             this.logger.info("Creating log file: " + currentStatLogFile.getAbsolutePath());
-            this.dateForNewLogFile = getFollowingMidnight(now);
+            this.dateForNewLogFile = getFollowingMidnight(time);
+            this.dateOfLogFile = getPrecedingMidnight(time);
             boolean newLogFile = !currentStatLogFile.exists();
             this.statLogWriter = Files.newBufferedWriter(currentStatLogFile.toPath(), StandardCharsets.UTF_8, 
                     StandardOpenOption.APPEND, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
@@ -123,6 +350,12 @@ public class StreamingEventLogger {
         return Date.from(tomorroMidnight.atZone(zone).toInstant());
     }
 
+    private Date getPrecedingMidnight(Date date) {
+        ZoneId zone = ZoneId.of("Europe/Copenhagen");
+        LocalDate localDate = date.toInstant().atZone(zone).toLocalDate();
+        return Date.from(localDate.atStartOfDay(zone).toInstant());
+    }
+
     protected void setDateForNewLogFile(Date dateForNewLogFile) {
         this.dateForNewLogFile = dateForNewLogFile;
     }
@@ -131,4 +364,24 @@ public class StreamingEventLogger {
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_PATTERN, Locale.ROOT);
         return FILENAME_PREFIX + sdf.format(time) + ".log";
     }
+
+    private static String getFolderKey(String statLogFileHomeDir) {
+        File folder = new File(statLogFileHomeDir);
+        try {
+            return folder.getCanonicalPath();
+        } catch (IOException e) {
+            return folder.getAbsolutePath();
+        }
+    }
+
+    /** A line of the log, with the time of its event. */
+    protected static final class LogLine {
+        private final Date time;
+        private final String line;
+
+        private LogLine(Date time, String line) {
+            this.time = time;
+            this.line = line;
+        }
+    }
 }
@@ -48,6 +48,10 @@ public class StreamingStatLogEntry {
         }
     }
 
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
     public Event getEvent() {
         return event;
     }
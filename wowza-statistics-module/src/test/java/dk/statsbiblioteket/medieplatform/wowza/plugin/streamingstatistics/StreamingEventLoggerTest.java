@@ -23,6 +23,7 @@ import java.nio.file.Files;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class StreamingEventLoggerTest {
@@ -79,6 +80,124 @@ public class StreamingEventLoggerTest {
         }
     }
 
+    @Test
+    public void testAsynchronousWriteEventLogDrainsOnClose() {
+        String logFolder = "target/tmp/unit-test/" + this.getClass().getSimpleName() + "/async-logs";
+        deleteDir(logFolder);
+        createDir(logFolder);
+        StreamingEventLogger eventLogger = new StreamingEventLogger(ticketTool, logger, logFolder, 1000, 50, 10000);
+        for (int i = 0; i < 350; i++) {
+            eventLogger.writeEventLog("Async eventlog number: " + i);
+        }
+        eventLogger.close();
+        assertEquals(0, eventLogger.getDroppedLines());
+        assertEquals(0, eventLogger.getQueuedLines());
+        File file = new File(logFolder, StreamingEventLogger.getFilename(new Date()));
+        // Headline and all lines
+        assertEquals(351, getAmountOfLinesInFile(file));
+    }
+
+    @Test
+    public void testAsynchronousWriteEventLogDropsWhenQueueIsFull() {
+        String logFolder = "target/tmp/unit-test/" + this.getClass().getSimpleName() + "/dropping-logs";
+        deleteDir(logFolder);
+        createDir(logFolder);
+        StreamingEventLogger eventLogger = new StreamingEventLogger(ticketTool, logger, logFolder, 10, 5, 0);
+        // Holding the lock stops the writer thread from writing
+        synchronized (eventLogger) {
+            for (int i = 0; i < 100; i++) {
+                eventLogger.writeEventLog("Overload eventlog number: " + i);
+            }
+        }
+        eventLogger.close();
+        long dropped = eventLogger.getDroppedLines();
+        assertTrue(dropped >= 100 - 10 - 5, "Dropped " + dropped);
+        File file = new File(logFolder, StreamingEventLogger.getFilename(new Date()));
+        assertEquals(1 + 100 - dropped, getAmountOfLinesInFile(file));
+        eventLogger.writeEventLog("Logged after close");
+        assertEquals(dropped + 1, eventLogger.getDroppedLines());
+    }
+
+    @Test
+    public void testAsynchronousWriteEventLogWritesOrCountsLinesLoggedWhileClosing() throws InterruptedException {
+        String logFolder = "target/tmp/unit-test/" + this.getClass().getSimpleName() + "/closing-logs";
+        deleteDir(logFolder);
+        createDir(logFolder);
+        StreamingEventLogger eventLogger = new StreamingEventLogger(ticketTool, logger, logFolder, 1000, 50, 10000);
+        eventLogger.writeEventLog("First eventlog");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    eventLogger.writeEventLog("Eventlog number: " + thread + "-" + i);
+                }
+            });
+            threads[t].start();
+        }
+        Thread.sleep(5);
+        eventLogger.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        File file = new File(logFolder, StreamingEventLogger.getFilename(new Date()));
+        // Every line is either in the file, after the headline, or counted as dropped
+        assertEquals(1 + threads.length * 5000, getAmountOfLinesInFile(file) - 1 + eventLogger.getDroppedLines());
+        assertEquals(0, eventLogger.getQueuedLines());
+    }
+
+    @Test
+    public void testLoggersOfTheSameFolderDoNotMixLines() throws InterruptedException, IOException {
+        String logFolder = "target/tmp/unit-test/" + this.getClass().getSimpleName() + "/shared-logs";
+        deleteDir(logFolder);
+        createDir(logFolder);
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            padding.append('x');
+        }
+        StreamingEventLogger[] eventLoggers = {
+                new StreamingEventLogger(ticketTool, logger, logFolder, 10000, 50, 10),
+                new StreamingEventLogger(ticketTool, logger, logFolder + "/.", 10000, 50, 10)};
+        Thread[] threads = new Thread[eventLoggers.length];
+        for (int t = 0; t < threads.length; t++) {
+            StreamingEventLogger eventLogger = eventLoggers[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    eventLogger.writeEventLog("Eventlog;" + padding + ";end");
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            eventLoggers[t].close();
+        }
+        File file = new File(logFolder, StreamingEventLogger.getFilename(new Date()));
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(StreamingStatLogEntry.getLogStringHeadline(), lines.get(0));
+        assertEquals(1 + threads.length * 2000, lines.size());
+        for (String line : lines.subList(1, lines.size())) {
+            assertEquals("Eventlog;" + padding + ";end", line);
+        }
+    }
+
+    @Test
+    public void testLinesAreWrittenToTheFileOfTheDayOfTheirEvent() throws ParseException {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.ROOT);
+        String logFolder = "target/tmp/unit-test/" + this.getClass().getSimpleName() + "/dated-logs";
+        deleteDir(logFolder);
+        createDir(logFolder);
+        StreamingEventLogger eventLogger = new StreamingEventLogger(ticketTool, logger, logFolder, 1000, 50, 10000);
+        Date yesterday = sdf.parse("2011-01-14 13:20");
+        Date today = sdf.parse("2011-01-15 13:20");
+        eventLogger.writeEventLog(yesterday, "Queued yesterday");
+        eventLogger.writeEventLog(today, "Queued today");
+        eventLogger.writeEventLog(yesterday, "Queued yesterday, late");
+        eventLogger.close();
+        assertEquals(3, getAmountOfLinesInFile(new File(logFolder, StreamingEventLogger.getFilename(yesterday))));
+        assertEquals(2, getAmountOfLinesInFile(new File(logFolder, StreamingEventLogger.getFilename(today))));
+    }
+
     private int getAmountOfLinesInFile(File file) {
         BufferedReader br;
         try {
@@ -9,6 +9,7 @@ import com.wowza.wms.stream.IMediaStream;
 import dk.statsbiblioteket.medieplatform.ticketsystem.Ticket;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.TicketToolInterface;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.IllegallyFormattedQueryStringException;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.QueryParams;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.StringAndTextUtil;
 
 /**
@@ -32,14 +33,14 @@ public class TicketChecker {
      * @param stream the stream to check
      * @param client the client trying to play the stream
      * @return true if allowed, false otherwise.
-     * @see #checkTicket(java.lang.String, java.lang.String, java.lang.String) 
+     * @see #checkTicket(java.lang.String, QueryParams, java.lang.String) 
     */
     public boolean checkTicket(IMediaStream stream, IClient client) {
         if (client == null) {
             logger.debug("No client, returning ", stream);
             return false;
         }
-        return checkTicket(stream.getName(), client.getQueryStr(), client.getIp());
+        return checkTicket(stream.getName(), QueryParams.of(client), client.getIp());
     }
 
     /**
@@ -49,13 +50,13 @@ public class TicketChecker {
      * 
      * @param httpSession The http session
      * @return true if allowed, false otherwise.
-     * @see #checkTicket(java.lang.String, java.lang.String, java.lang.String) 
+     * @see #checkTicket(java.lang.String, QueryParams, java.lang.String) 
      */
     public boolean checkTicket(IHTTPStreamerSession httpSession) {
-        return checkTicket(httpSession.getStreamName(), httpSession.getQueryStr(), httpSession.getIpAddress());
+        return checkTicket(httpSession.getStreamName(), QueryParams.of(httpSession), httpSession.getIpAddress());
     }
 
-    private boolean checkTicket(String name, String query, String ip) {
+    private boolean checkTicket(String name, QueryParams query, String ip) {
         logger.trace(
                 "checkTicket(String name=" + name
                         + ", String query=" + query + ")");
@@ -17,7 +17,10 @@ import com.wowza.wms.stream.IMediaStream;
 import com.wowza.wms.stream.IMediaStreamActionNotify;
 import com.wowza.wms.stream.IMediaStreamNotify;
 
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.CachingTicketTool;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.TicketTool;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.ticket.TicketToolInterface;
 import dk.statsbiblioteket.medieplatform.wowza.plugin.utilities.ConfigReader;
 
 /**
@@ -32,6 +35,7 @@ public class TicketCheckerModule extends ModuleBase
     private static final String PLUGIN_NAME = "Wowza Ticket Checker Plugin";
     private static final String PLUGIN_VERSION = TicketCheckerModule.class.getPackage().getImplementationVersion();
     private static final String STREAM_ACTION_NOTIFIER = "streamActionNotifier";
+    private TicketToolInterface ticketTool;
     private TicketChecker ticketChecker;
     private StreamAuthenticator streamAuthenticator;
 
@@ -61,7 +65,10 @@ public class TicketCheckerModule extends ModuleBase
             //Read to initialise the ticket checker
             String ticketCheckerLocation = cr
                     .get("ticketCheckerLocation", "missing-ticket-checker-location-in-property-file");
-            TicketTool ticketTool = new TicketTool(ticketCheckerLocation, getLogger());
+            ticketTool = CachingTicketTool.createInstance(
+                    ticketCheckerLocation, cr,
+                    new TicketTool(ticketCheckerLocation, getLogger(), BackendHttpClient.createInstance(cr)),
+                    getLogger());
             String presentationType = cr.get("presentationType", "Stream");
 
             ticketChecker = new TicketChecker(presentationType, ticketTool);
@@ -128,10 +135,16 @@ public class TicketCheckerModule extends ModuleBase
         }
     }
 
-    /*Mainly here to remember that we can hook this method*/
+    /**
+     * Called when the application is stopped. Logs how well the ticket cache did.
+     *
+     * @param appInstance The application stopping.
+     */
     @Override
     public void onAppStop(IApplicationInstance appInstance) {
-        // Do nothing.
+        if (ticketTool instanceof CachingTicketTool) {
+            getLogger().info(((CachingTicketTool) ticketTool).getStats().toString());
+        }
     }
 
     /*Mainly here to remember that we can hook this method*/
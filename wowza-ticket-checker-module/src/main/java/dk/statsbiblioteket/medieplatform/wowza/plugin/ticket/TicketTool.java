@@ -1,26 +1,38 @@
 package dk.statsbiblioteket.medieplatform.wowza.plugin.ticket;
 
-import java.util.Arrays;
-
-import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.core.Response.StatusType;
-
-import org.apache.cxf.jaxrs.client.WebClient;
-
-import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
 import com.wowza.wms.logging.WMSLogger;
 
 import dk.statsbiblioteket.medieplatform.ticketsystem.Ticket;
+import dk.statsbiblioteket.medieplatform.wowza.plugin.http.BackendHttpClient;
 
 public class TicketTool implements TicketToolInterface {
 
+    /** Reads tickets using Jackson annotations first and JAXB annotations second, like the ticket service writes them. */
+    private static final ObjectMapper MAPPER = new ObjectMapper().registerModule(
+            new JaxbAnnotationModule().setPriority(JaxbAnnotationModule.Priority.SECONDARY));
+
     private WMSLogger logger;
     private final String serviceUrl;
+    private final BackendHttpClient httpClient;
 
     public TicketTool(String serviceURL, WMSLogger logger) {
+        this(serviceURL, logger, BackendHttpClient.getInstance());
+    }
+
+    public TicketTool(String serviceURL, WMSLogger logger, BackendHttpClient httpClient) {
         super();
-        this.serviceUrl = serviceURL;
+        this.serviceUrl = serviceURL.endsWith("/") ? serviceURL.substring(0, serviceURL.length() - 1) : serviceURL;
         this.logger = logger;
+        this.httpClient = httpClient;
     }
 
     /* (non-Javadoc)
@@ -28,24 +40,22 @@ public class TicketTool implements TicketToolInterface {
       */
     @Override
     public Ticket resolveTicket(String ticketID) {
-    	WebClient client = getWebclient();
+        URI uri = URI.create(serviceUrl + "/resolveTicket/"
+                                     + URLEncoder.encode(ticketID, StandardCharsets.UTF_8).replace("+", "%20"));
+        HttpRequest request = httpClient.newGetRequest(uri).header("Accept", "application/json").build();
         try {
-            Ticket ticketXml = client.path("/resolveTicket/").path(ticketID).get(Ticket.class);
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() < 200 || response.statusCode() > 299) {
+                logger.debug("The session might have timed out for ticket '"
+                                     + ticketID + "'. Ticket service response status: " + response.statusCode());
+                return null;
+            }
+            Ticket ticketXml = MAPPER.readValue(response.body(), Ticket.class);
             logger.debug("resolveTicket: Ticket received: '" + ticketID + "'");
             return ticketXml;
-
-        } catch (WebApplicationException e) {
-            StatusType responseStatus = e.getResponse().getStatusInfo();
-            logger.debug("The session might have timed out for ticket '"
-                                 + ticketID + "'. Ticket service response status: " + responseStatus.getStatusCode());
+        } catch (IOException e) {
+            logger.error("Could not resolve ticket '" + ticketID + "' from ticket service: " + serviceUrl, e);
             return null;
-        } finally {
-        	client.close();
         }
     }
-    
-    private WebClient getWebclient() {
-    	WebClient client = WebClient.create(serviceUrl, Arrays.asList(new JacksonJaxbJsonProvider())); 
-    	return client;
-    }
 }